@@ -1,7 +1,9 @@
 package com.zcking.furyengine.engine;
 
 import com.zcking.furyengine.engine.graph.particles.IParticleEmitter;
+import com.zcking.furyengine.engine.objects.CdlodTerrain;
 import com.zcking.furyengine.engine.objects.GameObject;
+import com.zcking.furyengine.engine.objects.IHeightField;
 import com.zcking.furyengine.lighting.SceneLight;
 import com.zcking.furyengine.rendering.Mesh;
 import com.zcking.furyengine.engine.objects.SkyBox;
@@ -26,8 +28,16 @@ public class Scene {
 
     private Fog fog;
 
+    private CdlodTerrain terrain;
+
+    private IHeightField occluder;
+
     private IParticleEmitter[] particleEmitters;
 
+    private long staticVersion;
+
+    private final Runnable staticListener = () -> staticVersion++;
+
     /**
      * Constructs a new {@link Scene} and initializes the {@link Scene#meshMap}
      * collection and {@link Scene#fog}.
@@ -50,6 +60,7 @@ public class Scene {
         int numGameItems = gameItems != null ? gameItems.length : 0;
         for (int i=0; i<numGameItems; i++) {
             GameObject gameItem = gameItems[i];
+            gameItem.setStaticListener(staticListener);
             Mesh[] meshes = gameItem.getMeshes();
             for (Mesh mesh : meshes) {
                 List<GameObject> list = meshMap.get(mesh);
@@ -60,6 +71,38 @@ public class Scene {
                 list.add(gameItem);
             }
         }
+        staticVersion++;
+    }
+
+    /**
+     * Adds a single game object, mapping it to each of its meshes.
+     * @param gameObject The game object to add.
+     */
+    public void addGameObject(GameObject gameObject) {
+        setGameObjects(new GameObject[] { gameObject });
+    }
+
+    /**
+     * Removes a game object from the scene. Meshes left without game objects are unmapped, but not cleaned up.
+     * @param gameObject The game object to remove.
+     */
+    public void removeGameObject(GameObject gameObject) {
+        for (Mesh mesh : gameObject.getMeshes()) {
+            List<GameObject> list = meshMap.get(mesh);
+            if (list != null && list.remove(gameObject) && list.isEmpty()) {
+                meshMap.remove(mesh);
+            }
+        }
+        gameObject.setStaticListener(null);
+        staticVersion++;
+    }
+
+    /**
+     * @return A counter incremented every time game objects are added to or removed from the scene, a static
+     * game object of the scene moves, or one becomes static or dynamic, to know when cached static shadows are outdated.
+     */
+    public long getStaticVersion() {
+        return staticVersion;
     }
 
     public SkyBox getSkyBox() {
@@ -86,6 +129,36 @@ public class Scene {
         this.fog = fog;
     }
 
+    public CdlodTerrain getTerrain() {
+        return terrain;
+    }
+
+    /**
+     * Sets the level of detail terrain of the scene, drawn by the renderer with the nodes it selects
+     * each frame rather than through the game objects.
+     * @param terrain The terrain, or null for none.
+     */
+    public void setTerrain(CdlodTerrain terrain) {
+        this.terrain = terrain;
+    }
+
+    /**
+     * @return The heightfield hiding the game objects behind it from the camera: the one set with
+     * {@link Scene#setOccluder(IHeightField)}, or else the level of detail terrain. May be null.
+     */
+    public IHeightField getOccluder() {
+        return occluder != null ? occluder : terrain;
+    }
+
+    /**
+     * Sets the heightfield the renderer culls the game objects hidden behind (e.g. a {@link
+     * com.zcking.furyengine.engine.objects.Terrain} added as game objects).
+     * @param occluder The heightfield, or null to use the level of detail terrain.
+     */
+    public void setOccluder(IHeightField occluder) {
+        this.occluder = occluder;
+    }
+
     /**
      * Perform any necessary garbage collection.
      */
@@ -93,8 +166,13 @@ public class Scene {
         for (Mesh mesh : meshMap.keySet()) {
             mesh.cleanUp();
         }
-        for (IParticleEmitter particleEmitter : particleEmitters) {
-            particleEmitter.cleanUp();
+        if (particleEmitters != null) {
+            for (IParticleEmitter particleEmitter : particleEmitters) {
+                particleEmitter.cleanUp();
+            }
+        }
+        if (terrain != null) {
+            terrain.cleanUp();
         }
     }
 
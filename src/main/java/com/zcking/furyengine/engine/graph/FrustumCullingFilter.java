@@ -0,0 +1,202 @@
+package com.zcking.furyengine.engine.graph;
+
+import com.zcking.furyengine.engine.graph.animation.AnimatedFrame;
+import com.zcking.furyengine.engine.objects.AnimGameObject;
+import com.zcking.furyengine.engine.objects.BatchChunk;
+import com.zcking.furyengine.engine.objects.GameObject;
+import com.zcking.furyengine.rendering.Mesh;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Filters game objects against a view frustum, using the bounding volumes of their meshes.
+ * A bounding sphere test is done first to quickly reject objects, followed by a tighter
+ * axis-aligned bounding box test. The filtered collections are reused between frames, so
+ * culling does not allocate once the scene is warmed up.
+ */
+public class FrustumCullingFilter {
+
+    private final Matrix4f projViewMatrix;
+
+    private final FrustumIntersection frustumInt;
+
+    private final Map<Mesh, List<GameObject>> visibleMeshMap;
+
+    private final Vector3f center;
+
+    private final Vector3f aabbMin;
+
+    private final Vector3f aabbMax;
+
+    private int testedCount;
+
+    private int visibleCount;
+
+    /**
+     * Constructs a new culling filter. {@link FrustumCullingFilter#updateFrustum(Matrix4f, Matrix4f)}
+     * must be called before filtering.
+     */
+    public FrustumCullingFilter() {
+        projViewMatrix = new Matrix4f();
+        frustumInt = new FrustumIntersection();
+        visibleMeshMap = new HashMap<>();
+        center = new Vector3f();
+        aabbMin = new Vector3f();
+        aabbMax = new Vector3f();
+    }
+
+    /**
+     * Updates the frustum planes to test against.
+     * @param projMatrix The projection matrix (perspective or orthographic).
+     * @param viewMatrix The view matrix.
+     */
+    public void updateFrustum(Matrix4f projMatrix, Matrix4f viewMatrix) {
+        projViewMatrix.set(projMatrix);
+        projViewMatrix.mul(viewMatrix);
+        frustumInt.set(projViewMatrix);
+    }
+
+    /**
+     * Filters the game objects of each mesh, keeping only the ones inside the frustum.
+     * @param meshMap The meshes, with the game objects using them.
+     * @return The meshes with their visible game objects. Meshes without any visible objects are
+     * mapped to an empty list. The returned map and lists are owned by this filter and are
+     * overwritten by the next call.
+     */
+    public Map<Mesh, List<GameObject>> filter(Map<Mesh, List<GameObject>> meshMap) {
+        return filter(meshMap, false);
+    }
+
+    /**
+     * Filters the game objects of each mesh, keeping only the ones inside the frustum, and optionally
+     * not {@link GameObject#isOccluded() occluded} (see {@link FrustumCullingFilter#filter(Map)}).
+     * @param meshMap The meshes, with the game objects using them.
+     * @param skipOccluded Whether or not to drop the occluded objects, only when their flags are up to date.
+     * @return The meshes with their visible game objects, owned by this filter.
+     */
+    public Map<Mesh, List<GameObject>> filter(Map<Mesh, List<GameObject>> meshMap, boolean skipOccluded) {
+        testedCount = 0;
+        visibleCount = 0;
+
+        // Drop the meshes that are no longer part of the scene
+        visibleMeshMap.keySet().retainAll(meshMap.keySet());
+
+        for (Map.Entry<Mesh, List<GameObject>> entry : meshMap.entrySet()) {
+            Mesh mesh = entry.getKey();
+            List<GameObject> visibleObjects = visibleMeshMap.get(mesh);
+            if (visibleObjects == null) {
+                visibleObjects = new ArrayList<>();
+                visibleMeshMap.put(mesh, visibleObjects);
+            }
+            visibleObjects.clear();
+
+            for (GameObject gameObject : entry.getValue()) {
+                testedCount++;
+                if (skipOccluded && gameObject.isOccluded()) {
+                    continue;
+                }
+                if (isInsideFrustum(mesh, gameObject)) {
+                    visibleObjects.add(gameObject);
+                    visibleCount++;
+                }
+            }
+        }
+        return visibleMeshMap;
+    }
+
+    /**
+     * Tests if the world space bounds of a game object, using the given mesh, are inside the frustum.
+     * Animated objects use the bounds of their current frame when available, and chunks of static
+     * batches use their own bounds rather than the bounds of the whole batch.
+     * @param mesh The mesh of the game object to test.
+     * @param gameObject The game object to test.
+     * @return Whether or not the object is (at least partially) inside the frustum.
+     */
+    public boolean isInsideFrustum(Mesh mesh, GameObject gameObject) {
+        Matrix4f modelMatrix = gameObject.getModelMatrix();
+
+        Vector3f min = mesh.getMinBounds();
+        Vector3f max = mesh.getMaxBounds();
+        if (gameObject instanceof AnimGameObject) {
+            AnimatedFrame frame = ((AnimGameObject) gameObject).getCurrentFrame();
+            if (frame.getMinBounds() != null && frame.getMaxBounds() != null) {
+                min = frame.getMinBounds();
+                max = frame.getMaxBounds();
+            }
+        } else if (gameObject instanceof BatchChunk) {
+            // Chunks are already in world space
+            BatchChunk chunk = (BatchChunk) gameObject;
+            return frustumInt.testSphere(chunk.getBoundingCenter(), chunk.getBoundingRadius()) &&
+                    frustumInt.testAab(chunk.getMinBounds(), chunk.getMaxBounds());
+        } else {
+            // Cheap bounding sphere rejection first
+            modelMatrix.transformPosition(mesh.getBoundingCenter(), center);
+            float radius = mesh.getBoundingRadius() * gameObject.getScale();
+            if (!frustumInt.testSphere(center, radius)) {
+                return false;
+            }
+        }
+
+        modelMatrix.transformAab(min, max, aabbMin, aabbMax);
+        return frustumInt.testAab(aabbMin, aabbMax);
+    }
+
+    /**
+     * Computes the world space axis-aligned bounding box of a game object using the given mesh, with
+     * the same bounds {@link FrustumCullingFilter#isInsideFrustum(Mesh, GameObject)} tests.
+     * @param mesh The mesh of the game object.
+     * @param gameObject The game object.
+     * @param worldMin Receives the minimum corner of the box.
+     * @param worldMax Receives the maximum corner of the box.
+     */
+    public static void getWorldBounds(Mesh mesh, GameObject gameObject, Vector3f worldMin, Vector3f worldMax) {
+        if (gameObject instanceof BatchChunk) {
+            BatchChunk chunk = (BatchChunk) gameObject;
+            worldMin.set(chunk.getMinBounds());
+            worldMax.set(chunk.getMaxBounds());
+            return;
+        }
+        Vector3f min = mesh.getMinBounds();
+        Vector3f max = mesh.getMaxBounds();
+        if (gameObject instanceof AnimGameObject) {
+            AnimatedFrame frame = ((AnimGameObject) gameObject).getCurrentFrame();
+            if (frame.getMinBounds() != null && frame.getMaxBounds() != null) {
+                min = frame.getMinBounds();
+                max = frame.getMaxBounds();
+            }
+        }
+        gameObject.getModelMatrix().transformAab(min, max, worldMin, worldMax);
+    }
+
+    /**
+     * Tests if a world space axis-aligned box is inside the frustum.
+     * @return Whether or not the box is (at least partially) inside the frustum.
+     */
+    public boolean isInsideFrustum(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        return frustumInt.testAab(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    /**
+     * @return The number of game objects tested by the last call to {@link FrustumCullingFilter#filter(Map)}.
+     */
+    public int getTestedCount() {
+        return testedCount;
+    }
+
+    /**
+     * @return The number of game objects that passed the last call to {@link FrustumCullingFilter#filter(Map)}.
+     */
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+
+    public int getCulledCount() {
+        return testedCount - visibleCount;
+    }
+}
@@ -0,0 +1,322 @@
+package com.zcking.furyengine.engine.graph;
+
+import com.zcking.furyengine.engine.objects.GameObject;
+import com.zcking.furyengine.engine.objects.IHeightField;
+import com.zcking.furyengine.rendering.Mesh;
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Culls the game objects hidden behind a terrain's ridges, on a worker thread. Each frame, the ground
+ * around the camera is split into sectors, by azimuth bins and distance steps, and the lowest height
+ * of the terrain in each sector gives the least steep slope (height above the eye over distance) any
+ * line of sight crossing it can clear. The steepest of those met so far along a bin is the horizon up
+ * to each distance: every line of sight in the bin that's less steep hits the terrain. Since sectors
+ * only count their lowest height, valleys and notches between the bin's edges are never covered up.
+ * An object is occluded when, in every bin its bounds cover, its top stays below the horizon formed by
+ * the sectors closer than the object. The horizon doesn't depend on the view direction, so it's built
+ * while the frame's other work goes on, and only its result is waited for.
+ * <p>
+ * The results are the {@link GameObject#isOccluded()} flags, which the scene's culling filter then
+ * skips (see {@link FrustumCullingFilter#filter(Map, boolean)}).
+ * <p>
+ * If a pass fails, its error is kept (see {@link HorizonCuller#getLastError()}) and the culler stops,
+ * leaving every object visible, until the error is cleared.
+ */
+public class HorizonCuller {
+
+    public static final int DEFAULT_AZIMUTH_BINS = 256;
+
+    public static final int DEFAULT_STEPS = 128;
+
+    /**
+     * How far below the horizon an object's top must be, in slope, so precision doesn't hide objects
+     * peeking just above a ridge.
+     */
+    private static final float SLOPE_EPSILON = 1e-3f;
+
+    private static final float TWO_PI = (float) (Math.PI * 2);
+
+    private static final float HALF_PI = (float) (Math.PI / 2);
+
+    private final int azimuthBins;
+
+    private final int steps;
+
+    /**
+     * Per azimuth bin, the steepest slope the terrain is guaranteed to reach up to each step's distance.
+     */
+    private final float[] binHorizons;
+
+    private final ExecutorService worker;
+
+    private final Vector3f eye;
+
+    private final Vector3f worldMin;
+
+    private final Vector3f worldMax;
+
+    private final Vector2f sectorMin;
+
+    private final Vector2f sectorMax;
+
+    private float stepSize;
+
+    private Future<?> pending;
+
+    private int testedCount;
+
+    private int occludedCount;
+
+    private Exception lastError;
+
+    public HorizonCuller() {
+        this(DEFAULT_AZIMUTH_BINS, DEFAULT_STEPS);
+    }
+
+    /**
+     * Constructs a new horizon culler.
+     * @param azimuthBins The number of bins around the camera the horizon is built for.
+     * @param steps The number of sectors along each bin, spread up to the heightfield's far corner.
+     */
+    public HorizonCuller(int azimuthBins, int steps) {
+        this.azimuthBins = azimuthBins;
+        this.steps = steps;
+        binHorizons = new float[azimuthBins * steps];
+        eye = new Vector3f();
+        worldMin = new Vector3f();
+        worldMax = new Vector3f();
+        sectorMin = new Vector2f();
+        sectorMax = new Vector2f();
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "HORIZON_CULLING_THREAD");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts building the horizon and testing the game objects on the worker thread. Neither the
+     * heightfield nor the game objects may change until {@link HorizonCuller#end()} returns. Does nothing
+     * after a pass failed, until {@link HorizonCuller#clearLastError()}.
+     * @param cameraPosition The world position of the camera.
+     * @param heightField The terrain hiding the objects.
+     * @param meshMap The meshes of the scene, with the game objects using them.
+     */
+    public void begin(Vector3f cameraPosition, IHeightField heightField, Map<Mesh, List<GameObject>> meshMap) {
+        end();
+        if (lastError != null) {
+            return;
+        }
+        eye.set(cameraPosition);
+        pending = worker.submit(() -> {
+            buildHorizon(heightField);
+            testObjects(meshMap);
+        });
+    }
+
+    /**
+     * Waits for the work started by {@link HorizonCuller#begin} to finish, keeping its error if it failed.
+     * @return Whether the occlusion flags of the objects are up to date.
+     */
+    public boolean end() {
+        if (pending == null) {
+            return false;
+        }
+        try {
+            pending.get();
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            lastError = new Exception("Error culling against the horizon", ex.getCause());
+            return false;
+        } finally {
+            pending = null;
+        }
+    }
+
+    private void buildHorizon(IHeightField heightField) {
+        float minX = heightField.getMinX();
+        float minZ = heightField.getMinZ();
+        float maxX = heightField.getMaxX();
+        float maxZ = heightField.getMaxZ();
+        // Samples spread from the camera up to the heightfield's farthest corner
+        float farX = Math.max(Math.abs(eye.x - minX), Math.abs(eye.x - maxX));
+        float farZ = Math.max(Math.abs(eye.z - minZ), Math.abs(eye.z - maxZ));
+        stepSize = (float) Math.sqrt(farX * farX + farZ * farZ) / steps;
+
+        for (int bin = 0; bin < azimuthBins; bin++) {
+            float fromAzimuth = bin * TWO_PI / azimuthBins;
+            float toAzimuth = (bin + 1) * TWO_PI / azimuthBins;
+            float horizon = Float.NEGATIVE_INFINITY;
+            int base = bin * steps;
+            for (int step = 0; step < steps; step++) {
+                float near = step * stepSize;
+                float far = near + stepSize;
+                getSectorBounds(fromAzimuth, toAzimuth, near, far);
+                // Sectors reaching past the heightfield may have gaps in them, so they hide nothing
+                if (sectorMin.x >= minX && sectorMax.x <= maxX && sectorMin.y >= minZ && sectorMax.y <= maxZ) {
+                    // Lines of sight cross the sector somewhere between its distances, where the terrain
+                    // is at least this high: the slope to it is least steep at the far end when above
+                    // the eye, and at the near end when below
+                    float height = heightField.getMinHeight(sectorMin.x, sectorMin.y, sectorMax.x, sectorMax.y) - eye.y;
+                    horizon = Math.max(horizon, height / (height >= 0 ? far : near));
+                }
+                binHorizons[base + step] = horizon;
+            }
+        }
+    }
+
+    /**
+     * Computes the world bounding rectangle of the ground between two azimuths and two distances from the eye.
+     */
+    private void getSectorBounds(float fromAzimuth, float toAzimuth, float near, float far) {
+        float fromCos = (float) Math.cos(fromAzimuth);
+        float fromSin = (float) Math.sin(fromAzimuth);
+        float toCos = (float) Math.cos(toAzimuth);
+        float toSin = (float) Math.sin(toAzimuth);
+        sectorMin.set(Math.min(Math.min(fromCos * near, fromCos * far), Math.min(toCos * near, toCos * far)),
+                Math.min(Math.min(fromSin * near, fromSin * far), Math.min(toSin * near, toSin * far)));
+        sectorMax.set(Math.max(Math.max(fromCos * near, fromCos * far), Math.max(toCos * near, toCos * far)),
+                Math.max(Math.max(fromSin * near, fromSin * far), Math.max(toSin * near, toSin * far)));
+        // The far arc bulges out where it crosses an axis
+        for (int quarter = (int) Math.ceil(fromAzimuth / HALF_PI); quarter * HALF_PI < toAzimuth; quarter++) {
+            switch (quarter & 3) {
+                case 0:
+                    sectorMax.x = far;
+                    break;
+                case 1:
+                    sectorMax.y = far;
+                    break;
+                case 2:
+                    sectorMin.x = -far;
+                    break;
+                default:
+                    sectorMin.y = -far;
+                    break;
+            }
+        }
+        sectorMin.add(eye.x, eye.z);
+        sectorMax.add(eye.x, eye.z);
+    }
+
+    private void testObjects(Map<Mesh, List<GameObject>> meshMap) {
+        int tested = 0;
+        int occluded = 0;
+        for (Map.Entry<Mesh, List<GameObject>> entry : meshMap.entrySet()) {
+            Mesh mesh = entry.getKey();
+            for (GameObject gameObject : entry.getValue()) {
+                // Objects made of several meshes only have the bounds of each, so they're never hidden
+                if (gameObject.getMeshes().length > 1) {
+                    gameObject.setOccluded(false);
+                    continue;
+                }
+                FrustumCullingFilter.getWorldBounds(mesh, gameObject, worldMin, worldMax);
+                boolean hidden = isOccluded(worldMin, worldMax);
+                gameObject.setOccluded(hidden);
+                tested++;
+                if (hidden) {
+                    occluded++;
+                }
+            }
+        }
+        testedCount = tested;
+        occludedCount = occluded;
+    }
+
+    /**
+     * Tests a world space box against the horizon.
+     * @return Whether the box is entirely below the horizon of the terrain in front of it.
+     */
+    boolean isOccluded(Vector3f min, Vector3f max) {
+        // Closest and farthest horizontal distances from the eye to the box
+        float nearX = Math.max(min.x - eye.x, Math.max(0, eye.x - max.x));
+        float nearZ = Math.max(min.z - eye.z, Math.max(0, eye.z - max.z));
+        float nearDistance = (float) Math.sqrt(nearX * nearX + nearZ * nearZ);
+        // Only the sectors entirely closer than the box are in front of every point of it
+        int lastStep = Math.min((int) Math.floor(nearDistance / stepSize) - 1, steps - 1);
+        if (lastStep < 0) {
+            // No sector lies in front of the box
+            return false;
+        }
+        float farX = Math.max(Math.abs(min.x - eye.x), Math.abs(max.x - eye.x));
+        float farZ = Math.max(Math.abs(min.z - eye.z), Math.abs(max.z - eye.z));
+        float farDistance = (float) Math.sqrt(farX * farX + farZ * farZ);
+        // The steepest slope to the box's top, at its closest point above the eye, or farthest below it
+        float top = max.y - eye.y;
+        float slope = top >= 0 ? top / nearDistance : top / farDistance;
+
+        // The box covers less than half a turn around the eye, centered on the direction to its center
+        float centerAzimuth = azimuth((min.x + max.x) * 0.5f, (min.z + max.z) * 0.5f);
+        float fromAzimuth = 0;
+        float toAzimuth = 0;
+        for (int corner = 0; corner < 4; corner++) {
+            float delta = azimuth((corner & 1) == 0 ? min.x : max.x, (corner & 2) == 0 ? min.z : max.z) - centerAzimuth;
+            if (delta > Math.PI) {
+                delta -= TWO_PI;
+            } else if (delta < -Math.PI) {
+                delta += TWO_PI;
+            }
+            fromAzimuth = Math.min(fromAzimuth, delta);
+            toAzimuth = Math.max(toAzimuth, delta);
+        }
+        int fromBin = (int) Math.floor((centerAzimuth + fromAzimuth) / TWO_PI * azimuthBins);
+        int toBin = (int) Math.floor((centerAzimuth + toAzimuth) / TWO_PI * azimuthBins);
+        for (int bin = fromBin; bin <= toBin; bin++) {
+            int wrapped = ((bin % azimuthBins) + azimuthBins) % azimuthBins;
+            if (slope + SLOPE_EPSILON >= binHorizons[wrapped * steps + lastStep]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The azimuth of a point around the eye, between 0 and 2 pi.
+     */
+    private float azimuth(float x, float z) {
+        float azimuth = (float) Math.atan2(z - eye.z, x - eye.x);
+        return azimuth < 0 ? azimuth + TWO_PI : azimuth;
+    }
+
+    /**
+     * @return The number of game objects tested by the last pass.
+     */
+    public int getTestedCount() {
+        return testedCount;
+    }
+
+    /**
+     * @return The number of game objects found hidden by the last pass.
+     */
+    public int getOccludedCount() {
+        return occludedCount;
+    }
+
+    /**
+     * @return The error the last failed pass threw, or null.
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Clears the error of a failed pass, so the culler runs again.
+     */
+    public void clearLastError() {
+        lastError = null;
+    }
+
+    public void cleanUp() {
+        worker.shutdownNow();
+    }
+}
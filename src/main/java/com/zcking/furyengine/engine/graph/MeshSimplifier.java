@@ -0,0 +1,410 @@
+package com.zcking.furyengine.engine.graph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Simplifies triangle meshes with quadric error metrics (Garland and Heckbert), for generating
+ * levels of detail at load time. Simplification only rewrites the indices: vertices are collapsed
+ * onto one of their neighbours (half-edge collapses), so every level keeps sharing the original
+ * vertex buffer, with the original texture coordinates, normals and joint weights.
+ * <p>
+ * Vertices sharing a position with another vertex (UV and normal seams) and vertices on open
+ * borders are never removed, so seams don't tear and silhouettes don't shrink, though other vertices
+ * may still collapse onto them. For skinned meshes, collapsing a vertex onto one with different
+ * joint weights is penalized, so the simplified surface keeps deforming like the original.
+ */
+public class MeshSimplifier {
+
+    /**
+     * Default cost of fully reassigning a vertex's joint weights, relative to squared distances
+     * in a mesh scaled to a unit bounding box.
+     */
+    public static final float DEFAULT_JOINT_WEIGHT_IMPORTANCE = 0.05f;
+
+    private final int numVertices;
+
+    /**
+     * Positions scaled into a unit bounding box, so errors don't depend on the mesh's size.
+     */
+    private final double[] positions;
+
+    private final int[] jointIndices;
+
+    private final float[] weights;
+
+    private final float jointWeightImportance;
+
+    /**
+     * For each vertex, whether another vertex shares its position.
+     */
+    private final boolean[] seams;
+
+    /**
+     * For each vertex, the first vertex sharing its position.
+     */
+    private final int[] positionIds;
+
+    /**
+     * Constructs a simplifier for a static mesh.
+     * @param positions The vertex positions, 3 floats per vertex.
+     */
+    public MeshSimplifier(float[] positions) {
+        this(positions, null, null, 0);
+    }
+
+    /**
+     * Constructs a simplifier for a skinned mesh.
+     * @param positions The vertex positions, 3 floats per vertex.
+     * @param jointIndices The joint indices, {@link com.zcking.furyengine.rendering.Mesh#MAX_WEIGHTS} per vertex. May be null.
+     * @param weights The joint weights, matching the joint indices. May be null.
+     * @param jointWeightImportance How much collapsing vertices with different joint weights costs
+     *                              (see {@link MeshSimplifier#DEFAULT_JOINT_WEIGHT_IMPORTANCE}).
+     */
+    public MeshSimplifier(float[] positions, int[] jointIndices, float[] weights, float jointWeightImportance) {
+        numVertices = positions.length / 3;
+        this.jointIndices = jointIndices;
+        this.weights = weights;
+        this.jointWeightImportance = jointWeightImportance;
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        for (int v = 0; v < numVertices; v++) {
+            minX = Math.min(minX, positions[v * 3]);
+            minY = Math.min(minY, positions[v * 3 + 1]);
+            minZ = Math.min(minZ, positions[v * 3 + 2]);
+            maxX = Math.max(maxX, positions[v * 3]);
+            maxY = Math.max(maxY, positions[v * 3 + 1]);
+            maxZ = Math.max(maxZ, positions[v * 3 + 2]);
+        }
+        double extent = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+        double scale = extent > 0 ? 1.0 / extent : 1.0;
+        this.positions = new double[numVertices * 3];
+        for (int v = 0; v < numVertices; v++) {
+            this.positions[v * 3] = (positions[v * 3] - minX) * scale;
+            this.positions[v * 3 + 1] = (positions[v * 3 + 1] - minY) * scale;
+            this.positions[v * 3 + 2] = (positions[v * 3 + 2] - minZ) * scale;
+        }
+
+        // Group vertices by position: vertices split by a UV or normal seam share one
+        seams = new boolean[numVertices];
+        positionIds = new int[numVertices];
+        Map<PositionKey, Integer> firstVertices = new HashMap<>();
+        for (int v = 0; v < numVertices; v++) {
+            PositionKey key = new PositionKey(positions[v * 3], positions[v * 3 + 1], positions[v * 3 + 2]);
+            Integer first = firstVertices.putIfAbsent(key, v);
+            if (first != null) {
+                positionIds[v] = first;
+                seams[v] = true;
+                seams[first] = true;
+            } else {
+                positionIds[v] = v;
+            }
+        }
+    }
+
+    /**
+     * Simplifies a mesh down to a number of indices. Simplification stops early when no vertex can
+     * be removed without flipping a triangle or crossing a seam or border.
+     * @param indices The triangle indices of the mesh (e.g. the previous level of detail).
+     * @param targetIndexCount The number of indices to reduce the mesh to.
+     * @return The simplified triangle indices.
+     */
+    public int[] simplify(int[] indices, int targetIndexCount) {
+        int[] current = Arrays.copyOf(indices, indices.length);
+        int indexCount = current.length;
+        boolean[] locked = findLockedVertices(current, indexCount);
+        double[] quadrics = computeQuadrics(current, indexCount);
+
+        int[] remap = new int[numVertices];
+        boolean[] touched = new boolean[numVertices];
+        int[] triangleOffsets = new int[numVertices + 1];
+        int[] vertexTriangles = new int[indexCount];
+        while (indexCount > targetIndexCount) {
+            buildAdjacency(current, indexCount, triangleOffsets, vertexTriangles);
+
+            // Every unlocked vertex may collapse onto any vertex it shares an edge with
+            int[] candidates = new int[indexCount * 4];
+            int numCandidates = 0;
+            for (int i = 0; i < indexCount; i += 3) {
+                for (int e = 0; e < 3; e++) {
+                    int a = current[i + e];
+                    int b = current[i + (e + 1) % 3];
+                    if (!locked[a]) {
+                        candidates[numCandidates * 2] = a;
+                        candidates[numCandidates * 2 + 1] = b;
+                        numCandidates++;
+                    }
+                    if (!locked[b]) {
+                        candidates[numCandidates * 2] = b;
+                        candidates[numCandidates * 2 + 1] = a;
+                        numCandidates++;
+                    }
+                }
+            }
+            if (numCandidates == 0) {
+                break;
+            }
+
+            // Sort by cost: non-negative float bits sort like the floats themselves
+            long[] order = new long[numCandidates];
+            for (int c = 0; c < numCandidates; c++) {
+                float cost = (float) collapseCost(quadrics, candidates[c * 2], candidates[c * 2 + 1]);
+                order[c] = (long) Float.floatToIntBits(Math.max(cost, 0.0f)) << 32 | c;
+            }
+            Arrays.sort(order);
+
+            // Collapse the cheapest edges whose neighbourhoods don't overlap, then rebuild the indices
+            for (int v = 0; v < numVertices; v++) {
+                remap[v] = v;
+            }
+            Arrays.fill(touched, false);
+            int trianglesToRemove = (indexCount - targetIndexCount) / 3;
+            int removed = 0;
+            for (int o = 0; o < numCandidates && removed < trianglesToRemove; o++) {
+                int c = (int) order[o];
+                int a = candidates[c * 2];
+                int b = candidates[c * 2 + 1];
+                if (touched[a] || touched[b] || flipsTriangles(current, triangleOffsets, vertexTriangles, a, b)) {
+                    continue;
+                }
+                remap[a] = b;
+                for (int q = 0; q < 10; q++) {
+                    quadrics[b * 10 + q] += quadrics[a * 10 + q];
+                }
+                for (int t = triangleOffsets[a]; t < triangleOffsets[a + 1]; t++) {
+                    int triangle = vertexTriangles[t];
+                    boolean collapsed = false;
+                    for (int k = 0; k < 3; k++) {
+                        int vertex = current[triangle + k];
+                        touched[vertex] = true;
+                        collapsed |= vertex == b;
+                    }
+                    if (collapsed) {
+                        removed++;
+                    }
+                }
+            }
+            if (removed == 0) {
+                break;
+            }
+
+            int newCount = 0;
+            for (int i = 0; i < indexCount; i += 3) {
+                int v0 = remap[current[i]];
+                int v1 = remap[current[i + 1]];
+                int v2 = remap[current[i + 2]];
+                if (v0 != v1 && v1 != v2 && v0 != v2) {
+                    current[newCount++] = v0;
+                    current[newCount++] = v1;
+                    current[newCount++] = v2;
+                }
+            }
+            indexCount = newCount;
+        }
+        return Arrays.copyOf(current, indexCount);
+    }
+
+    /**
+     * Locks the vertices on seams, and the vertices of edges that aren't shared by exactly two
+     * opposite triangles (open borders and non-manifold edges).
+     */
+    private boolean[] findLockedVertices(int[] indices, int indexCount) {
+        boolean[] locked = Arrays.copyOf(seams, numVertices);
+        Map<Long, Integer> edgeCounts = new HashMap<>();
+        for (int i = 0; i < indexCount; i += 3) {
+            for (int e = 0; e < 3; e++) {
+                long edge = edgeKey(positionIds[indices[i + e]], positionIds[indices[i + (e + 1) % 3]]);
+                edgeCounts.merge(edge, 1, Integer::sum);
+            }
+        }
+        for (int i = 0; i < indexCount; i += 3) {
+            for (int e = 0; e < 3; e++) {
+                int a = positionIds[indices[i + e]];
+                int b = positionIds[indices[i + (e + 1) % 3]];
+                if (edgeCounts.get(edgeKey(a, b)) != 1 || edgeCounts.getOrDefault(edgeKey(b, a), 0) != 1) {
+                    locked[indices[i + e]] = true;
+                    locked[indices[i + (e + 1) % 3]] = true;
+                }
+            }
+        }
+        return locked;
+    }
+
+    private long edgeKey(int from, int to) {
+        return (long) from * numVertices + to;
+    }
+
+    /**
+     * Sums the plane quadric of every triangle into its vertices, 10 coefficients per vertex:
+     * the symmetric matrix A (xx, xy, xz, yy, yz, zz), the vector b and the constant c, so the
+     * error of a point p is p.A.p + 2 b.p + c.
+     */
+    private double[] computeQuadrics(int[] indices, int indexCount) {
+        double[] quadrics = new double[numVertices * 10];
+        for (int i = 0; i < indexCount; i += 3) {
+            int i0 = indices[i] * 3;
+            int i1 = indices[i + 1] * 3;
+            int i2 = indices[i + 2] * 3;
+            double e1x = positions[i1] - positions[i0];
+            double e1y = positions[i1 + 1] - positions[i0 + 1];
+            double e1z = positions[i1 + 2] - positions[i0 + 2];
+            double e2x = positions[i2] - positions[i0];
+            double e2y = positions[i2 + 1] - positions[i0 + 1];
+            double e2z = positions[i2 + 2] - positions[i0 + 2];
+            double nx = e1y * e2z - e1z * e2y;
+            double ny = e1z * e2x - e1x * e2z;
+            double nz = e1x * e2y - e1y * e2x;
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length == 0) {
+                continue;
+            }
+            nx /= length;
+            ny /= length;
+            nz /= length;
+            double d = -(nx * positions[i0] + ny * positions[i0 + 1] + nz * positions[i0 + 2]);
+            for (int k = 0; k < 3; k++) {
+                int q = indices[i + k] * 10;
+                quadrics[q] += nx * nx;
+                quadrics[q + 1] += nx * ny;
+                quadrics[q + 2] += nx * nz;
+                quadrics[q + 3] += ny * ny;
+                quadrics[q + 4] += ny * nz;
+                quadrics[q + 5] += nz * nz;
+                quadrics[q + 6] += nx * d;
+                quadrics[q + 7] += ny * d;
+                quadrics[q + 8] += nz * d;
+                quadrics[q + 9] += d * d;
+            }
+        }
+        return quadrics;
+    }
+
+    /**
+     * @return The error of moving vertex a onto vertex b: a's quadric evaluated at b, plus the
+     * difference of their joint weights.
+     */
+    private double collapseCost(double[] quadrics, int a, int b) {
+        int q = a * 10;
+        double x = positions[b * 3];
+        double y = positions[b * 3 + 1];
+        double z = positions[b * 3 + 2];
+        double error = quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z
+                + quadrics[q + 3] * y * y + 2 * quadrics[q + 4] * y * z + quadrics[q + 5] * z * z
+                + 2 * (quadrics[q + 6] * x + quadrics[q + 7] * y + quadrics[q + 8] * z) + quadrics[q + 9];
+        if (weights != null && jointIndices != null) {
+            error += jointWeightImportance * weightDifference(a, b);
+        }
+        return error;
+    }
+
+    /**
+     * @return The squared difference between the joint weights of two vertices, over every joint either uses.
+     */
+    private double weightDifference(int a, int b) {
+        int influences = weights.length / numVertices;
+        double difference = 0;
+        for (int i = 0; i < influences; i++) {
+            int joint = jointIndices[a * influences + i];
+            float weightA = weights[a * influences + i];
+            float weightB = 0;
+            for (int j = 0; j < influences; j++) {
+                if (jointIndices[b * influences + j] == joint) {
+                    weightB += weights[b * influences + j];
+                }
+            }
+            difference += (weightA - weightB) * (weightA - weightB);
+        }
+        for (int j = 0; j < influences; j++) {
+            int joint = jointIndices[b * influences + j];
+            boolean shared = false;
+            for (int i = 0; i < influences; i++) {
+                shared |= jointIndices[a * influences + i] == joint;
+            }
+            if (!shared) {
+                float weightB = weights[b * influences + j];
+                difference += weightB * weightB;
+            }
+        }
+        return difference;
+    }
+
+    /**
+     * Lists, for each vertex, the triangles (as index offsets) using it.
+     */
+    private void buildAdjacency(int[] indices, int indexCount, int[] triangleOffsets, int[] vertexTriangles) {
+        Arrays.fill(triangleOffsets, 0);
+        for (int i = 0; i < indexCount; i++) {
+            triangleOffsets[indices[i] + 1]++;
+        }
+        for (int v = 0; v < numVertices; v++) {
+            triangleOffsets[v + 1] += triangleOffsets[v];
+        }
+        int[] fill = Arrays.copyOf(triangleOffsets, numVertices);
+        for (int i = 0; i < indexCount; i++) {
+            vertexTriangles[fill[indices[i]]++] = i - i % 3;
+        }
+    }
+
+    /**
+     * @return Whether moving vertex a onto vertex b would flip (or flatten) one of the triangles
+     * surviving the collapse.
+     */
+    private boolean flipsTriangles(int[] indices, int[] triangleOffsets, int[] vertexTriangles, int a, int b) {
+        for (int t = triangleOffsets[a]; t < triangleOffsets[a + 1]; t++) {
+            int triangle = vertexTriangles[t];
+            int k = indices[triangle] == a ? 0 : indices[triangle + 1] == a ? 1 : 2;
+            int v1 = indices[triangle + (k + 1) % 3];
+            int v2 = indices[triangle + (k + 2) % 3];
+            if (v1 == b || v2 == b) {
+                continue;
+            }
+            double[] before = normal(a, v1, v2);
+            double[] after = normal(b, v1, v2);
+            if (before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double[] normal(int v0, int v1, int v2) {
+        double e1x = positions[v1 * 3] - positions[v0 * 3];
+        double e1y = positions[v1 * 3 + 1] - positions[v0 * 3 + 1];
+        double e1z = positions[v1 * 3 + 2] - positions[v0 * 3 + 2];
+        double e2x = positions[v2 * 3] - positions[v0 * 3];
+        double e2y = positions[v2 * 3 + 1] - positions[v0 * 3 + 1];
+        double e2z = positions[v2 * 3 + 2] - positions[v0 * 3 + 2];
+        return new double[] { e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x };
+    }
+
+    private static class PositionKey {
+
+        private final float x;
+
+        private final float y;
+
+        private final float z;
+
+        private PositionKey(float x, float y, float z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PositionKey)) {
+                return false;
+            }
+            PositionKey other = (PositionKey) o;
+            return Float.compare(x, other.x) == 0 && Float.compare(y, other.y) == 0 && Float.compare(z, other.z) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Float.floatToIntBits(x) + Float.floatToIntBits(y)) + Float.floatToIntBits(z);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.zcking.furyengine.engine.graph;
+
+import com.zcking.furyengine.engine.objects.BatchChunk;
+import com.zcking.furyengine.engine.objects.GameObject;
+import com.zcking.furyengine.rendering.Material;
+import com.zcking.furyengine.rendering.Mesh;
+import com.zcking.furyengine.rendering.StaticBatch;
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges static game objects sharing a {@link Material} into {@link StaticBatch}es, at load time.
+ * The vertices of every static object are transformed into world space and appended to one
+ * vertex and index buffer per material, so drawing them costs one bind and one draw call instead
+ * of one per object. The objects of a batch are grouped into chunks by a world space grid, and
+ * each chunk is a {@link BatchChunk} with its own bounds, so batches are still frustum culled.
+ */
+public class StaticBatcher {
+
+    private final float chunkSize;
+
+    /**
+     * Constructs a new static batcher.
+     * @param chunkSize The size, in world units, of the grid cells static objects are grouped by.
+     */
+    public StaticBatcher(float chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Batches the static game objects (see {@link GameObject#isStatic()}). Objects that need their own
+     * uniforms (see {@link GameObject#isInstanceable()}) are kept as they are. The buffers of source meshes
+     * that end up only used by batched objects are deleted, but their materials are kept, as they're
+     * now used by the batches.
+     * @param gameObjects The game objects of the scene.
+     * @return The game objects to add to the scene instead: the dynamic and unbatchable game objects,
+     * followed by the chunks of the batches.
+     */
+    public GameObject[] batch(GameObject[] gameObjects) {
+        List<GameObject> result = new ArrayList<>();
+        Set<Mesh> usedMeshes = new HashSet<>();
+        Set<Mesh> batchedMeshes = new HashSet<>();
+        Map<Material, Map<Vector3i, List<Part>>> materialParts = new LinkedHashMap<>();
+
+        Vector3f center = new Vector3f();
+        for (GameObject gameObject : gameObjects) {
+            // Batches only have one model matrix per chunk, so objects needing their own uniforms aren't
+            // merged, and neither are the chunks of earlier batches
+            if (!gameObject.isStatic() || !gameObject.isInstanceable()) {
+                result.add(gameObject);
+                for (Mesh mesh : gameObject.getMeshes()) {
+                    usedMeshes.add(mesh);
+                }
+                continue;
+            }
+
+            Matrix4f modelMatrix = gameObject.getModelMatrix();
+            for (Mesh mesh : gameObject.getMeshes()) {
+                modelMatrix.transformPosition(mesh.getBoundingCenter(), center);
+                Vector3i cell = new Vector3i((int) Math.floor(center.x / chunkSize),
+                        (int) Math.floor(center.y / chunkSize), (int) Math.floor(center.z / chunkSize));
+
+                Map<Vector3i, List<Part>> cells = materialParts.get(mesh.getMaterial());
+                if (cells == null) {
+                    cells = new LinkedHashMap<>();
+                    materialParts.put(mesh.getMaterial(), cells);
+                }
+                List<Part> parts = cells.get(cell);
+                if (parts == null) {
+                    parts = new ArrayList<>();
+                    cells.put(cell, parts);
+                }
+                parts.add(new Part(mesh, gameObject));
+                batchedMeshes.add(mesh);
+            }
+        }
+
+        Map<Mesh, MeshData> meshData = new HashMap<>();
+        for (Mesh mesh : batchedMeshes) {
+            meshData.put(mesh, new MeshData(mesh));
+        }
+        for (Map.Entry<Material, Map<Vector3i, List<Part>>> entry : materialParts.entrySet()) {
+            buildBatch(entry.getKey(), entry.getValue(), meshData, result);
+        }
+
+        batchedMeshes.removeAll(usedMeshes);
+        for (Mesh mesh : batchedMeshes) {
+            mesh.deleteBuffers();
+        }
+        return result.toArray(new GameObject[result.size()]);
+    }
+
+    private void buildBatch(Material material, Map<Vector3i, List<Part>> cells, Map<Mesh, MeshData> meshData,
+                            List<GameObject> result) {
+        int numVertices = 0;
+        int numIndices = 0;
+        for (List<Part> parts : cells.values()) {
+            for (Part part : parts) {
+                MeshData data = meshData.get(part.mesh);
+                numVertices += data.positions.length / 3;
+                numIndices += data.indices.length;
+            }
+        }
+
+        float[] positions = new float[numVertices * 3];
+        float[] textCoords = new float[numVertices * 2];
+        float[] normals = new float[numVertices * 3];
+        int[] indices = new int[numIndices];
+
+        int numChunks = cells.size();
+        int[] chunkOffsets = new int[numChunks];
+        int[] chunkCounts = new int[numChunks];
+        Vector3f[] chunkMin = new Vector3f[numChunks];
+        Vector3f[] chunkMax = new Vector3f[numChunks];
+
+        Matrix3f normalMatrix = new Matrix3f();
+        Vector3f vec = new Vector3f();
+        int vertexCursor = 0;
+        int indexCursor = 0;
+        int chunk = 0;
+        for (List<Part> parts : cells.values()) {
+            chunkOffsets[chunk] = indexCursor;
+            chunkMin[chunk] = new Vector3f(Float.MAX_VALUE);
+            chunkMax[chunk] = new Vector3f(-Float.MAX_VALUE);
+
+            for (Part part : parts) {
+                MeshData data = meshData.get(part.mesh);
+                Matrix4f modelMatrix = part.gameObject.getModelMatrix();
+                modelMatrix.normal(normalMatrix);
+
+                int partVertices = data.positions.length / 3;
+                for (int i = 0; i < partVertices; i++) {
+                    int dest = vertexCursor + i;
+                    modelMatrix.transformPosition(vec.set(data.positions[i * 3], data.positions[i * 3 + 1], data.positions[i * 3 + 2]));
+                    positions[dest * 3] = vec.x;
+                    positions[dest * 3 + 1] = vec.y;
+                    positions[dest * 3 + 2] = vec.z;
+                    chunkMin[chunk].min(vec);
+                    chunkMax[chunk].max(vec);
+
+                    if (i * 3 + 2 < data.normals.length) {
+                        normalMatrix.transform(vec.set(data.normals[i * 3], data.normals[i * 3 + 1], data.normals[i * 3 + 2]));
+                        vec.normalize();
+                        normals[dest * 3] = vec.x;
+                        normals[dest * 3 + 1] = vec.y;
+                        normals[dest * 3 + 2] = vec.z;
+                    }
+                    if (i * 2 + 1 < data.textCoords.length) {
+                        textCoords[dest * 2] = data.textCoords[i * 2];
+                        textCoords[dest * 2 + 1] = data.textCoords[i * 2 + 1];
+                    }
+                }
+
+                for (int index : data.indices) {
+                    indices[indexCursor++] = index + vertexCursor;
+                }
+                vertexCursor += partVertices;
+            }
+
+            chunkCounts[chunk] = indexCursor - chunkOffsets[chunk];
+            chunk++;
+        }
+
+        StaticBatch batch = new StaticBatch(positions, textCoords, normals, indices, numChunks);
+        batch.setMaterial(material);
+        for (int i = 0; i < numChunks; i++) {
+            result.add(new BatchChunk(batch, chunkOffsets[i], chunkCounts[i], chunkMin[i], chunkMax[i]));
+        }
+    }
+
+    private static class Part {
+
+        private final Mesh mesh;
+
+        private final GameObject gameObject;
+
+        private Part(Mesh mesh, GameObject gameObject) {
+            this.mesh = mesh;
+            this.gameObject = gameObject;
+        }
+    }
+
+    private static class MeshData {
+
+        private final float[] positions;
+
+        private final float[] textCoords;
+
+        private final float[] normals;
+
+        private final int[] indices;
+
+        private MeshData(Mesh mesh) {
+            positions = mesh.readPositions();
+            textCoords = mesh.readTextCoords();
+            normals = mesh.readNormals();
+            indices = mesh.readIndices();
+        }
+    }
+}
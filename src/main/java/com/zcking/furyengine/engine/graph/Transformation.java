@@ -21,8 +21,6 @@ public class Transformation {
 
     private final Matrix4f modelViewMatrix;
 
-    private final Matrix4f modelLightMatrix;
-
     private final Matrix4f modelLightViewMatrix;
 
     private final Matrix4f viewMatrix;
@@ -42,7 +40,6 @@ public class Transformation {
         projectionMatrix = new Matrix4f();
         modelMatrix = new Matrix4f();
         modelViewMatrix = new Matrix4f();
-        modelLightMatrix = new Matrix4f();
         modelLightViewMatrix = new Matrix4f();
         viewMatrix = new Matrix4f();
         orthoProjMatrix = new Matrix4f();
@@ -132,52 +129,45 @@ public class Transformation {
         return ortho2DMatrix;
     }
 
+    /**
+     * Gets the model matrix of the game object, which is cached by the object itself.
+     * @param gameObject The game object.
+     * @return The object's model matrix. It must not be modified.
+     * @see GameObject#getModelMatrix()
+     */
     public Matrix4f buildModelMatrix(GameObject gameObject) {
-        Vector3f rotation = gameObject.getRotation();
-        modelMatrix.identity().translate(gameObject.getPosition()).
-                rotateX((float)Math.toRadians(-rotation.x)).
-                rotateY((float)Math.toRadians(-rotation.y)).
-                rotateZ((float)Math.toRadians(-rotation.z)).
-                scale(gameObject.getScale());
+        return gameObject.getModelMatrix();
+    }
+
+    /**
+     * Builds a model matrix whose rotation cancels out the rotation of the given view matrix,
+     * so the object always faces the camera (e.g. particles).
+     * @param gameObject The game object to build the matrix for.
+     * @param viewMatrix The view matrix the object should face.
+     * @return The computed model matrix.
+     */
+    public Matrix4f buildBillboardModelMatrix(GameObject gameObject, Matrix4f viewMatrix) {
+        modelMatrix.identity().translate(gameObject.getPosition());
+        viewMatrix.transpose3x3(modelMatrix);
+        modelMatrix.scale(gameObject.getScale());
         return modelMatrix;
     }
 
     public Matrix4f buildModelViewMatrix(GameObject gameObject, Matrix4f matrix) {
-        Vector3f rotation = gameObject.getRotation();
-        modelMatrix.identity().translate(gameObject.getPosition()).
-                rotateX((float)Math.toRadians(-rotation.x)).
-                rotateY((float)Math.toRadians(-rotation.y)).
-                rotateZ((float)Math.toRadians(-rotation.z)).
-                scale(gameObject.getScale());
-        return buildModelViewMatrix(modelMatrix, viewMatrix);
+        return buildModelViewMatrix(gameObject.getModelMatrix(), matrix);
     }
 
     public Matrix4f buildModelViewMatrix(Matrix4f modelMatrix, Matrix4f viewMatrix) {
-        modelViewMatrix.set(viewMatrix);
-        return modelViewMatrix.mul(modelMatrix);
+        // Both matrices are affine, so the cheaper affine multiplication can be used
+        return viewMatrix.mulAffine(modelMatrix, modelViewMatrix);
     }
 
     public Matrix4f buildModelLightViewMatrix(GameObject gameObject, Matrix4f matrix) {
-        Vector3f rotation = gameObject.getRotation();
-        modelLightMatrix.identity().translate(gameObject.getPosition()).
-                rotateX((float)Math.toRadians(-rotation.x)).
-                rotateY((float)Math.toRadians(-rotation.y)).
-                rotateZ((float)Math.toRadians(-rotation.z)).
-                scale(gameObject.getScale());
-        modelLightViewMatrix.set(matrix);
-        return modelLightViewMatrix.mul(modelLightMatrix);
+        return matrix.mulAffine(gameObject.getModelMatrix(), modelLightViewMatrix);
     }
 
     public Matrix4f buildOrthoProjModelMatrix(GameObject gameObject, Matrix4f orthoMatrix) {
-        Vector3f rotation = gameObject.getRotation();
-        modelMatrix.identity().translate(gameObject.getPosition()).
-                rotateX((float) Math.toRadians(-rotation.x)).
-                rotateY((float) Math.toRadians(-rotation.y)).
-                rotateZ((float) Math.toRadians(-rotation.z)).
-                scale(gameObject.getScale());
-        orthoModelMatrix.set(orthoMatrix);
-        orthoModelMatrix.mul(modelMatrix);
-        return orthoModelMatrix;
+        return orthoMatrix.mulAffine(gameObject.getModelMatrix(), orthoModelMatrix);
     }
 
 }
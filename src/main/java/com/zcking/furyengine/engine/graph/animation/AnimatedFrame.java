@@ -1,6 +1,7 @@
 package com.zcking.furyengine.engine.graph.animation;
 
 import org.joml.Matrix4f;
+import org.joml.Vector3f;
 
 import java.util.Arrays;
 
@@ -14,6 +15,10 @@ public class AnimatedFrame {
 
     private final Matrix4f[] jointMatrices;
 
+    private Vector3f minBounds;
+
+    private Vector3f maxBounds;
+
     public AnimatedFrame() {
         localJointMatrices = new Matrix4f[MAX_JOINTS];
         Arrays.fill(localJointMatrices, IDENTITY_MATRIX);
@@ -30,6 +35,25 @@ public class AnimatedFrame {
         return jointMatrices;
     }
 
+    /**
+     * @return The minimum corner of the frame's bounding box in model space, or null if unknown.
+     */
+    public Vector3f getMinBounds() {
+        return minBounds;
+    }
+
+    /**
+     * @return The maximum corner of the frame's bounding box in model space, or null if unknown.
+     */
+    public Vector3f getMaxBounds() {
+        return maxBounds;
+    }
+
+    public void setBounds(Vector3f minBounds, Vector3f maxBounds) {
+        this.minBounds = minBounds;
+        this.maxBounds = maxBounds;
+    }
+
     public void setMatrix(int pos, Matrix4f localJointMatrix, Matrix4f invJointMatrix) {
         localJointMatrices[pos] = localJointMatrix;
         Matrix4f mat = new Matrix4f(localJointMatrix);
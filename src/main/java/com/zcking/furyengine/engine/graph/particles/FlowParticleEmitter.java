@@ -131,7 +131,8 @@ public class FlowParticleEmitter implements IParticleEmitter {
         float speedInc = sign * (float)Math.random() * this.speedRndRange;
         float posInc = sign * (float)Math.random() * this.positionRndRange;
         float scaleInc = sign * (float)Math.random() * this.scaleRndRange;
-        particle.getPosition().add(posInc, posInc, posInc);
+        Vector3f pos = particle.getPosition();
+        particle.setPosition(pos.x + posInc, pos.y + posInc, pos.z + posInc);
         particle.getSpeed().add(speedInc, speedInc, speedInc);
         particle.setScale(particle.getScale() + scaleInc);
         particles.add(particle);
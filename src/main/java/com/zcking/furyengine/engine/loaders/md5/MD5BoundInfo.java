@@ -42,7 +42,7 @@ public class MD5BoundInfo {
         return result;
     }
 
-    private static class MD5Bound {
+    public static class MD5Bound {
 
         private static final Pattern PATTERN_BOUND = Pattern.compile("\\s*" + MD5Utils.VECTOR3_REGEXP + "\\s*" + MD5Utils.VECTOR3_REGEXP + ".*");
 
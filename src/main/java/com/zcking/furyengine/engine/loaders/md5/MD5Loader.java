@@ -6,6 +6,8 @@ import com.zcking.furyengine.engine.objects.AnimGameObject;
 import com.zcking.furyengine.rendering.Material;
 import com.zcking.furyengine.rendering.Mesh;
 import com.zcking.furyengine.rendering.Texture;
+import com.zcking.furyengine.rendering.TextureLoader;
+import com.zcking.furyengine.rendering.VertexFormat;
 import com.zcking.furyengine.utils.ArrayUtils;
 import com.zcking.furyengine.utils.ResourceUtils;
 import org.joml.*;
@@ -33,13 +35,49 @@ public class MD5Loader {
      * @throws Exception If an error occurs
      */
     public static AnimGameObject process(MD5Model md5Model, MD5AnimModel animModel, Vector4f defaultColour) throws Exception {
+        return process(md5Model, animModel, defaultColour, VertexFormat.SKINNED);
+    }
+
+    /**
+     * Constructs and AnimGameObject instance based on a MD5 Model an MD5 Animation, storing the
+     * vertices of its meshes with the given format (e.g. {@link VertexFormat#COMPACT_SKINNED}).
+     *
+     * @param md5Model The MD5 Model
+     * @param animModel The MD5 Animation
+     * @param defaultColour Default colour to use if there are no textures
+     * @param format The vertex format of the meshes, which must be skinned
+     * @return A new AnimGameObject
+     * @throws Exception If an error occurs
+     */
+    public static AnimGameObject process(MD5Model md5Model, MD5AnimModel animModel, Vector4f defaultColour,
+                                         VertexFormat format) throws Exception {
+        return process(md5Model, animModel, defaultColour, format, null);
+    }
+
+    /**
+     * Constructs and AnimGameObject instance based on a MD5 Model an MD5 Animation, loading the
+     * textures of its meshes in the background.
+     *
+     * @param md5Model The MD5 Model
+     * @param animModel The MD5 Animation
+     * @param defaultColour Default colour to use if there are no textures
+     * @param format The vertex format of the meshes, which must be skinned
+     * @param textureLoader Loads the textures asynchronously, or null to load them right away
+     * @return A new AnimGameObject
+     * @throws Exception If an error occurs
+     */
+    public static AnimGameObject process(MD5Model md5Model, MD5AnimModel animModel, Vector4f defaultColour,
+                                         VertexFormat format, TextureLoader textureLoader) throws Exception {
+        if (!format.isSkinned()) {
+            throw new Exception("MD5 meshes need a skinned vertex format");
+        }
         List<Matrix4f> invJointMatrices = calcInvJointMatrices(md5Model);
         List<AnimatedFrame> animatedFrames = processAnimationFrames(md5Model, animModel, invJointMatrices);
 
         List<Mesh> list = new ArrayList<>();
         for (MD5Mesh md5Mesh : md5Model.getMeshes()) {
-            Mesh mesh = generateMesh(md5Model, md5Mesh);
-            handleTexture(mesh, md5Mesh, defaultColour);
+            Mesh mesh = generateMesh(md5Model, md5Mesh, format);
+            handleTexture(mesh, md5Mesh, defaultColour, textureLoader);
             list.add(mesh);
         }
 
@@ -67,7 +105,7 @@ public class MD5Loader {
         return result;
     }
 
-    private static Mesh generateMesh(MD5Model md5Model, MD5Mesh md5Mesh) {
+    private static Mesh generateMesh(MD5Model md5Model, MD5Mesh md5Mesh, VertexFormat format) {
         List<AnimVertex> vertices = new ArrayList<>();
         List<Integer> indices = new ArrayList<>();
 
@@ -126,14 +164,22 @@ public class MD5Loader {
             v.normal.normalize();
         }
 
-        return createMesh(vertices, indices);
+        return createMesh(vertices, indices, format);
     }
 
     private static List<AnimatedFrame> processAnimationFrames(MD5Model md5Model, MD5AnimModel animModel, List<Matrix4f> invJointMatrices) {
         List<AnimatedFrame> animatedFrames = new ArrayList<>();
         List<MD5Frame> frames = animModel.getFrames();
-        for (MD5Frame frame : frames) {
-            AnimatedFrame data = processAnimationFrame(md5Model, animModel, frame, invJointMatrices);
+        MD5BoundInfo boundInfo = animModel.getBoundInfo();
+        List<MD5BoundInfo.MD5Bound> bounds = boundInfo != null ? boundInfo.getBounds() : null;
+        int numBounds = bounds != null ? bounds.size() : 0;
+        for (int i = 0; i < frames.size(); i++) {
+            AnimatedFrame data = processAnimationFrame(md5Model, animModel, frames.get(i), invJointMatrices);
+            // Keep the per-frame bounds so animated objects can be culled
+            if (i < numBounds) {
+                MD5BoundInfo.MD5Bound bound = bounds.get(i);
+                data.setBounds(bound.getMinBound(), bound.getMaxBound());
+            }
             animatedFrames.add(data);
         }
         return animatedFrames;
@@ -196,7 +242,7 @@ public class MD5Loader {
         return result;
     }
 
-    private static Mesh createMesh(List<AnimVertex> vertices, List<Integer> indices) {
+    private static Mesh createMesh(List<AnimVertex> vertices, List<Integer> indices, VertexFormat format) {
         List<Float> positions = new ArrayList<>();
         List<Float> textCoords = new ArrayList<>();
         List<Float> normals = new ArrayList<>();
@@ -234,13 +280,14 @@ public class MD5Loader {
         int[] jointIndicesArr = ArrayUtils.listIntToArray(jointIndices);
         float[] weightsArr = ArrayUtils.listToArray(weights);
 
-        return new Mesh(positionsArr, textCoordsArr, normalsArr, indicesArr, jointIndicesArr, weightsArr);
+        return new Mesh(format, positionsArr, textCoordsArr, normalsArr, indicesArr, jointIndicesArr, weightsArr);
     }
 
-    private static void handleTexture(Mesh mesh, MD5Mesh md5Mesh, Vector4f defaultColour) throws Exception {
+    private static void handleTexture(Mesh mesh, MD5Mesh md5Mesh, Vector4f defaultColour,
+                                      TextureLoader textureLoader) throws Exception {
         String texturePath = md5Mesh.getTexture();
         if (texturePath != null && texturePath.length() > 0) {
-            Texture texture = new Texture(texturePath);
+            Texture texture = textureLoader != null ? textureLoader.load(texturePath) : new Texture(texturePath);
             Material material = new Material(texture);
 
             // Handle normal Maps;
@@ -250,7 +297,8 @@ public class MD5Loader {
                 String extension = texturePath.substring(pos, texturePath.length());
                 String normalMapFileName = basePath + "_local" + extension;
                 if (ResourceUtils.existsResourceFile(normalMapFileName)) {
-                    Texture normalMap = new Texture(normalMapFileName);
+                    Texture normalMap = textureLoader != null ?
+                            textureLoader.loadNormalMap(normalMapFileName) : new Texture(normalMapFileName);
                     material.setNormalMap(normalMap);
                 }
             }
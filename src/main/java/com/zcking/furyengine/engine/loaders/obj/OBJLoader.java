@@ -1,6 +1,7 @@
 package com.zcking.furyengine.engine.loaders.obj;
 
 import com.zcking.furyengine.rendering.Mesh;
+import com.zcking.furyengine.rendering.VertexFormat;
 import com.zcking.furyengine.utils.ResourceUtils;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
@@ -26,6 +27,17 @@ Note: documented for Blender.
 public class OBJLoader {
 
     public static Mesh loadMesh(String filePath) throws Exception {
+        return loadMesh(filePath, VertexFormat.STATIC);
+    }
+
+    /**
+     * Loads an OBJ mesh, storing its vertices with the given format (e.g. {@link VertexFormat#COMPACT}).
+     * @param filePath The path of the OBJ file.
+     * @param format The vertex format of the mesh.
+     * @return The loaded mesh.
+     * @throws Exception If the file can't be read.
+     */
+    public static Mesh loadMesh(String filePath, VertexFormat format) throws Exception {
         List<String> lines = ResourceUtils.readLines(filePath);
 
         List<Vector3f> vertices = new ArrayList<>();
@@ -78,11 +90,11 @@ public class OBJLoader {
             }
         }
 
-        return reorderLists(vertices, textures, normals, faces);
+        return reorderLists(vertices, textures, normals, faces, format);
     }
 
     private static Mesh reorderLists(List<Vector3f> posList, List<Vector2f> textCoordList,
-                                     List<Vector3f> normList, List<Face> facesList) {
+                                     List<Vector3f> normList, List<Face> facesList, VertexFormat format) {
 
         List<Integer> indices = new ArrayList<>();
 
@@ -107,7 +119,7 @@ public class OBJLoader {
         }
         int[] indicesArr = new int[indices.size()];
         indicesArr = indices.stream().mapToInt((Integer v) -> v).toArray();
-        return new Mesh(posArr, textCoordArr, normArr, indicesArr);
+        return new Mesh(format, posArr, textCoordArr, normArr, indicesArr, null, null);
     }
 
     private static void processFaceVertex(IdxGroup indices, List<Vector2f> textCoordList,
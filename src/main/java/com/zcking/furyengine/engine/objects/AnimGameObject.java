@@ -71,4 +71,22 @@ public class AnimGameObject extends GameObject {
     public List<Matrix4f> getInvJointMatrices() {
         return invJointMatrices;
     }
+
+    /**
+     * Animated objects upload their own joint matrices, so they are never instanced.
+     * @return false
+     */
+    @Override
+    public boolean isInstanceable() {
+        return false;
+    }
+
+    /**
+     * Animated objects change shape every frame, so their shadows are never cached.
+     * @return false
+     */
+    @Override
+    public boolean isStatic() {
+        return false;
+    }
 }
@@ -0,0 +1,76 @@
+package com.zcking.furyengine.engine.objects;
+
+import com.zcking.furyengine.rendering.StaticBatch;
+import org.joml.Vector3f;
+
+/**
+ * A spatially grouped range of triangles within a {@link StaticBatch}. The vertices of the batch
+ * are already in world space, so chunks keep the identity transform, and carry their own world
+ * space bounds so each chunk can be frustum culled on its own.
+ */
+public class BatchChunk extends GameObject {
+
+    private final int indexOffset;
+
+    private final int indexCount;
+
+    private final Vector3f minBounds;
+
+    private final Vector3f maxBounds;
+
+    private final Vector3f boundingCenter;
+
+    private final float boundingRadius;
+
+    /**
+     * Constructs a new chunk of a static batch.
+     * @param batch The batch holding the chunk's triangles.
+     * @param indexOffset The index of the chunk's first index in the batch's index buffer.
+     * @param indexCount The number of indices of the chunk.
+     * @param minBounds The minimum corner of the chunk's world space bounding box.
+     * @param maxBounds The maximum corner of the chunk's world space bounding box.
+     */
+    public BatchChunk(StaticBatch batch, int indexOffset, int indexCount, Vector3f minBounds, Vector3f maxBounds) {
+        super(batch);
+        this.indexOffset = indexOffset;
+        this.indexCount = indexCount;
+        this.minBounds = new Vector3f(minBounds);
+        this.maxBounds = new Vector3f(maxBounds);
+        this.boundingCenter = new Vector3f(minBounds).add(maxBounds).mul(0.5f);
+        this.boundingRadius = boundingCenter.distance(maxBounds);
+        setStatic(true);
+    }
+
+    public int getIndexOffset() {
+        return indexOffset;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    public Vector3f getMinBounds() {
+        return minBounds;
+    }
+
+    public Vector3f getMaxBounds() {
+        return maxBounds;
+    }
+
+    public Vector3f getBoundingCenter() {
+        return boundingCenter;
+    }
+
+    public float getBoundingRadius() {
+        return boundingRadius;
+    }
+
+    /**
+     * Chunks are drawn as ranges of their batch, not as instances of a mesh.
+     * @return false
+     */
+    @Override
+    public boolean isInstanceable() {
+        return false;
+    }
+}
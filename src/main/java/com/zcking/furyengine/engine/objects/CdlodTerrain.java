@@ -0,0 +1,413 @@
+package com.zcking.furyengine.engine.objects;
+
+import com.zcking.furyengine.rendering.HeightMapMesh;
+import com.zcking.furyengine.rendering.Material;
+import com.zcking.furyengine.rendering.Mesh;
+import com.zcking.furyengine.rendering.StreamBuffer;
+import com.zcking.furyengine.rendering.TerrainQuadTree;
+import com.zcking.furyengine.rendering.Texture;
+import com.zcking.furyengine.rendering.VertexFormat;
+import de.matthiasmann.twl.utils.PNGDecoder;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.GL_R16;
+import static org.lwjgl.opengl.GL30.GL_R32F;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+
+/**
+ * A terrain drawn with continuous distance-dependent levels of detail (CDLOD). Rather than a mesh
+ * holding every height, the heights are stored once in an R16 or R32F texture, and a single small
+ * grid patch is drawn instanced for the nodes selected from a {@link TerrainQuadTree}, displaced by
+ * the heights in the vertex shader, which also derives the normals from them. Close nodes are small,
+ * so their vertices are dense, and far nodes are large and sparse, so the number of triangles drawn
+ * depends on the view rather than on the heightmap's size. Editing heights only updates part of the
+ * texture (see {@link CdlodTerrain#setHeights}).
+ * Add it to a scene with {@link com.zcking.furyengine.engine.Scene#setTerrain(CdlodTerrain)}.
+ */
+public class CdlodTerrain implements IHeightField {
+
+    /**
+     * The default number of quads along each side of the grid patch.
+     */
+    public static final int DEFAULT_PATCH_RESOLUTION = 32;
+
+    /**
+     * The vertex attribute holding each instance's node: its corner's world x and z, its size and its level.
+     */
+    public static final int NODE_DATA_LOCATION = 5;
+
+    private static final int NODE_DATA_BYTES = 16;
+
+    private final float[] heights;
+
+    private final int width;
+
+    private final int depth;
+
+    private final float size;
+
+    private final float originX;
+
+    private final float originZ;
+
+    private final int textInc;
+
+    private final int patchResolution;
+
+    private final TerrainQuadTree quadTree;
+
+    private final Mesh patchMesh;
+
+    private final int heightMapId;
+
+    private final boolean compactHeights;
+
+    /**
+     * The heights the texture's values span: 0 maps to the offset, 1 to the offset plus the scale.
+     */
+    private final float heightOffset;
+
+    private final float heightScale;
+
+    private boolean nodeAttributeEnabled;
+
+    /**
+     * Constructs a new terrain, centered on the origin, with the default patch resolution and level ranges.
+     * @param size The world size of the terrain, along both x and z.
+     * @param minY The world height of the height map's black pixels.
+     * @param maxY The world height of the height map's white pixels.
+     * @param heightMapFile File path to the height map for the terrain.
+     * @param textureFile File path to the texture for the terrain.
+     * @param textInc How many times the texture repeats across the terrain.
+     * @throws Exception If the terrain construction fails.
+     */
+    public CdlodTerrain(float size, float minY, float maxY, String heightMapFile, String textureFile, int textInc) throws Exception {
+        this(size, minY, maxY, heightMapFile, textureFile, textInc, TerrainSettings.create());
+    }
+
+    /**
+     * Constructs a new terrain, centered on the origin.
+     * @param size The world size of the terrain, along both x and z.
+     * @param minY The world height of the height map's black pixels.
+     * @param maxY The world height of the height map's white pixels.
+     * @param heightMapFile File path to the height map for the terrain.
+     * @param textureFile File path to the texture for the terrain.
+     * @param textInc How many times the texture repeats across the terrain.
+     * @param settings The patch resolution, level ranges and height format of the terrain.
+     * @throws Exception If the terrain construction fails.
+     */
+    public CdlodTerrain(float size, float minY, float maxY, String heightMapFile, String textureFile, int textInc,
+                        TerrainSettings settings) throws Exception {
+        this.size = size;
+        this.textInc = textInc;
+        patchResolution = settings.getPatchResolution();
+        compactHeights = settings.isCompactHeights();
+        originX = -size / 2;
+        originZ = -size / 2;
+
+        ByteBuffer image;
+        try (InputStream is = getClass().getResourceAsStream(heightMapFile)) {
+            if (is == null) {
+                throw new Exception("Height map not found: " + heightMapFile);
+            }
+            PNGDecoder decoder = new PNGDecoder(is);
+            width = decoder.getWidth();
+            depth = decoder.getHeight();
+            image = ByteBuffer.allocateDirect(4 * width * depth);
+            decoder.decode(image, width * 4, PNGDecoder.Format.RGBA);
+            image.flip();
+        }
+        heights = HeightMapMesh.decodeHeights(image, width, depth, minY, maxY);
+
+        // Enough levels for the leaves to draw one patch vertex per height
+        int quads = Math.max(width, depth) - 1;
+        int levelCount = 1;
+        while ((patchResolution << (levelCount - 1)) < quads) {
+            levelCount++;
+        }
+        float lodDistance = settings.getLodDistance();
+        if (lodDistance <= 0) {
+            lodDistance = 2 * size / (1 << (levelCount - 1));
+        }
+        quadTree = new TerrainQuadTree(heights, width, depth, originX, originZ, size, levelCount, lodDistance,
+                settings.getMorphStartRatio());
+
+        // 16-bit heights span the loaded heights, float heights are stored as they are
+        float lowest = Float.MAX_VALUE;
+        float highest = -Float.MAX_VALUE;
+        for (float height : heights) {
+            lowest = Math.min(lowest, height);
+            highest = Math.max(highest, height);
+        }
+        heightOffset = compactHeights ? lowest : 0;
+        heightScale = compactHeights && highest > lowest ? highest - lowest : 1;
+
+        heightMapId = createHeightMap();
+        patchMesh = createPatchMesh(patchResolution);
+        patchMesh.setMaterial(new Material(new Texture(textureFile), 0.0f));
+    }
+
+    private int createHeightMap() {
+        ByteBuffer buffer = packHeights(0, 0, width, depth);
+        try {
+            int id = glGenTextures();
+            glBindTexture(GL_TEXTURE_2D, id);
+            glPixelStorei(GL_UNPACK_ALIGNMENT, compactHeights ? 2 : 4);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+            glTexImage2D(GL_TEXTURE_2D, 0, compactHeights ? GL_R16 : GL_R32F, width, depth, 0, GL_RED,
+                    compactHeights ? GL_UNSIGNED_SHORT : GL_FLOAT, buffer);
+            glBindTexture(GL_TEXTURE_2D, 0);
+            return id;
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
+
+    /**
+     * Packs a region of the heights in the texture's format, into a buffer to free with {@link MemoryUtil#memFree}.
+     */
+    private ByteBuffer packHeights(int col0, int row0, int regionWidth, int regionDepth) {
+        ByteBuffer buffer = MemoryUtil.memAlloc(regionWidth * regionDepth * (compactHeights ? 2 : 4));
+        for (int row = row0; row < row0 + regionDepth; row++) {
+            for (int col = col0; col < col0 + regionWidth; col++) {
+                float height = heights[row * width + col];
+                if (compactHeights) {
+                    float value = Math.max(0, Math.min((height - heightOffset) / heightScale, 1));
+                    buffer.putShort((short) Math.round(value * 65535.0f));
+                } else {
+                    buffer.putFloat(height);
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Edits a region of the heights. Only that region of the height texture is uploaded again, and only
+     * the quadtree nodes covering it are updated. With 16-bit heights, heights are clamped to the range
+     * of the heights the terrain was loaded with. Must be called on the GL thread.
+     * @param col0 The first column of the region in the height map.
+     * @param row0 The first row of the region in the height map.
+     * @param regionWidth The number of columns of the region.
+     * @param regionDepth The number of rows of the region.
+     * @param values The new world heights of the region, row by row.
+     * @throws IllegalArgumentException If the region isn't inside the height map, or values are missing.
+     */
+    public void setHeights(int col0, int row0, int regionWidth, int regionDepth, float[] values) {
+        if (col0 < 0 || row0 < 0 || regionWidth <= 0 || regionDepth <= 0
+                || regionWidth > width - col0 || regionDepth > depth - row0) {
+            throw new IllegalArgumentException("Height region " + col0 + "," + row0 + " " + regionWidth + "x"
+                    + regionDepth + " isn't inside the " + width + "x" + depth + " height map");
+        }
+        if (values.length < regionWidth * regionDepth) {
+            throw new IllegalArgumentException("Expected " + regionWidth * regionDepth + " heights, got " + values.length);
+        }
+        for (int row = 0; row < regionDepth; row++) {
+            System.arraycopy(values, row * regionWidth, heights, (row0 + row) * width + col0, regionWidth);
+        }
+        quadTree.updateHeights(col0, row0, col0 + regionWidth - 1, row0 + regionDepth - 1);
+
+        ByteBuffer buffer = packHeights(col0, row0, regionWidth, regionDepth);
+        try {
+            glBindTexture(GL_TEXTURE_2D, heightMapId);
+            glPixelStorei(GL_UNPACK_ALIGNMENT, compactHeights ? 2 : 4);
+            glTexSubImage2D(GL_TEXTURE_2D, 0, col0, row0, regionWidth, regionDepth, GL_RED,
+                    compactHeights ? GL_UNSIGNED_SHORT : GL_FLOAT, buffer);
+            glBindTexture(GL_TEXTURE_2D, 0);
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
+
+    /**
+     * Draws the grid patch once per selected node, with a single instanced draw call. The nodes are
+     * streamed as instance attributes (see {@link CdlodTerrain#NODE_DATA_LOCATION}), and a terrain
+     * shader program must be bound.
+     * @param selection The nodes to draw.
+     * @param streamBuffer The buffer the nodes are streamed through.
+     */
+    public void drawNodes(TerrainQuadTree.Selection selection, StreamBuffer streamBuffer) {
+        int numNodes = selection.size();
+        if (numNodes == 0) {
+            return;
+        }
+        int baseOffset = streamBuffer.allocate(numNodes * NODE_DATA_BYTES, NODE_DATA_BYTES);
+        ByteBuffer nodeData = streamBuffer.getBuffer();
+        for (int i = 0; i < numNodes; i++) {
+            int offset = baseOffset + i * NODE_DATA_BYTES;
+            nodeData.putFloat(offset, selection.getX(i));
+            nodeData.putFloat(offset + 4, selection.getZ(i));
+            nodeData.putFloat(offset + 8, selection.getSize(i));
+            nodeData.putFloat(offset + 12, selection.getLevel(i));
+        }
+        streamBuffer.flush();
+
+        patchMesh.bind();
+        glBindBuffer(GL_ARRAY_BUFFER, streamBuffer.getId());
+        glVertexAttribPointer(NODE_DATA_LOCATION, 4, GL_FLOAT, false, NODE_DATA_BYTES, baseOffset);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        if (!nodeAttributeEnabled) {
+            // The divisor and enabled state live in the patch's VAO
+            glVertexAttribDivisor(NODE_DATA_LOCATION, 1);
+            glEnableVertexAttribArray(NODE_DATA_LOCATION);
+            nodeAttributeEnabled = true;
+        }
+        patchMesh.drawInstanced(numNodes);
+        patchMesh.unbind();
+    }
+
+    /**
+     * Creates the grid patch shared by every node. Its positions are grid coordinates, from 0 to the
+     * resolution, so the shader can snap them exactly to the coarser grid when morphing. Each row of
+     * quads is a triangle strip.
+     */
+    private static Mesh createPatchMesh(int resolution) {
+        int verticesPerSide = resolution + 1;
+        float[] positions = new float[verticesPerSide * verticesPerSide * 3];
+        float[] textCoords = new float[verticesPerSide * verticesPerSide * 2];
+        float[] normals = new float[verticesPerSide * verticesPerSide * 3];
+        for (int row = 0; row < verticesPerSide; row++) {
+            for (int col = 0; col < verticesPerSide; col++) {
+                int v = row * verticesPerSide + col;
+                positions[v * 3] = col;
+                positions[v * 3 + 2] = row;
+                textCoords[v * 2] = (float) col / resolution;
+                textCoords[v * 2 + 1] = (float) row / resolution;
+                normals[v * 3 + 1] = 1;
+            }
+        }
+        int[] indices = Mesh.createGridStripIndices(verticesPerSide, verticesPerSide);
+        return new Mesh(VertexFormat.STATIC, GL_TRIANGLE_STRIP, positions, textCoords, normals, indices, null, null);
+    }
+
+    /**
+     * Gets the height of the terrain at a world position, bilinearly interpolated like the shader does.
+     * @param x The world x coordinate.
+     * @param z The world z coordinate.
+     * @return The height, clamped to the terrain's edges outside of it.
+     */
+    @Override
+    public float getHeight(float x, float z) {
+        float col = Math.max(0, Math.min((x - originX) / size * (width - 1), width - 1));
+        float row = Math.max(0, Math.min((z - originZ) / size * (depth - 1), depth - 1));
+        int col0 = Math.min((int) col, width - 2);
+        int row0 = Math.min((int) row, depth - 2);
+        float fx = col - col0;
+        float fz = row - row0;
+        float h00 = heights[row0 * width + col0];
+        float h10 = heights[row0 * width + col0 + 1];
+        float h01 = heights[(row0 + 1) * width + col0];
+        float h11 = heights[(row0 + 1) * width + col0 + 1];
+        return (h00 * (1 - fx) + h10 * fx) * (1 - fz) + (h01 * (1 - fx) + h11 * fx) * fz;
+    }
+
+    /**
+     * Gets the lowest height of the cells a world rectangle overlaps. Bilinear cells never go below their
+     * corners, so the terrain is nowhere lower in the rectangle.
+     */
+    @Override
+    public float getMinHeight(float minX, float minZ, float maxX, float maxZ) {
+        // One more height on each side, in case rounding puts a coordinate in the neighbouring cell
+        int col0 = Math.max((int) Math.floor((minX - originX) / size * (width - 1)) - 1, 0);
+        int col1 = Math.min((int) Math.floor((maxX - originX) / size * (width - 1)) + 2, width - 1);
+        int row0 = Math.max((int) Math.floor((minZ - originZ) / size * (depth - 1)) - 1, 0);
+        int row1 = Math.min((int) Math.floor((maxZ - originZ) / size * (depth - 1)) + 2, depth - 1);
+        float min = Float.POSITIVE_INFINITY;
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                min = Math.min(min, heights[row * width + col]);
+            }
+        }
+        return min;
+    }
+
+    @Override
+    public float getMinX() {
+        return originX;
+    }
+
+    @Override
+    public float getMinZ() {
+        return originZ;
+    }
+
+    @Override
+    public float getMaxX() {
+        return originX + size;
+    }
+
+    @Override
+    public float getMaxZ() {
+        return originZ + size;
+    }
+
+    public TerrainQuadTree getQuadTree() {
+        return quadTree;
+    }
+
+    /**
+     * @return The grid patch drawn for every selected node, holding the terrain's material.
+     */
+    public Mesh getPatchMesh() {
+        return patchMesh;
+    }
+
+    public int getPatchResolution() {
+        return patchResolution;
+    }
+
+    /**
+     * @return The id of the float texture holding the heights.
+     */
+    public int getHeightMapId() {
+        return heightMapId;
+    }
+
+    public float getOriginX() {
+        return originX;
+    }
+
+    public float getOriginZ() {
+        return originZ;
+    }
+
+    public float getSize() {
+        return size;
+    }
+
+    public int getTextInc() {
+        return textInc;
+    }
+
+    /**
+     * @return The height a texture value of 0 maps to.
+     */
+    public float getHeightOffset() {
+        return heightOffset;
+    }
+
+    /**
+     * @return The height difference between texture values of 0 and 1.
+     */
+    public float getHeightScale() {
+        return heightScale;
+    }
+
+    public void cleanUp() {
+        patchMesh.cleanUp();
+        glDeleteTextures(heightMapId);
+    }
+}
@@ -1,11 +1,15 @@
 package com.zcking.furyengine.engine.objects;
 
 import com.zcking.furyengine.rendering.Mesh;
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
 import org.joml.Vector3f;
 
 /**
  * The base game object. Stores and managed the state of the objects
- * a game implementation can easily use.
+ * a game implementation can easily use. The model matrix built from the
+ * position, rotation and scale is cached, and only rebuilt after one of
+ * them has been changed through its setter.
  */
 public class GameObject {
 
@@ -15,17 +19,31 @@ public class GameObject {
 
     private float scale;
 
-    private final Vector3f rotation;
+    private final Quaternionf rotation;
+
+    private final Matrix4f modelMatrix;
+
+    private boolean transformDirty;
+
+    private boolean staticObject;
 
     private int textPos;
 
+    private int lod;
+
+    private boolean occluded;
+
+    private Runnable staticListener;
+
     /**
      * Constructs a new, empty game object.
      */
     public GameObject() {
         position = new Vector3f(0, 0, 0);
         scale = 1;
-        rotation = new Vector3f(0, 0, 0);
+        rotation = new Quaternionf();
+        modelMatrix = new Matrix4f();
+        transformDirty = true;
         textPos = 0;
     }
 
@@ -47,6 +65,12 @@ public class GameObject {
         this.meshes = meshes;
     }
 
+    /**
+     * Gets the position of the game object. Changing the returned vector directly doesn't update
+     * the cached model matrix; use {@link GameObject#setPosition(float, float, float)} instead
+     * (or call {@link GameObject#invalidateTransform()} afterwards).
+     * @return The position of the game object.
+     */
     public Vector3f getPosition() {
         return position;
     }
@@ -61,6 +85,7 @@ public class GameObject {
         this.position.x = x;
         this.position.y = y;
         this.position.z = z;
+        markTransformDirty();
     }
 
     public float getScale() {
@@ -69,16 +94,108 @@ public class GameObject {
 
     public void setScale(float scale) {
         this.scale = scale;
+        markTransformDirty();
     }
 
+    /**
+     * Gets the rotation of the game object as Euler angles, like the ones given to
+     * {@link GameObject#setRotation(float, float, float)}. They're computed from the rotation, so
+     * changing the returned vector doesn't rotate the game object.
+     * @return A new vector holding the rotations around the x, y and z axes, in degrees.
+     */
     public Vector3f getRotation() {
+        Vector3f angles = rotation.getEulerAnglesXYZ(new Vector3f());
+        return angles.set((float) Math.toDegrees(-angles.x), (float) Math.toDegrees(-angles.y),
+                (float) Math.toDegrees(-angles.z));
+    }
+
+    /**
+     * Gets the rotation of the game object. Like {@link GameObject#getPosition()}, changing the
+     * returned quaternion directly doesn't update the cached model matrix.
+     * @return The rotation of the game object.
+     */
+    public Quaternionf getRotationQuaternion() {
         return rotation;
     }
 
+    /**
+     * Sets the rotation of the game object from Euler angles, applied in X, Y, Z order.
+     * @param x The rotation around the x-axis, in degrees.
+     * @param y The rotation around the y-axis, in degrees.
+     * @param z The rotation around the z-axis, in degrees.
+     */
     public void setRotation(float x, float y, float z) {
-        this.rotation.x = x;
-        this.rotation.y = y;
-        this.rotation.z = z;
+        this.rotation.rotationXYZ((float) Math.toRadians(-x), (float) Math.toRadians(-y), (float) Math.toRadians(-z));
+        markTransformDirty();
+    }
+
+    public void setRotation(Quaternionf rotation) {
+        this.rotation.set(rotation);
+        markTransformDirty();
+    }
+
+    /**
+     * Gets the model (world) matrix of the game object, rebuilding it first if the position,
+     * rotation or scale have changed since it was last built.
+     * @return The cached model matrix. It's owned by the game object and must not be modified.
+     */
+    public Matrix4f getModelMatrix() {
+        if (transformDirty) {
+            modelMatrix.translationRotateScale(position, rotation, scale);
+            transformDirty = false;
+        }
+        return modelMatrix;
+    }
+
+    /**
+     * Marks the cached model matrix as outdated, for when the position or rotation have been changed
+     * directly through {@link GameObject#getPosition()} or {@link GameObject#getRotationQuaternion()}.
+     */
+    public void invalidateTransform() {
+        markTransformDirty();
+    }
+
+    private void markTransformDirty() {
+        transformDirty = true;
+        if (staticObject) {
+            notifyStaticChange();
+        }
+    }
+
+    /**
+     * Whether or not this object is static. Static objects are expected to rarely move, so
+     * their shadows are cached and only re-rendered when one of them changes.
+     * @return true if the object is static; false otherwise.
+     */
+    public boolean isStatic() {
+        return staticObject;
+    }
+
+    /**
+     * Marks the object as static or dynamic (the default). Moving a static object is allowed,
+     * but invalidates the cached shadows of every static object.
+     * @param staticObject Whether or not the object is static.
+     */
+    public void setStatic(boolean staticObject) {
+        if (this.staticObject != staticObject) {
+            this.staticObject = staticObject;
+            notifyStaticChange();
+        }
+    }
+
+    /**
+     * Sets the callback run every time this object moves while static, or becomes static or dynamic.
+     * The {@link com.zcking.furyengine.engine.Scene} holding the object sets it to track its static version.
+     * @param staticListener The callback, or null for none.
+     */
+    public void setStaticListener(Runnable staticListener) {
+        this.staticListener = staticListener;
+    }
+
+    private void notifyStaticChange() {
+        if (staticListener != null) {
+            staticListener.run();
+        }
     }
 
     public Mesh getMesh() {
@@ -112,6 +229,16 @@ public class GameObject {
         }
     }
 
+    /**
+     * Whether or not this object can be drawn through the instanced path, which only
+     * supplies a model matrix and texture offset per object. Objects that need their
+     * own uniforms (e.g. joint matrices) must override this to return false.
+     * @return true if the object can be instanced; false otherwise.
+     */
+    public boolean isInstanceable() {
+        return true;
+    }
+
     public void setTextPos(int textPos) {
         this.textPos = textPos;
     }
@@ -119,4 +246,27 @@ public class GameObject {
     public int getTextPos() {
         return textPos;
     }
+
+    /**
+     * @return The level of detail the object's meshes are drawn with, selected by the renderer each frame.
+     */
+    public int getLod() {
+        return lod;
+    }
+
+    public void setLod(int lod) {
+        this.lod = lod;
+    }
+
+    /**
+     * @return Whether the object was hidden behind the terrain from the camera, as tested by the
+     * renderer's occlusion culling this frame. Occluded objects still cast shadows.
+     */
+    public boolean isOccluded() {
+        return occluded;
+    }
+
+    public void setOccluded(boolean occluded) {
+        this.occluded = occluded;
+    }
 }
@@ -0,0 +1,35 @@
+package com.zcking.furyengine.engine.objects;
+
+/**
+ * A terrain whose height can be queried anywhere inside its bounds, e.g. to hide what's behind it
+ * (see {@link com.zcking.furyengine.engine.graph.HorizonCuller}). Queries may come from a worker
+ * thread while the terrain isn't being edited.
+ */
+public interface IHeightField {
+
+    /**
+     * @param x A world x coordinate inside the bounds.
+     * @param z A world z coordinate inside the bounds.
+     * @return The height of the terrain at the coordinate.
+     */
+    float getHeight(float x, float z);
+
+    /**
+     * Gets a lower bound of the terrain's height over a world rectangle, e.g. the lowest of the heights
+     * of the cells it overlaps. It must never be above the height anywhere in the rectangle.
+     * @param minX The lowest world x coordinate of the rectangle, inside the bounds.
+     * @param minZ The lowest world z coordinate of the rectangle, inside the bounds.
+     * @param maxX The highest world x coordinate of the rectangle, inside the bounds.
+     * @param maxZ The highest world z coordinate of the rectangle, inside the bounds.
+     * @return The lowest height of the terrain in the rectangle, or lower.
+     */
+    float getMinHeight(float minX, float minZ, float maxX, float maxZ);
+
+    float getMinX();
+
+    float getMinZ();
+
+    float getMaxX();
+
+    float getMaxZ();
+}
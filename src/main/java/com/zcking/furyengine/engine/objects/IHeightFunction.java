@@ -0,0 +1,24 @@
+package com.zcking.furyengine.engine.objects;
+
+/**
+ * A procedural height, defined everywhere in the world (e.g. {@link NoiseHeightFunction}), which a
+ * {@link ProceduralTileSource} samples into terrain tiles. Evaluated from several threads at once,
+ * so it must not keep any mutable state.
+ */
+public interface IHeightFunction {
+
+    /**
+     * @param x The world x coordinate.
+     * @param z The world z coordinate.
+     * @return The height of the terrain at the coordinate.
+     */
+    float getHeight(float x, float z);
+
+    /**
+     * @return A key identifying the function and all of its parameters, so tiles cached from it are only
+     * reused by the same function, or null (the default) if it can't be identified, which disables caching.
+     */
+    default String getCacheKey() {
+        return null;
+    }
+}
@@ -0,0 +1,61 @@
+package com.zcking.furyengine.engine.objects;
+
+import java.io.IOException;
+
+/**
+ * A source of square heightfield tiles, paged in by a {@link StreamingTerrain}. Tiles are addressed
+ * by their column and row, tile (0, 0) starting at the world origin, and neighbouring tiles share
+ * their edge heights so they meet without cracks.
+ */
+public interface ITileSource {
+
+    /**
+     * @return The number of quads along each side of a tile. Each tile holds (tileSize + 1) x (tileSize + 1) heights.
+     */
+    int getTileSize();
+
+    /**
+     * @return The world distance between two neighbouring heights.
+     */
+    float getSampleSpacing();
+
+    /**
+     * @param tileX The column of the tile.
+     * @param tileZ The row of the tile.
+     * @return Whether or not the source has a tile there.
+     */
+    boolean hasTile(int tileX, int tileZ);
+
+    /**
+     * Loads the heights of a tile. Called from background threads, possibly concurrently.
+     * @param tileX The column of the tile.
+     * @param tileZ The row of the tile.
+     * @return The world heights of the tile, row by row.
+     * @throws Exception If the tile can't be loaded.
+     */
+    float[] loadTile(int tileX, int tileZ) throws Exception;
+
+    /**
+     * @return Whether or not {@link ITileSource#prefetchTile(int, int)} makes loading tiles cheaper,
+     * false by default.
+     */
+    default boolean canPrefetch() {
+        return false;
+    }
+
+    /**
+     * Prepares a tile likely to be loaded soon, so loading it is cheaper (e.g. generating it into a cache).
+     * Called from background threads, and only if {@link ITileSource#canPrefetch()}. Does nothing by default.
+     * @param tileX The column of the tile.
+     * @param tileZ The row of the tile.
+     * @throws Exception If the tile can't be prepared.
+     */
+    default void prefetchTile(int tileX, int tileZ) throws Exception {
+    }
+
+    /**
+     * Releases the source's resources.
+     * @throws IOException If the resources can't be released.
+     */
+    void close() throws IOException;
+}
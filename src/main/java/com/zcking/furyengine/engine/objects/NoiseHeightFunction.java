@@ -0,0 +1,116 @@
+package com.zcking.furyengine.engine.objects;
+
+/**
+ * Fractal gradient noise: octaves of gradient noise, each one at a higher frequency and a lower
+ * amplitude than the previous one. The gradients come from hashing the lattice coordinates with the
+ * seed, so there's no permutation table and the same seed always gives the same terrain.
+ */
+public class NoiseHeightFunction implements IHeightFunction {
+
+    private static final float DEFAULT_LACUNARITY = 2.0f;
+
+    private static final float DEFAULT_GAIN = 0.5f;
+
+    private final int seed;
+
+    private final int octaves;
+
+    private final float frequency;
+
+    private final float amplitude;
+
+    private final float lacunarity;
+
+    private final float gain;
+
+    /**
+     * Constructs a new noise function, each octave doubling the frequency and halving the amplitude.
+     * @param seed The seed of the noise.
+     * @param octaves The number of octaves.
+     * @param frequency The frequency of the first octave, in cycles per world unit.
+     * @param amplitude The amplitude of the first octave, in world units.
+     */
+    public NoiseHeightFunction(int seed, int octaves, float frequency, float amplitude) {
+        this(seed, octaves, frequency, amplitude, DEFAULT_LACUNARITY, DEFAULT_GAIN);
+    }
+
+    /**
+     * Constructs a new noise function.
+     * @param seed The seed of the noise.
+     * @param octaves The number of octaves.
+     * @param frequency The frequency of the first octave, in cycles per world unit.
+     * @param amplitude The amplitude of the first octave, in world units.
+     * @param lacunarity The factor multiplying the frequency from one octave to the next.
+     * @param gain The factor multiplying the amplitude from one octave to the next.
+     */
+    public NoiseHeightFunction(int seed, int octaves, float frequency, float amplitude, float lacunarity, float gain) {
+        this.seed = seed;
+        this.octaves = octaves;
+        this.frequency = frequency;
+        this.amplitude = amplitude;
+        this.lacunarity = lacunarity;
+        this.gain = gain;
+    }
+
+    @Override
+    public float getHeight(float x, float z) {
+        float height = 0;
+        float octaveFrequency = frequency;
+        float octaveAmplitude = amplitude;
+        for (int octave = 0; octave < octaves; octave++) {
+            height += octaveAmplitude * noise(x * octaveFrequency, z * octaveFrequency, seed + octave);
+            octaveFrequency *= lacunarity;
+            octaveAmplitude *= gain;
+        }
+        return height;
+    }
+
+    @Override
+    public String getCacheKey() {
+        return "noise:" + seed + ":" + octaves + ":" + Float.floatToIntBits(frequency) + ":"
+                + Float.floatToIntBits(amplitude) + ":" + Float.floatToIntBits(lacunarity) + ":"
+                + Float.floatToIntBits(gain);
+    }
+
+    /**
+     * @return Gradient noise at a point, roughly between -1 and 1, and 0 on every lattice point.
+     */
+    private static float noise(float x, float z, int seed) {
+        int x0 = (int) Math.floor(x);
+        int z0 = (int) Math.floor(z);
+        float fx = x - x0;
+        float fz = z - z0;
+        float n00 = gradient(x0, z0, seed, fx, fz);
+        float n10 = gradient(x0 + 1, z0, seed, fx - 1, fz);
+        float n01 = gradient(x0, z0 + 1, seed, fx, fz - 1);
+        float n11 = gradient(x0 + 1, z0 + 1, seed, fx - 1, fz - 1);
+        float u = fade(fx);
+        float v = fade(fz);
+        float nx0 = n00 + (n10 - n00) * u;
+        float nx1 = n01 + (n11 - n01) * u;
+        return nx0 + (nx1 - nx0) * v;
+    }
+
+    /**
+     * @return The dot product of the lattice point's gradient, one of 8 directions, with the offset to it.
+     */
+    private static float gradient(int x, int z, int seed, float dx, float dz) {
+        int hash = x * 374761393 + z * 668265263 + seed * 1442695041;
+        hash = (hash ^ (hash >>> 13)) * 1274126177;
+        hash ^= hash >>> 16;
+        switch (hash & 7) {
+            case 0: return dx + dz;
+            case 1: return dx - dz;
+            case 2: return -dx + dz;
+            case 3: return -dx - dz;
+            case 4: return dx * 1.4142135f;
+            case 5: return -dx * 1.4142135f;
+            case 6: return dz * 1.4142135f;
+            default: return -dz * 1.4142135f;
+        }
+    }
+
+    private static float fade(float t) {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+}
@@ -1,7 +1,7 @@
 package com.zcking.furyengine.engine.objects;
 
+import com.zcking.furyengine.rendering.Material;
 import com.zcking.furyengine.rendering.Mesh;
-import com.zcking.furyengine.rendering.Texture;
 import org.joml.Vector3f;
 
 /**
@@ -37,8 +37,8 @@ public class Particle extends GameObject {
         this.ttl = ttl;
         this.updateTextureMillis = updateTextureMillis;
         this.currentAnimTimeMillis = 0;
-        Texture texture = this.getMesh().getMaterial().getTexture();
-        this.animFrames = texture.getNumCols() * texture.getNumRows();
+        Material material = this.getMesh().getMaterial();
+        this.animFrames = material.getNumCols() * material.getNumRows();
     }
 
     /**
@@ -61,8 +61,7 @@ public class Particle extends GameObject {
         super(baseParticle.getMesh());
         Vector3f aux = baseParticle.getPosition();
         setPosition(aux.x, aux.y, aux.z);
-        aux = baseParticle.getRotation();
-        setRotation(aux.x, aux.y, aux.z);
+        setRotation(baseParticle.getRotationQuaternion());
         setScale(baseParticle.getScale());
         this.speed = new Vector3f(baseParticle.speed);
         this.ttl = baseParticle.geTtl();
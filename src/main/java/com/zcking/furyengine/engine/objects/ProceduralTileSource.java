@@ -0,0 +1,257 @@
+package com.zcking.furyengine.engine.objects;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.IntStream;
+
+/**
+ * An endless source of terrain tiles generated from an {@link IHeightFunction}, for a {@link StreamingTerrain}.
+ * Each tile's heights are evaluated row-parallel on the common fork-join pool, then optionally weathered
+ * by thermal erosion passes, which move material down slopes steeper than the talus. Erosion runs over
+ * a margin around the tile, wide enough that neighbouring tiles still share their edge heights.
+ * <p>
+ * With a cache directory, generated tiles are written there as one tile {@link RawHeightfield} files,
+ * so revisited tiles are read back rather than generated again. Tiles are cached in a sub-directory
+ * named after a hash of the function's key (see {@link IHeightFunction#getCacheKey()}) and the source's
+ * settings, so changing either never reads stale tiles; functions without a key aren't cached. The
+ * streaming terrain can generate the tiles around its load radius into the cache ahead of time
+ * (see {@link StreamingTerrain#setPrefetchRadius(float)}). Cached tiles that can't be read are generated
+ * again, and the error kept (see {@link ProceduralTileSource#getLastError()}).
+ */
+public class ProceduralTileSource implements ITileSource {
+
+    /**
+     * The fraction of a slope's excess over the talus moved per erosion pass, shared between the 4 neighbours.
+     */
+    private static final float EROSION_RATE = 0.5f;
+
+    private final IHeightFunction function;
+
+    private final int tileSize;
+
+    private final float sampleSpacing;
+
+    private final int erosionPasses;
+
+    private final float talus;
+
+    private final Path cacheDirectory;
+
+    private volatile Exception lastError;
+
+    /**
+     * Constructs a new procedural tile source, without erosion nor cache.
+     * @param function The height of the terrain.
+     * @param tileSize The number of quads along each side of a tile.
+     * @param sampleSpacing The world distance between two neighbouring heights.
+     */
+    public ProceduralTileSource(IHeightFunction function, int tileSize, float sampleSpacing) {
+        this(function, tileSize, sampleSpacing, 0, 0, null);
+    }
+
+    /**
+     * Constructs a new procedural tile source.
+     * @param function The height of the terrain.
+     * @param tileSize The number of quads along each side of a tile.
+     * @param sampleSpacing The world distance between two neighbouring heights.
+     * @param erosionPasses The number of thermal erosion passes, 0 for none.
+     * @param talus The height difference between neighbouring heights past which material slides down.
+     * @param cacheDirectory The directory generated tiles are cached in, created if needed, or null for none.
+     *                       Caches of different functions and settings can share it.
+     */
+    public ProceduralTileSource(IHeightFunction function, int tileSize, float sampleSpacing, int erosionPasses,
+                                float talus, Path cacheDirectory) {
+        this.function = function;
+        this.tileSize = tileSize;
+        this.sampleSpacing = sampleSpacing;
+        this.erosionPasses = erosionPasses;
+        this.talus = talus;
+        String key = function.getCacheKey();
+        this.cacheDirectory = cacheDirectory != null && key != null ? cacheDirectory.resolve(getSettingsHash(key)) : null;
+    }
+
+    /**
+     * @return A 64-bit FNV-1a hash of the function's key and the settings changing the tiles, in hexadecimal.
+     */
+    private String getSettingsHash(String functionKey) {
+        String key = functionKey + ":" + tileSize + ":" + Float.floatToIntBits(sampleSpacing) + ":" + erosionPasses
+                + ":" + Float.floatToIntBits(talus);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return String.format("%016x", hash);
+    }
+
+    @Override
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    @Override
+    public float getSampleSpacing() {
+        return sampleSpacing;
+    }
+
+    @Override
+    public boolean hasTile(int tileX, int tileZ) {
+        return true;
+    }
+
+    /**
+     * Reads the tile from the cache, or generates it (and caches it).
+     */
+    @Override
+    public float[] loadTile(int tileX, int tileZ) throws Exception {
+        Path cacheFile = getCacheFile(tileX, tileZ);
+        if (cacheFile != null && Files.exists(cacheFile)) {
+            float[] heights = readCachedTile(cacheFile);
+            if (heights != null) {
+                return heights;
+            }
+        }
+        float[] heights = generateTile(tileX, tileZ);
+        if (cacheFile != null) {
+            writeCachedTile(cacheFile, heights);
+        }
+        return heights;
+    }
+
+    /**
+     * @return Whether or not the source has a cache to prefetch tiles into.
+     */
+    @Override
+    public boolean canPrefetch() {
+        return cacheDirectory != null;
+    }
+
+    /**
+     * Generates the tile into the cache, unless it's already there. Does nothing without a cache.
+     */
+    @Override
+    public void prefetchTile(int tileX, int tileZ) throws Exception {
+        Path cacheFile = getCacheFile(tileX, tileZ);
+        if (cacheFile != null && !Files.exists(cacheFile)) {
+            writeCachedTile(cacheFile, generateTile(tileX, tileZ));
+        }
+    }
+
+    /**
+     * Evaluates the heights of a tile and its erosion margin, erodes them and crops the margin.
+     * @return The world heights of the tile, row by row.
+     */
+    public float[] generateTile(int tileX, int tileZ) {
+        // Erosion spreads one sample per pass, so the margin's edges never reach the tile
+        int margin = erosionPasses > 0 ? erosionPasses + 1 : 0;
+        int size = tileSize + 1 + margin * 2;
+        int firstCol = tileX * tileSize - margin;
+        int firstRow = tileZ * tileSize - margin;
+        float[] heights = new float[size * size];
+        IntStream.range(0, size).parallel().forEach(row -> {
+            float z = (firstRow + row) * sampleSpacing;
+            for (int col = 0; col < size; col++) {
+                heights[row * size + col] = function.getHeight((firstCol + col) * sampleSpacing, z);
+            }
+        });
+
+        float[] source = heights;
+        float[] target = erosionPasses > 0 ? heights.clone() : null;
+        for (int pass = 0; pass < erosionPasses; pass++) {
+            float[] from = source;
+            float[] to = target;
+            IntStream.range(1, size - 1).parallel().forEach(row -> erodeRow(from, to, row, size));
+            source = to;
+            target = from;
+        }
+
+        if (margin == 0) {
+            return source;
+        }
+        float[] tile = new float[(tileSize + 1) * (tileSize + 1)];
+        for (int row = 0; row <= tileSize; row++) {
+            System.arraycopy(source, (row + margin) * size + margin, tile, row * (tileSize + 1), tileSize + 1);
+        }
+        return tile;
+    }
+
+    /**
+     * Erodes the inner samples of a row. Every sample exchanges material with its 4 neighbours by the same
+     * amounts they exchange with it, computed from the previous pass only, so rows can be done in any order.
+     */
+    private void erodeRow(float[] from, float[] to, int row, int size) {
+        for (int col = 1; col < size - 1; col++) {
+            int i = row * size + col;
+            float height = from[i];
+            float change = getSlide(from[i - 1], height) + getSlide(from[i + 1], height)
+                    + getSlide(from[i - size], height) + getSlide(from[i + size], height);
+            to[i] = height + change * (EROSION_RATE / 4);
+        }
+    }
+
+    /**
+     * @return The material sliding from a neighbour to a sample (negative when sliding away from it).
+     */
+    private float getSlide(float neighbour, float height) {
+        float difference = neighbour - height;
+        if (difference > talus) {
+            return difference - talus;
+        } else if (difference < -talus) {
+            return difference + talus;
+        }
+        return 0;
+    }
+
+    private Path getCacheFile(int tileX, int tileZ) {
+        return cacheDirectory != null ? cacheDirectory.resolve("tile_" + tileX + "_" + tileZ + RawHeightfield.EXTENSION) : null;
+    }
+
+    /**
+     * @return The cached heights, or null if the file can't be read or isn't a tile of this source.
+     */
+    private float[] readCachedTile(Path cacheFile) {
+        try {
+            RawHeightfield cached = new RawHeightfield(cacheFile);
+            try {
+                if (cached.getTileSize() != tileSize || cached.getSampleSpacing() != sampleSpacing
+                        || !cached.hasTile(0, 0)) {
+                    throw new Exception("Cached terrain tile doesn't match the source's settings");
+                }
+                return cached.loadTile(0, 0);
+            } finally {
+                cached.close();
+            }
+        } catch (Exception ex) {
+            lastError = new Exception("Error reading cached terrain tile " + cacheFile, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a tile to a temporary file first, so an interrupted write never leaves a truncated tile in the cache.
+     */
+    private void writeCachedTile(Path cacheFile, float[] heights) throws IOException {
+        Files.createDirectories(cacheDirectory);
+        Path temporaryFile = Files.createTempFile(cacheDirectory, "tile", ".tmp");
+        try {
+            RawHeightfield.write(temporaryFile, RawHeightfield.FORMAT_FLOAT32, heights, tileSize + 1, tileSize + 1,
+                    tileSize, sampleSpacing);
+            Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * @return The last error reading a cached tile, which was then generated again, or null.
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public void close() {
+    }
+}
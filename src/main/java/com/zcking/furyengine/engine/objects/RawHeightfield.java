@@ -0,0 +1,220 @@
+package com.zcking.furyengine.engine.objects;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A tiled raw heightfield file (".fhf"), storing heights as 16-bit integers or floats. Each tile is
+ * stored contiguously, so paging one in only maps its own region of the file, and tiles are decoded
+ * straight from the mapping. Files are produced by {@link RawHeightfield#write}.
+ * <p>
+ * Layout, little endian:
+ * <pre>
+ * char[4] magic = "FHGT"
+ * int version
+ * int format         (see the FORMAT_ constants)
+ * int tilesX
+ * int tilesZ
+ * int tileSize       (quads per tile side, each tile holding (tileSize + 1) x (tileSize + 1) heights)
+ * float sampleSpacing
+ * float minY         (height of a 16-bit 0)
+ * float maxY         (height of a 16-bit 65535)
+ * tiles, row by row, each holding its heights row by row
+ * </pre>
+ */
+public class RawHeightfield implements ITileSource {
+
+    public static final String EXTENSION = ".fhf";
+
+    public static final int FORMAT_UINT16 = 0;
+
+    public static final int FORMAT_FLOAT32 = 1;
+
+    private static final int MAGIC = 'F' | 'H' << 8 | 'G' << 16 | 'T' << 24;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 36;
+
+    private final FileChannel channel;
+
+    private final int format;
+
+    private final int tilesX;
+
+    private final int tilesZ;
+
+    private final int tileSize;
+
+    private final float sampleSpacing;
+
+    private final float minY;
+
+    private final float maxY;
+
+    /**
+     * Opens a heightfield file. Its tiles are memory mapped when loaded.
+     * @param path The path of the file.
+     * @throws Exception If the file can't be read or isn't a heightfield.
+     */
+    public RawHeightfield(Path path) throws Exception {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), HEADER_SIZE))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.remaining() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                throw new Exception("Not a heightfield: " + path);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new Exception("Unsupported heightfield version: " + header.getInt(4));
+            }
+            format = header.getInt(8);
+            tilesX = header.getInt(12);
+            tilesZ = header.getInt(16);
+            tileSize = header.getInt(20);
+            sampleSpacing = header.getFloat(24);
+            minY = header.getFloat(28);
+            maxY = header.getFloat(32);
+            if (format != FORMAT_UINT16 && format != FORMAT_FLOAT32) {
+                throw new Exception("Unknown heightfield format: " + format);
+            }
+            if (tilesX <= 0 || tilesZ <= 0 || tileSize <= 0 || !(sampleSpacing > 0)) {
+                throw new Exception("Invalid heightfield dimensions: " + path);
+            }
+            // A tile is mapped and decoded into one array, so it must fit in an int
+            long tileBytes = getTileBytes(format, tileSize);
+            if (tileBytes > Integer.MAX_VALUE) {
+                throw new Exception("Heightfield tiles too large: " + tileSize);
+            }
+            if (channel.size() < HEADER_SIZE + (long) tilesX * tilesZ * tileBytes) {
+                throw new Exception("Truncated heightfield: " + path);
+            }
+        } catch (Exception ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private static long getTileBytes(int format, int tileSize) {
+        return (tileSize + 1L) * (tileSize + 1L) * (format == FORMAT_UINT16 ? 2 : 4);
+    }
+
+    /**
+     * Writes a heightfield file from a grid of heights.
+     * @param path The path to write the file to.
+     * @param format The storage of the heights (see the FORMAT_ constants).
+     * @param heights The world heights, row by row.
+     * @param width The number of heights per row, one more than a multiple of the tile size.
+     * @param depth The number of rows, one more than a multiple of the tile size.
+     * @param tileSize The number of quads along each side of a tile.
+     * @param sampleSpacing The world distance between two neighbouring heights.
+     * @throws IOException If the file can't be written.
+     */
+    public static void write(Path path, int format, float[] heights, int width, int depth, int tileSize,
+                             float sampleSpacing) throws IOException {
+        if (format != FORMAT_UINT16 && format != FORMAT_FLOAT32) {
+            throw new IllegalArgumentException("Unknown heightfield format: " + format);
+        }
+        if (tileSize <= 0 || width <= tileSize || depth <= tileSize) {
+            throw new IllegalArgumentException("The heightfield must hold at least one tile");
+        }
+        if ((width - 1) % tileSize != 0 || (depth - 1) % tileSize != 0) {
+            throw new IllegalArgumentException("The heightfield's quads must be a multiple of the tile size");
+        }
+        int tilesX = (width - 1) / tileSize;
+        int tilesZ = (depth - 1) / tileSize;
+        float minY = Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (float height : heights) {
+            minY = Math.min(minY, height);
+            maxY = Math.max(maxY, height);
+        }
+        float range = maxY > minY ? maxY - minY : 1;
+
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(format).putInt(tilesX).putInt(tilesZ).putInt(tileSize)
+                    .putFloat(sampleSpacing).putFloat(minY).putFloat(maxY).flip();
+            writeFully(out, header);
+
+            ByteBuffer tile = ByteBuffer.allocate((int) getTileBytes(format, tileSize)).order(ByteOrder.LITTLE_ENDIAN);
+            for (int tileZ = 0; tileZ < tilesZ; tileZ++) {
+                for (int tileX = 0; tileX < tilesX; tileX++) {
+                    tile.clear();
+                    for (int row = 0; row <= tileSize; row++) {
+                        int offset = (tileZ * tileSize + row) * width + tileX * tileSize;
+                        for (int col = 0; col <= tileSize; col++) {
+                            float height = heights[offset + col];
+                            if (format == FORMAT_UINT16) {
+                                tile.putShort((short) Math.round((height - minY) / range * 65535.0f));
+                            } else {
+                                tile.putFloat(height);
+                            }
+                        }
+                    }
+                    tile.flip();
+                    writeFully(out, tile);
+                }
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    @Override
+    public float getSampleSpacing() {
+        return sampleSpacing;
+    }
+
+    @Override
+    public boolean hasTile(int tileX, int tileZ) {
+        return tileX >= 0 && tileZ >= 0 && tileX < tilesX && tileZ < tilesZ;
+    }
+
+    /**
+     * Maps the tile's region of the file and decodes its heights. Safe to call from several threads.
+     */
+    @Override
+    public float[] loadTile(int tileX, int tileZ) throws Exception {
+        if (!hasTile(tileX, tileZ)) {
+            throw new Exception("No heightfield tile at " + tileX + ", " + tileZ);
+        }
+        long tileBytes = getTileBytes(format, tileSize);
+        long offset = HEADER_SIZE + ((long) tileZ * tilesX + tileX) * tileBytes;
+        ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, offset, tileBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        float[] heights = new float[(tileSize + 1) * (tileSize + 1)];
+        float scale = (maxY - minY) / 65535.0f;
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = format == FORMAT_UINT16 ? minY + (data.getShort(i * 2) & 0xFFFF) * scale : data.getFloat(i * 4);
+        }
+        return heights;
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesZ() {
+        return tilesZ;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
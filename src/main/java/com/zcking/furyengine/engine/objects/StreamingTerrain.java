@@ -0,0 +1,521 @@
+package com.zcking.furyengine.engine.objects;
+
+import com.zcking.furyengine.engine.Scene;
+import com.zcking.furyengine.rendering.HeightMapMesh;
+import com.zcking.furyengine.rendering.Material;
+import com.zcking.furyengine.rendering.Mesh;
+import com.zcking.furyengine.rendering.Texture;
+import com.zcking.furyengine.rendering.VertexAttribute;
+import com.zcking.furyengine.rendering.VertexFormat;
+import org.joml.Vector3f;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A terrain paged in tile by tile from an {@link ITileSource} (e.g. a {@link RawHeightfield}), so
+ * worlds larger than memory can be explored. Tiles within the load radius of the camera are loaded
+ * on a background thread, turned into {@link HeightMapMesh} patches on the GL thread, and added to
+ * the scene as static game objects. While the tiles' memory is over the budget, the least recently
+ * needed tiles out of the load radius are evicted. When the pager is idle, tiles past the load radius,
+ * up to the prefetch radius, can be prepared ahead of time (see {@link ITileSource#prefetchTile(int, int)}).
+ * <p>
+ * Tiles that fail to load are retried after a delay doubling with each failure, until they leave the
+ * load radius. The last error is kept for the game to report (see {@link StreamingTerrain#getLastError()}).
+ */
+public class StreamingTerrain {
+
+    private static final int DEFAULT_UPLOADS_PER_UPDATE = 2;
+
+    /**
+     * The number of frames before a failed tile is retried the first time, and at most.
+     */
+    private static final long RETRY_DELAY = 60;
+
+    private static final long MAX_RETRY_DELAY = 60 * 64;
+
+    private final ITileSource source;
+
+    private final float tileWorldSize;
+
+    private final Material material;
+
+    private final int textInc;
+
+    private final VertexFormat format;
+
+    private final float loadRadius;
+
+    private final long memoryBudget;
+
+    private final ExecutorService pager;
+
+    private final Queue<LoadedTile> loadedTiles;
+
+    private final Map<Long, Tile> residentTiles;
+
+    private final Set<Long> pendingTiles;
+
+    private final Map<Long, FailedTile> failedTiles;
+
+    private final Set<Long> prefetchedTiles;
+
+    private final AtomicBoolean prefetching;
+
+    private float prefetchRadius;
+
+    private final List<Tile> evictionCandidates;
+
+    private Scene scene;
+
+    private long residentBytes;
+
+    private long frame;
+
+    private int uploadsPerUpdate;
+
+    private volatile Exception lastError;
+
+    /**
+     * Constructs a new streaming terrain. Must be called on the GL thread.
+     * @param source The source of the terrain's tiles.
+     * @param textureFile File path to the texture of the terrain.
+     * @param textInc How many times the texture repeats across each tile.
+     * @param loadRadius The distance from the camera within which tiles are loaded.
+     * @param memoryBudget The memory the resident tiles may use, in bytes (heights and GPU buffers).
+     * @throws Exception If the texture can't be loaded.
+     */
+    public StreamingTerrain(ITileSource source, String textureFile, int textInc, float loadRadius,
+                            long memoryBudget) throws Exception {
+        this(source, new Material(new Texture(textureFile), 0.0f), textInc, loadRadius, memoryBudget, VertexFormat.STATIC);
+    }
+
+    /**
+     * Constructs a new streaming terrain. Must be called on the GL thread.
+     * @param source The source of the terrain's tiles.
+     * @param material The material shared by every tile.
+     * @param textInc How many times the texture repeats across each tile.
+     * @param loadRadius The distance from the camera within which tiles are loaded.
+     * @param memoryBudget The memory the resident tiles may use, in bytes (heights and GPU buffers).
+     * @param format The vertex format of the tiles' meshes.
+     */
+    public StreamingTerrain(ITileSource source, Material material, int textInc, float loadRadius, long memoryBudget,
+                            VertexFormat format) {
+        this.source = source;
+        this.material = material;
+        this.textInc = textInc;
+        this.loadRadius = loadRadius;
+        this.memoryBudget = memoryBudget;
+        this.format = format;
+        tileWorldSize = source.getTileSize() * source.getSampleSpacing();
+        pager = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TERRAIN_PAGER_THREAD");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loadedTiles = new ConcurrentLinkedQueue<>();
+        residentTiles = new HashMap<>();
+        pendingTiles = new HashSet<>();
+        failedTiles = new HashMap<>();
+        prefetchedTiles = new HashSet<>();
+        prefetching = new AtomicBoolean();
+        evictionCandidates = new ArrayList<>();
+        uploadsPerUpdate = DEFAULT_UPLOADS_PER_UPDATE;
+    }
+
+    /**
+     * Sets how many loaded tiles may be turned into meshes per update, to bound the time spent on the GL thread.
+     * @param uploadsPerUpdate The number of tiles (2 by default).
+     */
+    public void setUploadsPerUpdate(int uploadsPerUpdate) {
+        this.uploadsPerUpdate = uploadsPerUpdate;
+    }
+
+    /**
+     * Sets the distance from the camera within which tiles are prefetched from the source while no tile
+     * is being loaded, one at a time, so the tiles the camera is heading for are cheap to load once in range.
+     * Only used if the source can prefetch (see {@link ITileSource#canPrefetch()}).
+     * @param prefetchRadius The distance, no more than the load radius (the default) not to prefetch.
+     */
+    public void setPrefetchRadius(float prefetchRadius) {
+        this.prefetchRadius = prefetchRadius;
+    }
+
+    /**
+     * Requests the tiles around the camera, adds the tiles loaded since the last update to the scene and
+     * evicts tiles over the memory budget. Must be called on the GL thread, once per frame.
+     * @param cameraPosition The world position of the camera.
+     * @param scene The scene the tiles are added to.
+     */
+    public void update(Vector3f cameraPosition, Scene scene) {
+        this.scene = scene;
+        frame++;
+        // Tiles out of range start over once back in range, which also bounds the sets
+        float radius = Math.max(loadRadius, prefetchRadius);
+        if (!failedTiles.isEmpty()) {
+            failedTiles.keySet().removeIf(key -> !isInRange(getTileX(key), getTileZ(key), cameraPosition, radius));
+        }
+        if (!prefetchedTiles.isEmpty()) {
+            prefetchedTiles.removeIf(key -> !isInRange(getTileX(key), getTileZ(key), cameraPosition, radius));
+        }
+        requestTiles(cameraPosition);
+        if (pendingTiles.isEmpty() && !prefetching.get() && prefetchRadius > loadRadius && source.canPrefetch()) {
+            prefetchTile(cameraPosition);
+        }
+
+        for (int i = 0; i < uploadsPerUpdate; i++) {
+            LoadedTile loaded = loadedTiles.poll();
+            if (loaded == null) {
+                break;
+            }
+            long key = getKey(loaded.tileX, loaded.tileZ);
+            pendingTiles.remove(key);
+            if (loaded.heights == null) {
+                addFailure(key, loaded.error);
+            } else if (isInRange(loaded.tileX, loaded.tileZ, cameraPosition)) {
+                uploadTile(key, loaded);
+            }
+        }
+
+        if (residentBytes > memoryBudget) {
+            evictTiles();
+        }
+    }
+
+    /**
+     * Marks the resident tiles within the load radius as used, and queues the missing ones for loading,
+     * ring by ring around the camera's tile so the closest ones load first.
+     */
+    private void requestTiles(Vector3f cameraPosition) {
+        int centerX = (int) Math.floor(cameraPosition.x / tileWorldSize);
+        int centerZ = (int) Math.floor(cameraPosition.z / tileWorldSize);
+        int radius = (int) Math.ceil(loadRadius / tileWorldSize);
+        for (int ring = 0; ring <= radius; ring++) {
+            for (int tileZ = centerZ - ring; tileZ <= centerZ + ring; tileZ++) {
+                // Only the ring's edges, the inside was covered by the previous rings
+                int step = tileZ == centerZ - ring || tileZ == centerZ + ring ? 1 : Math.max(ring * 2, 1);
+                for (int tileX = centerX - ring; tileX <= centerX + ring; tileX += step) {
+                    if (isInRange(tileX, tileZ, cameraPosition)) {
+                        requestTile(tileX, tileZ);
+                    }
+                }
+            }
+        }
+    }
+
+    private void requestTile(int tileX, int tileZ) {
+        long key = getKey(tileX, tileZ);
+        Tile tile = residentTiles.get(key);
+        if (tile != null) {
+            tile.lastUsed = frame;
+            return;
+        }
+        if (pendingTiles.contains(key) || isWaitingForRetry(key) || !source.hasTile(tileX, tileZ)) {
+            return;
+        }
+        pendingTiles.add(key);
+        pager.execute(() -> loadedTiles.add(loadTile(tileX, tileZ)));
+    }
+
+    /**
+     * Queues the prefetching of the closest tile past the load radius, within the prefetch radius,
+     * that wasn't loaded nor prefetched yet.
+     */
+    private void prefetchTile(Vector3f cameraPosition) {
+        int centerX = (int) Math.floor(cameraPosition.x / tileWorldSize);
+        int centerZ = (int) Math.floor(cameraPosition.z / tileWorldSize);
+        int radius = (int) Math.ceil(prefetchRadius / tileWorldSize);
+        for (int ring = 0; ring <= radius; ring++) {
+            for (int tileZ = centerZ - ring; tileZ <= centerZ + ring; tileZ++) {
+                int step = tileZ == centerZ - ring || tileZ == centerZ + ring ? 1 : Math.max(ring * 2, 1);
+                for (int tileX = centerX - ring; tileX <= centerX + ring; tileX += step) {
+                    long key = getKey(tileX, tileZ);
+                    if (isInRange(tileX, tileZ, cameraPosition) || !isInRange(tileX, tileZ, cameraPosition, prefetchRadius)
+                            || residentTiles.containsKey(key) || prefetchedTiles.contains(key) || failedTiles.containsKey(key)
+                            || !source.hasTile(tileX, tileZ)) {
+                        continue;
+                    }
+                    prefetchedTiles.add(key);
+                    prefetching.set(true);
+                    int prefetchX = tileX;
+                    int prefetchZ = tileZ;
+                    pager.execute(() -> {
+                        try {
+                            source.prefetchTile(prefetchX, prefetchZ);
+                        } catch (Exception ex) {
+                            lastError = new Exception("Error prefetching terrain tile " + prefetchX + ", " + prefetchZ, ex);
+                        } finally {
+                            prefetching.set(false);
+                        }
+                    });
+                    return;
+                }
+            }
+        }
+    }
+
+    private LoadedTile loadTile(int tileX, int tileZ) {
+        try {
+            // The patches are unit sized meshes scaled to the tile, so their heights are scaled down too
+            float[] heights = source.loadTile(tileX, tileZ);
+            for (int i = 0; i < heights.length; i++) {
+                heights[i] /= tileWorldSize;
+            }
+            return new LoadedTile(tileX, tileZ, heights, null);
+        } catch (Exception ex) {
+            return new LoadedTile(tileX, tileZ, null, new Exception("Error loading terrain tile " + tileX + ", " + tileZ, ex));
+        }
+    }
+
+    /**
+     * Records a failure of a tile, and when it may be retried.
+     */
+    private void addFailure(long key, Exception error) {
+        lastError = error;
+        FailedTile failed = failedTiles.get(key);
+        if (failed == null) {
+            failed = new FailedTile();
+            failedTiles.put(key, failed);
+        }
+        long delay = Math.min(RETRY_DELAY << Math.min(failed.failures, 6), MAX_RETRY_DELAY);
+        failed.failures++;
+        failed.retryFrame = frame + delay;
+    }
+
+    private boolean isWaitingForRetry(long key) {
+        FailedTile failed = failedTiles.get(key);
+        return failed != null && frame < failed.retryFrame;
+    }
+
+    private void uploadTile(long key, LoadedTile loaded) {
+        int size = source.getTileSize() + 1;
+        HeightMapMesh heightMapMesh;
+        try {
+            heightMapMesh = new HeightMapMesh(loaded.heights, size, size, material, textInc, format);
+        } catch (Exception ex) {
+            addFailure(key, new Exception("Error creating terrain tile " + loaded.tileX + ", " + loaded.tileZ, ex));
+            return;
+        }
+        failedTiles.remove(key);
+        Mesh mesh = heightMapMesh.getMesh();
+        GameObject gameObject = new GameObject(mesh);
+        gameObject.setScale(tileWorldSize);
+        gameObject.setPosition((loaded.tileX + 0.5f) * tileWorldSize, 0, (loaded.tileZ + 0.5f) * tileWorldSize);
+        gameObject.setStatic(true);
+        scene.addGameObject(gameObject);
+
+        int vertices = size * size;
+        long bytes = (long) vertices * 4 + (long) vertices * format.getStride()
+                + (long) mesh.getVertexCount() * VertexAttribute.getComponentSize(mesh.getIndexType());
+        Tile tile = new Tile(loaded.tileX, loaded.tileZ, loaded.heights, gameObject, mesh, bytes);
+        tile.lastUsed = frame;
+        residentTiles.put(key, tile);
+        residentBytes += bytes;
+    }
+
+    /**
+     * Evicts the least recently used tiles until the budget is met, sparing the tiles used this frame.
+     */
+    private void evictTiles() {
+        evictionCandidates.clear();
+        for (Tile tile : residentTiles.values()) {
+            if (tile.lastUsed < frame) {
+                evictionCandidates.add(tile);
+            }
+        }
+        evictionCandidates.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+        for (Tile tile : evictionCandidates) {
+            if (residentBytes <= memoryBudget) {
+                break;
+            }
+            removeTile(tile);
+            residentTiles.remove(getKey(tile.tileX, tile.tileZ));
+        }
+        evictionCandidates.clear();
+    }
+
+    private void removeTile(Tile tile) {
+        if (scene != null) {
+            scene.removeGameObject(tile.gameObject);
+        }
+        // The material's texture is shared by every tile
+        tile.mesh.deleteBuffers();
+        residentBytes -= tile.bytes;
+    }
+
+    private boolean isInRange(int tileX, int tileZ, Vector3f cameraPosition) {
+        return isInRange(tileX, tileZ, cameraPosition, loadRadius);
+    }
+
+    private boolean isInRange(int tileX, int tileZ, Vector3f cameraPosition, float radius) {
+        float minX = tileX * tileWorldSize;
+        float minZ = tileZ * tileWorldSize;
+        float dx = Math.max(minX - cameraPosition.x, Math.max(0, cameraPosition.x - (minX + tileWorldSize)));
+        float dz = Math.max(minZ - cameraPosition.z, Math.max(0, cameraPosition.z - (minZ + tileWorldSize)));
+        return dx * dx + dz * dz <= radius * radius;
+    }
+
+    private static long getKey(int tileX, int tileZ) {
+        return ((long) tileX << 32) | (tileZ & 0xFFFFFFFFL);
+    }
+
+    private static int getTileX(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int getTileZ(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Get the height (Y-value) of the terrain at a given world coordinate, on the triangle of the tile's
+     * mesh under it. Must be called on the thread calling {@link StreamingTerrain#update(Vector3f, Scene)}.
+     * @param x The world x coordinate.
+     * @param z The world z coordinate.
+     * @return The height (Y-value) of the terrain, or {@link Float#MIN_VALUE} if its tile isn't resident.
+     */
+    public float getHeight(float x, float z) {
+        float tilePosX = x / tileWorldSize;
+        float tilePosZ = z / tileWorldSize;
+        int tileX = (int) Math.floor(tilePosX);
+        int tileZ = (int) Math.floor(tilePosZ);
+        Tile tile = residentTiles.get(getKey(tileX, tileZ));
+        if (tile == null) {
+            return Float.MIN_VALUE;
+        }
+
+        int tileSize = source.getTileSize();
+        float cellX = (tilePosX - tileX) * tileSize;
+        float cellZ = (tilePosZ - tileZ) * tileSize;
+        int col = Math.min((int) cellX, tileSize - 1);
+        int row = Math.min((int) cellZ, tileSize - 1);
+        float fx = cellX - col;
+        float fz = cellZ - row;
+
+        // Each cell is split along its left-bottom to right-top diagonal, like the mesh's triangles
+        float[] heights = tile.heights;
+        int leftTop = row * (tileSize + 1) + col;
+        int leftBottom = leftTop + tileSize + 1;
+        float topRight = heights[leftTop + 1];
+        float bottomLeft = heights[leftBottom];
+        float height;
+        if (fx + fz < 1) {
+            float topLeft = heights[leftTop];
+            height = topLeft + (topRight - topLeft) * fx + (bottomLeft - topLeft) * fz;
+        } else {
+            float bottomRight = heights[leftBottom + 1];
+            height = bottomRight + (bottomLeft - bottomRight) * (1 - fx) + (topRight - bottomRight) * (1 - fz);
+        }
+        return height * tileWorldSize;
+    }
+
+    /**
+     * @return The number of tiles currently in memory.
+     */
+    public int getResidentTileCount() {
+        return residentTiles.size();
+    }
+
+    /**
+     * @return The memory used by the resident tiles, in bytes.
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return The number of tiles in range that failed to load, and are waiting to be retried.
+     */
+    public int getFailedTileCount() {
+        return failedTiles.size();
+    }
+
+    /**
+     * @return The last error loading, creating or prefetching a tile, or null.
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Stops paging, removes the tiles from the scene they were added to and releases them, the
+     * material's texture and the source. Call before cleaning up the scene.
+     * @throws IOException If the source can't be closed.
+     */
+    public void cleanUp() throws IOException {
+        pager.shutdownNow();
+        for (Tile tile : residentTiles.values()) {
+            removeTile(tile);
+        }
+        residentTiles.clear();
+        Texture texture = material.getTexture();
+        if (texture != null) {
+            texture.cleanUp();
+        }
+        source.close();
+    }
+
+    private static class Tile {
+
+        private final int tileX;
+
+        private final int tileZ;
+
+        /**
+         * The heights of the tile, scaled down to its unit sized mesh.
+         */
+        private final float[] heights;
+
+        private final GameObject gameObject;
+
+        private final Mesh mesh;
+
+        private final long bytes;
+
+        private long lastUsed;
+
+        private Tile(int tileX, int tileZ, float[] heights, GameObject gameObject, Mesh mesh, long bytes) {
+            this.tileX = tileX;
+            this.tileZ = tileZ;
+            this.heights = heights;
+            this.gameObject = gameObject;
+            this.mesh = mesh;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class LoadedTile {
+
+        private final int tileX;
+
+        private final int tileZ;
+
+        private final float[] heights;
+
+        private final Exception error;
+
+        private LoadedTile(int tileX, int tileZ, float[] heights, Exception error) {
+            this.tileX = tileX;
+            this.tileZ = tileZ;
+            this.heights = heights;
+            this.error = error;
+        }
+    }
+
+    private static class FailedTile {
+
+        private int failures;
+
+        private long retryFrame;
+    }
+}
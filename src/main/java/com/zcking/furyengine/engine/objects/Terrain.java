@@ -1,21 +1,39 @@
 package com.zcking.furyengine.engine.objects;
 
 import com.zcking.furyengine.rendering.HeightMapMesh;
+import com.zcking.furyengine.rendering.Mesh;
+import com.zcking.furyengine.rendering.VertexFormat;
 import de.matthiasmann.twl.utils.PNGDecoder;
 import org.joml.Vector3f;
+
 import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
 
 /**
  * An implementation of terrain, as a grid of triangle strips.
  */
-public class Terrain {
+public class Terrain implements IHeightField {
+
+    /**
+     * Batches of height queries smaller than this are answered on the calling thread.
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private static final int PARALLEL_BATCH_SIZE = 1024;
 
     private final GameObject[] gameObjects;
-    private final Box2D[][] boundingBoxes;
     private final int terrainSize;
+    private final float scale;
     private final int verticesPerCol;
     private final int verticesPerRow;
-    private final HeightMapMesh heightMapMesh;
+    /**
+     * The unscaled heights of the height map, row by row.
+     */
+    private final float[] heights;
+    private final float originX;
+    private final float originZ;
+    private final float blockWidth;
+    private final float blockDepth;
 
     /**
      * Constructs a new terrain object.
@@ -29,157 +47,217 @@ public class Terrain {
      * @throws Exception If the terrain construction fails.
      */
     public Terrain(int terrainSize, float scale, float minY, float maxY, String heightMapFile, String textureFile, int textInc) throws Exception {
-        this.terrainSize = terrainSize;
-        gameObjects = new GameObject[terrainSize * terrainSize];
+        this(terrainSize, scale, minY, maxY, heightMapFile, textureFile, textInc, VertexFormat.STATIC);
+    }
 
-        PNGDecoder decoder = new PNGDecoder(getClass().getResourceAsStream(heightMapFile));
-        int height = decoder.getHeight();
-        int width = decoder.getWidth();
-        ByteBuffer buf = ByteBuffer.allocateDirect(4 * width * height);
-        decoder.decode(buf, width * 4, PNGDecoder.Format.RGBA);
-        buf.flip();
+    /**
+     * Constructs a new terrain object, storing the vertices of its mesh with the given format.
+     * @param terrainSize The square size of the terrain.
+     * @param scale The world scale of the terrain.
+     * @param minY The minimum Y (height) of the terrain.
+     * @param maxY The maximum Y (height) of the terrain.
+     * @param heightMapFile File path to the height map for the terrain.
+     * @param textureFile File path to the texture for the terrain.
+     * @param textInc Increment offset value for the texture.
+     * @param format The vertex format of the terrain mesh (e.g. {@link VertexFormat#COMPACT}).
+     * @throws Exception If the terrain construction fails.
+     */
+    public Terrain(int terrainSize, float scale, float minY, float maxY, String heightMapFile, String textureFile,
+                   int textInc, VertexFormat format) throws Exception {
+        this(terrainSize, scale, createHeightMapMesh(minY, maxY, heightMapFile, textureFile, textInc, format));
+    }
+
+    private Terrain(int terrainSize, float scale, HeightMapMesh heightMapMesh) {
+        this(terrainSize, scale, heightMapMesh.getHeights(), heightMapMesh.getWidth(), heightMapMesh.getDepth(),
+                heightMapMesh.getMesh());
+    }
 
+    /**
+     * Constructs a terrain from decoded heights. Without a mesh, the terrain has no game objects, but its
+     * heights can still be queried.
+     * @param terrainSize The square size of the terrain.
+     * @param scale The world scale of the terrain.
+     * @param heights The unscaled heights of the height map, row by row.
+     * @param width The number of heights per row.
+     * @param depth The number of rows of heights.
+     * @param mesh The mesh of each block, or null.
+     */
+    Terrain(int terrainSize, float scale, float[] heights, int width, int depth, Mesh mesh) {
+        this.terrainSize = terrainSize;
+        this.scale = scale;
+        this.heights = heights;
         verticesPerCol = width - 1;
-        verticesPerRow = height - 1;
-        heightMapMesh = new HeightMapMesh(minY, maxY, buf, width, height, textureFile, textInc);
-        boundingBoxes = new Box2D[terrainSize][terrainSize];
+        verticesPerRow = depth - 1;
+        gameObjects = new GameObject[mesh != null ? terrainSize * terrainSize : 0];
 
+        // Blocks are laid out edge to edge, centered on the origin
+        blockWidth = HeightMapMesh.getXLength() * scale;
+        blockDepth = HeightMapMesh.getZLength() * scale;
+        originX = HeightMapMesh.STARTX * scale - (terrainSize - 1) / 2.0f * blockWidth;
+        originZ = HeightMapMesh.STARTZ * scale - (terrainSize - 1) / 2.0f * blockDepth;
+
+        if (mesh == null) {
+            return;
+        }
         for (int row = 0; row < terrainSize; row++) {
             for (int col = 0; col < terrainSize; col++) {
                 float xDisplacement = (col - ((float) terrainSize - 1) / (float) 2) * scale * HeightMapMesh.getXLength();
                 float zDisplacement = (row - ((float) terrainSize - 1) / (float) 2) * scale * HeightMapMesh.getZLength();
 
-                GameObject terrainBlock = new GameObject(heightMapMesh.getMesh());
+                GameObject terrainBlock = new GameObject(mesh);
                 terrainBlock.setScale(scale);
                 terrainBlock.setPosition(xDisplacement, 0, zDisplacement);
+                terrainBlock.setStatic(true);
                 gameObjects[row * terrainSize + col] = terrainBlock;
-                boundingBoxes[row][col] = getBoundingBox(terrainBlock);
             }
         }
     }
 
+    private static HeightMapMesh createHeightMapMesh(float minY, float maxY, String heightMapFile, String textureFile,
+                                                     int textInc, VertexFormat format) throws Exception {
+        PNGDecoder decoder = new PNGDecoder(Terrain.class.getResourceAsStream(heightMapFile));
+        int height = decoder.getHeight();
+        int width = decoder.getWidth();
+        ByteBuffer buf = ByteBuffer.allocateDirect(4 * width * height);
+        decoder.decode(buf, width * 4, PNGDecoder.Format.RGBA);
+        buf.flip();
+        return new HeightMapMesh(minY, maxY, buf, width, height, textureFile, textInc, format);
+    }
+
     /**
      * Get the height (Y-value) of the terrain at a given world coordinate.
      * @param position The world coordinate.
-     * @return The height (Y-value) of the terrain.
+     * @return The height (Y-value) of the terrain, or {@link Float#MIN_VALUE} outside of the terrain.
      */
     public float getHeight(Vector3f position) {
-        float result = Float.MIN_VALUE;
-
-        Box2D boundingBox = null;
-        boolean found = false;
-        GameObject terrainBlock = null;
+        return getHeight(position.x, position.z);
+    }
 
-        for (int row = 0; row < terrainSize && !found; row++) {
-            for (int col = 0; col < terrainSize && !found; col++) {
-                terrainBlock = gameObjects[row * terrainSize + col];
-                boundingBox = boundingBoxes[row][col];
-                found = boundingBox.contains(position.x, position.z);
-            }
+    /**
+     * Get the height (Y-value) of the terrain at a given world coordinate, on the triangle of the
+     * terrain's mesh under it. The cell is computed directly from the coordinate, without allocating.
+     * @param x The world x coordinate.
+     * @param z The world z coordinate.
+     * @return The height (Y-value) of the terrain, or {@link Float#MIN_VALUE} outside of the terrain.
+     */
+    @Override
+    public float getHeight(float x, float z) {
+        // Position in blocks, then in cells of the block's height map
+        float blockX = (x - originX) / blockWidth;
+        float blockZ = (z - originZ) / blockDepth;
+        if (!(blockX >= 0 && blockZ >= 0 && blockX < terrainSize && blockZ < terrainSize)) {
+            return Float.MIN_VALUE;
         }
+        float cellX = (blockX - (int) blockX) * verticesPerCol;
+        float cellZ = (blockZ - (int) blockZ) * verticesPerRow;
+        int col = Math.min((int) cellX, verticesPerCol - 1);
+        int row = Math.min((int) cellZ, verticesPerRow - 1);
+        float fx = cellX - col;
+        float fz = cellZ - row;
 
-        if (found) {
-            Vector3f[] triangle = getTriangle(position, boundingBox, terrainBlock);
-            result = interpolateHeight(triangle[0], triangle[1], triangle[2], position.x, position.z);
+        // Each cell is split along its left-bottom to right-top diagonal, like the mesh's triangles
+        int leftTop = row * (verticesPerCol + 1) + col;
+        int leftBottom = leftTop + verticesPerCol + 1;
+        float topRight = heights[leftTop + 1];
+        float bottomLeft = heights[leftBottom];
+        float height;
+        if (fx + fz < 1) {
+            float topLeft = heights[leftTop];
+            height = topLeft + (topRight - topLeft) * fx + (bottomLeft - topLeft) * fz;
+        } else {
+            float bottomRight = heights[leftBottom + 1];
+            height = bottomRight + (bottomLeft - bottomRight) * (1 - fx) + (topRight - bottomRight) * (1 - fz);
         }
-
-        return result;
+        return height * scale;
     }
 
     /**
-     * Get the game objects within this terrain.
-     * @return Array of game objects in the terrain.
+     * Gets the heights of the terrain at many world coordinates, as {@link Terrain#getHeight(float, float)}
+     * would. Large batches are split across the common fork-join pool.
+     * @param xs The world x coordinates.
+     * @param zs The world z coordinates, as many as x coordinates.
+     * @param out Receives the heights, at least as many as coordinates.
      */
-    public GameObject[] getGameObjects() {
-        return gameObjects;
+    public void getHeights(float[] xs, float[] zs, float[] out) {
+        int count = xs.length;
+        if (count < PARALLEL_THRESHOLD) {
+            getHeights(xs, zs, out, 0, count);
+            return;
+        }
+        int batches = (count + PARALLEL_BATCH_SIZE - 1) / PARALLEL_BATCH_SIZE;
+        IntStream.range(0, batches).parallel().forEach(batch -> {
+            int start = batch * PARALLEL_BATCH_SIZE;
+            getHeights(xs, zs, out, start, Math.min(start + PARALLEL_BATCH_SIZE, count));
+        });
     }
 
-    private Box2D getBoundingBox(GameObject terrainBlock) {
-        float scale = terrainBlock.getScale();
-        Vector3f position = terrainBlock.getPosition();
+    private void getHeights(float[] xs, float[] zs, float[] out, int start, int end) {
+        for (int i = start; i < end; i++) {
+            out[i] = getHeight(xs[i], zs[i]);
+        }
+    }
 
-        // Transform to world coordinates
-        float topLeftX = HeightMapMesh.STARTX * scale + position.x;
-        float topLeftZ = HeightMapMesh.STARTZ * scale + position.z;
-        float width = Math.abs(HeightMapMesh.STARTX * 2) * scale;
-        float height = Math.abs(HeightMapMesh.STARTZ * 2) * scale;
+    /**
+     * Gets the lowest corner height of the cells a world rectangle overlaps, across blocks. The triangles
+     * never go below their corners, so the terrain is nowhere lower in the rectangle.
+     */
+    @Override
+    public float getMinHeight(float minX, float minZ, float maxX, float maxZ) {
+        // One more cell on each side, in case rounding puts a coordinate in the neighbouring cell
+        int col0 = getCell(minX, originX, blockWidth, verticesPerCol) - 1;
+        int col1 = getCell(maxX, originX, blockWidth, verticesPerCol) + 1;
+        int row0 = getCell(minZ, originZ, blockDepth, verticesPerRow) - 1;
+        int row1 = getCell(maxZ, originZ, blockDepth, verticesPerRow) + 1;
+        col0 = Math.max(col0, 0);
+        row0 = Math.max(row0, 0);
+        col1 = Math.min(col1, terrainSize * verticesPerCol - 1);
+        row1 = Math.min(row1, terrainSize * verticesPerRow - 1);
 
-        return new Box2D(topLeftX, topLeftZ, width, height);
+        float min = Float.POSITIVE_INFINITY;
+        for (int row = row0; row <= row1; row++) {
+            int blockRow = row % verticesPerRow;
+            for (int col = col0; col <= col1; col++) {
+                int leftTop = blockRow * (verticesPerCol + 1) + col % verticesPerCol;
+                int leftBottom = leftTop + verticesPerCol + 1;
+                min = Math.min(min, Math.min(Math.min(heights[leftTop], heights[leftTop + 1]),
+                        Math.min(heights[leftBottom], heights[leftBottom + 1])));
+            }
+        }
+        return min * scale;
     }
 
     /**
-     * Helper that wraps the bounding box information for the terrain objects.
+     * @return The index of the cell under a world coordinate, counting cells across every block.
      */
-    static class Box2D {
-
-        public float x;
-        public float y;
-        public float width;
-        public float height;
-
-        public Box2D(float x, float y, float width, float height) {
-            this.x = x;
-            this.y = y;
-            this.width = width;
-            this.height = height;
-        }
+    private static int getCell(float coordinate, float origin, float blockSize, int cellsPerBlock) {
+        return (int) Math.floor((coordinate - origin) / blockSize * cellsPerBlock);
+    }
 
-        public boolean contains(float x2, float y2) {
-            return x2 >= x
-                    && y2 >= y
-                    && x2 < x + width
-                    && y2 < y + height;
-        }
+    @Override
+    public float getMinX() {
+        return originX;
     }
 
-    private float getDiagonalZCoord(float x1, float z1, float x2, float z2, float x) {
-        return ((z1 - z2) / (x1 - x2)) * (x - x1) + z1;
-    }
-
-    private float getWorldHeight(int row, int col, GameObject gameObject) {
-        float y = heightMapMesh.getHeight(row, col);
-        return y * gameObject.getScale() + gameObject.getPosition().y;
-    }
-
-    private float interpolateHeight(Vector3f pA, Vector3f pB, Vector3f pC, float x, float z) {
-        // Plane equation -> ax+by+cz+d = 0
-        float a = (pB.y - pA.y) * (pC.z - pA.z) - (pC.y - pA.y) * (pB.z - pA.z);
-        float b = (pB.z - pA.z) * (pC.x - pA.x) - (pC.z - pA.z) * (pB.x - pA.x);
-        float c = (pB.x - pA.x) * (pC.y - pA.y) - (pC.x - pA.x) * (pB.y - pA.y);
-        float d = -(a * pA.x + b * pA.y + c * pA.z);
-        // y = (-d -ax -cz) / b
-        float y = (-d - a * x - c * z) / b;
-        return y;
-    }
-
-    private Vector3f[] getTriangle(Vector3f position, Box2D boundingBox, GameObject terrainBlock) {
-        // Get the column and row of the heightmap associated with the current position
-        float cellWidth = boundingBox.width / (float) verticesPerCol;
-        float cellHeight = boundingBox.height / (float) verticesPerRow;
-        int col = (int) ((position.x - boundingBox.x) / cellWidth);
-        int row = (int) ((position.z - boundingBox.y) / cellHeight);
-
-        Vector3f[] triangle = new Vector3f[3];
-        triangle[1] = new Vector3f(
-                boundingBox.x + col * cellWidth,
-                getWorldHeight(row + 1, col, terrainBlock),
-                boundingBox.y + (row + 1) * cellHeight);
-        triangle[2] = new Vector3f(
-                boundingBox.x + (col + 1) * cellWidth,
-                getWorldHeight(row, col + 1, terrainBlock),
-                boundingBox.y + row * cellHeight);
-        if (position.z < getDiagonalZCoord(triangle[1].x, triangle[1].z, triangle[2].x, triangle[2].z, position.x)) {
-            triangle[0] = new Vector3f(
-                    boundingBox.x + col * cellWidth,
-                    getWorldHeight(row, col, terrainBlock),
-                    boundingBox.y + row * cellHeight);
-        } else {
-            triangle[0] = new Vector3f(
-                    boundingBox.x + (col + 1) * cellWidth,
-                    getWorldHeight(row + 2, col + 1, terrainBlock),
-                    boundingBox.y + (row + 1) * cellHeight);
-        }
+    @Override
+    public float getMinZ() {
+        return originZ;
+    }
+
+    @Override
+    public float getMaxX() {
+        return originX + terrainSize * blockWidth;
+    }
+
+    @Override
+    public float getMaxZ() {
+        return originZ + terrainSize * blockDepth;
+    }
 
-        return triangle;
+    /**
+     * Get the game objects within this terrain.
+     * @return Array of game objects in the terrain.
+     */
+    public GameObject[] getGameObjects() {
+        return gameObjects;
     }
 }
@@ -0,0 +1,86 @@
+package com.zcking.furyengine.engine.objects;
+
+import com.zcking.furyengine.rendering.TerrainQuadTree;
+
+/**
+ * Fluent API for configuring a {@link CdlodTerrain}.
+ */
+public class TerrainSettings {
+
+    private int patchResolution = CdlodTerrain.DEFAULT_PATCH_RESOLUTION;
+
+    private float lodDistance = 0;
+
+    private float morphStartRatio = TerrainQuadTree.DEFAULT_MORPH_START_RATIO;
+
+    private boolean compactHeights = false;
+
+    private TerrainSettings() { }
+
+    /**
+     * Creates a new, default terrain settings instance, which you can then
+     * configure using the fluent interface.
+     * @return A blank instance of the {@link TerrainSettings}.
+     */
+    public static TerrainSettings create() {
+        return new TerrainSettings();
+    }
+
+    /**
+     * Change the number of quads along each side of the grid patch drawn for every node. The leaves
+     * of the quadtree are sized so that they sample every height of the height map.
+     * @param patchResolution The patch resolution, a power of two.
+     * @return The modified settings.
+     */
+    public TerrainSettings withPatchResolution(int patchResolution) {
+        this.patchResolution = patchResolution;
+        return this;
+    }
+
+    /**
+     * Change the distance range of the finest level. Each coarser level's range is twice the previous one.
+     * @param lodDistance The range of the finest level, or 0 for twice the size of a leaf.
+     * @return The modified settings.
+     */
+    public TerrainSettings withLodDistance(float lodDistance) {
+        this.lodDistance = lodDistance;
+        return this;
+    }
+
+    /**
+     * Change the fraction of each level's range after which its vertices start morphing into the next level.
+     * @param morphStartRatio The fraction, between 0 and 1.
+     * @return The modified settings.
+     */
+    public TerrainSettings withMorphStartRatio(float morphStartRatio) {
+        this.morphStartRatio = Math.max(0.0f, Math.min(morphStartRatio, 0.99f));
+        return this;
+    }
+
+    /**
+     * Change how the heights are stored on the GPU: as 16-bit normalized integers (R16) spanning the
+     * terrain's height range, or as 32-bit floats (R32F).
+     * @param compactHeights Whether or not to use the half size R16 format.
+     * @return The modified settings.
+     */
+    public TerrainSettings withCompactHeights(boolean compactHeights) {
+        this.compactHeights = compactHeights;
+        return this;
+    }
+
+    public int getPatchResolution() {
+        return patchResolution;
+    }
+
+    public float getLodDistance() {
+        return lodDistance;
+    }
+
+    public float getMorphStartRatio() {
+        return morphStartRatio;
+    }
+
+    public boolean isCompactHeights() {
+        return compactHeights;
+    }
+}
@@ -99,8 +99,15 @@ public class TextItem extends GameObject {
     }
 
     public void setText(String text) {
+        // HUDs often set the same text every frame, which doesn't need a new mesh
+        if (text.equals(this.text)) {
+            return;
+        }
         this.text = text;
+        // Keep the material, so settings like the text colour survive the rebuild
+        Material material = this.getMesh().getMaterial();
         this.getMesh().deleteBuffers();
         this.setMesh(buildMesh());
+        this.getMesh().setMaterial(material);
     }
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package com.zcking.furyengine.game;
+
+import com.zcking.furyengine.engine.IHud;
+import com.zcking.furyengine.engine.Window;
+import com.zcking.furyengine.engine.objects.GameObject;
+import com.zcking.furyengine.engine.objects.TextItem;
+import com.zcking.furyengine.rendering.FontTexture;
+import com.zcking.furyengine.rendering.FrameProfiler;
+import org.joml.Vector4f;
+
+import java.awt.*;
+
+/**
+ * An overlay HUD showing the measurements of a {@link FrameProfiler}: one line per pass, followed
+ * by the frame's totals. Set it on the renderer with {@link Renderer#setProfilerOverlay(IHud)}, and
+ * call {@link ProfilerHud#update(Window)} once per frame.
+ */
+public class ProfilerHud implements IHud {
+
+    private static final Font FONT = new Font("Monospaced", Font.PLAIN, 14);
+
+    private static final String CHARSET = "ISO-8859-1";
+
+    private static final float LINE_HEIGHT = 18.0f;
+
+    /**
+     * The text is only rebuilt every few frames, so it stays readable and cheap.
+     */
+    private static final int REFRESH_FRAMES = 30;
+
+    private final FrameProfiler profiler;
+
+    private final TextItem[] passItems;
+
+    private final TextItem totalItem;
+
+    private final GameObject[] gameObjects;
+
+    private int framesUntilRefresh;
+
+    public ProfilerHud(FrameProfiler profiler) throws Exception {
+        this.profiler = profiler;
+        FontTexture fontTexture = new FontTexture(FONT, CHARSET);
+
+        FrameProfiler.Pass[] passes = FrameProfiler.Pass.values();
+        passItems = new TextItem[passes.length];
+        gameObjects = new GameObject[passes.length + 1];
+        for (int i = 0; i < passes.length; i++) {
+            passItems[i] = createTextItem(fontTexture);
+            gameObjects[i] = passItems[i];
+        }
+        totalItem = createTextItem(fontTexture);
+        gameObjects[passes.length] = totalItem;
+    }
+
+    private static TextItem createTextItem(FontTexture fontTexture) throws Exception {
+        TextItem textItem = new TextItem(" ", fontTexture);
+        textItem.getMesh().getMaterial().setAmbientColor(new Vector4f(1, 1, 0, 1));
+        return textItem;
+    }
+
+    /**
+     * Positions the overlay in the window's top left corner, and refreshes its text every few frames.
+     * @param window The window the overlay is drawn to.
+     */
+    public void update(Window window) {
+        for (int i = 0; i < passItems.length; i++) {
+            passItems[i].setPosition(10f, 10f + i * LINE_HEIGHT, 0);
+        }
+        totalItem.setPosition(10f, 10f + passItems.length * LINE_HEIGHT, 0);
+
+        if (framesUntilRefresh-- > 0) {
+            return;
+        }
+        framesUntilRefresh = REFRESH_FRAMES;
+
+        FrameProfiler.Pass[] passes = FrameProfiler.Pass.values();
+        for (int i = 0; i < passes.length; i++) {
+            FrameProfiler.PassStats stats = profiler.getStats(passes[i]);
+            passItems[i].setText(String.format("%-10s cpu %6.2f ms  gpu %6.2f ms  draws %5d  tris %8d  uniforms %5d  binds %4d",
+                    passes[i].getLabel(), stats.getCpuTime(), stats.getGpuTime(), stats.getDrawCalls(),
+                    stats.getTriangles(), stats.getUniformUploads(), stats.getTextureBinds()));
+        }
+        totalItem.setText(String.format("%-10s cpu %6.2f ms  gpu %6.2f ms", "Total",
+                profiler.getTotalCpuTime(), profiler.getTotalGpuTime()));
+    }
+
+    @Override
+    public GameObject[] getGameObjects() {
+        return gameObjects;
+    }
+}
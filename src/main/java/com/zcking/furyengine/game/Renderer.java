@@ -1,31 +1,36 @@
 package com.zcking.furyengine.game;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import com.zcking.furyengine.engine.graph.FrustumCullingFilter;
+import com.zcking.furyengine.engine.graph.HorizonCuller;
 import com.zcking.furyengine.engine.graph.animation.AnimatedFrame;
 import com.zcking.furyengine.engine.graph.particles.IParticleEmitter;
 import com.zcking.furyengine.engine.objects.AnimGameObject;
+import com.zcking.furyengine.engine.objects.BatchChunk;
+import com.zcking.furyengine.engine.objects.CdlodTerrain;
 import com.zcking.furyengine.engine.objects.GameObject;
+import com.zcking.furyengine.engine.objects.IHeightField;
 import com.zcking.furyengine.engine.IHud;
 import com.zcking.furyengine.engine.Scene;
 import com.zcking.furyengine.engine.Window;
 import com.zcking.furyengine.engine.graph.Transformation;
-import com.zcking.furyengine.lighting.DirectionalLight;
-import com.zcking.furyengine.lighting.PointLight;
-import com.zcking.furyengine.lighting.SceneLight;
-import com.zcking.furyengine.lighting.SpotLight;
 import com.zcking.furyengine.rendering.*;
+import com.zcking.furyengine.rendering.uniforms.*;
 import com.zcking.furyengine.engine.objects.SkyBox;
 import com.zcking.furyengine.utils.ResourceUtils;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import org.joml.Vector4f;
 import org.lwjgl.opengl.GL30;
 
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
 import static org.lwjgl.opengl.GL13.GL_TEXTURE2;
 import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL20.glVertexAttrib4f;
 import static org.lwjgl.opengl.GL30.glBindFramebuffer;
 
 /**
@@ -40,9 +45,14 @@ public class Renderer {
 
     private static final float Z_FAR = 1000.f;
 
-    private static final int MAX_POINT_LIGHTS = 5;
+    private static final int SHADER_SLOT_DEFAULT = 0;
 
-    private static final int MAX_SPOT_LIGHTS = 5;
+    /**
+     * Bytes of dynamic data (e.g. instance data) that can be streamed each frame.
+     */
+    private static final int STREAM_FRAME_SIZE = 4 * 1024 * 1024;
+
+    private static final int TEXTURE_LOADER_THREADS = 2;
 
     private final Transformation transformation;
 
@@ -58,56 +68,310 @@ public class Renderer {
 
     private ShaderProgram particlesShaderProgram;
 
+    private ShaderProgram terrainShaderProgram;
+
+    private ShaderProgram terrainDepthShaderProgram;
+
+    // Scene shader uniforms
+    private Matrix4fUniform sceneModelViewMatrix;
+    private IntUniform sceneTextureSampler;
+    private IntUniform sceneNormalMap;
+    private MaterialUniform sceneMaterial;
+    private FogUniform sceneFog;
+    private IntUniform sceneShadowMap;
+    private Matrix4fArrayUniform sceneJointsMatrix;
+    private IntUniform sceneIsInstanced;
+    private Vector3fUniform scenePositionScale;
+    private Vector3fUniform scenePositionOffset;
+    private IntUniform sceneOctNormals;
+
+    // HUD shader uniforms
+    private Matrix4fUniform hudProjModelMatrix;
+    private Vector4fUniform hudColor;
+    private IntUniform hudHasTexture;
+    private Vector4fUniform hudUvTransform;
+
+    // SkyBox shader uniforms
+    private Matrix4fUniform skyBoxModelMatrix;
+    private IntUniform skyBoxTextureSampler;
+    private Vector3fUniform skyBoxAmbientLight;
+
+    // Depth shader uniforms
+    private Matrix4fUniform depthModelLightViewMatrix;
+    private Matrix4fUniform depthOrthoProjectionMatrix;
+    private Matrix4fArrayUniform depthJointsMatrix;
+    private IntUniform depthIsInstanced;
+    private Vector3fUniform depthPositionScale;
+    private Vector3fUniform depthPositionOffset;
+
+    // Particle shader uniforms
+    private Matrix4fUniform particleModelViewMatrix;
+    private IntUniform particleTextureSampler;
+    private IntUniform particleNumRows;
+    private IntUniform particleNumCols;
+    private FloatUniform particleTexXOffset;
+    private FloatUniform particleTexYOffset;
+    private IntUniform particleIsInstanced;
+    private Vector4fUniform particleUvTransform;
+
+    // Terrain shader uniforms
+    private IntUniform terrainTextureSampler;
+    private IntUniform terrainNormalMap;
+    private MaterialUniform terrainMaterial;
+    private FogUniform terrainFog;
+    private IntUniform terrainShadowMap;
+    private TerrainUniforms terrainUniforms;
+    private FloatUniform terrainTextInc;
+
+    // Terrain depth shader uniforms
+    private Matrix4fUniform terrainDepthOrthoProjectionMatrix;
+    private TerrainUniforms terrainDepthUniforms;
+
     private final float specularPower;
 
+    private boolean instancingEnabled;
+
+    private final List<GameObject> instancedObjects;
+
+    private final List<BatchChunk> batchChunks;
+
+    private final RenderQueue renderQueue;
+
+    private final int[] boundTextureIds;
+
+    private FrameUniformBuffer frameUniformBuffer;
+
+    private LightUniformBuffer lightUniformBuffer;
+
+    private StreamBuffer streamBuffer;
+
+    private FrameProfiler profiler;
+
+    private TextureLoader textureLoader;
+
+    private long textureUploadBudget;
+
+    private IHud profilerOverlay;
+
+    private boolean frustumCullingEnabled;
+
+    private final FrustumCullingFilter sceneCullingFilter;
+
+    private boolean occlusionCullingEnabled;
+
+    private final HorizonCuller horizonCuller;
+
+    private boolean lodEnabled;
+
+    private float lodHysteresis;
+
+    private final ShadowSettings shadowSettings;
+
+    private Scene shadowScene;
+
+    private final TerrainQuadTree.Selection terrainSelection;
+
+    private final TerrainQuadTree.Selection[] cascadeTerrainSelections;
+
     // Scene shader uniforms
-    private static final String UNIFORM_PROJECTION_MATRIX = "projectionMatrix";
     private static final String UNIFORM_MODEL_VIEW_MATRIX = "modelViewMatrix";
     private static final String UNIFORM_TEXTURE_SAMPLER = "textureSampler";
-    private static final String UNIFORM_AMBIENT_LIGHT = "ambientLight";
-    private static final String UNIFORM_SPECULAR_POWER = "specularPower";
-    private static final String UNIFORM_POINT_LIGHTS = "pointLights";
     private static final String UNIFORM_MATERIAL = "material";
-    private static final String UNIFORM_DIRECTIONAL_LIGHT = "directionalLight";
-    private static final String UNIFORM_SPOT_LIGHTS = "spotLights";
     private static final String UNIFORM_FOG = "fog";
     private static final String UNIFORM_NORMAL_MAP = "normalMap";
-    private static final String UNIFORM_MODEL_LV_MAT = "modelLightViewMatrix";
-    private static final String UNIFORM_ORTHO_PROJ_MAT = "orthoProjectionMatrix";
     private static final String UNIFORM_SHADOW_MAP = "shadowMap";
     private static final String UNIFORM_JOINTS_MATRIX = "jointsMatrix";
+    private static final String UNIFORM_IS_INSTANCED = "isInstanced";
+    private static final String UNIFORM_POSITION_SCALE = "positionScale";
+    private static final String UNIFORM_POSITION_OFFSET = "positionOffset";
+    private static final String UNIFORM_OCT_NORMALS = "octNormals";
 
     // HUD shader uniforms
     private static final String UNIFORM_HUD_PROJ_MODEL_MATRIX = "projModelMatrix";
     private static final String UNIFORM_HUD_COLOR = "color";
     private static final String UNIFORM_HUD_HAS_TEXTURE = "hasTexture";
+    private static final String UNIFORM_HUD_UV_TRANSFORM = "uvTransform";
 
     // SkyBox shader uniforms
-    private static final String UNIFORM_SKYBOX_PROJECTION_MATRIX = "projectionMatrix";
-    private static final String UNIFORM_SKYBOX_MODEL_VIEW_MATRIX = "modelViewMatrix";
+    private static final String UNIFORM_SKYBOX_MODEL_MATRIX = "modelMatrix";
     private static final String UNIFORM_SKYBOX_TEXTURE_SAMPLER = "textureSampler";
     private static final String UNIFORM_SKYBOX_AMBIENT_LIGHT = "ambientLight";
 
     // Depth shader uniforms
-    private static final String UNIFORM_DEPTH_ORTHO_MAT = "orthoProjectionMatrix";
     private static final String UNIFORM_DEPTH_MODEL_MAT = "modelLightViewMatrix";
+    private static final String UNIFORM_DEPTH_ORTHO_PROJ_MAT = "orthoProjectionMatrix";
     private static final String UNIFORM_DEPTH_JOINTS_MATRIX = "jointsMatrix";
+    private static final String UNIFORM_DEPTH_IS_INSTANCED = "isInstanced";
 
     // Particle shader uniforms
-    private static final String UNIFORM_PARTICLE_PROJ_MAT = "projectionMatrix";
     private static final String UNIFORM_PARTICLE_MODEL_VIEW_MAT = "modelViewMatrix";
     private static final String UNIFORM_PARTICLE_TEXTURE_SAMPLER = "textureSampler";
     private static final String UNIFORM_PARCICLE_NUM_ROWS = "numRows";
     private static final String UNIFORM_PARCICLE_NUM_COLS = "numCols";
     private static final String UNIFORM_PARTICLE_TEX_XOFFSET = "texXOffset";
     private static final String UNIFORM_PARTICLE_TEX_YOFFSET = "texYOffset";
+    private static final String UNIFORM_PARTICLE_IS_INSTANCED = "isInstanced";
+    private static final String UNIFORM_PARTICLE_UV_TRANSFORM = "uvTransform";
+
+    // Terrain shader uniforms
+    private static final String UNIFORM_TERRAIN_HEIGHT_MAP = "heightMap";
+    private static final String UNIFORM_TERRAIN_LOD_DATA = "lodData";
+    private static final String UNIFORM_TERRAIN_HEIGHT_RANGE = "heightRange";
+    private static final String UNIFORM_TERRAIN_CAMERA_POSITION = "cameraPosition";
+    private static final String UNIFORM_TERRAIN_DATA = "terrainData";
+    private static final String UNIFORM_TERRAIN_GRID_RESOLUTION = "gridResolution";
+    private static final String UNIFORM_TERRAIN_TEXT_INC = "textInc";
 
     /**
-     * Constructs the renderer, ready for initialization.
+     * Constructs the renderer with the default shadow settings, ready for initialization.
      */
     public Renderer() {
+        this(ShadowSettings.create());
+    }
+
+    /**
+     * Constructs the renderer, ready for initialization.
+     * @param shadowSettings The configuration of the directional light's cascaded shadow maps.
+     */
+    public Renderer(ShadowSettings shadowSettings) {
+        this.shadowSettings = shadowSettings;
         transformation = new Transformation();
         specularPower = 10f;
+        instancingEnabled = true;
+        instancedObjects = new ArrayList<>();
+        batchChunks = new ArrayList<>();
+        renderQueue = new RenderQueue();
+        boundTextureIds = new int[2];
+        frustumCullingEnabled = true;
+        lodEnabled = true;
+        lodHysteresis = 0.1f;
+        textureUploadBudget = 2000000L;
+        sceneCullingFilter = new FrustumCullingFilter();
+        occlusionCullingEnabled = true;
+        horizonCuller = new HorizonCuller();
+        terrainSelection = new TerrainQuadTree.Selection();
+        cascadeTerrainSelections = new TerrainQuadTree.Selection[ShadowMap.MAX_CASCADES];
+        for (int i = 0; i < cascadeTerrainSelections.length; i++) {
+            cascadeTerrainSelections[i] = new TerrainQuadTree.Selection();
+        }
+    }
+
+    public boolean isInstancingEnabled() {
+        return instancingEnabled;
+    }
+
+    /**
+     * Enables or disables instanced rendering. When enabled, consecutive game objects sharing a mesh
+     * in the {@link RenderQueue} are drawn with a single instanced draw call, except objects that need their own uniforms
+     * (see {@link GameObject#isInstanceable()}), which fall back to one draw call each.
+     * @param instancingEnabled Whether or not instanced rendering should be used.
+     */
+    public void setInstancingEnabled(boolean instancingEnabled) {
+        this.instancingEnabled = instancingEnabled;
+    }
+
+    public boolean isFrustumCullingEnabled() {
+        return frustumCullingEnabled;
+    }
+
+    /**
+     * Enables or disables frustum culling. When enabled, game objects outside of the camera's frustum
+     * are not drawn in the scene pass, and game objects outside of a shadow cascade are not drawn
+     * in that cascade's shadow pass.
+     * @param frustumCullingEnabled Whether or not frustum culling should be used.
+     */
+    public void setFrustumCullingEnabled(boolean frustumCullingEnabled) {
+        this.frustumCullingEnabled = frustumCullingEnabled;
+    }
+
+    public boolean isOcclusionCullingEnabled() {
+        return occlusionCullingEnabled;
+    }
+
+    /**
+     * Enables or disables occlusion culling against the scene's terrain (see {@link Scene#getOccluder()}).
+     * When enabled, along with frustum culling, game objects hidden behind the terrain's ridges are
+     * not drawn in the scene pass. They're found on a worker thread (see {@link HorizonCuller}).
+     * @param occlusionCullingEnabled Whether or not occlusion culling should be used.
+     */
+    public void setOcclusionCullingEnabled(boolean occlusionCullingEnabled) {
+        this.occlusionCullingEnabled = occlusionCullingEnabled;
+    }
+
+    /**
+     * @return The occlusion culler, e.g. to report its error if it failed (see {@link HorizonCuller#getLastError()}).
+     */
+    public HorizonCuller getHorizonCuller() {
+        return horizonCuller;
+    }
+
+    public boolean isLodEnabled() {
+        return lodEnabled;
+    }
+
+    /**
+     * Enables or disables levels of detail. When enabled, each game object whose mesh has levels of
+     * detail (see {@link Mesh#generateLods(LodSettings)}) is drawn with the level matching its screen size,
+     * in every pass. When disabled, every object is drawn at full detail.
+     * @param lodEnabled Whether or not levels of detail should be used.
+     */
+    public void setLodEnabled(boolean lodEnabled) {
+        this.lodEnabled = lodEnabled;
+    }
+
+    /**
+     * Sets how far past a level of detail's screen size an object must get before switching to it,
+     * so objects near a threshold don't pop between levels every frame.
+     * @param lodHysteresis The relative margin around each threshold (0.1 by default).
+     */
+    public void setLodHysteresis(float lodHysteresis) {
+        this.lodHysteresis = lodHysteresis;
+    }
+
+    /**
+     * @return The culling filter of the scene pass, holding the tested/visible counts of the last frame.
+     */
+    public FrustumCullingFilter getSceneCullingFilter() {
+        return sceneCullingFilter;
+    }
+
+    /**
+     * @return The per-pass profiler of the renderer, disabled by default. Only valid after {@link Renderer#init(Window)}.
+     */
+    public FrameProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * @return The loader decoding textures in the background, whose uploads are done at the start of
+     * each frame. Only valid after {@link Renderer#init(Window)}.
+     */
+    public TextureLoader getTextureLoader() {
+        return textureLoader;
+    }
+
+    /**
+     * Sets how much time each frame may spend uploading the textures of the texture loader.
+     * At least one texture is uploaded per frame, if any is ready.
+     * @param textureUploadBudget The time budget, in nanoseconds (2 ms by default).
+     */
+    public void setTextureUploadBudget(long textureUploadBudget) {
+        this.textureUploadBudget = textureUploadBudget;
+    }
+
+    /**
+     * Sets an overlay drawn on top of the HUD while profiling is enabled (e.g. a {@link ProfilerHud}).
+     * @param profilerOverlay The overlay, or null for none.
+     */
+    public void setProfilerOverlay(IHud profilerOverlay) {
+        this.profilerOverlay = profilerOverlay;
+    }
+
+    /**
+     * @return The cascaded shadow map, whose cascades hold the culling filters of their shadow passes.
+     */
+    public ShadowMap getShadowMap() {
+        return shadowMap;
     }
 
     /**
@@ -116,13 +380,23 @@ public class Renderer {
      * @throws Exception If the initialization fails.
      */
     public void init(Window window) throws Exception {
-        shadowMap = new ShadowMap();
+        shadowMap = new ShadowMap(shadowSettings);
+        frameUniformBuffer = new FrameUniformBuffer();
+        lightUniformBuffer = new LightUniformBuffer();
+        streamBuffer = new StreamBuffer(STREAM_FRAME_SIZE);
+        profiler = new FrameProfiler();
+        textureLoader = new TextureLoader(TEXTURE_LOADER_THREADS);
+
+        // Meshes without skinning streams don't enable the weights attribute, so the shaders read
+        // this constant instead. Zero weights make them skip the joint matrices
+        glVertexAttrib4f(VertexAttribute.Usage.WEIGHTS.getLocation(), 0, 0, 0, 0);
 
         setupDepthShader();
         setupSkyBoxShader();
         setupSceneShader();
         setupParticlesShader();
         setupHudShader();
+        setupTerrainShaders();
     }
 
     /**
@@ -134,21 +408,63 @@ public class Renderer {
      */
     public void render(Window window, Camera camera, Scene scene, IHud hud) {
         clear();
+        streamBuffer.beginFrame();
+        profiler.beginFrame();
 
-        // Render depth map before viewports are set up
-        renderDepthMap(window, camera, scene);
-        glViewport(0, 0, window.getWidth(), window.getHeight());
+        // Objects hidden behind the terrain are found on a worker while the frame's shared data is prepared
+        IHeightField occluder = scene.getOccluder();
+        if (frustumCullingEnabled && occlusionCullingEnabled && occluder != null) {
+            horizonCuller.begin(camera.getPosition(), occluder, scene.getMeshMap());
+        }
+        textureLoader.update(textureUploadBudget);
 
         // Update projection and view matrices once per render cycle
         transformation.updateProjectionMatrix(FOV, window.getWidth(), window.getHeight(), Z_NEAR, Z_FAR);
         transformation.updateViewMatrix(camera);
+        float aspectRatio = (float) window.getWidth() / window.getHeight();
+        if (scene != shadowScene) {
+            shadowMap.invalidateStaticCache();
+            shadowScene = scene;
+        }
+        shadowMap.update(transformation.getViewMatrix(), FOV, aspectRatio, Z_NEAR,
+                scene.getSceneLight().getDirectionalLight().getDirection(), scene.getStaticVersion());
+
+        // Upload the data shared by every shader once per frame
+        frameUniformBuffer.update(transformation.getProjectionMatrix(), transformation.getViewMatrix(), shadowMap);
+        lightUniformBuffer.update(scene.getSceneLight(), specularPower, transformation.getViewMatrix());
+
+        // Cull and sort the draws of both passes up front
+        profiler.beginPass(FrameProfiler.Pass.CULL);
+        fillRenderQueue(camera, scene);
+        profiler.endPass();
+
+        // Render depth map before viewports are set up
+        profiler.beginPass(FrameProfiler.Pass.DEPTH);
+        renderDepthMap(window, camera, scene);
+        profiler.endPass();
+        glViewport(0, 0, window.getWidth(), window.getHeight());
 
+        profiler.beginPass(FrameProfiler.Pass.SCENE);
         renderScene(window, camera, scene);
-        if (scene.getSkyBox() != null)
+        profiler.endPass();
+        if (scene.getSkyBox() != null) {
+            profiler.beginPass(FrameProfiler.Pass.SKYBOX);
             renderSkyBox(window, camera, scene);
+            profiler.endPass();
+        }
+        profiler.beginPass(FrameProfiler.Pass.PARTICLES);
         renderParticles(window, camera, scene);
+        profiler.endPass();
+
+        profiler.beginPass(FrameProfiler.Pass.HUD);
         if (hud != null)
             renderHud(window, hud);
+        if (profilerOverlay != null && profiler.isEnabled())
+            renderHud(window, profilerOverlay);
+        profiler.endPass();
+
+        // Protect the frame's streamed data until the GPU is done with it
+        streamBuffer.endFrame();
 
 //        renderAxes(camera); // Todo: create RendererSettings to pass to Renderer class that contains this stuff?
     }
@@ -158,12 +474,20 @@ public class Renderer {
         depthShaderProgram.createVertexShader(ResourceUtils.loadResource("/shaders/depth_vertex.glsl"));
         depthShaderProgram.createFragmentShader(ResourceUtils.loadResource("/shaders/depth_fragment.glsl"));
         depthShaderProgram.link();
+        depthShaderProgram.bindUniformBlock(FrameUniformBuffer.BLOCK_NAME, FrameUniformBuffer.BINDING_POINT);
 
-        depthShaderProgram.createUniform(UNIFORM_DEPTH_ORTHO_MAT);
-        depthShaderProgram.createUniform(UNIFORM_DEPTH_MODEL_MAT);
+        depthModelLightViewMatrix = depthShaderProgram.createMatrix4fUniform(UNIFORM_DEPTH_MODEL_MAT);
+        depthOrthoProjectionMatrix = depthShaderProgram.createMatrix4fUniform(UNIFORM_DEPTH_ORTHO_PROJ_MAT);
 
         // Create uniform for joint matrices
-        depthShaderProgram.createUniform(UNIFORM_DEPTH_JOINTS_MATRIX);
+        depthJointsMatrix = depthShaderProgram.createMatrix4fArrayUniform(UNIFORM_DEPTH_JOINTS_MATRIX, AnimatedFrame.MAX_JOINTS);
+
+        // Create uniforms for instanced rendering
+        depthIsInstanced = depthShaderProgram.createIntUniform(UNIFORM_DEPTH_IS_INSTANCED);
+
+        // Create uniforms for quantized vertex formats
+        depthPositionScale = depthShaderProgram.createVector3fUniform(UNIFORM_POSITION_SCALE);
+        depthPositionOffset = depthShaderProgram.createVector3fUniform(UNIFORM_POSITION_OFFSET);
     }
 
     private void setupSkyBoxShader() throws Exception {
@@ -171,12 +495,12 @@ public class Renderer {
         skyBoxShaderProgram.createVertexShader(ResourceUtils.loadResource("/shaders/skybox_vertex.glsl"));
         skyBoxShaderProgram.createFragmentShader(ResourceUtils.loadResource("/shaders/skybox_fragment.glsl"));
         skyBoxShaderProgram.link();
+        skyBoxShaderProgram.bindUniformBlock(FrameUniformBuffer.BLOCK_NAME, FrameUniformBuffer.BINDING_POINT);
 
-        // Create uniforms for projection matrix
-        skyBoxShaderProgram.createUniform(UNIFORM_SKYBOX_PROJECTION_MATRIX);
-        skyBoxShaderProgram.createUniform(UNIFORM_SKYBOX_MODEL_VIEW_MATRIX);
-        skyBoxShaderProgram.createUniform(UNIFORM_SKYBOX_TEXTURE_SAMPLER);
-        skyBoxShaderProgram.createUniform(UNIFORM_SKYBOX_AMBIENT_LIGHT);
+        // Create uniform for the model matrix
+        skyBoxModelMatrix = skyBoxShaderProgram.createMatrix4fUniform(UNIFORM_SKYBOX_MODEL_MATRIX);
+        skyBoxTextureSampler = skyBoxShaderProgram.createIntUniform(UNIFORM_SKYBOX_TEXTURE_SAMPLER);
+        skyBoxAmbientLight = skyBoxShaderProgram.createVector3fUniform(UNIFORM_SKYBOX_AMBIENT_LIGHT);
     }
 
     private void setupSceneShader() throws Exception {
@@ -185,29 +509,31 @@ public class Renderer {
         sceneShaderProgram.createVertexShader(ResourceUtils.loadResource("/shaders/scene_vertex.glsl"));
         sceneShaderProgram.createFragmentShader(ResourceUtils.loadResource("/shaders/scene_fragment.glsl"));
         sceneShaderProgram.link();
+        sceneShaderProgram.bindUniformBlock(FrameUniformBuffer.BLOCK_NAME, FrameUniformBuffer.BINDING_POINT);
+        sceneShaderProgram.bindUniformBlock(LightUniformBuffer.BLOCK_NAME, LightUniformBuffer.BINDING_POINT);
 
-        // Create uniforms for modelView and projection matrices
-        sceneShaderProgram.createUniform(UNIFORM_PROJECTION_MATRIX);
-        sceneShaderProgram.createUniform(UNIFORM_MODEL_VIEW_MATRIX);
-        sceneShaderProgram.createUniform(UNIFORM_TEXTURE_SAMPLER);
-        sceneShaderProgram.createUniform(UNIFORM_NORMAL_MAP);
+        // Create uniform for modelView matrix
+        sceneModelViewMatrix = sceneShaderProgram.createMatrix4fUniform(UNIFORM_MODEL_VIEW_MATRIX);
+        sceneTextureSampler = sceneShaderProgram.createIntUniform(UNIFORM_TEXTURE_SAMPLER);
+        sceneNormalMap = sceneShaderProgram.createIntUniform(UNIFORM_NORMAL_MAP);
         // Create uniform for material
-        sceneShaderProgram.createMaterialUniform(UNIFORM_MATERIAL);
-        // Create lighting related uniforms
-        sceneShaderProgram.createUniform(UNIFORM_SPECULAR_POWER);
-        sceneShaderProgram.createUniform(UNIFORM_AMBIENT_LIGHT);
-        sceneShaderProgram.createPointLightListUniform(UNIFORM_POINT_LIGHTS, MAX_POINT_LIGHTS);
-        sceneShaderProgram.createSpotLightListUniform(UNIFORM_SPOT_LIGHTS, MAX_SPOT_LIGHTS);
-        sceneShaderProgram.createDirectionalLightUniform(UNIFORM_DIRECTIONAL_LIGHT);
-        sceneShaderProgram.createFogUniform(UNIFORM_FOG);
+        sceneMaterial = sceneShaderProgram.createMaterialUniform(UNIFORM_MATERIAL);
+        // Create fog uniform
+        sceneFog = sceneShaderProgram.createFogUniform(UNIFORM_FOG);
 
         // Create uniforms for shadow mapping
-        sceneShaderProgram.createUniform(UNIFORM_SHADOW_MAP);
-        sceneShaderProgram.createUniform(UNIFORM_ORTHO_PROJ_MAT);
-        sceneShaderProgram.createUniform(UNIFORM_MODEL_LV_MAT);
+        sceneShadowMap = sceneShaderProgram.createIntUniform(UNIFORM_SHADOW_MAP);
 
         // Create uniform for joint matrices
-        sceneShaderProgram.createUniform(UNIFORM_JOINTS_MATRIX);
+        sceneJointsMatrix = sceneShaderProgram.createMatrix4fArrayUniform(UNIFORM_JOINTS_MATRIX, AnimatedFrame.MAX_JOINTS);
+
+        // Create uniforms for instanced rendering
+        sceneIsInstanced = sceneShaderProgram.createIntUniform(UNIFORM_IS_INSTANCED);
+
+        // Create uniforms for quantized vertex formats
+        scenePositionScale = sceneShaderProgram.createVector3fUniform(UNIFORM_POSITION_SCALE);
+        scenePositionOffset = sceneShaderProgram.createVector3fUniform(UNIFORM_POSITION_OFFSET);
+        sceneOctNormals = sceneShaderProgram.createIntUniform(UNIFORM_OCT_NORMALS);
     }
 
     private void setupHudShader() throws Exception {
@@ -217,9 +543,10 @@ public class Renderer {
         hudShaderProgram.link();
 
         // Create uniforms for Orthographic-model projection matrix and base colour
-        hudShaderProgram.createUniform(UNIFORM_HUD_PROJ_MODEL_MATRIX);
-        hudShaderProgram.createUniform(UNIFORM_HUD_COLOR);
-        hudShaderProgram.createUniform(UNIFORM_HUD_HAS_TEXTURE);
+        hudProjModelMatrix = hudShaderProgram.createMatrix4fUniform(UNIFORM_HUD_PROJ_MODEL_MATRIX);
+        hudColor = hudShaderProgram.createVector4fUniform(UNIFORM_HUD_COLOR);
+        hudHasTexture = hudShaderProgram.createIntUniform(UNIFORM_HUD_HAS_TEXTURE);
+        hudUvTransform = hudShaderProgram.createVector4fUniform(UNIFORM_HUD_UV_TRANSFORM);
     }
 
     private void setupParticlesShader() throws Exception {
@@ -227,14 +554,42 @@ public class Renderer {
         particlesShaderProgram.createVertexShader(ResourceUtils.loadResource("/shaders/particles_vertex.glsl"));
         particlesShaderProgram.createFragmentShader(ResourceUtils.loadResource("/shaders/particles_fragment.glsl"));
         particlesShaderProgram.link();
+        particlesShaderProgram.bindUniformBlock(FrameUniformBuffer.BLOCK_NAME, FrameUniformBuffer.BINDING_POINT);
+
+        particleModelViewMatrix = particlesShaderProgram.createMatrix4fUniform(UNIFORM_PARTICLE_MODEL_VIEW_MAT);
+        particleTextureSampler = particlesShaderProgram.createIntUniform(UNIFORM_PARTICLE_TEXTURE_SAMPLER);
+        particleNumRows = particlesShaderProgram.createIntUniform(UNIFORM_PARCICLE_NUM_ROWS);
+        particleNumCols = particlesShaderProgram.createIntUniform(UNIFORM_PARCICLE_NUM_COLS);
+        particleTexXOffset = particlesShaderProgram.createFloatUniform(UNIFORM_PARTICLE_TEX_XOFFSET);
+        particleTexYOffset = particlesShaderProgram.createFloatUniform(UNIFORM_PARTICLE_TEX_YOFFSET);
+        particleIsInstanced = particlesShaderProgram.createIntUniform(UNIFORM_PARTICLE_IS_INSTANCED);
+        particleUvTransform = particlesShaderProgram.createVector4fUniform(UNIFORM_PARTICLE_UV_TRANSFORM);
+    }
 
-        particlesShaderProgram.createUniform(UNIFORM_PARTICLE_PROJ_MAT);
-        particlesShaderProgram.createUniform(UNIFORM_PARTICLE_MODEL_VIEW_MAT);
-        particlesShaderProgram.createUniform(UNIFORM_PARTICLE_TEXTURE_SAMPLER);
-        particlesShaderProgram.createUniform(UNIFORM_PARCICLE_NUM_ROWS);
-        particlesShaderProgram.createUniform(UNIFORM_PARCICLE_NUM_COLS);
-        particlesShaderProgram.createUniform(UNIFORM_PARTICLE_TEX_XOFFSET);
-        particlesShaderProgram.createUniform(UNIFORM_PARTICLE_TEX_YOFFSET);
+    private void setupTerrainShaders() throws Exception {
+        terrainShaderProgram = new ShaderProgram();
+        terrainShaderProgram.createVertexShader(ResourceUtils.loadResource("/shaders/terrain_vertex.glsl"));
+        terrainShaderProgram.createFragmentShader(ResourceUtils.loadResource("/shaders/scene_fragment.glsl"));
+        terrainShaderProgram.link();
+        terrainShaderProgram.bindUniformBlock(FrameUniformBuffer.BLOCK_NAME, FrameUniformBuffer.BINDING_POINT);
+        terrainShaderProgram.bindUniformBlock(LightUniformBuffer.BLOCK_NAME, LightUniformBuffer.BINDING_POINT);
+
+        terrainTextureSampler = terrainShaderProgram.createIntUniform(UNIFORM_TEXTURE_SAMPLER);
+        terrainNormalMap = terrainShaderProgram.createIntUniform(UNIFORM_NORMAL_MAP);
+        terrainMaterial = terrainShaderProgram.createMaterialUniform(UNIFORM_MATERIAL);
+        terrainFog = terrainShaderProgram.createFogUniform(UNIFORM_FOG);
+        terrainShadowMap = terrainShaderProgram.createIntUniform(UNIFORM_SHADOW_MAP);
+        terrainUniforms = new TerrainUniforms(terrainShaderProgram);
+        terrainTextInc = terrainShaderProgram.createFloatUniform(UNIFORM_TERRAIN_TEXT_INC);
+
+        terrainDepthShaderProgram = new ShaderProgram();
+        terrainDepthShaderProgram.createVertexShader(ResourceUtils.loadResource("/shaders/terrain_depth_vertex.glsl"));
+        terrainDepthShaderProgram.createFragmentShader(ResourceUtils.loadResource("/shaders/depth_fragment.glsl"));
+        terrainDepthShaderProgram.link();
+        terrainDepthShaderProgram.bindUniformBlock(FrameUniformBuffer.BLOCK_NAME, FrameUniformBuffer.BINDING_POINT);
+
+        terrainDepthOrthoProjectionMatrix = terrainDepthShaderProgram.createMatrix4fUniform(UNIFORM_DEPTH_ORTHO_PROJ_MAT);
+        terrainDepthUniforms = new TerrainUniforms(terrainDepthShaderProgram);
     }
 
     public void clear() {
@@ -242,37 +597,29 @@ public class Renderer {
     }
 
     private void renderDepthMap(Window window, Camera camera, Scene scene) {
-        // Setup view port to match the texture size
-        glBindFramebuffer(GL30.GL_FRAMEBUFFER, shadowMap.getDepthMapFBO());
-        glViewport(0, 0, ShadowMap.SHADOW_MAP_WIDTH, ShadowMap.SHADOW_MAP_HEIGHT);
-        glClear(GL_DEPTH_BUFFER_BIT);
-
-        depthShaderProgram.bind();
-
-        DirectionalLight light = scene.getSceneLight().getDirectionalLight();
-        Vector3f lightDirection = light.getDirection();
-
-        float lightAngleX = (float)Math.toDegrees(Math.acos(lightDirection.z));
-        float lightAngleY = (float)Math.toDegrees(Math.asin(lightDirection.x));
-        float lightAngleZ = 0;
-        Matrix4f lightViewMatrix = transformation.updateLightViewMatrix(new Vector3f(lightDirection).mul(light.getShadowPosMult()), new Vector3f(lightAngleX, lightAngleY, lightAngleZ));
-        DirectionalLight.OrthoCoords orthCoords = light.getOrthoCoords();
-        Matrix4f orthoProjMatrix = transformation.updateOrthoProjectionMatrix(orthCoords.left, orthCoords.right, orthCoords.bottom, orthCoords.top, orthCoords.near, orthCoords.far);
-
-        depthShaderProgram.setUniform(UNIFORM_DEPTH_ORTHO_MAT, orthoProjMatrix);
-        Map<Mesh, List<GameObject>> mapMeshes = scene.getMeshMap();
-        for (Mesh mesh : mapMeshes.keySet()) {
-            mesh.renderList(mapMeshes.get(mesh), (GameObject gameObject) -> {
-                        Matrix4f modelLightViewMatrix = transformation.buildModelViewMatrix(gameObject, lightViewMatrix);
-                        depthShaderProgram.setUniform(UNIFORM_DEPTH_MODEL_MAT, modelLightViewMatrix);
-
-                        if ( gameObject instanceof AnimGameObject ) {
-                            AnimGameObject animGameObject = (AnimGameObject)gameObject;
-                            AnimatedFrame frame = animGameObject.getCurrentFrame();
-                            depthShaderProgram.setUniform(UNIFORM_DEPTH_JOINTS_MATRIX, frame.getJointMatrices());
-                        }
-                    }
-            );
+        // The light's view matrix comes from the frame uniform buffer, each cascade has its own projection
+        Matrix4f lightViewMatrix = shadowMap.getLightViewMatrix();
+        for (ShadowCascade cascade : shadowMap.getCascades()) {
+            if (!cascade.isDirty()) {
+                continue;
+            }
+            depthShaderProgram.bind();
+            depthOrthoProjectionMatrix.set(cascade.getOrthoProjectionMatrix());
+            if (shadowSettings.isStaticCasterCachingEnabled() && cascade.isStaticDirty()) {
+                shadowMap.bindStaticCascade(cascade);
+                renderQueuedPass(RenderQueue.staticShadowPass(cascade.getIndex()), lightViewMatrix);
+            }
+            // Start from the cached static casters and only render the dynamic ones on top
+            shadowMap.bindCascade(cascade);
+            renderQueuedPass(RenderQueue.shadowPass(cascade.getIndex()), lightViewMatrix);
+
+            // The terrain morphs with the camera, so it's never cached with the static casters
+            if (scene.getTerrain() != null) {
+                terrainDepthShaderProgram.bind();
+                terrainDepthOrthoProjectionMatrix.set(cascade.getOrthoProjectionMatrix());
+                renderTerrain(scene.getTerrain(), camera, cascadeTerrainSelections[cascade.getIndex()],
+                        terrainDepthUniforms, 0);
+            }
         }
 
         // Unbind
@@ -280,22 +627,261 @@ public class Renderer {
         glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
     }
 
+    /**
+     * Fills the {@link RenderQueue} with a draw packet for every (visible) game object of the scene,
+     * for the shadow cascades rendered this frame and the opaque pass, and sorts it. Also selects the
+     * terrain's nodes for each of those passes.
+     * @param camera The camera to render from.
+     * @param scene The scene to render.
+     */
+    private void fillRenderQueue(Camera camera, Scene scene) {
+        // The occlusion pass reads the objects' transforms, so it must be done before they're used here
+        boolean occlusionCulled = horizonCuller.end();
+        renderQueue.clear();
+        if (lodEnabled) {
+            selectLods(scene);
+        }
+
+        Matrix4f lightViewMatrix = shadowMap.getLightViewMatrix();
+        for (ShadowCascade cascade : shadowMap.getCascades()) {
+            if (!cascade.isDirty()) {
+                continue;
+            }
+            Map<Mesh, List<GameObject>> shadowMeshes = scene.getMeshMap();
+            if (frustumCullingEnabled) {
+                shadowMeshes = cascade.getCullingFilter().filter(shadowMeshes);
+            }
+            queueShadowCasters(cascade, shadowMeshes, lightViewMatrix);
+        }
+
+        Matrix4f projectionMatrix = transformation.getProjectionMatrix();
+        Matrix4f viewMatrix = transformation.getViewMatrix();
+        Map<Mesh, List<GameObject>> sceneMeshes = scene.getMeshMap();
+        if (frustumCullingEnabled) {
+            sceneCullingFilter.updateFrustum(projectionMatrix, viewMatrix);
+            sceneMeshes = sceneCullingFilter.filter(sceneMeshes, occlusionCulled);
+        }
+        queueMeshes(RenderQueue.PASS_OPAQUE, sceneMeshes, viewMatrix, 0, Z_FAR);
+
+        renderQueue.sort();
+
+        CdlodTerrain terrain = scene.getTerrain();
+        if (terrain != null) {
+            // Every pass measures the levels' ranges from the camera, so shadows match the visible terrain
+            TerrainQuadTree quadTree = terrain.getQuadTree();
+            Vector3f cameraPosition = camera.getPosition();
+            quadTree.select(cameraPosition, frustumCullingEnabled ? sceneCullingFilter : null, terrainSelection);
+            for (ShadowCascade cascade : shadowMap.getCascades()) {
+                if (cascade.isDirty()) {
+                    quadTree.select(cameraPosition, frustumCullingEnabled ? cascade.getCullingFilter() : null,
+                            cascadeTerrainSelections[cascade.getIndex()]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Selects the level of detail of every game object from its screen size, the projected diameter of
+     * its bounding sphere over the screen's height. Objects with several meshes (e.g. MD5 models) are
+     * selected from their first mesh's levels, and every mesh uses the closest level it has.
+     */
+    private void selectLods(Scene scene) {
+        Matrix4f viewMatrix = transformation.getViewMatrix();
+        float tanHalfFov = (float) Math.tan(FOV / 2);
+        for (Map.Entry<Mesh, List<GameObject>> entry : scene.getMeshMap().entrySet()) {
+            Mesh mesh = entry.getKey();
+            if (mesh.getLodCount() <= 1) {
+                continue;
+            }
+            for (GameObject gameObject : entry.getValue()) {
+                if (gameObject.getMesh() != mesh) {
+                    continue;
+                }
+                Vector3f position = gameObject.getPosition();
+                float depth = -(viewMatrix.m02() * position.x + viewMatrix.m12() * position.y +
+                        viewMatrix.m22() * position.z + viewMatrix.m32());
+                float radius = mesh.getBoundingRadius() * gameObject.getScale();
+                float screenSize = depth > radius ? radius / (depth * tanHalfFov) : Float.MAX_VALUE;
+                gameObject.setLod(mesh.selectLod(screenSize, gameObject.getLod(), lodHysteresis));
+            }
+        }
+    }
+
+    private void queueMeshes(int pass, Map<Mesh, List<GameObject>> mapMeshes, Matrix4f viewMatrix,
+                             float minDepth, float depthRange) {
+        for (Map.Entry<Mesh, List<GameObject>> entry : mapMeshes.entrySet()) {
+            Mesh mesh = entry.getKey();
+            int materialId = mesh.getMaterial().getId();
+            for (GameObject gameObject : entry.getValue()) {
+                queueGameObject(pass, materialId, mesh, gameObject, viewMatrix, minDepth, depthRange);
+            }
+        }
+    }
+
+    /**
+     * Queues the shadow casters of a cascade. With static caster caching, static game objects are only
+     * queued (in the cascade's static pass) when the cached depth of the cascade is outdated.
+     */
+    private void queueShadowCasters(ShadowCascade cascade, Map<Mesh, List<GameObject>> mapMeshes, Matrix4f lightViewMatrix) {
+        boolean cacheStatic = shadowSettings.isStaticCasterCachingEnabled();
+        int dynamicPass = RenderQueue.shadowPass(cascade.getIndex());
+        int staticPass = RenderQueue.staticShadowPass(cascade.getIndex());
+        for (Map.Entry<Mesh, List<GameObject>> entry : mapMeshes.entrySet()) {
+            Mesh mesh = entry.getKey();
+            for (GameObject gameObject : entry.getValue()) {
+                int pass = dynamicPass;
+                if (cacheStatic && gameObject.isStatic()) {
+                    if (!cascade.isStaticDirty()) {
+                        continue;
+                    }
+                    pass = staticPass;
+                }
+                // The depth shader doesn't use materials, so only group shadow draws by mesh
+                queueGameObject(pass, 0, mesh, gameObject, lightViewMatrix, cascade.getMinDepth(), cascade.getDepthRange());
+            }
+        }
+    }
+
+    private void queueGameObject(int pass, int materialId, Mesh mesh, GameObject gameObject, Matrix4f viewMatrix,
+                                 float minDepth, float depthRange) {
+        Vector3f position = gameObject.getPosition();
+        float depth = -(viewMatrix.m02() * position.x + viewMatrix.m12() * position.y +
+                viewMatrix.m22() * position.z + viewMatrix.m32());
+        // Each level of detail of a mesh gets its own slot, so instanced runs don't mix levels
+        int meshSlot = mesh.getId() * Mesh.MAX_LODS + getLod(mesh, gameObject);
+        long key = RenderQueue.buildKey(pass, SHADER_SLOT_DEFAULT, materialId, meshSlot,
+                depth - minDepth, depthRange);
+        renderQueue.add(key, mesh, gameObject);
+    }
+
+    /**
+     * Submits the sorted draws of a pass. Meshes, materials and textures are only bound when they
+     * change, and consecutive instanceable game objects sharing a mesh are drawn with one instanced call.
+     * @param pass The pass to submit.
+     * @param viewMatrix The view matrix of the pass (the light's view matrix for shadow passes).
+     */
+    private void renderQueuedPass(int pass, Matrix4f viewMatrix) {
+        boolean shadowPass = RenderQueue.isShadowPass(pass);
+        IntUniform isInstancedUniform = shadowPass ? depthIsInstanced : sceneIsInstanced;
+        Matrix4fArrayUniform jointsUniform = shadowPass ? depthJointsMatrix : sceneJointsMatrix;
+        Arrays.fill(boundTextureIds, -1);
+        Mesh boundMesh = null;
+        Material boundMaterial = null;
+
+        int i = renderQueue.findPassStart(pass);
+        int end = renderQueue.findPassEnd(pass);
+        while (i < end) {
+            Mesh mesh = renderQueue.getMesh(i);
+            GameObject gameObject = renderQueue.getGameObject(i);
+
+            if (!shadowPass && mesh.getMaterial() != boundMaterial) {
+                boundMaterial = mesh.getMaterial();
+                sceneMaterial.set(boundMaterial);
+                bindTexture(0, boundMaterial.getTexture());
+                bindTexture(1, boundMaterial.getNormalMap());
+            }
+            if (mesh != boundMesh) {
+                if (boundMesh != null) {
+                    boundMesh.unbind();
+                }
+                mesh.bind();
+                boundMesh = mesh;
+                setVertexFormatUniforms(shadowPass, mesh);
+            }
+
+            if (gameObject instanceof BatchChunk) {
+                // Draw the following visible chunks of the same static batch with one call
+                batchChunks.clear();
+                while (i < end && renderQueue.getMesh(i) == mesh) {
+                    batchChunks.add((BatchChunk) renderQueue.getGameObject(i));
+                    i++;
+                }
+                isInstancedUniform.set(0);
+                setModelMatrixUniforms(shadowPass, gameObject, viewMatrix);
+                ((StaticBatch) mesh).drawChunks(batchChunks);
+                continue;
+            }
+
+            int lod = getLod(mesh, gameObject);
+            if (instancingEnabled && gameObject.isInstanceable()) {
+                // Batch the following objects of the same mesh and level of detail into one instanced draw
+                instancedObjects.clear();
+                while (i < end && renderQueue.getMesh(i) == mesh && renderQueue.getGameObject(i).isInstanceable()
+                        && getLod(mesh, renderQueue.getGameObject(i)) == lod) {
+                    instancedObjects.add(renderQueue.getGameObject(i));
+                    i++;
+                }
+                isInstancedUniform.set(1);
+                mesh.drawInstanced(instancedObjects, transformation, null, streamBuffer, lod);
+                continue;
+            }
+
+            isInstancedUniform.set(0);
+            setModelMatrixUniforms(shadowPass, gameObject, viewMatrix);
+            if (gameObject instanceof AnimGameObject) {
+                AnimatedFrame frame = ((AnimGameObject) gameObject).getCurrentFrame();
+                jointsUniform.set(frame.getJointMatrices());
+            }
+            mesh.draw(lod);
+            i++;
+        }
+
+        if (boundMesh != null) {
+            boundMesh.unbind();
+        }
+    }
+
+    private int getLod(Mesh mesh, GameObject gameObject) {
+        return lodEnabled ? Math.min(gameObject.getLod(), mesh.getLodCount() - 1) : 0;
+    }
+
+    private void setVertexFormatUniforms(boolean shadowPass, Mesh mesh) {
+        if (shadowPass) {
+            depthPositionScale.set(mesh.getPositionScale());
+            depthPositionOffset.set(mesh.getPositionOffset());
+        } else {
+            scenePositionScale.set(mesh.getPositionScale());
+            scenePositionOffset.set(mesh.getPositionOffset());
+            sceneOctNormals.set(mesh.getFormat().hasOctahedralNormals() ? 1 : 0);
+        }
+    }
+
+    private void setModelMatrixUniforms(boolean shadowPass, GameObject gameObject, Matrix4f viewMatrix) {
+        if (shadowPass) {
+            Matrix4f modelLightViewMatrix = transformation.buildModelLightViewMatrix(gameObject, viewMatrix);
+            depthModelLightViewMatrix.set(modelLightViewMatrix);
+        } else {
+            Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(gameObject, viewMatrix);
+            sceneModelViewMatrix.set(modelViewMatrix);
+        }
+    }
+
+    /**
+     * Binds a texture to a texture unit, unless it's already bound there.
+     * @param unit The texture unit, relative to GL_TEXTURE0.
+     * @param texture The texture to bind, may be null.
+     */
+    private void bindTexture(int unit, Texture texture) {
+        if (texture == null || boundTextureIds[unit] == texture.getId()) {
+            return;
+        }
+        glActiveTexture(GL_TEXTURE0 + unit);
+        glBindTexture(GL_TEXTURE_2D, texture.getId());
+        RenderStats.countTextureBind();
+        boundTextureIds[unit] = texture.getId();
+    }
+
     private void renderSkyBox(Window window, Camera camera, Scene scene) {
         SkyBox skyBox = scene.getSkyBox();
         if (skyBox != null) {
             skyBoxShaderProgram.bind();
 
-            skyBoxShaderProgram.setUniform(UNIFORM_SKYBOX_TEXTURE_SAMPLER, 0);
+            skyBoxTextureSampler.set(0);
 
-            Matrix4f projectionMatrix = transformation.getProjectionMatrix();
-            skyBoxShaderProgram.setUniform(UNIFORM_SKYBOX_PROJECTION_MATRIX, projectionMatrix);
-            Matrix4f viewMatrix = transformation.getViewMatrix();
-            viewMatrix.m30(0);
-            viewMatrix.m31(0);
-            viewMatrix.m32(0);
-            Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(skyBox, viewMatrix);
-            skyBoxShaderProgram.setUniform(UNIFORM_SKYBOX_MODEL_VIEW_MATRIX, modelViewMatrix);
-            skyBoxShaderProgram.setUniform(UNIFORM_SKYBOX_AMBIENT_LIGHT, scene.getSceneLight().getSkyBoxLight());
+            // The projection and view matrices come from the frame uniform buffer
+            Matrix4f modelMatrix = transformation.buildModelMatrix(skyBox);
+            skyBoxModelMatrix.set(modelMatrix);
+            skyBoxAmbientLight.set(scene.getSceneLight().getSkyBoxLight());
 
             scene.getSkyBox().getMesh().render();
 
@@ -306,94 +892,61 @@ public class Renderer {
     private void renderScene(Window window, Camera camera, Scene scene) {
         sceneShaderProgram.bind();
 
-        Matrix4f projectionMatrix = transformation.getProjectionMatrix();
-        sceneShaderProgram.setUniform(UNIFORM_PROJECTION_MATRIX, projectionMatrix);
-        Matrix4f orthoProjMatrix = transformation.getOrthoProjectionMatrix();
-        sceneShaderProgram.setUniform(UNIFORM_ORTHO_PROJ_MAT, orthoProjMatrix);
-        Matrix4f lightViewMatrix = transformation.getLightViewMatrix();
-
+        // Camera, shadow and light data come from the frame and light uniform buffers
         Matrix4f viewMatrix = transformation.getViewMatrix();
 
-        SceneLight sceneLight = scene.getSceneLight();
-        renderLights(viewMatrix, sceneLight);
-
-        sceneShaderProgram.setUniform(UNIFORM_FOG, scene.getFog());
-        sceneShaderProgram.setUniform(UNIFORM_TEXTURE_SAMPLER, 0);
-        sceneShaderProgram.setUniform(UNIFORM_NORMAL_MAP, 1);
-        sceneShaderProgram.setUniform(UNIFORM_SHADOW_MAP, 2);
-
-        // Render each mesh with the associated game objects
-        Map<Mesh, List<GameObject>> mapMeshes = scene.getMeshMap();
-        for (Mesh mesh : mapMeshes.keySet()) {
-
-            sceneShaderProgram.setUniform(UNIFORM_MATERIAL, mesh.getMaterial());
-            glActiveTexture(GL_TEXTURE2);
-            glBindTexture(GL_TEXTURE_2D, shadowMap.getDepthMapTexture().getId());
-            mesh.renderList(mapMeshes.get(mesh), (GameObject gameObject) -> {
-
-                        Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(gameObject, viewMatrix);
-                        sceneShaderProgram.setUniform(UNIFORM_MODEL_VIEW_MATRIX, modelViewMatrix);
-                        Matrix4f modelLightViewMatrix = transformation.buildModelLightViewMatrix(gameObject, lightViewMatrix);
-                        sceneShaderProgram.setUniform(UNIFORM_MODEL_LV_MAT, modelLightViewMatrix);
-
-                        if ( gameObject instanceof AnimGameObject ) {
-                            AnimGameObject animGameObject = (AnimGameObject)gameObject;
-                            AnimatedFrame frame = animGameObject.getCurrentFrame();
-                            sceneShaderProgram.setUniform(UNIFORM_JOINTS_MATRIX, frame.getJointMatrices());
-                        }
-                    }
-            );
-        }
+        sceneFog.set(scene.getFog());
+        sceneTextureSampler.set(0);
+        sceneNormalMap.set(1);
+        sceneShadowMap.set(2);
 
-        sceneShaderProgram.unbind();
-    }
+        // The shadow cascades are shared by every draw, so bind them once
+        glActiveTexture(GL_TEXTURE2);
+        glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, shadowMap.getDepthMapArrayId());
+        RenderStats.countTextureBind();
 
-    private void renderLights(Matrix4f viewMatrix, SceneLight sceneLight) {
+        renderQueuedPass(RenderQueue.PASS_OPAQUE, viewMatrix);
 
-        sceneShaderProgram.setUniform(UNIFORM_AMBIENT_LIGHT, sceneLight.getAmbientLight());
-        sceneShaderProgram.setUniform(UNIFORM_SPECULAR_POWER, specularPower);
-
-        // Process Point Lights
-        PointLight[] pointLightList = sceneLight.getPointLights();
-        int numLights = pointLightList != null ? pointLightList.length : 0;
-        for (int i = 0; i < numLights; i++) {
-            // Get a copy of the point light object and transform its position to view coordinates
-            PointLight currPointLight = new PointLight(pointLightList[i]);
-            Vector3f lightPos = currPointLight.getPosition();
-            Vector4f aux = new Vector4f(lightPos, 1);
-            aux.mul(viewMatrix);
-            lightPos.x = aux.x;
-            lightPos.y = aux.y;
-            lightPos.z = aux.z;
-            sceneShaderProgram.setUniform(UNIFORM_POINT_LIGHTS, currPointLight, i);
-        }
-
-        // Process Spot Lights
-        SpotLight[] spotLightList = sceneLight.getSpotLights();
-        numLights = spotLightList != null ? spotLightList.length : 0;
-        for (int i = 0; i < numLights; i++) {
-            // Get a copy of the spot light object and transform its position and cone direction to view coordinates
-            SpotLight currSpotLight = new SpotLight(spotLightList[i]);
-            Vector4f dir = new Vector4f(currSpotLight.getConeDirection(), 0);
-            dir.mul(viewMatrix);
-            currSpotLight.setConeDirection(new Vector3f(dir.x, dir.y, dir.z));
-
-            Vector3f lightPos = currSpotLight.getPointLight().getPosition();
-            Vector4f aux = new Vector4f(lightPos, 1);
-            aux.mul(viewMatrix);
-            lightPos.x = aux.x;
-            lightPos.y = aux.y;
-            lightPos.z = aux.z;
+        sceneShaderProgram.unbind();
 
-            sceneShaderProgram.setUniform(UNIFORM_SPOT_LIGHTS, currSpotLight, i);
+        CdlodTerrain terrain = scene.getTerrain();
+        if (terrain != null) {
+            terrainShaderProgram.bind();
+            terrainFog.set(scene.getFog());
+            terrainTextureSampler.set(0);
+            terrainNormalMap.set(1);
+            terrainShadowMap.set(2);
+            terrainTextInc.set(terrain.getTextInc());
+
+            Material material = terrain.getPatchMesh().getMaterial();
+            terrainMaterial.set(material);
+            bindTexture(0, material.getTexture());
+            bindTexture(1, material.getNormalMap());
+            // Units 0 to 2 hold the material's textures and the shadow cascades
+            renderTerrain(terrain, camera, terrainSelection, terrainUniforms, 3);
+
+            terrainShaderProgram.unbind();
         }
+    }
 
-        // Get a copy of the directional light object and transform its position to view coordinates
-        DirectionalLight currDirLight = new DirectionalLight(sceneLight.getDirectionalLight());
-        Vector4f dir = new Vector4f(currDirLight.getDirection(), 0);
-        dir.mul(viewMatrix);
-        currDirLight.setDirection(new Vector3f(dir.x, dir.y, dir.z));
-        sceneShaderProgram.setUniform(UNIFORM_DIRECTIONAL_LIGHT, currDirLight);
+    /**
+     * Draws the terrain's patch instanced over the selected nodes, with the bound terrain shader program.
+     * @param heightMapUnit The texture unit to bind the height map to, relative to GL_TEXTURE0.
+     */
+    private void renderTerrain(CdlodTerrain terrain, Camera camera, TerrainQuadTree.Selection selection,
+                               TerrainUniforms uniforms, int heightMapUnit) {
+        glActiveTexture(GL_TEXTURE0 + heightMapUnit);
+        glBindTexture(GL_TEXTURE_2D, terrain.getHeightMapId());
+        RenderStats.countTextureBind();
+        uniforms.heightMap.set(heightMapUnit);
+        uniforms.cameraPosition.set(camera.getPosition());
+        uniforms.terrainData.set(terrain.getOriginX(), terrain.getOriginZ(), terrain.getSize());
+        uniforms.gridResolution.set(terrain.getPatchResolution());
+        TerrainQuadTree quadTree = terrain.getQuadTree();
+        uniforms.lodData.set(quadTree.getLodDistance(), quadTree.getMorphStartRatio());
+        uniforms.heightRange.set(terrain.getHeightOffset(), terrain.getHeightScale());
+
+        terrain.drawNodes(selection, streamBuffer);
     }
 
     private void renderHud(Window window, IHud hud) {
@@ -405,9 +958,11 @@ public class Renderer {
                 Mesh mesh = gameObject.getMesh();
                 // Set orthographic and model matrix for this HUD item
                 Matrix4f projModelMatrix = transformation.buildOrthoProjModelMatrix(gameObject, ortho);
-                hudShaderProgram.setUniform(UNIFORM_HUD_PROJ_MODEL_MATRIX, projModelMatrix);
-                hudShaderProgram.setUniform(UNIFORM_HUD_COLOR, gameObject.getMesh().getMaterial().getAmbientColor());
-                hudShaderProgram.setUniform(UNIFORM_HUD_HAS_TEXTURE, gameObject.getMesh().getMaterial().isTextured() ? 1 : 0);
+                hudProjModelMatrix.set(projModelMatrix);
+                Material material = mesh.getMaterial();
+                hudColor.set(material.getAmbientColor());
+                hudHasTexture.set(material.isTextured() ? 1 : 0);
+                hudUvTransform.set(material.getUvTransform());
 
                 // Render the mesh for this HUD item
                 mesh.render();
@@ -453,9 +1008,7 @@ public class Renderer {
     private void renderParticles(Window window, Camera camera, Scene scene) {
         particlesShaderProgram.bind();
 
-        particlesShaderProgram.setUniform(UNIFORM_PARTICLE_TEXTURE_SAMPLER, 0);
-        Matrix4f projectionMatrix = transformation.getProjectionMatrix();
-        particlesShaderProgram.setUniform(UNIFORM_PARTICLE_PROJ_MAT, projectionMatrix);
+        particleTextureSampler.set(0);
 
         Matrix4f viewMatrix = transformation.getViewMatrix();
         IParticleEmitter[] emitters = scene.getParticleEmitters();
@@ -470,27 +1023,37 @@ public class Renderer {
             IParticleEmitter emitter = emitters[i];
             Mesh mesh = emitter.getBaseParticle().getMesh();
 
-            Texture text = mesh.getMaterial().getTexture();
-            particlesShaderProgram.setUniform(UNIFORM_PARCICLE_NUM_ROWS, text.getNumRows());
-            particlesShaderProgram.setUniform(UNIFORM_PARCICLE_NUM_COLS, text.getNumCols());
-
-            mesh.renderList(emitter.getParticles(), (GameObject gameObject) -> {
-                int col = gameObject.getTextPos() % text.getNumCols();
-                int row = gameObject.getTextPos() / text.getNumCols();
-                float textXOffset = (float) col / text.getNumCols();
-                float textYOffset = (float) row / text.getNumRows();
-                particlesShaderProgram.setUniform(UNIFORM_PARTICLE_TEX_XOFFSET, textXOffset);
-                particlesShaderProgram.setUniform(UNIFORM_PARTICLE_TEX_YOFFSET, textYOffset);
-
-                Matrix4f modelMatrix = transformation.buildModelMatrix(gameObject);
-
-                viewMatrix.transpose3x3(modelMatrix);
-                viewMatrix.scale(gameObject.getScale());
+            Material material = mesh.getMaterial();
+            int numCols = material.getNumCols();
+            int numRows = material.getNumRows();
+            particleNumRows.set(numRows);
+            particleNumCols.set(numCols);
+            particleUvTransform.set(material.getUvTransform());
+
+            if (instancingEnabled) {
+                particleIsInstanced.set(1);
+                mesh.renderListInstanced(emitter.getParticles(), transformation, viewMatrix, streamBuffer);
+                continue;
+            }
 
+            particleIsInstanced.set(0);
+            mesh.bindTextures();
+            mesh.bind();
+            for (GameObject gameObject : emitter.getParticles()) {
+                int col = gameObject.getTextPos() % numCols;
+                int row = gameObject.getTextPos() / numCols;
+                float textXOffset = (float) col / numCols;
+                float textYOffset = (float) row / numRows;
+                particleTexXOffset.set(textXOffset);
+                particleTexYOffset.set(textYOffset);
+
+                Matrix4f modelMatrix = transformation.buildBillboardModelMatrix(gameObject, viewMatrix);
                 Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(modelMatrix, viewMatrix);
-                modelViewMatrix.scale(gameObject.getScale());
-                particlesShaderProgram.setUniform(UNIFORM_PARTICLE_MODEL_VIEW_MAT, modelViewMatrix);
-            });
+                particleModelViewMatrix.set(modelViewMatrix);
+
+                mesh.draw();
+            }
+            mesh.unbind();
         }
 
         glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
@@ -504,6 +1067,7 @@ public class Renderer {
      * of the shader programs and renderer resources.
      */
     public void cleanUp() {
+        horizonCuller.cleanUp();
         if (shadowMap != null) {
             shadowMap.cleanUp();
         }
@@ -522,5 +1086,48 @@ public class Renderer {
         if (particlesShaderProgram != null) {
             particlesShaderProgram.cleanUp();
         }
+        if (terrainShaderProgram != null) {
+            terrainShaderProgram.cleanUp();
+        }
+        if (terrainDepthShaderProgram != null) {
+            terrainDepthShaderProgram.cleanUp();
+        }
+        if (frameUniformBuffer != null) {
+            frameUniformBuffer.cleanUp();
+        }
+        if (lightUniformBuffer != null) {
+            lightUniformBuffer.cleanUp();
+        }
+        if (streamBuffer != null) {
+            streamBuffer.cleanUp();
+        }
+        if (profiler != null) {
+            profiler.cleanUp();
+        }
+        if (textureLoader != null) {
+            textureLoader.cleanUp();
+        }
+    }
+
+    /**
+     * The uniforms shared by the terrain's scene and depth shaders.
+     */
+    private static class TerrainUniforms {
+
+        private final IntUniform heightMap;
+        private final Vector2fUniform lodData;
+        private final Vector2fUniform heightRange;
+        private final Vector3fUniform cameraPosition;
+        private final Vector3fUniform terrainData;
+        private final FloatUniform gridResolution;
+
+        private TerrainUniforms(ShaderProgram shaderProgram) throws Exception {
+            heightMap = shaderProgram.createIntUniform(UNIFORM_TERRAIN_HEIGHT_MAP);
+            lodData = shaderProgram.createVector2fUniform(UNIFORM_TERRAIN_LOD_DATA);
+            heightRange = shaderProgram.createVector2fUniform(UNIFORM_TERRAIN_HEIGHT_RANGE);
+            cameraPosition = shaderProgram.createVector3fUniform(UNIFORM_TERRAIN_CAMERA_POSITION);
+            terrainData = shaderProgram.createVector3fUniform(UNIFORM_TERRAIN_DATA);
+            gridResolution = shaderProgram.createFloatUniform(UNIFORM_TERRAIN_GRID_RESOLUTION);
+        }
     }
 }
@@ -14,8 +14,10 @@ import com.zcking.furyengine.input.MouseInput;
 import com.zcking.furyengine.lighting.DirectionalLight;
 import com.zcking.furyengine.lighting.SceneLight;
 import com.zcking.furyengine.rendering.Camera;
+import com.zcking.furyengine.rendering.LodSettings;
 import com.zcking.furyengine.rendering.Material;
 import com.zcking.furyengine.rendering.Mesh;
+import com.zcking.furyengine.rendering.VertexFormat;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
@@ -69,6 +71,7 @@ public class AnimationDemo implements IGameLogic {
         GameObject quadGameItem = new GameObject(quadMesh);
         quadGameItem.setPosition(0, 0, 0);
         quadGameItem.setScale(2.5f);
+        quadGameItem.setStatic(true);
 
         // Setup  GameItems
         MD5Model md5MeshModel = MD5Model.parse("/models/monster.md5mesh");
@@ -76,8 +79,14 @@ public class AnimationDemo implements IGameLogic {
         //MD5Model md5MeshModel = MD5Model.parse("/models/boblamp.md5mesh");
         //MD5AnimModel md5AnimModel = MD5AnimModel.parse("/models/boblamp.md5anim");
 
-        monster = MD5Loader.process(md5MeshModel, md5AnimModel, new Vector4f(1, 1, 1, 1));
+        // The monster shows placeholder textures until its textures are decoded and uploaded
+        monster = MD5Loader.process(md5MeshModel, md5AnimModel, new Vector4f(1, 1, 1, 1), VertexFormat.SKINNED,
+                renderer.getTextureLoader());
         monster.setScale(0.05f);
+        // Further away, the monster is drawn with simplified meshes, which keep their joint weights
+        for (Mesh mesh : monster.getMeshes()) {
+            mesh.generateLods(LodSettings.create());
+        }
         monster.setRotation(90, 0, 90);
         //monster.setRotation(90, 0, 0);
 
@@ -106,8 +115,6 @@ public class AnimationDemo implements IGameLogic {
         float lightIntensity = 1.0f;
         Vector3f lightDirection = new Vector3f(0, 1, 1);
         DirectionalLight directionalLight = new DirectionalLight(new Vector3f(1, 1, 1), lightDirection, lightIntensity);
-        directionalLight.setShadowPosMult(10);
-        directionalLight.setOrthoCoords(-10.0f, 10.0f, -10.0f, 10.0f, -1.0f, 20.0f);
         sceneLight.setDirectionalLight(directionalLight);
     }
 
@@ -11,10 +11,11 @@ import com.zcking.furyengine.game.Renderer;
 import com.zcking.furyengine.input.MouseInput;
 import com.zcking.furyengine.lighting.DirectionalLight;
 import com.zcking.furyengine.lighting.SceneLight;
+import com.zcking.furyengine.rendering.AtlasRegion;
 import com.zcking.furyengine.rendering.Camera;
 import com.zcking.furyengine.rendering.Material;
 import com.zcking.furyengine.rendering.Mesh;
-import com.zcking.furyengine.rendering.Texture;
+import com.zcking.furyengine.rendering.TextureAtlas;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
@@ -46,6 +47,8 @@ public class ParticlesDemo implements IGameLogic {
 
     private FlowParticleEmitter particleEmitter;
 
+    private TextureAtlas atlas;
+
     public ParticlesDemo() {
         renderer = new Renderer();
         camera = new Camera();
@@ -69,6 +72,7 @@ public class ParticlesDemo implements IGameLogic {
         GameObject quadGameObject = new GameObject(quadMesh);
         quadGameObject.setPosition(0, 0, 0);
         quadGameObject.setScale(2.5f);
+        quadGameObject.setStatic(true);
 
         scene.setGameObjects(new GameObject[] { quadGameObject} );
 
@@ -80,8 +84,11 @@ public class ParticlesDemo implements IGameLogic {
         float range = 0.2f;
         float scale = 1.0f;
         Mesh partMesh = OBJLoader.loadMesh("/models/particle.obj");
-        Texture texture = new Texture("/textures/particle_anim.png", 4, 4);
-        Material partMaterial = new Material(texture, reflectance);
+        atlas = new TextureAtlas();
+        AtlasRegion particleRegion = atlas.add("/textures/particle_anim.png", 4, 4);
+        atlas.upload();
+        Material partMaterial = new Material(particleRegion);
+        partMaterial.setReflectance(reflectance);
         partMesh.setMaterial(partMaterial);
         Particle particle = new Particle(partMesh, particleSpeed, ttl, 100);
         particle.setScale(scale);
@@ -116,8 +123,6 @@ public class ParticlesDemo implements IGameLogic {
         float lightIntensity = 1.0f;
         Vector3f lightDirection = new Vector3f(0, 1, 1);
         DirectionalLight directionalLight = new DirectionalLight(new Vector3f(1, 1, 1), lightDirection, lightIntensity);
-        directionalLight.setShadowPosMult(10);
-        directionalLight.setOrthoCoords(-10.0f, 10.0f, -10.0f, 10.0f, -1.0f, 20.0f);
         sceneLight.setDirectionalLight(directionalLight);
     }
 
@@ -195,6 +200,9 @@ public class ParticlesDemo implements IGameLogic {
     public void cleanUp() {
         renderer.cleanUp();
         scene.cleanUp();
+        if (atlas != null) {
+            atlas.cleanUp();
+        }
         if (hud != null) {
             hud.cleanUp();
         }
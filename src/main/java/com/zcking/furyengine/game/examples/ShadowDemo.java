@@ -8,6 +8,7 @@ import com.zcking.furyengine.engine.loaders.obj.OBJLoader;
 import com.zcking.furyengine.engine.objects.GameObject;
 import com.zcking.furyengine.engine.objects.Terrain;
 import com.zcking.furyengine.game.Hud;
+import com.zcking.furyengine.game.ProfilerHud;
 import com.zcking.furyengine.game.Renderer;
 import com.zcking.furyengine.input.MouseInput;
 import com.zcking.furyengine.lighting.DirectionalLight;
@@ -36,12 +37,16 @@ public class ShadowDemo implements IGameLogic {
 
     private Hud hud;
 
+    private ProfilerHud profilerHud;
+
     private static final float CAMERA_POS_STEP = 0.05f;
 
     private Terrain terrain;
 
     private GameObject cubeGameItem;
 
+    private float cubeRotY;
+
     private float angleInc;
 
     private float lightAngle;
@@ -75,6 +80,7 @@ public class ShadowDemo implements IGameLogic {
         GameObject quadGameItem = new GameObject(quadMesh);
         quadGameItem.setPosition(0, -1, 0);
         quadGameItem.setScale(2.5f);
+        quadGameItem.setStatic(true);
 
         scene.setGameObjects(new GameObject[]{cubeGameItem, quadGameItem});
 
@@ -83,6 +89,11 @@ public class ShadowDemo implements IGameLogic {
 
         camera.getPosition().z = 2;
         hud = new Hud("");
+
+        // Show the per-pass timings on top of the HUD
+        renderer.getProfiler().setEnabled(true);
+        profilerHud = new ProfilerHud(renderer.getProfiler());
+        renderer.setProfilerOverlay(profilerHud);
     }
 
     private void setupLights() {
@@ -97,8 +108,6 @@ public class ShadowDemo implements IGameLogic {
         float lightIntensity = 1.0f;
         Vector3f lightDirection = new Vector3f(0, 1, 1);
         DirectionalLight directionalLight = new DirectionalLight(new Vector3f(1, 1, 1), lightDirection, lightIntensity);
-        directionalLight.setShadowPosMult(5);
-        directionalLight.setOrthoCoords(-10.0f, 10.0f, -10.0f, 10.0f, -1.0f, 20.0f);
         sceneLight.setDirectionalLight(directionalLight);
     }
 
@@ -147,12 +156,11 @@ public class ShadowDemo implements IGameLogic {
             camera.setPosition(prevPos.x, prevPos.y, prevPos.z);
         }
 
-        float rotY = cubeGameItem.getRotation().y;
-        rotY += 0.5f;
-        if ( rotY >= 360 ) {
-            rotY -= 360;
+        cubeRotY += 0.5f;
+        if ( cubeRotY >= 360 ) {
+            cubeRotY -= 360;
         }
-        cubeGameItem.getRotation().y = rotY;
+        cubeGameItem.setRotation(0, cubeRotY, 0);
 
         lightAngle += angleInc;
         if ( lightAngle < 0 ) {
@@ -176,6 +184,9 @@ public class ShadowDemo implements IGameLogic {
         if (hud != null) {
             hud.updateSize(window);
         }
+        if (profilerHud != null) {
+            profilerHud.update(window);
+        }
         renderer.render(window, camera, scene, hud);
     }
 
@@ -186,6 +197,9 @@ public class ShadowDemo implements IGameLogic {
         if (hud != null) {
             hud.cleanUp();
         }
+        if (profilerHud != null) {
+            profilerHud.cleanUp();
+        }
     }
 
     public static void main( String[] args )
@@ -1,8 +1,8 @@
 package com.zcking.furyengine.game.examples.simple;
 
 import com.zcking.furyengine.engine.*;
+import com.zcking.furyengine.engine.objects.CdlodTerrain;
 import com.zcking.furyengine.engine.objects.SkyBox;
-import com.zcking.furyengine.engine.objects.Terrain;
 import com.zcking.furyengine.game.Hud;
 import com.zcking.furyengine.game.Renderer;
 import com.zcking.furyengine.input.MouseInput;
@@ -37,7 +37,7 @@ public class TerrainDemo implements IGameLogic {
 
     private static final float CAMERA_POS_STEP = 0.05f;
 
-    private Terrain terrain;
+    private CdlodTerrain terrain;
 
     public TerrainDemo() {
         renderer = new Renderer();
@@ -56,15 +56,13 @@ public class TerrainDemo implements IGameLogic {
         scene.setFog(new Fog(true, new Vector3f(0.5f, 0.5f, 0.6f), 0.15f));
 
         float skyBoxScale = 50.0f;
-        float terrainScale = 10;
-        //int terrainSize = 3;
-        int terrainSize = 3;
-        float minY = -0.1f;
-        float maxY = 0.1f;
-        int textInc = 40;
-        terrain = new Terrain(terrainSize, terrainScale, minY, maxY, "/textures/heightmap.png", "/textures/terrain.png", textInc);
-        //terrain = new Terrain(terrainSize, terrainScale, minY, maxY, "/textures/heightmap_test.png", "/textures/terrain.png", textInc);
-        scene.setGameObjects(terrain.getGameObjects());
+        float terrainSize = 30;
+        float minY = -1.0f;
+        float maxY = 1.0f;
+        int textInc = 120;
+        terrain = new CdlodTerrain(terrainSize, minY, maxY, "/textures/heightmap.png", "/textures/terrain.png", textInc);
+        //terrain = new CdlodTerrain(terrainSize, minY, maxY, "/textures/heightmap_test.png", "/textures/terrain.png", textInc);
+        scene.setTerrain(terrain);
 
         // Setup  SkyBox
         SkyBox skyBox = new SkyBox("/models/skybox.obj", "/textures/skybox.png");
@@ -134,7 +132,7 @@ public class TerrainDemo implements IGameLogic {
         camera.movePosition(cameraInc.x * CAMERA_POS_STEP, cameraInc.y * CAMERA_POS_STEP, cameraInc.z * CAMERA_POS_STEP);
         // Check if there has been a collision. If true, set the y position to
         // the maximum height
-        float height = terrain.getHeight(camera.getPosition());
+        float height = terrain.getHeight(camera.getPosition().x, camera.getPosition().z);
         if ( camera.getPosition().y <= height )  {
             camera.setPosition(prevPos.x, prevPos.y, prevPos.z);
         }
@@ -12,13 +12,7 @@ public class DirectionalLight {
     private Vector3f direction;
     private float intensity;
 
-    private OrthoCoords orthoCoords;
-
-    private float shadowPosMult;
-
     public DirectionalLight(Vector3f color, Vector3f direction, float intensity) {
-        this.orthoCoords = new OrthoCoords();
-        this.shadowPosMult = 1;
         this.color = color;
         this.direction = direction;
         this.intensity = intensity;
@@ -28,27 +22,6 @@ public class DirectionalLight {
         this(new Vector3f(light.getColor()), new Vector3f(light.getDirection()), light.getIntensity());
     }
 
-    public OrthoCoords getOrthoCoords() {
-        return orthoCoords;
-    }
-
-    public void setOrthoCoords(float left, float right, float bottom, float top, float near, float far) {
-        orthoCoords.left = left;
-        orthoCoords.right = right;
-        orthoCoords.bottom = bottom;
-        orthoCoords.top = top;
-        orthoCoords.near = near;
-        orthoCoords.far = far;
-    }
-
-    public float getShadowPosMult() {
-        return shadowPosMult;
-    }
-
-    public void setShadowPosMult(float shadowPosMult) {
-        this.shadowPosMult = shadowPosMult;
-    }
-
     public Vector3f getColor() {
         return color;
     }
@@ -73,19 +46,4 @@ public class DirectionalLight {
         this.intensity = intensity;
     }
 
-    public static class OrthoCoords {
-
-        public float left;
-
-        public float right;
-
-        public float bottom;
-
-        public float top;
-
-        public float near;
-
-        public float far;
-    }
-
 }
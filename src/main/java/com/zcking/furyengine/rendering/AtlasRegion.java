@@ -0,0 +1,67 @@
+package com.zcking.furyengine.rendering;
+
+import org.joml.Vector4f;
+
+/**
+ * A sub-rectangle of a {@link TextureAtlas} page, holding one packed image. Its UV transform maps
+ * the image's own texture coordinates, in [0, 1], to the page's: uv * (z, w) + (x, y).
+ */
+public class AtlasRegion {
+
+    private final Texture page;
+
+    private final Vector4f uvTransform;
+
+    private final int width;
+
+    private final int height;
+
+    private final int numCols;
+
+    private final int numRows;
+
+    AtlasRegion(Texture page, Vector4f uvTransform, int width, int height, int numCols, int numRows) {
+        this.page = page;
+        this.uvTransform = uvTransform;
+        this.width = width;
+        this.height = height;
+        this.numCols = numCols;
+        this.numRows = numRows;
+    }
+
+    /**
+     * @return The texture of the page holding the region.
+     */
+    public Texture getPage() {
+        return page;
+    }
+
+    /**
+     * @return The offset (x, y) and scale (z, w) from the image's texture coordinates to the page's.
+     */
+    public Vector4f getUvTransform() {
+        return uvTransform;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The number of columns of the sprite sheet the image holds, 1 for a single image.
+     */
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * @return The number of rows of the sprite sheet the image holds, 1 for a single image.
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+}
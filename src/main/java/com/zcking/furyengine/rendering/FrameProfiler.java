@@ -0,0 +1,256 @@
+package com.zcking.furyengine.rendering;
+
+import static org.lwjgl.opengl.GL15.GL_QUERY_RESULT;
+import static org.lwjgl.opengl.GL15.GL_QUERY_RESULT_AVAILABLE;
+import static org.lwjgl.opengl.GL15.glBeginQuery;
+import static org.lwjgl.opengl.GL15.glDeleteQueries;
+import static org.lwjgl.opengl.GL15.glEndQuery;
+import static org.lwjgl.opengl.GL15.glGenQueries;
+import static org.lwjgl.opengl.GL15.glGetQueryObjecti;
+import static org.lwjgl.opengl.GL33.GL_TIME_ELAPSED;
+import static org.lwjgl.opengl.GL33.glGetQueryObjecti64;
+
+/**
+ * Measures where each frame goes, pass by pass. Each pass is wrapped in a GL_TIME_ELAPSED query
+ * for its GPU time and timed with {@link System#nanoTime()} for its CPU time, and the
+ * {@link RenderStats} it generated (draw calls, triangles, uniform uploads, texture binds) are
+ * counted. The queries of a frame are only read back {@link FrameProfiler#QUERY_FRAMES} frames
+ * later, once the GPU is done with them, so profiling never stalls the pipeline: GPU times lag
+ * a few frames behind the CPU times and counts.
+ */
+public class FrameProfiler {
+
+    /**
+     * The passes of a frame, in the order the {@link com.zcking.furyengine.game.Renderer} runs them.
+     */
+    public enum Pass {
+        CULL("Cull"),
+        DEPTH("Depth"),
+        SCENE("Scene"),
+        SKYBOX("SkyBox"),
+        PARTICLES("Particles"),
+        HUD("HUD");
+
+        private final String label;
+
+        Pass(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * The measurements of one pass.
+     */
+    public static class PassStats {
+
+        private float cpuTime;
+
+        private float gpuTime;
+
+        private long drawCalls;
+
+        private long triangles;
+
+        private long uniformUploads;
+
+        private long textureBinds;
+
+        /**
+         * @return The CPU time of the pass in the last frame, in milliseconds.
+         */
+        public float getCpuTime() {
+            return cpuTime;
+        }
+
+        /**
+         * @return The GPU time of the pass, in milliseconds, from a frame a few frames back.
+         */
+        public float getGpuTime() {
+            return gpuTime;
+        }
+
+        public long getDrawCalls() {
+            return drawCalls;
+        }
+
+        public long getTriangles() {
+            return triangles;
+        }
+
+        public long getUniformUploads() {
+            return uniformUploads;
+        }
+
+        public long getTextureBinds() {
+            return textureBinds;
+        }
+
+        private void resetCounts() {
+            cpuTime = 0;
+            drawCalls = 0;
+            triangles = 0;
+            uniformUploads = 0;
+            textureBinds = 0;
+        }
+    }
+
+    /**
+     * The number of frames the queries are kept in flight before being read back.
+     */
+    public static final int QUERY_FRAMES = 4;
+
+    private static final Pass[] PASSES = Pass.values();
+
+    private final int[][] queryIds;
+
+    private final boolean[][] queryIssued;
+
+    private final PassStats[] stats;
+
+    private boolean enabled;
+
+    private boolean enabledRequested;
+
+    private int frame;
+
+    private Pass currentPass;
+
+    private long cpuStart;
+
+    private long drawCallsStart;
+
+    private long trianglesStart;
+
+    private long uniformUploadsStart;
+
+    private long textureBindsStart;
+
+    public FrameProfiler() {
+        queryIds = new int[QUERY_FRAMES][PASSES.length];
+        queryIssued = new boolean[QUERY_FRAMES][PASSES.length];
+        for (int i = 0; i < QUERY_FRAMES; i++) {
+            glGenQueries(queryIds[i]);
+        }
+        stats = new PassStats[PASSES.length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new PassStats();
+        }
+    }
+
+    /**
+     * @return Whether or not the passes are measured, from the next frame on if it was just changed.
+     */
+    public boolean isEnabled() {
+        return enabledRequested;
+    }
+
+    /**
+     * Enables or disables profiling, from the next {@link FrameProfiler#beginFrame()} on, so a frame is
+     * never measured halfway. While disabled, the passes aren't measured and the last results are kept.
+     * @param enabled Whether or not the passes should be measured.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabledRequested = enabled;
+    }
+
+    /**
+     * Starts a new frame, reading back the GPU times of the frame that last used this frame's queries.
+     * Queries whose results aren't available yet are skipped rather than waited on.
+     */
+    public void beginFrame() {
+        enabled = enabledRequested;
+        if (!enabled) {
+            return;
+        }
+        frame = (frame + 1) % QUERY_FRAMES;
+        int[] ids = queryIds[frame];
+        boolean[] issued = queryIssued[frame];
+        for (int i = 0; i < PASSES.length; i++) {
+            if (!issued[i]) {
+                stats[i].gpuTime = 0;
+            } else if (glGetQueryObjecti(ids[i], GL_QUERY_RESULT_AVAILABLE) != 0) {
+                stats[i].gpuTime = glGetQueryObjecti64(ids[i], GL_QUERY_RESULT) / 1000000.0f;
+            }
+            issued[i] = false;
+            stats[i].resetCounts();
+        }
+    }
+
+    /**
+     * Starts measuring a pass. Passes can't be nested: the previous pass must have been ended.
+     * @param pass The pass starting.
+     */
+    public void beginPass(Pass pass) {
+        if (!enabled) {
+            return;
+        }
+        currentPass = pass;
+        glBeginQuery(GL_TIME_ELAPSED, queryIds[frame][pass.ordinal()]);
+        drawCallsStart = RenderStats.getDrawCalls();
+        trianglesStart = RenderStats.getTriangles();
+        uniformUploadsStart = RenderStats.getUniformUploads();
+        textureBindsStart = RenderStats.getTextureBinds();
+        cpuStart = System.nanoTime();
+    }
+
+    /**
+     * Stops measuring the current pass, if one was started.
+     */
+    public void endPass() {
+        if (currentPass == null) {
+            return;
+        }
+        long cpuEnd = System.nanoTime();
+        glEndQuery(GL_TIME_ELAPSED);
+
+        int index = currentPass.ordinal();
+        queryIssued[frame][index] = true;
+        PassStats passStats = stats[index];
+        passStats.cpuTime += (cpuEnd - cpuStart) / 1000000.0f;
+        passStats.drawCalls += RenderStats.getDrawCalls() - drawCallsStart;
+        passStats.triangles += RenderStats.getTriangles() - trianglesStart;
+        passStats.uniformUploads += RenderStats.getUniformUploads() - uniformUploadsStart;
+        passStats.textureBinds += RenderStats.getTextureBinds() - textureBindsStart;
+        currentPass = null;
+    }
+
+    /**
+     * @param pass A pass of the frame.
+     * @return The last measurements of the pass.
+     */
+    public PassStats getStats(Pass pass) {
+        return stats[pass.ordinal()];
+    }
+
+    /**
+     * @return The CPU time of every pass of the last frame, in milliseconds.
+     */
+    public float getTotalCpuTime() {
+        float total = 0;
+        for (PassStats passStats : stats) {
+            total += passStats.cpuTime;
+        }
+        return total;
+    }
+
+    /**
+     * @return The GPU time of every pass, in milliseconds, from a frame a few frames back.
+     */
+    public float getTotalGpuTime() {
+        float total = 0;
+        for (PassStats passStats : stats) {
+            total += passStats.gpuTime;
+        }
+        return total;
+    }
+
+    public void cleanUp() {
+        for (int[] ids : queryIds) {
+            glDeleteQueries(ids);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.zcking.furyengine.rendering;
+
+import org.joml.Matrix4f;
+
+/**
+ * The per-frame camera and shadow matrices, shared by every scene shader through the std140 block:
+ * <pre>
+ * layout (std140) uniform FrameData {
+ *     mat4 projectionMatrix;
+ *     mat4 viewMatrix;
+ *     mat4 lightViewMatrix;
+ *     mat4 cascadeMatrices[MAX_CASCADES];
+ *     vec4 cascadeSplits;
+ *     int cascadeCount;
+ * };
+ * </pre>
+ * The cascade matrices go from the camera's view space to each cascade's clip space, and the
+ * cascade splits hold the view space distance at which each cascade ends.
+ */
+public class FrameUniformBuffer extends UniformBuffer {
+
+    public static final String BLOCK_NAME = "FrameData";
+
+    public static final int BINDING_POINT = 0;
+
+    private static final int CASCADE_MATRICES_OFFSET = 3 * 64;
+
+    private static final int CASCADE_SPLITS_OFFSET = CASCADE_MATRICES_OFFSET + ShadowMap.MAX_CASCADES * 64;
+
+    private static final int CASCADE_COUNT_OFFSET = CASCADE_SPLITS_OFFSET + 16;
+
+    private static final int SIZE = CASCADE_COUNT_OFFSET + 16;
+
+    public FrameUniformBuffer() {
+        super(SIZE, BINDING_POINT);
+    }
+
+    /**
+     * Writes and uploads the frame's matrices.
+     * @param projectionMatrix The camera's projection matrix.
+     * @param viewMatrix The camera's view matrix.
+     * @param shadowMap The shadow map, holding the light's view matrix and the cascades.
+     */
+    public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix, ShadowMap shadowMap) {
+        putMatrix4f(0, projectionMatrix);
+        putMatrix4f(64, viewMatrix);
+        putMatrix4f(128, shadowMap.getLightViewMatrix());
+
+        ShadowCascade[] cascades = shadowMap.getCascades();
+        for (int i = 0; i < cascades.length; i++) {
+            putMatrix4f(CASCADE_MATRICES_OFFSET + i * 64, cascades[i].getSceneMatrix());
+            putFloat(CASCADE_SPLITS_OFFSET + i * 4, cascades[i].getSplitFar());
+        }
+        putInt(CASCADE_COUNT_OFFSET, cascades.length);
+        upload();
+    }
+}
@@ -1,12 +1,20 @@
 package com.zcking.furyengine.rendering;
 
-import com.zcking.furyengine.utils.ArrayUtils;
-import de.matthiasmann.twl.utils.PNGDecoder;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
 import org.joml.Vector3f;
 
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+import static org.lwjgl.opengl.GL11.GL_TRIANGLE_STRIP;
+
+/**
+ * A grid mesh displaced by a height map, centered on the origin with a size of 1 along x and z.
+ * Heights are decoded and the vertices written row-parallel on the common fork-join pool, straight
+ * into the mesh's mapped GL buffers (see {@link Mesh.BufferWriter}), so very large height maps load
+ * without boxed collections or intermediate vertex arrays. Each row of quads is a triangle strip,
+ * separated from the next by a restart index, which takes about a third of the indices of
+ * independent triangles and reuses more of the transformed vertices.
+ */
 public class HeightMapMesh {
 
     // Maximize color range for height maps (supports RGBA textures)
@@ -16,72 +24,118 @@ public class HeightMapMesh {
 
     public static final float STARTZ = -0.5f;
 
-    private final float minY;
+    private final Mesh mesh;
 
-    private final float maxY;
+    private final int width;
 
-    private final Mesh mesh;
+    private final int height;
 
-    private final float[][] heightArray;
+    /**
+     * The heights of the height map, row by row.
+     */
+    private final float[] heights;
 
     public HeightMapMesh(float minY, float maxY, ByteBuffer heightMapImage, int width, int height, String textureFile, int textInc) throws Exception {
-        this.minY = minY;
-        this.maxY = maxY;
-
-        heightArray = new float[height][width];
+        this(minY, maxY, heightMapImage, width, height, textureFile, textInc, VertexFormat.STATIC);
+    }
 
-        Texture texture = new Texture(textureFile);
+    public HeightMapMesh(float minY, float maxY, ByteBuffer heightMapImage, int width, int height, String textureFile,
+                         int textInc, VertexFormat format) throws Exception {
+        this(decodeHeights(heightMapImage, width, height, minY, maxY), width, height,
+                new Material(new Texture(textureFile), 0.0f), textInc, format);
+    }
 
-        float incx = getXLength() / (width - 1);
-        float incz = getZLength() / (height - 1);
+    /**
+     * Constructs a height map mesh from heights that are already decoded (e.g. a streamed terrain tile).
+     * @param heights The heights, row by row. Kept by the mesh.
+     * @param width The number of heights per row.
+     * @param height The number of rows.
+     * @param material The material of the mesh, which may be shared with other meshes.
+     * @param textInc How many times the texture repeats across the mesh.
+     * @param format The vertex format of the mesh.
+     * @throws Exception If the mesh creation fails.
+     */
+    public HeightMapMesh(float[] heights, int width, int height, Material material, int textInc,
+                         VertexFormat format) throws Exception {
+        this.width = width;
+        this.height = height;
+        this.heights = heights;
+
+        float lowest = Float.MAX_VALUE;
+        float highest = -Float.MAX_VALUE;
+        for (float h : heights) {
+            lowest = Math.min(lowest, h);
+            highest = Math.max(highest, h);
+        }
 
-        List<Float> positions = new ArrayList<>();
-        List<Float> textCoords = new ArrayList<>();
-        List<Integer> indices = new ArrayList<>();
+        Vector3f minBounds = new Vector3f(STARTX, lowest, STARTZ);
+        Vector3f maxBounds = new Vector3f(STARTX + getXLength(), highest, STARTZ + getZLength());
+        int numIndices = Mesh.getGridStripIndexCount(width, height);
+        int numTriangles = (width - 1) * (height - 1) * 2;
+        this.mesh = new Mesh(format, GL_TRIANGLE_STRIP, width * height, numIndices, numTriangles, minBounds, maxBounds,
+                (mesh, vertices, indices) -> IntStream.range(0, height).parallel()
+                        .forEach(row -> writeRow(mesh, vertices, indices, row, textInc)));
+        mesh.setMaterial(material);
+    }
 
-        for (int row = 0; row < height; row++) {
+    /**
+     * Decodes every height of an RGBA height map image, row-parallel on the common fork-join pool.
+     * @param heightMapImage The decoded image, 4 bytes per pixel.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param minY The height of a black pixel.
+     * @param maxY The height of a white pixel.
+     * @return The heights, row by row.
+     */
+    public static float[] decodeHeights(ByteBuffer heightMapImage, int width, int height, float minY, float maxY) {
+        float[] heights = new float[width * height];
+        IntStream.range(0, height).parallel().forEach(row -> {
             for (int col = 0; col < width; col++) {
-                // Create vertex for current position
-                positions.add(STARTX + col * incx); // x
-                float currentHeight = getHeight(col, row, width, heightMapImage);
-                heightArray[row][col] = currentHeight;
-                positions.add(currentHeight); //y
-                positions.add(STARTZ + row * incz); //z
-
-                // Set texture coordinates
-                textCoords.add((float) textInc * (float) col / (float) width);
-                textCoords.add((float) textInc * (float) row / (float) height);
-
-                // Create indices
-                if (col < width - 1 && row < height - 1) {
-                    int leftTop = row * width + col;
-                    int leftBottom = (row + 1) * width + col;
-                    int rightBottom = (row + 1) * width + col + 1;
-                    int rightTop = row * width + col + 1;
-
-                    indices.add(leftTop);
-                    indices.add(leftBottom);
-                    indices.add(rightTop);
-
-                    indices.add(rightTop);
-                    indices.add(leftBottom);
-                    indices.add(rightBottom);
-                }
+                heights[row * width + col] = decodeHeight(heightMapImage, col, row, width, minY, maxY);
             }
+        });
+        return heights;
+    }
+
+    /**
+     * Writes the vertices of a row, and the strip of the quads below it.
+     */
+    private void writeRow(Mesh mesh, ByteBuffer vertices, ByteBuffer indices, int row, int textInc) {
+        float incx = getXLength() / (width - 1);
+        float incz = getZLength() / (height - 1);
+        float[] normal = new float[3];
+        float z = STARTZ + row * incz;
+        for (int col = 0; col < width; col++) {
+            int vertex = row * width + col;
+            float y = heights[vertex];
+            calcNormal(row, col, incx, incz, normal);
+            mesh.putVertex(vertices, vertex, STARTX + col * incx, y, z,
+                    (float) textInc * col / (width - 1), (float) textInc * row / (height - 1),
+                    normal[0], normal[1], normal[2]);
+        }
+        if (row < height - 1) {
+            mesh.putGridStrip(indices, row, width, height);
         }
-        float[] posArr = ArrayUtils.listToArray(positions);
-        int[] indicesArr = indices.stream().mapToInt(i -> i).toArray();
-        float[] textCoordsArr = ArrayUtils.listToArray(textCoords);
-        float[] normalsArr = calcNormals(posArr, width, height);
-        this.mesh = new Mesh(posArr, textCoordsArr, normalsArr, indicesArr);
-        Material material = new Material(texture, 0.0f);
-        mesh.setMaterial(material);
     }
 
     public Mesh getMesh() {
         return mesh;
     }
 
+    /**
+     * @return The number of heights per row.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The number of rows of heights.
+     */
+    public int getDepth() {
+        return height;
+    }
+
     public static float getXLength() {
         return Math.abs(-STARTX * 2);
     }
@@ -90,96 +144,78 @@ public class HeightMapMesh {
         return Math.abs(-STARTZ * 2);
     }
 
-    private float[] calcNormals(float[] posArr, int width, int height) {
-        Vector3f v0 = new Vector3f();
-        Vector3f v1 = new Vector3f();
-        Vector3f v2 = new Vector3f();
-        Vector3f v3 = new Vector3f();
-        Vector3f v4 = new Vector3f();
-        Vector3f v12 = new Vector3f();
-        Vector3f v23 = new Vector3f();
-        Vector3f v34 = new Vector3f();
-        Vector3f v41 = new Vector3f();
-        List<Float> normals = new ArrayList<>();
-        Vector3f normal = new Vector3f();
-        for (int row = 0; row < height; row++) {
-            for (int col = 0; col < width; col++) {
-                if (row > 0 && row < height - 1 && col > 0 && col < width - 1) {
-                    int i0 = row * width * 3 + col * 3;
-                    v0.x = posArr[i0];
-                    v0.y = posArr[i0 + 1];
-                    v0.z = posArr[i0 + 2];
-
-                    int i1 = row * width * 3 + (col - 1) * 3;
-                    v1.x = posArr[i1];
-                    v1.y = posArr[i1 + 1];
-                    v1.z = posArr[i1 + 2];
-                    v1 = v1.sub(v0);
-
-                    int i2 = (row + 1) * width * 3 + col * 3;
-                    v2.x = posArr[i2];
-                    v2.y = posArr[i2 + 1];
-                    v2.z = posArr[i2 + 2];
-                    v2 = v2.sub(v0);
-
-                    int i3 = (row) * width * 3 + (col + 1) * 3;
-                    v3.x = posArr[i3];
-                    v3.y = posArr[i3 + 1];
-                    v3.z = posArr[i3 + 2];
-                    v3 = v3.sub(v0);
-
-                    int i4 = (row - 1) * width * 3 + col * 3;
-                    v4.x = posArr[i4];
-                    v4.y = posArr[i4 + 1];
-                    v4.z = posArr[i4 + 2];
-                    v4 = v4.sub(v0);
-
-                    v1.cross(v2, v12);
-                    v12.normalize();
-
-                    v2.cross(v3, v23);
-                    v23.normalize();
-
-                    v3.cross(v4, v34);
-                    v34.normalize();
-
-                    v4.cross(v1, v41);
-                    v41.normalize();
-
-                    normal = v12.add(v23).add(v34).add(v41);
-                    normal.normalize();
-                } else {
-                    normal.x = 0;
-                    normal.y = 1;
-                    normal.z = 0;
-                }
-                normal.normalize();
-                normals.add(normal.x);
-                normals.add(normal.y);
-                normals.add(normal.z);
-            }
+    /**
+     * Averages the normals of the four triangles formed with the vertex's neighbours. Edge vertices
+     * point straight up.
+     */
+    private void calcNormal(int row, int col, float incx, float incz, float[] normal) {
+        normal[0] = 0;
+        normal[1] = 0;
+        normal[2] = 0;
+        if (row == 0 || row == height - 1 || col == 0 || col == width - 1) {
+            normal[1] = 1;
+            return;
         }
-        return ArrayUtils.listToArray(normals);
+        int i0 = row * width + col;
+        float h0 = heights[i0];
+        // Left, next row, right and previous row neighbours, relative to the vertex
+        float y1 = heights[i0 - 1] - h0;
+        float y2 = heights[i0 + width] - h0;
+        float y3 = heights[i0 + 1] - h0;
+        float y4 = heights[i0 - width] - h0;
+        addNormalizedCross(-incx, y1, 0, 0, y2, incz, normal);
+        addNormalizedCross(0, y2, incz, incx, y3, 0, normal);
+        addNormalizedCross(incx, y3, 0, 0, y4, -incz, normal);
+        addNormalizedCross(0, y4, -incz, -incx, y1, 0, normal);
+        float length = (float) Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+        normal[0] /= length;
+        normal[1] /= length;
+        normal[2] /= length;
+    }
+
+    private static void addNormalizedCross(float ax, float ay, float az, float bx, float by, float bz, float[] sum) {
+        float x = ay * bz - az * by;
+        float y = az * bx - ax * bz;
+        float z = ax * by - ay * bx;
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        sum[0] += x / length;
+        sum[1] += y / length;
+        sum[2] += z / length;
     }
 
     public float getHeight(int row, int col) {
         float result = 0;
-        if (row >= 0 && row < heightArray.length) {
-            if (col >= 0 && col < heightArray[row].length) {
-                result = heightArray[row][col];
-            }
+        if (row >= 0 && row < height && col >= 0 && col < width) {
+            result = heights[row * width + col];
         }
         return result;
     }
 
-    private float getHeight(int x, int z, int width, ByteBuffer buffer) {
+    /**
+     * @return The heights of the height map, row by row. Not to be modified.
+     */
+    public float[] getHeights() {
+        return heights;
+    }
+
+    /**
+     * Decodes a height from an RGBA height map image, where the colour packs the height over 24 bits.
+     * @param buffer The decoded image, 4 bytes per pixel.
+     * @param x The column of the pixel.
+     * @param z The row of the pixel.
+     * @param width The width of the image.
+     * @param minY The height of a black pixel.
+     * @param maxY The height of a white pixel.
+     * @return The height of the pixel.
+     */
+    public static float decodeHeight(ByteBuffer buffer, int x, int z, int width, float minY, float maxY) {
         byte r = buffer.get(x * 4 + 0 + z * 4 * width);
         byte g = buffer.get(x * 4 + 1 + z * 4 * width);
         byte b = buffer.get(x * 4 + 2 + z * 4 * width);
         byte a = buffer.get(x * 4 + 3 + z * 4 * width);
         int argb = ((0xFF & a) << 24) | ((0xFF & r) << 16)
                 | ((0xFF & g) << 8) | (0xFF & b);
-        return this.minY + Math.abs(this.maxY - this.minY) * ((float) argb / (float) MAX_COLOR);
+        return minY + Math.abs(maxY - minY) * ((float) argb / (float) MAX_COLOR);
     }
 
 }
@@ -0,0 +1,117 @@
+package com.zcking.furyengine.rendering;
+
+import com.zcking.furyengine.lighting.DirectionalLight;
+import com.zcking.furyengine.lighting.PointLight;
+import com.zcking.furyengine.lighting.SceneLight;
+import com.zcking.furyengine.lighting.SpotLight;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+/**
+ * The lights of a {@link SceneLight}, in view coordinates, shared through the std140 block:
+ * <pre>
+ * layout (std140) uniform LightData {
+ *     vec3 ambientLight;
+ *     float specularPower;
+ *     DirectionalLight directionalLight;
+ *     PointLight pointLights[MAX_POINT_LIGHTS];
+ *     SpotLight spotLights[MAX_SPOT_LIGHTS];
+ * };
+ * </pre>
+ * Unused light slots are written with a zero intensity, which the shader skips.
+ */
+public class LightUniformBuffer extends UniformBuffer {
+
+    public static final String BLOCK_NAME = "LightData";
+
+    public static final int BINDING_POINT = 1;
+
+    public static final int MAX_POINT_LIGHTS = 5;
+
+    public static final int MAX_SPOT_LIGHTS = 5;
+
+    // std140 offsets, in bytes
+    private static final int DIRECTIONAL_LIGHT_OFFSET = 16;
+
+    private static final int POINT_LIGHTS_OFFSET = 48;
+
+    private static final int POINT_LIGHT_STRIDE = 48;
+
+    private static final int SPOT_LIGHTS_OFFSET = POINT_LIGHTS_OFFSET + MAX_POINT_LIGHTS * POINT_LIGHT_STRIDE;
+
+    private static final int SPOT_LIGHT_STRIDE = 64;
+
+    private static final int SIZE = SPOT_LIGHTS_OFFSET + MAX_SPOT_LIGHTS * SPOT_LIGHT_STRIDE;
+
+    private final Vector3f viewPosition;
+
+    private final Vector3f viewDirection;
+
+    public LightUniformBuffer() {
+        super(SIZE, BINDING_POINT);
+        viewPosition = new Vector3f();
+        viewDirection = new Vector3f();
+    }
+
+    /**
+     * Writes and uploads the scene's lights, transforming positions and directions to view coordinates.
+     * @param sceneLight The lights of the scene.
+     * @param specularPower The specular power of the scene.
+     * @param viewMatrix The camera's view matrix.
+     */
+    public void update(SceneLight sceneLight, float specularPower, Matrix4f viewMatrix) {
+        putVector3f(0, sceneLight.getAmbientLight());
+        putFloat(12, specularPower);
+
+        DirectionalLight dirLight = sceneLight.getDirectionalLight();
+        if (dirLight != null) {
+            viewMatrix.transformDirection(dirLight.getDirection(), viewDirection);
+            putVector3f(DIRECTIONAL_LIGHT_OFFSET, dirLight.getColor());
+            putVector3f(DIRECTIONAL_LIGHT_OFFSET + 16, viewDirection);
+            putFloat(DIRECTIONAL_LIGHT_OFFSET + 28, dirLight.getIntensity());
+        } else {
+            putFloat(DIRECTIONAL_LIGHT_OFFSET + 28, 0);
+        }
+
+        PointLight[] pointLights = sceneLight.getPointLights();
+        int numLights = pointLights != null ? Math.min(pointLights.length, MAX_POINT_LIGHTS) : 0;
+        for (int i = 0; i < MAX_POINT_LIGHTS; i++) {
+            int offset = POINT_LIGHTS_OFFSET + i * POINT_LIGHT_STRIDE;
+            if (i < numLights) {
+                PointLight pointLight = pointLights[i];
+                viewMatrix.transformPosition(pointLight.getPosition(), viewPosition);
+                putPointLight(offset, pointLight, viewPosition);
+            } else {
+                putFloat(offset + 28, 0);
+            }
+        }
+
+        SpotLight[] spotLights = sceneLight.getSpotLights();
+        numLights = spotLights != null ? Math.min(spotLights.length, MAX_SPOT_LIGHTS) : 0;
+        for (int i = 0; i < MAX_SPOT_LIGHTS; i++) {
+            int offset = SPOT_LIGHTS_OFFSET + i * SPOT_LIGHT_STRIDE;
+            if (i < numLights) {
+                SpotLight spotLight = spotLights[i];
+                viewMatrix.transformPosition(spotLight.getPointLight().getPosition(), viewPosition);
+                viewMatrix.transformDirection(spotLight.getConeDirection(), viewDirection);
+                putPointLight(offset, spotLight.getPointLight(), viewPosition);
+                putVector3f(offset + 48, viewDirection);
+                putFloat(offset + 60, spotLight.getCutOff());
+            } else {
+                putFloat(offset + 28, 0);
+            }
+        }
+
+        upload();
+    }
+
+    private void putPointLight(int offset, PointLight pointLight, Vector3f position) {
+        putVector3f(offset, pointLight.getColor());
+        putVector3f(offset + 16, position);
+        putFloat(offset + 28, pointLight.getIntensity());
+        PointLight.Attenuation att = pointLight.getAttenuation();
+        putFloat(offset + 32, att.getConstant());
+        putFloat(offset + 36, att.getLinear());
+        putFloat(offset + 40, att.getExponent());
+    }
+}
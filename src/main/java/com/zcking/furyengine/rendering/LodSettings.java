@@ -0,0 +1,102 @@
+package com.zcking.furyengine.rendering;
+
+import com.zcking.furyengine.engine.graph.MeshSimplifier;
+
+/**
+ * Fluent API for configuring the levels of detail generated for a mesh (see {@link Mesh#generateLods(LodSettings)}).
+ */
+public class LodSettings {
+
+    private int levelCount = 4;
+
+    private float reduction = 0.5f;
+
+    private float screenSize = 0.25f;
+
+    private float screenSizeFalloff = 0.5f;
+
+    private float jointWeightImportance = MeshSimplifier.DEFAULT_JOINT_WEIGHT_IMPORTANCE;
+
+    private LodSettings() { }
+
+    /**
+     * Creates a new, default LOD settings instance, which you can then
+     * configure using the fluent interface.
+     * @return A blank instance of the {@link LodSettings}.
+     */
+    public static LodSettings create() {
+        return new LodSettings();
+    }
+
+    /**
+     * Change the number of levels of detail, including the full detail mesh.
+     * @param levelCount The number of levels, between 1 and {@link Mesh#MAX_LODS}.
+     * @return The modified settings.
+     */
+    public LodSettings withLevelCount(int levelCount) {
+        this.levelCount = Math.max(1, Math.min(levelCount, Mesh.MAX_LODS));
+        return this;
+    }
+
+    /**
+     * Change how many triangles each level keeps from the previous one.
+     * @param reduction The fraction of triangles kept, between 0 and 1.
+     * @return The modified settings.
+     */
+    public LodSettings withReduction(float reduction) {
+        this.reduction = Math.max(0.0f, Math.min(reduction, 1.0f));
+        return this;
+    }
+
+    /**
+     * Change the screen size below which the first simplified level is used. The screen size of an
+     * object is the projected diameter of its bounding sphere, as a fraction of the screen's height.
+     * @param screenSize The screen size of the first simplified level.
+     * @return The modified settings.
+     */
+    public LodSettings withScreenSize(float screenSize) {
+        this.screenSize = screenSize;
+        return this;
+    }
+
+    /**
+     * Change how the screen size shrinks from one level to the next.
+     * @param screenSizeFalloff The factor applied to the screen size of each following level.
+     * @return The modified settings.
+     */
+    public LodSettings withScreenSizeFalloff(float screenSizeFalloff) {
+        this.screenSizeFalloff = screenSizeFalloff;
+        return this;
+    }
+
+    /**
+     * Change how strongly skinned meshes avoid collapsing vertices with different joint weights
+     * (see {@link MeshSimplifier#DEFAULT_JOINT_WEIGHT_IMPORTANCE}).
+     * @param jointWeightImportance The cost of fully reassigning a vertex's weights.
+     * @return The modified settings.
+     */
+    public LodSettings withJointWeightImportance(float jointWeightImportance) {
+        this.jointWeightImportance = jointWeightImportance;
+        return this;
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    public float getReduction() {
+        return reduction;
+    }
+
+    public float getScreenSize() {
+        return screenSize;
+    }
+
+    public float getScreenSizeFalloff() {
+        return screenSizeFalloff;
+    }
+
+    public float getJointWeightImportance() {
+        return jointWeightImportance;
+    }
+}
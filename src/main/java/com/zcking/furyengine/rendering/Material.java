@@ -7,6 +7,12 @@ public class Material {
 
     private static final Vector4f DEFAULT_COLOR = new Vector4f(1.0f, 1.0f, 1.0f, 1.0f);
 
+    private static final Vector4f IDENTITY_UV_TRANSFORM = new Vector4f(0.0f, 0.0f, 1.0f, 1.0f);
+
+    private static int nextId = 0;
+
+    private final int id;
+
     private Vector4f ambientColor;
 
     private Vector4f diffuseColor;
@@ -19,7 +25,10 @@ public class Material {
 
     private Texture normalMap;
 
+    private AtlasRegion atlasRegion;
+
     public Material() {
+        this.id = nextId++;
         this.ambientColor = DEFAULT_COLOR;
         this.diffuseColor = DEFAULT_COLOR;
         this.specularColor = DEFAULT_COLOR;
@@ -35,11 +44,21 @@ public class Material {
         this(DEFAULT_COLOR, DEFAULT_COLOR, DEFAULT_COLOR, texture, 0);
     }
 
+    /**
+     * Creates a material sampling a region of a {@link TextureAtlas} page.
+     * @param atlasRegion The region holding the material's image.
+     */
+    public Material(AtlasRegion atlasRegion) {
+        this(DEFAULT_COLOR, DEFAULT_COLOR, DEFAULT_COLOR, atlasRegion.getPage(), 0);
+        this.atlasRegion = atlasRegion;
+    }
+
     public Material(Texture texture, float reflectance) {
         this(DEFAULT_COLOR, DEFAULT_COLOR, DEFAULT_COLOR, texture, reflectance);
     }
 
     public Material(Vector4f ambientColor, Vector4f diffuseColor, Vector4f specularColor, Texture texture, float reflectance) {
+        this.id = nextId++;
         this.ambientColor = ambientColor;
         this.diffuseColor = diffuseColor;
         this.specularColor = specularColor;
@@ -47,6 +66,13 @@ public class Material {
         this.reflectance = reflectance;
     }
 
+    /**
+     * @return A unique id for this material, used to group draws sharing a material when sorting.
+     */
+    public int getId() {
+        return id;
+    }
+
     public Vector4f getAmbientColor() {
         return ambientColor;
     }
@@ -89,6 +115,39 @@ public class Material {
 
     public void setTexture(Texture texture) {
         this.texture = texture;
+        this.atlasRegion = null;
+    }
+
+    public AtlasRegion getAtlasRegion() {
+        return atlasRegion;
+    }
+
+    /**
+     * @return The offset (x, y) and scale (z, w) from the mesh's texture coordinates to the texture's,
+     * the identity unless the material samples an atlas region.
+     */
+    public Vector4f getUvTransform() {
+        return atlasRegion != null ? atlasRegion.getUvTransform() : IDENTITY_UV_TRANSFORM;
+    }
+
+    /**
+     * @return The number of columns of the material's sprite sheet, from its atlas region or texture.
+     */
+    public int getNumCols() {
+        if (atlasRegion != null) {
+            return atlasRegion.getNumCols();
+        }
+        return texture != null ? texture.getNumCols() : 1;
+    }
+
+    /**
+     * @return The number of rows of the material's sprite sheet, from its atlas region or texture.
+     */
+    public int getNumRows() {
+        if (atlasRegion != null) {
+            return atlasRegion.getNumRows();
+        }
+        return texture != null ? texture.getNumRows() : 1;
     }
 
     public boolean hasNormalMap() {
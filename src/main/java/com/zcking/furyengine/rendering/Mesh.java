@@ -1,132 +1,596 @@
 package com.zcking.furyengine.rendering;
 
+import com.zcking.furyengine.engine.graph.MeshSimplifier;
+import com.zcking.furyengine.engine.graph.Transformation;
 import com.zcking.furyengine.engine.objects.GameObject;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
 import org.lwjgl.system.MemoryUtil;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.function.Consumer;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL20.glDisableVertexAttribArray;
 import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
 import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.GL_MAP_INVALIDATE_BUFFER_BIT;
+import static org.lwjgl.opengl.GL30.GL_MAP_WRITE_BIT;
 import static org.lwjgl.opengl.GL30.glBindVertexArray;
 import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
 import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL30.glMapBufferRange;
+import static org.lwjgl.opengl.GL31.GL_COPY_READ_BUFFER;
+import static org.lwjgl.opengl.GL31.GL_COPY_WRITE_BUFFER;
+import static org.lwjgl.opengl.GL31.GL_PRIMITIVE_RESTART;
+import static org.lwjgl.opengl.GL31.glDrawElementsInstanced;
+import static org.lwjgl.opengl.GL31.glPrimitiveRestartIndex;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
 
 public class Mesh {
 
     public static final int MAX_WEIGHTS = 4;
 
+    /**
+     * The maximum number of levels of detail of a mesh, including the full detail one.
+     */
+    public static final int MAX_LODS = 4;
+
+    /**
+     * Floats stored per instance: the model matrix (16) followed by the texture atlas offset (2).
+     */
+    public static final int INSTANCE_DATA_FLOATS = 18;
+
+    private static final int INSTANCE_DATA_BYTES = INSTANCE_DATA_FLOATS * 4;
+
+    private static final int INSTANCE_DATA_ALIGNMENT = 16;
+
+    private static final int INSTANCE_MATRIX_LOCATION = 5;
+
+    private static final int INSTANCE_TEXT_OFFSET_LOCATION = 9;
+
+    private static final int MAX_SHORT_INDEX_VERTICES = 65536;
+
+    /**
+     * The index ending a triangle strip, so the next index starts a new one. It's the largest value of
+     * the mesh's index type once stored (0xFFFF or 0xFFFFFFFF), which strip meshes never use as a vertex.
+     */
+    public static final int PRIMITIVE_RESTART_INDEX = -1;
+
+    private static int nextId = 0;
+
+    private final int id;
+
     private final int vaoId;
 
     protected final List<Integer> vboIdList;
 
-    private final int vertexCount;
+    private final VertexFormat format;
+
+    private final int vertexVboId;
+
+    private final int indexVboId;
+
+    private final int indexType;
+
+    /**
+     * GL_TRIANGLES, or GL_TRIANGLE_STRIP with strips separated by {@link Mesh#PRIMITIVE_RESTART_INDEX}.
+     */
+    private int drawMode;
+
+    private final Vector3f positionScale;
+
+    private final Vector3f positionOffset;
+
+    private int vertexCount;
 
     private Material material;
 
+    private final Vector3f minBounds;
+
+    private final Vector3f maxBounds;
+
+    private final Vector3f boundingCenter;
+
+    private final float boundingRadius;
+
+    private boolean instanceAttributesEnabled;
+
+    private int lodCount;
+
+    /**
+     * The byte offset of each level of detail's indices in the index buffer.
+     */
+    private final long[] lodIndexOffsets;
+
+    private final int[] lodIndexCounts;
+
+    private final int[] lodTriangleCounts;
+
+    /**
+     * The screen size below which each level of detail is used. The first level is used above the second's.
+     */
+    private final float[] lodScreenSizes;
+
     public Mesh(float[] positions, float[] textCoords, float[] normals, int[] indices) {
-        this(positions, textCoords, normals, indices, createEmptyIntArray(MAX_WEIGHTS * positions.length / 3, 0), createEmptyFloatArray(MAX_WEIGHTS * positions.length / 3, 0));
+        this(VertexFormat.STATIC, positions, textCoords, normals, indices, null, null);
     }
 
     public Mesh(float[] positions, float[] textCoords, float[] normals, int[] indices, int[] jointIndices, float[] weights) {
-        FloatBuffer posBuffer = null;
-        FloatBuffer textCoordsBuffer = null;
-        FloatBuffer vecNormalsBuffer = null;
-        FloatBuffer weightsBuffer = null;
-        IntBuffer jointIndicesBuffer = null;
-        IntBuffer indicesBuffer = null;
+        this(VertexFormat.SKINNED, positions, textCoords, normals, indices, jointIndices, weights);
+    }
+
+    /**
+     * Constructs a new mesh, interleaving its vertex data into a single vertex buffer as described by
+     * a vertex format. Each source holds as many components per vertex as its attribute in the format.
+     * Sources the format doesn't use are ignored, and attributes without a source are filled with zeros.
+     * @param format The layout of the vertices.
+     * @param positions The vertex positions, which also define the number of vertices.
+     * @param textCoords The texture coordinates.
+     * @param normals The vertex normals.
+     * @param indices The triangle indices.
+     * @param jointIndices The joint indices, for skinned formats. May be null.
+     * @param weights The joint weights, for skinned formats. May be null.
+     */
+    public Mesh(VertexFormat format, float[] positions, float[] textCoords, float[] normals, int[] indices,
+                int[] jointIndices, float[] weights) {
+        this(format, GL_TRIANGLES, positions, textCoords, normals, indices, jointIndices, weights);
+    }
+
+    /**
+     * Constructs a new mesh drawn with the given primitives (see
+     * {@link Mesh#Mesh(VertexFormat, float[], float[], float[], int[], int[], float[])}).
+     * @param format The layout of the vertices.
+     * @param drawMode GL_TRIANGLES, or GL_TRIANGLE_STRIP for strips separated by {@link Mesh#PRIMITIVE_RESTART_INDEX}.
+     * @param positions The vertex positions, which also define the number of vertices.
+     * @param textCoords The texture coordinates.
+     * @param normals The vertex normals.
+     * @param indices The triangle or strip indices.
+     * @param jointIndices The joint indices, for skinned formats. May be null.
+     * @param weights The joint weights, for skinned formats. May be null.
+     */
+    public Mesh(VertexFormat format, int drawMode, float[] positions, float[] textCoords, float[] normals,
+                int[] indices, int[] jointIndices, float[] weights) {
+        ByteBuffer vertexBuffer = null;
+        ByteBuffer indicesBuffer = null;
         try {
+            id = nextId++;
+            this.format = format;
+            this.drawMode = drawMode;
             vertexCount = indices.length;
-            vboIdList = new ArrayList();
+            vboIdList = new ArrayList<>();
+            lodCount = 1;
+            lodIndexOffsets = new long[MAX_LODS];
+            lodIndexCounts = new int[MAX_LODS];
+            lodIndexCounts[0] = indices.length;
+            lodTriangleCounts = new int[MAX_LODS];
+            lodTriangleCounts[0] = countTriangles(drawMode, indices);
+            lodScreenSizes = new float[MAX_LODS];
+
+            // Local bounding volumes, used for culling
+            minBounds = new Vector3f();
+            maxBounds = new Vector3f();
+            boundingCenter = new Vector3f();
+            boundingRadius = calcBounds(positions, minBounds, maxBounds, boundingCenter);
+
+            positionOffset = new Vector3f();
+            positionScale = new Vector3f(1, 1, 1);
+            setupQuantization();
 
             vaoId = glGenVertexArrays();
             glBindVertexArray(vaoId);
 
-            // Position VBO
-            int vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            posBuffer = MemoryUtil.memAllocFloat(positions.length);
-            posBuffer.put(positions).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, posBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-
-            // Texture coordinates VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            textCoordsBuffer = MemoryUtil.memAllocFloat(textCoords.length);
-            textCoordsBuffer.put(textCoords).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, textCoordsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-
-            // Vertex normals VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            vecNormalsBuffer = MemoryUtil.memAllocFloat(normals.length);
-            vecNormalsBuffer.put(normals).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, vecNormalsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
-
-            // Weights
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            weightsBuffer = MemoryUtil.memAllocFloat(weights.length);
-            weightsBuffer.put(weights).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, weightsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(3, 4, GL_FLOAT, false, 0, 0);
-
-            // Joint indices
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            jointIndicesBuffer = MemoryUtil.memAllocInt(jointIndices.length);
-            jointIndicesBuffer.put(jointIndices).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, jointIndicesBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(4, 4, GL_FLOAT, false, 0, 0);
-
-            // Index VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            indicesBuffer = MemoryUtil.memAllocInt(indices.length);
-            indicesBuffer.put(indices).flip();
-            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
+            // Interleaved vertex VBO, the attribute pointers and enabled state are kept by the VAO
+            int numVertices = positions.length / 3;
+            vertexBuffer = MemoryUtil.memAlloc((int) getBufferSize(numVertices, format.getStride()));
+            writeVertices(vertexBuffer, numVertices, positions, textCoords, normals, jointIndices, weights);
+            vertexVboId = glGenBuffers();
+            vboIdList.add(vertexVboId);
+            glBindBuffer(GL_ARRAY_BUFFER, vertexVboId);
+            glBufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
+            format.setupAttributes();
+
+            // Index VBO, with 16-bit indices when the vertices allow it
+            indexVboId = glGenBuffers();
+            vboIdList.add(indexVboId);
+            indexType = chooseIndexType(numVertices, drawMode);
+            if (indexType == GL_UNSIGNED_SHORT) {
+                indicesBuffer = MemoryUtil.memAlloc(indices.length * 2);
+                for (int index : indices) {
+                    indicesBuffer.putShort((short) index);
+                }
+            } else {
+                indicesBuffer = MemoryUtil.memAlloc(indices.length * 4);
+                for (int index : indices) {
+                    indicesBuffer.putInt(index);
+                }
+            }
+            indicesBuffer.flip();
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVboId);
             glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
 
             glBindBuffer(GL_ARRAY_BUFFER, 0);
             glBindVertexArray(0);
         } finally {
-            if (posBuffer != null) {
-                MemoryUtil.memFree(posBuffer);
+            if (vertexBuffer != null) {
+                MemoryUtil.memFree(vertexBuffer);
+            }
+            if (indicesBuffer != null) {
+                MemoryUtil.memFree(indicesBuffer);
+            }
+        }
+    }
+
+    /**
+     * Writes the vertices and indices of a mesh straight into its GL buffers.
+     */
+    public interface BufferWriter {
+
+        /**
+         * Fills the mapped buffers of a mesh, with {@link Mesh#putVertex} and {@link Mesh#putIndex}.
+         * Both only write at absolute positions, so disjoint ranges may be filled from several threads.
+         * @param mesh The mesh being created.
+         * @param vertices The mapped vertex buffer.
+         * @param indices The mapped index buffer.
+         */
+        void write(Mesh mesh, ByteBuffer vertices, ByteBuffer indices);
+    }
+
+    /**
+     * Constructs a new mesh whose vertices and indices are written straight into its mapped GL buffers,
+     * without intermediate arrays. Used for very large generated meshes (e.g. {@link HeightMapMesh}).
+     * @param format The layout of the vertices.
+     * @param numVertices The number of vertices.
+     * @param numIndices The number of triangle indices.
+     * @param minBounds The minimum corner of the vertices' bounding box.
+     * @param maxBounds The maximum corner of the vertices' bounding box.
+     * @param writer Fills the buffers, on the calling thread (the one owning the GL context).
+     * @throws Exception If the buffers' content was lost while they were mapped.
+     */
+    public Mesh(VertexFormat format, int numVertices, int numIndices, Vector3f minBounds, Vector3f maxBounds,
+                BufferWriter writer) throws Exception {
+        this(format, GL_TRIANGLES, numVertices, numIndices, numIndices / 3, minBounds, maxBounds, writer);
+    }
+
+    /**
+     * Constructs a new mesh drawn with the given primitives, whose vertices and indices are written
+     * straight into its mapped GL buffers (see {@link Mesh#Mesh(VertexFormat, int, int, Vector3f, Vector3f, BufferWriter)}).
+     * @param format The layout of the vertices.
+     * @param drawMode GL_TRIANGLES, or GL_TRIANGLE_STRIP for strips separated by {@link Mesh#PRIMITIVE_RESTART_INDEX}.
+     * @param numVertices The number of vertices.
+     * @param numIndices The number of indices, including restart indices.
+     * @param numTriangles The number of triangles the indices form.
+     * @param minBounds The minimum corner of the vertices' bounding box.
+     * @param maxBounds The maximum corner of the vertices' bounding box.
+     * @param writer Fills the buffers, on the calling thread (the one owning the GL context).
+     * @throws IllegalArgumentException If a buffer would be larger than a ByteBuffer can address.
+     * @throws Exception If the buffers' content was lost while they were mapped.
+     */
+    public Mesh(VertexFormat format, int drawMode, int numVertices, int numIndices, int numTriangles,
+                Vector3f minBounds, Vector3f maxBounds, BufferWriter writer) throws Exception {
+        long vertexBytes = getBufferSize(numVertices, format.getStride());
+        long indexBytes = getBufferSize(numIndices, chooseIndexType(numVertices, drawMode) == GL_UNSIGNED_SHORT ? 2 : 4);
+        id = nextId++;
+        this.format = format;
+        this.drawMode = drawMode;
+        vertexCount = numIndices;
+        vboIdList = new ArrayList<>();
+        lodCount = 1;
+        lodIndexOffsets = new long[MAX_LODS];
+        lodIndexCounts = new int[MAX_LODS];
+        lodIndexCounts[0] = numIndices;
+        lodTriangleCounts = new int[MAX_LODS];
+        lodTriangleCounts[0] = numTriangles;
+        lodScreenSizes = new float[MAX_LODS];
+
+        this.minBounds = new Vector3f(minBounds);
+        this.maxBounds = new Vector3f(maxBounds);
+        boundingCenter = new Vector3f(minBounds).add(maxBounds).mul(0.5f);
+        boundingRadius = boundingCenter.distance(maxBounds);
+
+        positionOffset = new Vector3f();
+        positionScale = new Vector3f(1, 1, 1);
+        setupQuantization();
+
+        vaoId = glGenVertexArrays();
+        glBindVertexArray(vaoId);
+
+        vertexVboId = glGenBuffers();
+        vboIdList.add(vertexVboId);
+        glBindBuffer(GL_ARRAY_BUFFER, vertexVboId);
+        glBufferData(GL_ARRAY_BUFFER, vertexBytes, GL_STATIC_DRAW);
+        format.setupAttributes();
+
+        indexVboId = glGenBuffers();
+        vboIdList.add(indexVboId);
+        indexType = chooseIndexType(numVertices, drawMode);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVboId);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBytes, GL_STATIC_DRAW);
+
+        boolean intact;
+        int flags = GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT;
+        ByteBuffer vertices = glMapBufferRange(GL_ARRAY_BUFFER, 0, vertexBytes, flags);
+        ByteBuffer indices = glMapBufferRange(GL_ELEMENT_ARRAY_BUFFER, 0, indexBytes, flags);
+        try {
+            writer.write(this, vertices, indices);
+        } finally {
+            intact = glUnmapBuffer(GL_ELEMENT_ARRAY_BUFFER);
+            intact &= glUnmapBuffer(GL_ARRAY_BUFFER);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+            glBindVertexArray(0);
+        }
+        if (!intact) {
+            throw new Exception("The mesh's buffers were corrupted while mapped");
+        }
+    }
+
+    /**
+     * @return The size in bytes of a buffer of elements, computed without overflowing.
+     * @throws IllegalArgumentException If the buffer would be larger than a ByteBuffer can address.
+     */
+    static long getBufferSize(int count, int elementSize) {
+        long bytes = (long) count * elementSize;
+        if (count < 0 || bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A buffer of " + count + " elements of " + elementSize
+                    + " bytes is too large to map");
+        }
+        return bytes;
+    }
+
+    /**
+     * @return 16-bit indices when the vertices allow it. Strips need one more value for the restart index.
+     */
+    private static int chooseIndexType(int numVertices, int drawMode) {
+        int maxShortVertices = drawMode == GL_TRIANGLE_STRIP ? MAX_SHORT_INDEX_VERTICES - 1 : MAX_SHORT_INDEX_VERTICES;
+        return numVertices <= maxShortVertices ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+    }
+
+    private static int countTriangles(int drawMode, int[] indices) {
+        if (drawMode != GL_TRIANGLE_STRIP) {
+            return indices.length / 3;
+        }
+        int numTriangles = 0;
+        int stripLength = 0;
+        for (int index : indices) {
+            stripLength = index == PRIMITIVE_RESTART_INDEX ? 0 : stripLength + 1;
+            if (stripLength >= 3) {
+                numTriangles++;
             }
-            if (textCoordsBuffer != null) {
-                MemoryUtil.memFree(textCoordsBuffer);
+        }
+        return numTriangles;
+    }
+
+    /**
+     * Quantized positions are stored relative to the bounding box, and decoded by the shaders.
+     */
+    private void setupQuantization() {
+        if (format.hasQuantizedPositions()) {
+            positionOffset.set(minBounds);
+            maxBounds.sub(minBounds, positionScale);
+            positionScale.set(positionScale.x > 0 ? positionScale.x : 1, positionScale.y > 0 ? positionScale.y : 1,
+                    positionScale.z > 0 ? positionScale.z : 1);
+        }
+    }
+
+    /**
+     * Encodes a vertex into a vertex buffer with the mesh's format. Doesn't allocate, and only writes
+     * at absolute positions. Attributes other than positions, texture coordinates and normals are zeroed.
+     * The constructor checked the buffer's size fits in an int, so offsets of its vertices can't overflow.
+     * @param buffer The vertex buffer (see {@link BufferWriter}).
+     * @param vertex The index of the vertex.
+     */
+    public void putVertex(ByteBuffer buffer, int vertex, float x, float y, float z, float u, float v,
+                          float nx, float ny, float nz) {
+        VertexAttribute[] attributes = format.getAttributes();
+        for (int a = 0; a < attributes.length; a++) {
+            VertexAttribute attribute = attributes[a];
+            int base = vertex * format.getStride() + format.getOffset(a);
+            switch (attribute.getUsage()) {
+                case POSITION:
+                    if (format.hasQuantizedPositions()) {
+                        putComponents(buffer, base, attribute, (x - positionOffset.x) / positionScale.x,
+                                (y - positionOffset.y) / positionScale.y, (z - positionOffset.z) / positionScale.z);
+                    } else {
+                        putComponents(buffer, base, attribute, x, y, z);
+                    }
+                    break;
+                case TEXT_COORD:
+                    putComponents(buffer, base, attribute, u, v, 0);
+                    break;
+                case NORMAL:
+                    if (format.hasOctahedralNormals()) {
+                        // Same folding as encodeOctahedral, without the scratch array
+                        float length = Math.abs(nx) + Math.abs(ny) + Math.abs(nz);
+                        float ox = length > 0 ? nx / length : 0;
+                        float oy = length > 0 ? ny / length : 0;
+                        if (nz < 0) {
+                            float foldedX = (1 - Math.abs(oy)) * (ox >= 0 ? 1 : -1);
+                            oy = (1 - Math.abs(ox)) * (oy >= 0 ? 1 : -1);
+                            ox = foldedX;
+                        }
+                        putComponents(buffer, base, attribute, ox, oy, 0);
+                    } else {
+                        putComponents(buffer, base, attribute, nx, ny, nz);
+                    }
+                    break;
+                default:
+                    putComponents(buffer, base, attribute, 0, 0, 0);
+                    break;
             }
-            if (vecNormalsBuffer != null) {
-                MemoryUtil.memFree(vecNormalsBuffer);
+        }
+    }
+
+    private static void putComponents(ByteBuffer buffer, int base, VertexAttribute attribute, float c0, float c1, float c2) {
+        int componentSize = VertexAttribute.getComponentSize(attribute.getType());
+        for (int c = 0; c < attribute.getComponents(); c++) {
+            attribute.putComponent(buffer, base + c * componentSize, c == 0 ? c0 : c == 1 ? c1 : c == 2 ? c2 : 0);
+        }
+    }
+
+    /**
+     * Encodes an index into an index buffer with the mesh's index type. Only writes at an absolute position.
+     * @param buffer The index buffer (see {@link BufferWriter}).
+     * @param i The position of the index in the buffer, in indices.
+     * @param index The index of the vertex, or {@link Mesh#PRIMITIVE_RESTART_INDEX}.
+     */
+    public void putIndex(ByteBuffer buffer, int i, int index) {
+        if (indexType == GL_UNSIGNED_SHORT) {
+            buffer.putShort(i * 2, (short) index);
+        } else {
+            buffer.putInt(i * 4, index);
+        }
+    }
+
+    /**
+     * @param width The number of vertices per row of a grid.
+     * @param height The number of rows of vertices of the grid.
+     * @return The number of indices of the grid as triangle strips: one strip per row of quads, each
+     * followed by a restart index but the last.
+     */
+    public static int getGridStripIndexCount(int width, int height) {
+        return (height - 1) * (2 * width + 1) - 1;
+    }
+
+    /**
+     * Encodes the triangle strip of a row of quads of a grid whose vertices are laid out row by row,
+     * followed by a restart index unless it's the last row. The triangles wind like a grid of
+     * independent triangles split along each quad's left-bottom to right-top diagonal. Each row only
+     * writes its own range of the buffer, so rows may be written from several threads.
+     * @param buffer The index buffer (see {@link BufferWriter}).
+     * @param row The row of quads, between the vertex rows row and row + 1.
+     * @param width The number of vertices per row.
+     * @param height The number of rows of vertices.
+     */
+    public void putGridStrip(ByteBuffer buffer, int row, int width, int height) {
+        int i = row * (2 * width + 1);
+        for (int col = 0; col < width; col++) {
+            putIndex(buffer, i++, row * width + col);
+            putIndex(buffer, i++, (row + 1) * width + col);
+        }
+        if (row < height - 2) {
+            putIndex(buffer, i, PRIMITIVE_RESTART_INDEX);
+        }
+    }
+
+    /**
+     * Creates the triangle strip indices of a grid (see {@link Mesh#putGridStrip}), for a mesh drawn
+     * with GL_TRIANGLE_STRIP.
+     * @param width The number of vertices per row.
+     * @param height The number of rows of vertices.
+     * @return The indices.
+     */
+    public static int[] createGridStripIndices(int width, int height) {
+        int[] indices = new int[getGridStripIndexCount(width, height)];
+        int i = 0;
+        for (int row = 0; row < height - 1; row++) {
+            if (row > 0) {
+                indices[i++] = PRIMITIVE_RESTART_INDEX;
             }
-            if (weightsBuffer != null) {
-                MemoryUtil.memFree(weightsBuffer);
+            for (int col = 0; col < width; col++) {
+                indices[i++] = row * width + col;
+                indices[i++] = (row + 1) * width + col;
             }
-            if (jointIndicesBuffer != null) {
-                MemoryUtil.memFree(jointIndicesBuffer);
+        }
+        return indices;
+    }
+
+    private void writeVertices(ByteBuffer buffer, int numVertices, float[] positions, float[] textCoords,
+                               float[] normals, int[] jointIndices, float[] weights) {
+        int stride = format.getStride();
+        VertexAttribute[] attributes = format.getAttributes();
+        float[] values = new float[4];
+        for (int a = 0; a < attributes.length; a++) {
+            VertexAttribute attribute = attributes[a];
+            VertexAttribute.Usage usage = attribute.getUsage();
+            int sourceComponents = usage.getSourceComponents();
+            int componentSize = VertexAttribute.getComponentSize(attribute.getType());
+            int offset = format.getOffset(a);
+            float[] floatSource = null;
+            int[] intSource = null;
+            switch (usage) {
+                case POSITION:
+                    floatSource = positions;
+                    break;
+                case TEXT_COORD:
+                    floatSource = textCoords;
+                    break;
+                case NORMAL:
+                    floatSource = normals;
+                    break;
+                case WEIGHTS:
+                    floatSource = weights;
+                    break;
+                case JOINT_INDICES:
+                    intSource = jointIndices;
+                    break;
             }
-            if (indicesBuffer != null) {
-                MemoryUtil.memFree(indicesBuffer);
+
+            for (int v = 0; v < numVertices; v++) {
+                for (int c = 0; c < sourceComponents; c++) {
+                    int src = v * sourceComponents + c;
+                    values[c] = floatSource != null && src < floatSource.length ? floatSource[src] :
+                            intSource != null && src < intSource.length ? intSource[src] : 0;
+                }
+                if (usage == VertexAttribute.Usage.POSITION && format.hasQuantizedPositions()) {
+                    values[0] = (values[0] - positionOffset.x) / positionScale.x;
+                    values[1] = (values[1] - positionOffset.y) / positionScale.y;
+                    values[2] = (values[2] - positionOffset.z) / positionScale.z;
+                } else if (usage == VertexAttribute.Usage.NORMAL && format.hasOctahedralNormals()) {
+                    encodeOctahedral(values);
+                }
+
+                int base = v * stride + offset;
+                for (int c = 0; c < attribute.getComponents(); c++) {
+                    attribute.putComponent(buffer, base + c * componentSize, values[c]);
+                }
             }
         }
     }
 
+    /**
+     * Encodes the unit vector in the first 3 values into 2 octahedral coordinates, in [-1, 1].
+     */
+    static void encodeOctahedral(float[] values) {
+        float length = Math.abs(values[0]) + Math.abs(values[1]) + Math.abs(values[2]);
+        if (length == 0) {
+            values[0] = 0;
+            values[1] = 0;
+            return;
+        }
+        float x = values[0] / length;
+        float y = values[1] / length;
+        if (values[2] < 0) {
+            float foldedX = (1 - Math.abs(y)) * (x >= 0 ? 1 : -1);
+            float foldedY = (1 - Math.abs(x)) * (y >= 0 ? 1 : -1);
+            x = foldedX;
+            y = foldedY;
+        }
+        values[0] = x;
+        values[1] = y;
+    }
+
+    /**
+     * Decodes the 2 octahedral coordinates in the first values into a unit vector, in the first 3 values.
+     */
+    static void decodeOctahedral(float[] values) {
+        float x = values[0];
+        float y = values[1];
+        float z = 1 - Math.abs(x) - Math.abs(y);
+        if (z < 0) {
+            float unfoldedX = (1 - Math.abs(y)) * (x >= 0 ? 1 : -1);
+            float unfoldedY = (1 - Math.abs(x)) * (y >= 0 ? 1 : -1);
+            x = unfoldedX;
+            y = unfoldedY;
+        }
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        values[0] = x / length;
+        values[1] = y / length;
+        values[2] = z / length;
+    }
+
     public Material getMaterial() {
         return material;
     }
@@ -143,13 +607,305 @@ public class Mesh {
         return vertexCount;
     }
 
-    private void initRender() {
+    public VertexFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return GL_TRIANGLES, or GL_TRIANGLE_STRIP for strips separated by {@link Mesh#PRIMITIVE_RESTART_INDEX}.
+     */
+    public int getDrawMode() {
+        return drawMode;
+    }
+
+    /**
+     * @return The GL type of the mesh's indices: GL_UNSIGNED_SHORT when it has few enough vertices,
+     * GL_UNSIGNED_INT otherwise.
+     */
+    public int getIndexType() {
+        return indexType;
+    }
+
+    /**
+     * @return The size of the bounding box quantized positions are relative to, or (1, 1, 1) for float positions.
+     */
+    public Vector3f getPositionScale() {
+        return positionScale;
+    }
+
+    /**
+     * @return The origin of the bounding box quantized positions are relative to, or (0, 0, 0) for float positions.
+     */
+    public Vector3f getPositionOffset() {
+        return positionOffset;
+    }
+
+    /**
+     * @return The minimum corner of the mesh's axis-aligned bounding box, in model space.
+     */
+    public Vector3f getMinBounds() {
+        return minBounds;
+    }
+
+    /**
+     * @return The maximum corner of the mesh's axis-aligned bounding box, in model space.
+     */
+    public Vector3f getMaxBounds() {
+        return maxBounds;
+    }
+
+    /**
+     * @return The center of the mesh's bounding sphere, in model space.
+     */
+    public Vector3f getBoundingCenter() {
+        return boundingCenter;
+    }
+
+    public float getBoundingRadius() {
+        return boundingRadius;
+    }
+
+    /**
+     * @return A unique id for this mesh, used to group draws of the same mesh when sorting.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Reads the vertex positions back from the GPU. This stalls the pipeline, so it's only meant
+     * for load-time processing (e.g. static batching).
+     * @return The positions, 3 floats per vertex.
+     */
+    public float[] readPositions() {
+        return readFloatAttribute(VertexAttribute.Usage.POSITION);
+    }
+
+    /**
+     * Reads the texture coordinates back from the GPU (see {@link Mesh#readPositions()}).
+     * @return The texture coordinates, 2 floats per vertex.
+     */
+    public float[] readTextCoords() {
+        return readFloatAttribute(VertexAttribute.Usage.TEXT_COORD);
+    }
+
+    /**
+     * Reads the vertex normals back from the GPU (see {@link Mesh#readPositions()}).
+     * @return The normals, 3 floats per vertex.
+     */
+    public float[] readNormals() {
+        return readFloatAttribute(VertexAttribute.Usage.NORMAL);
+    }
+
+    /**
+     * Reads the indices back from the GPU (see {@link Mesh#readPositions()}). Triangle strips are
+     * unrolled into independent triangles, keeping their winding.
+     * @return The triangle indices.
+     */
+    public int[] readIndices() {
+        glBindBuffer(GL_COPY_READ_BUFFER, indexVboId);
+        int[] data = new int[vertexCount];
+        if (indexType == GL_UNSIGNED_SHORT) {
+            short[] shortData = new short[vertexCount];
+            glGetBufferSubData(GL_COPY_READ_BUFFER, 0, shortData);
+            for (int i = 0; i < shortData.length; i++) {
+                int index = shortData[i] & 0xFFFF;
+                data[i] = drawMode == GL_TRIANGLE_STRIP && index == 0xFFFF ? PRIMITIVE_RESTART_INDEX : index;
+            }
+        } else {
+            glGetBufferSubData(GL_COPY_READ_BUFFER, 0, data);
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        return drawMode == GL_TRIANGLE_STRIP ? unrollStrips(data) : data;
+    }
+
+    private static int[] unrollStrips(int[] strips) {
+        int[] triangles = new int[countTriangles(GL_TRIANGLE_STRIP, strips) * 3];
+        int numIndices = 0;
+        int stripStart = 0;
+        for (int i = 0; i < strips.length; i++) {
+            if (strips[i] == PRIMITIVE_RESTART_INDEX) {
+                stripStart = i + 1;
+                continue;
+            }
+            int k = i - stripStart;
+            if (k < 2) {
+                continue;
+            }
+            // Every other triangle of a strip swaps its first two vertices to keep the winding
+            int a = k % 2 == 0 ? strips[i - 2] : strips[i - 1];
+            int b = k % 2 == 0 ? strips[i - 1] : strips[i - 2];
+            int c = strips[i];
+            // Degenerate triangles only join strips, they have no area to keep
+            if (a != b && b != c && a != c) {
+                triangles[numIndices++] = a;
+                triangles[numIndices++] = b;
+                triangles[numIndices++] = c;
+            }
+        }
+        return Arrays.copyOf(triangles, numIndices);
+    }
+
+    private float[] readFloatAttribute(VertexAttribute.Usage usage) {
+        int index = format.indexOf(usage);
+        if (index < 0) {
+            return new float[0];
+        }
+        VertexAttribute attribute = format.getAttributes()[index];
+        int componentSize = VertexAttribute.getComponentSize(attribute.getType());
+        int sourceComponents = usage.getSourceComponents();
+
+        glBindBuffer(GL_COPY_READ_BUFFER, vertexVboId);
+        int size = glGetBufferParameteri(GL_COPY_READ_BUFFER, GL_BUFFER_SIZE);
+        ByteBuffer buffer = MemoryUtil.memAlloc(size);
+        try {
+            glGetBufferSubData(GL_COPY_READ_BUFFER, 0, buffer);
+            int stride = format.getStride();
+            int numVertices = size / stride;
+            float[] values = new float[4];
+            float[] data = new float[numVertices * sourceComponents];
+            for (int v = 0; v < numVertices; v++) {
+                int base = v * stride + format.getOffset(index);
+                for (int c = 0; c < attribute.getComponents(); c++) {
+                    values[c] = attribute.getComponent(buffer, base + c * componentSize);
+                }
+                if (usage == VertexAttribute.Usage.POSITION && format.hasQuantizedPositions()) {
+                    values[0] = values[0] * positionScale.x + positionOffset.x;
+                    values[1] = values[1] * positionScale.y + positionOffset.y;
+                    values[2] = values[2] * positionScale.z + positionOffset.z;
+                } else if (usage == VertexAttribute.Usage.NORMAL && format.hasOctahedralNormals()) {
+                    decodeOctahedral(values);
+                }
+                System.arraycopy(values, 0, data, v * sourceComponents, sourceComponents);
+            }
+            return data;
+        } finally {
+            MemoryUtil.memFree(buffer);
+            glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        }
+    }
+
+    /**
+     * Generates the levels of detail of the mesh, with a {@link MeshSimplifier}, and appends their
+     * indices to the mesh's index buffer. Each level simplifies the previous one, and levels that
+     * can't be simplified any further are dropped. Skinned meshes keep their joint weights. The
+     * vertex data is read back from the GPU, so this is only meant for load-time processing. A mesh of
+     * triangle strips is drawn as independent triangles afterwards.
+     * @param settings The number of levels, their reduction and their screen sizes.
+     */
+    public void generateLods(LodSettings settings) {
+        float[] positions = readPositions();
+        int[] indices = readIndices();
+        MeshSimplifier simplifier;
+        if (format.indexOf(VertexAttribute.Usage.WEIGHTS) >= 0 && format.indexOf(VertexAttribute.Usage.JOINT_INDICES) >= 0) {
+            float[] weights = readFloatAttribute(VertexAttribute.Usage.WEIGHTS);
+            float[] jointValues = readFloatAttribute(VertexAttribute.Usage.JOINT_INDICES);
+            int[] jointIndices = new int[jointValues.length];
+            for (int i = 0; i < jointValues.length; i++) {
+                jointIndices[i] = (int) jointValues[i];
+            }
+            simplifier = new MeshSimplifier(positions, jointIndices, weights, settings.getJointWeightImportance());
+        } else {
+            simplifier = new MeshSimplifier(positions);
+        }
+
+        List<int[]> levels = new ArrayList<>();
+        levels.add(indices);
+        int[] previous = indices;
+        float screenSize = settings.getScreenSize();
+        lodCount = 1;
+        while (levels.size() < settings.getLevelCount()) {
+            int target = (int) (previous.length / 3 * settings.getReduction()) * 3;
+            int[] level = simplifier.simplify(previous, target);
+            // Stop once simplification stalls, a level barely smaller than the previous one isn't worth it
+            if (level.length == 0 || level.length > previous.length * 0.9f) {
+                break;
+            }
+            lodScreenSizes[levels.size()] = screenSize;
+            screenSize *= settings.getScreenSizeFalloff();
+            levels.add(level);
+            previous = level;
+        }
+
+        int indexSize = VertexAttribute.getComponentSize(indexType);
+        int totalCount = 0;
+        for (int[] level : levels) {
+            totalCount += level.length;
+        }
+        ByteBuffer indicesBuffer = MemoryUtil.memAlloc(totalCount * indexSize);
+        try {
+            for (int l = 0; l < levels.size(); l++) {
+                lodIndexOffsets[l] = indicesBuffer.position();
+                lodIndexCounts[l] = levels.get(l).length;
+                lodTriangleCounts[l] = levels.get(l).length / 3;
+                for (int index : levels.get(l)) {
+                    if (indexType == GL_UNSIGNED_SHORT) {
+                        indicesBuffer.putShort((short) index);
+                    } else {
+                        indicesBuffer.putInt(index);
+                    }
+                }
+            }
+            indicesBuffer.flip();
+            // The copy target leaves the element buffer binding of whichever vertex array is bound alone
+            glBindBuffer(GL_COPY_WRITE_BUFFER, indexVboId);
+            glBufferData(GL_COPY_WRITE_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+            glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+            lodCount = levels.size();
+            // Strips were unrolled, so every level, the full detail one included, is drawn as triangles
+            drawMode = GL_TRIANGLES;
+            vertexCount = lodIndexCounts[0];
+        } finally {
+            MemoryUtil.memFree(indicesBuffer);
+        }
+    }
+
+    /**
+     * @return The number of levels of detail of the mesh, 1 until they're generated.
+     */
+    public int getLodCount() {
+        return lodCount;
+    }
+
+    /**
+     * @param lod A level of detail of the mesh.
+     * @return The number of indices of the level.
+     */
+    public int getLodIndexCount(int lod) {
+        return lodIndexCounts[Math.min(lod, lodCount - 1)];
+    }
+
+    /**
+     * Selects the level of detail for an object's screen size. An object only switches to a coarser
+     * level once its screen size is below the level's by the hysteresis, and back to a finer level once
+     * it's above that level's by the hysteresis, so objects near a threshold don't pop back and forth.
+     * @param screenSize The projected diameter of the object's bounding sphere, as a fraction of the screen's height.
+     * @param currentLod The level of detail the object was drawn with last.
+     * @param hysteresis The relative margin around each threshold (e.g. 0.1 for 10%).
+     * @return The level of detail to draw the object with.
+     */
+    public int selectLod(float screenSize, int currentLod, float hysteresis) {
+        int lod = Math.max(0, Math.min(currentLod, lodCount - 1));
+        while (lod + 1 < lodCount && screenSize < lodScreenSizes[lod + 1] * (1 - hysteresis)) {
+            lod++;
+        }
+        while (lod > 0 && screenSize > lodScreenSizes[lod] * (1 + hysteresis)) {
+            lod--;
+        }
+        return lod;
+    }
+
+    /**
+     * Binds the textures of the mesh's material: the texture on unit 0 and the normal map on unit 1.
+     */
+    public void bindTextures() {
         Texture texture = material.getTexture();
         if (texture != null) {
             // Activate first texture bank
             glActiveTexture(GL_TEXTURE0);
             // Bind the texture
             glBindTexture(GL_TEXTURE_2D, texture.getId());
+            RenderStats.countTextureBind();
         }
         Texture normalMap = material.getNormalMap();
         if ( normalMap != null ) {
@@ -157,53 +913,194 @@ public class Mesh {
             glActiveTexture(GL_TEXTURE1);
             // Bind the texture
             glBindTexture(GL_TEXTURE_2D, normalMap.getId());
+            RenderStats.countTextureBind();
         }
+    }
 
-        // Draw the mesh
+    /**
+     * Binds the mesh's vertex array, so it's ready to be drawn. The enabled vertex attributes
+     * are part of the vertex array's state.
+     */
+    public void bind() {
         glBindVertexArray(getVaoId());
-        glEnableVertexAttribArray(0);
-        glEnableVertexAttribArray(1);
-        glEnableVertexAttribArray(2);
-        glEnableVertexAttribArray(3);
-        glEnableVertexAttribArray(4);
     }
 
-    private void endRender() {
-        // Restore state
-        glDisableVertexAttribArray(0);
-        glDisableVertexAttribArray(1);
-        glDisableVertexAttribArray(2);
-        glDisableVertexAttribArray(3);
-        glDisableVertexAttribArray(4);
+    /**
+     * Unbinds the mesh's vertex array.
+     */
+    public void unbind() {
         glBindVertexArray(0);
+    }
 
+    private void initRender() {
+        bindTextures();
+        bind();
+    }
+
+    private void endRender() {
+        // Restore state
+        unbind();
         glBindTexture(GL_TEXTURE_2D, 0);
     }
 
     public void render() {
         initRender();
 
-        glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
+        draw();
 
         endRender();
     }
 
-    public void renderList(List<GameObject> gameObjects, Consumer<GameObject> consumer) {
-        initRender();
+    /**
+     * Issues a draw call for the mesh. The mesh must already be bound (see {@link Mesh#bind()}).
+     */
+    public void draw() {
+        draw(0);
+    }
 
-        for (GameObject gameObject : gameObjects) {
-            // Set up data required by gameObject
-            consumer.accept(gameObject);
-            // Render this game object
-            glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
+    /**
+     * Issues a draw call for a level of detail of the mesh. The mesh must already be bound.
+     * @param lod The level of detail, clamped to the mesh's levels.
+     */
+    public void draw(int lod) {
+        lod = Math.min(lod, lodCount - 1);
+        beginPrimitives();
+        glDrawElements(drawMode, lodIndexCounts[lod], indexType, lodIndexOffsets[lod]);
+        endPrimitives();
+        RenderStats.countDraw(lodTriangleCounts[lod]);
+    }
+
+    /**
+     * Issues one instanced draw call for the full detail mesh, whose per-instance attributes were set up
+     * by the caller. The mesh must already be bound (see {@link Mesh#bind()}).
+     * @param numInstances The number of instances to draw.
+     */
+    public void drawInstanced(int numInstances) {
+        beginPrimitives();
+        glDrawElementsInstanced(drawMode, lodIndexCounts[0], indexType, lodIndexOffsets[0], numInstances);
+        endPrimitives();
+        RenderStats.countDraw((long) lodTriangleCounts[0] * numInstances);
+    }
+
+    /**
+     * Enables primitive restart around the draws of a strip mesh. The restart index depends on the
+     * mesh's index type, so it's set per draw rather than once for every mesh.
+     */
+    private void beginPrimitives() {
+        if (drawMode == GL_TRIANGLE_STRIP) {
+            glEnable(GL_PRIMITIVE_RESTART);
+            glPrimitiveRestartIndex(indexType == GL_UNSIGNED_SHORT ? 0xFFFF : PRIMITIVE_RESTART_INDEX);
         }
+    }
 
+    private void endPrimitives() {
+        if (drawMode == GL_TRIANGLE_STRIP) {
+            glDisable(GL_PRIMITIVE_RESTART);
+        }
+    }
+
+    /**
+     * Renders every game object in the list with a single instanced draw call, binding and
+     * unbinding the mesh around it.
+     * @param gameObjects The game objects sharing this mesh.
+     * @param transformation Used to build the model matrix of each object.
+     * @param billboardMatrix If not null, objects are rotated to face this view matrix (e.g. particles).
+     * @param streamBuffer The buffer the instance data is streamed through.
+     * @see Mesh#drawInstanced(List, Transformation, Matrix4f, StreamBuffer)
+     */
+    public void renderListInstanced(List<GameObject> gameObjects, Transformation transformation, Matrix4f billboardMatrix,
+                                    StreamBuffer streamBuffer) {
+        if (gameObjects.isEmpty()) {
+            return;
+        }
+        initRender();
+        drawInstanced(gameObjects, transformation, billboardMatrix, streamBuffer);
         endRender();
     }
 
-    public void cleanUp() {
-        glDisableVertexAttribArray(0);
+    /**
+     * Draws every game object in the list with instanced draw calls. The model matrix and texture
+     * atlas offset of each object are written into the current frame's region of the stream buffer,
+     * so the shader must read them from the instance attributes (locations 5-9) rather than from uniforms.
+     * The stream buffer grows if the frame's region can't hold every object.
+     * The mesh must already be bound (see {@link Mesh#bind()}).
+     * @param gameObjects The game objects sharing this mesh.
+     * @param transformation Used to build the model matrix of each object.
+     * @param billboardMatrix If not null, objects are rotated to face this view matrix (e.g. particles).
+     * @param streamBuffer The buffer the instance data is streamed through.
+     */
+    public void drawInstanced(List<GameObject> gameObjects, Transformation transformation, Matrix4f billboardMatrix,
+                              StreamBuffer streamBuffer) {
+        drawInstanced(gameObjects, transformation, billboardMatrix, streamBuffer, 0);
+    }
+
+    /**
+     * Draws every game object in the list with a level of detail of the mesh, with instanced draw calls
+     * (see {@link Mesh#drawInstanced(List, Transformation, Matrix4f, StreamBuffer)}).
+     * @param gameObjects The game objects sharing this mesh.
+     * @param transformation Used to build the model matrix of each object.
+     * @param billboardMatrix If not null, objects are rotated to face this view matrix (e.g. particles).
+     * @param streamBuffer The buffer the instance data is streamed through.
+     * @param lod The level of detail, clamped to the mesh's levels.
+     */
+    public void drawInstanced(List<GameObject> gameObjects, Transformation transformation, Matrix4f billboardMatrix,
+                              StreamBuffer streamBuffer, int lod) {
+        int numInstances = gameObjects.size();
+        if (numInstances == 0) {
+            return;
+        }
+        int baseOffset = streamBuffer.allocate(numInstances * INSTANCE_DATA_BYTES, INSTANCE_DATA_ALIGNMENT);
+
+        int numCols = material.getNumCols();
+        int numRows = material.getNumRows();
+
+        ByteBuffer instanceData = streamBuffer.getBuffer();
+        for (int i = 0; i < numInstances; i++) {
+            GameObject gameObject = gameObjects.get(i);
+            Matrix4f modelMatrix = billboardMatrix == null ?
+                    transformation.buildModelMatrix(gameObject) :
+                    transformation.buildBillboardModelMatrix(gameObject, billboardMatrix);
+            int offset = baseOffset + i * INSTANCE_DATA_BYTES;
+            modelMatrix.get(offset, instanceData);
+
+            int col = gameObject.getTextPos() % numCols;
+            int row = gameObject.getTextPos() / numCols;
+            instanceData.putFloat(offset + 64, (float) col / numCols);
+            instanceData.putFloat(offset + 68, (float) row / numRows);
+        }
+        streamBuffer.flush();
+
+        // The instance attributes point into the stream buffer, at this draw's block
+        glBindBuffer(GL_ARRAY_BUFFER, streamBuffer.getId());
+        for (int i = 0; i < 4; i++) {
+            glVertexAttribPointer(INSTANCE_MATRIX_LOCATION + i, 4, GL_FLOAT, false, INSTANCE_DATA_BYTES, baseOffset + i * 16);
+        }
+        glVertexAttribPointer(INSTANCE_TEXT_OFFSET_LOCATION, 2, GL_FLOAT, false, INSTANCE_DATA_BYTES, baseOffset + 64);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        enableInstanceAttributes();
+
+        lod = Math.min(lod, lodCount - 1);
+        beginPrimitives();
+        glDrawElementsInstanced(drawMode, lodIndexCounts[lod], indexType, lodIndexOffsets[lod], numInstances);
+        endPrimitives();
+        RenderStats.countDraw((long) lodTriangleCounts[lod] * numInstances);
+    }
+
+    private void enableInstanceAttributes() {
+        if (instanceAttributesEnabled) {
+            return;
+        }
+        // The divisors and enabled state live in the VAO, so they only need to be set once
+        for (int i = 0; i < 4; i++) {
+            glVertexAttribDivisor(INSTANCE_MATRIX_LOCATION + i, 1);
+            glEnableVertexAttribArray(INSTANCE_MATRIX_LOCATION + i);
+        }
+        glVertexAttribDivisor(INSTANCE_TEXT_OFFSET_LOCATION, 1);
+        glEnableVertexAttribArray(INSTANCE_TEXT_OFFSET_LOCATION);
+        instanceAttributesEnabled = true;
+    }
 
+    public void cleanUp() {
         // Delete the VBOs
         glBindBuffer(GL_ARRAY_BUFFER, 0);
         for (int vboId : vboIdList) {
@@ -222,8 +1119,6 @@ public class Mesh {
     }
 
     public void deleteBuffers() {
-        glDisableVertexAttribArray(0);
-
         // Delete the VBOs
         glBindBuffer(GL_ARRAY_BUFFER, 0);
         for (int vboId : vboIdList) {
@@ -235,16 +1130,37 @@ public class Mesh {
         glDeleteVertexArrays(vaoId);
     }
 
-    private static float[] createEmptyFloatArray(int length, float defaultValue) {
-        float[] result = new float[length];
-        Arrays.fill(result, defaultValue);
-        return result;
-    }
+    /**
+     * Calculates the axis-aligned bounding box of the positions, and a bounding sphere around the box's center.
+     * @return The radius of the bounding sphere.
+     */
+    private static float calcBounds(float[] positions, Vector3f min, Vector3f max, Vector3f center) {
+        if (positions.length < 3) {
+            min.zero();
+            max.zero();
+            center.zero();
+            return 0;
+        }
+        min.set(Float.MAX_VALUE);
+        max.set(-Float.MAX_VALUE);
+        for (int i = 0; i + 2 < positions.length; i += 3) {
+            min.x = Math.min(min.x, positions[i]);
+            min.y = Math.min(min.y, positions[i + 1]);
+            min.z = Math.min(min.z, positions[i + 2]);
+            max.x = Math.max(max.x, positions[i]);
+            max.y = Math.max(max.y, positions[i + 1]);
+            max.z = Math.max(max.z, positions[i + 2]);
+        }
+        min.add(max, center).mul(0.5f);
 
-    private static int[] createEmptyIntArray(int length, int defaultValue) {
-        int[] result = new int[length];
-        Arrays.fill(result, defaultValue);
-        return result;
+        float maxDistanceSquared = 0;
+        for (int i = 0; i + 2 < positions.length; i += 3) {
+            float dx = positions[i] - center.x;
+            float dy = positions[i + 1] - center.y;
+            float dz = positions[i + 2] - center.z;
+            maxDistanceSquared = Math.max(maxDistanceSquared, dx * dx + dy * dy + dz * dz);
+        }
+        return (float) Math.sqrt(maxDistanceSquared);
     }
 
 }
@@ -0,0 +1,277 @@
+package com.zcking.furyengine.rendering;
+
+import com.zcking.furyengine.engine.objects.GameObject;
+
+import java.util.Arrays;
+
+/**
+ * A queue of draw packets (a mesh and the game object to draw it for), ordered by a 64-bit sort key.
+ * The key is laid out so that sorting it groups draws by pass, then shader, then material, then mesh,
+ * and finally orders them front to back, which keeps GL state changes to a minimum and lets early
+ * depth testing reject more fragments.
+ * <pre>
+ * | pass (4) | shader (4) | material (20) | mesh (16) | depth (20) |
+ * </pre>
+ * Packets are stored in parallel primitive arrays and sorted with a radix sort, so filling and
+ * sorting the queue doesn't allocate once its capacity has been reached.
+ */
+public class RenderQueue {
+
+    public static final int PASS_OPAQUE = 0;
+
+    /**
+     * The pass of the first shadow cascade, each following cascade uses the next pass.
+     */
+    public static final int PASS_SHADOW = 1;
+
+    /**
+     * The pass caching the static casters of the first shadow cascade, each following cascade uses the next pass.
+     */
+    public static final int PASS_STATIC_SHADOW = PASS_SHADOW + ShadowMap.MAX_CASCADES;
+
+    private static final int PASS_BITS = 4;
+
+    private static final int SHADER_BITS = 4;
+
+    private static final int MATERIAL_BITS = 20;
+
+    private static final int MESH_BITS = 16;
+
+    private static final int DEPTH_BITS = 20;
+
+    private static final int DEPTH_SHIFT = 0;
+
+    private static final int MESH_SHIFT = DEPTH_SHIFT + DEPTH_BITS;
+
+    private static final int MATERIAL_SHIFT = MESH_SHIFT + MESH_BITS;
+
+    private static final int SHADER_SHIFT = MATERIAL_SHIFT + MATERIAL_BITS;
+
+    private static final int PASS_SHIFT = SHADER_SHIFT + SHADER_BITS;
+
+    private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int count;
+
+    private long[] keys;
+
+    private long[] sortKeys;
+
+    private long[] tmpKeys;
+
+    private int[] order;
+
+    private int[] tmpOrder;
+
+    private Mesh[] meshes;
+
+    private GameObject[] gameObjects;
+
+    private final int[] histogram;
+
+    /**
+     * Constructs a new, empty render queue.
+     */
+    public RenderQueue() {
+        keys = new long[INITIAL_CAPACITY];
+        sortKeys = new long[INITIAL_CAPACITY];
+        tmpKeys = new long[INITIAL_CAPACITY];
+        order = new int[INITIAL_CAPACITY];
+        tmpOrder = new int[INITIAL_CAPACITY];
+        meshes = new Mesh[INITIAL_CAPACITY];
+        gameObjects = new GameObject[INITIAL_CAPACITY];
+        histogram = new int[256];
+    }
+
+    /**
+     * Builds a sort key from its fields. Fields wider than their slot are truncated, which only
+     * affects how well draws are grouped, never which draws are issued.
+     * @param pass The render pass (e.g. {@link RenderQueue#PASS_SHADOW}).
+     * @param shader The shader slot within the pass.
+     * @param materialId The id of the material (see {@link Material#getId()}).
+     * @param meshId The id of the mesh (see {@link Mesh#getId()}).
+     * @param depth The view space distance of the object.
+     * @param maxDepth The distance mapped to the last depth bucket (e.g. the far plane).
+     * @return The sort key.
+     */
+    public static long buildKey(int pass, int shader, int materialId, int meshId, float depth, float maxDepth) {
+        int quantizedDepth = (int) (Math.max(0.0f, Math.min(depth / maxDepth, 1.0f)) * MAX_DEPTH);
+        return (long) (pass & ((1 << PASS_BITS) - 1)) << PASS_SHIFT
+                | (long) (shader & ((1 << SHADER_BITS) - 1)) << SHADER_SHIFT
+                | (long) (materialId & ((1 << MATERIAL_BITS) - 1)) << MATERIAL_SHIFT
+                | (long) (meshId & ((1 << MESH_BITS) - 1)) << MESH_SHIFT
+                | (long) quantizedDepth << DEPTH_SHIFT;
+    }
+
+    /**
+     * @param cascade The index of a shadow cascade.
+     * @return The pass of the cascade.
+     */
+    public static int shadowPass(int cascade) {
+        return PASS_SHADOW + cascade;
+    }
+
+    /**
+     * @param cascade The index of a shadow cascade.
+     * @return The pass rendering the static casters of the cascade.
+     */
+    public static int staticShadowPass(int cascade) {
+        return PASS_STATIC_SHADOW + cascade;
+    }
+
+    /**
+     * @param pass A render pass.
+     * @return Whether or not the pass renders a shadow cascade.
+     */
+    public static boolean isShadowPass(int pass) {
+        return pass >= PASS_SHADOW;
+    }
+
+    /**
+     * @param key A sort key built by {@link RenderQueue#buildKey(int, int, int, int, float, float)}.
+     * @return The pass of the key.
+     */
+    public static int getPass(long key) {
+        return (int) (key >>> PASS_SHIFT) & ((1 << PASS_BITS) - 1);
+    }
+
+    /**
+     * @param key A sort key built by {@link RenderQueue#buildKey(int, int, int, int, float, float)}.
+     * @return The shader slot of the key.
+     */
+    public static int getShader(long key) {
+        return (int) (key >>> SHADER_SHIFT) & ((1 << SHADER_BITS) - 1);
+    }
+
+    /**
+     * Removes every packet from the queue, keeping its capacity.
+     */
+    public void clear() {
+        // Don't keep game objects alive through the queue
+        Arrays.fill(meshes, 0, count, null);
+        Arrays.fill(gameObjects, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Adds a draw packet to the queue.
+     * @param key The sort key of the packet.
+     * @param mesh The mesh to draw.
+     * @param gameObject The game object to draw the mesh for.
+     */
+    public void add(long key, Mesh mesh, GameObject gameObject) {
+        if (count == keys.length) {
+            grow();
+        }
+        keys[count] = key;
+        meshes[count] = mesh;
+        gameObjects[count] = gameObject;
+        count++;
+    }
+
+    /**
+     * Sorts the packets by their key (least significant digit radix sort, 8 bits per pass).
+     * Digits that are the same for every key are skipped. The sort is stable.
+     */
+    public void sort() {
+        for (int i = 0; i < count; i++) {
+            sortKeys[i] = keys[i];
+            order[i] = i;
+        }
+
+        for (int shift = 0; shift < 64; shift += 8) {
+            Arrays.fill(histogram, 0);
+            for (int i = 0; i < count; i++) {
+                histogram[(int) (sortKeys[i] >>> shift) & 0xFF]++;
+            }
+            if (count == 0 || histogram[(int) (sortKeys[0] >>> shift) & 0xFF] == count) {
+                continue;
+            }
+
+            int sum = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                int digitCount = histogram[i];
+                histogram[i] = sum;
+                sum += digitCount;
+            }
+            for (int i = 0; i < count; i++) {
+                int digit = (int) (sortKeys[i] >>> shift) & 0xFF;
+                int dest = histogram[digit]++;
+                tmpKeys[dest] = sortKeys[i];
+                tmpOrder[dest] = order[i];
+            }
+
+            long[] swapKeys = sortKeys;
+            sortKeys = tmpKeys;
+            tmpKeys = swapKeys;
+            int[] swapOrder = order;
+            order = tmpOrder;
+            tmpOrder = swapOrder;
+        }
+    }
+
+    /**
+     * @param pass The pass to look for.
+     * @return The sorted index of the first packet of the pass, or {@link RenderQueue#size()} if there is none.
+     */
+    public int findPassStart(int pass) {
+        int i = 0;
+        while (i < count && getPass(sortKeys[i]) < pass) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param pass The pass to look for.
+     * @return The sorted index after the last packet of the pass.
+     */
+    public int findPassEnd(int pass) {
+        int i = findPassStart(pass);
+        while (i < count && getPass(sortKeys[i]) == pass) {
+            i++;
+        }
+        return i;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param i The sorted index of the packet.
+     * @return The key of the packet.
+     */
+    public long getKey(int i) {
+        return sortKeys[i];
+    }
+
+    /**
+     * @param i The sorted index of the packet.
+     * @return The mesh of the packet.
+     */
+    public Mesh getMesh(int i) {
+        return meshes[order[i]];
+    }
+
+    /**
+     * @param i The sorted index of the packet.
+     * @return The game object of the packet.
+     */
+    public GameObject getGameObject(int i) {
+        return gameObjects[order[i]];
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        sortKeys = new long[capacity];
+        tmpKeys = new long[capacity];
+        order = new int[capacity];
+        tmpOrder = new int[capacity];
+        meshes = Arrays.copyOf(meshes, capacity);
+        gameObjects = Arrays.copyOf(gameObjects, capacity);
+    }
+}
@@ -0,0 +1,53 @@
+package com.zcking.furyengine.rendering;
+
+/**
+ * Running totals of the work submitted to OpenGL: draw calls, triangles, uniform uploads and
+ * texture binds. The totals only ever grow, so a {@link FrameProfiler} reads them before and
+ * after a pass to get the pass's counts.
+ */
+public final class RenderStats {
+
+    private static long drawCalls;
+
+    private static long triangles;
+
+    private static long uniformUploads;
+
+    private static long textureBinds;
+
+    private RenderStats() {
+    }
+
+    /**
+     * Counts one draw call.
+     * @param numTriangles The number of triangles drawn by the call.
+     */
+    public static void countDraw(long numTriangles) {
+        drawCalls++;
+        triangles += numTriangles;
+    }
+
+    public static void countUniformUpload() {
+        uniformUploads++;
+    }
+
+    public static void countTextureBind() {
+        textureBinds++;
+    }
+
+    public static long getDrawCalls() {
+        return drawCalls;
+    }
+
+    public static long getTriangles() {
+        return triangles;
+    }
+
+    public static long getUniformUploads() {
+        return uniformUploads;
+    }
+
+    public static long getTextureBinds() {
+        return textureBinds;
+    }
+}
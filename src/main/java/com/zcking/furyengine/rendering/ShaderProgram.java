@@ -1,24 +1,15 @@
 package com.zcking.furyengine.rendering;
 
-import com.zcking.furyengine.lighting.DirectionalLight;
-import com.zcking.furyengine.lighting.PointLight;
-import com.zcking.furyengine.lighting.SpotLight;
-import com.zcking.furyengine.rendering.weather.Fog;
-import com.zcking.furyengine.utils.DebugUtils;
-import org.joml.Matrix4f;
-import org.joml.Vector3f;
-import org.joml.Vector4f;
-import org.lwjgl.system.MemoryStack;
-
-import java.nio.FloatBuffer;
-import java.util.HashMap;
-import java.util.Map;
-
-import static org.lwjgl.opengl.GL11.GL_FALSE;
+import com.zcking.furyengine.rendering.uniforms.*;
+
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL31.GL_INVALID_INDEX;
+import static org.lwjgl.opengl.GL31.glGetUniformBlockIndex;
+import static org.lwjgl.opengl.GL31.glUniformBlockBinding;
 
 /**
  * Compiles, initializes, loads, and manages a shader program.
+ * Uniforms are accessed through typed handles (see {@link Uniform}), created once the program is linked.
  */
 public class ShaderProgram {
 
@@ -30,165 +21,104 @@ public class ShaderProgram {
 
     private int geometryShaderId;
 
-    private final Map<String, Integer> uniforms;
-
     public ShaderProgram() throws Exception {
         programId = glCreateProgram();
         if (programId == 0) {
             throw new Exception("Could not create Shader");
         }
-        uniforms = new HashMap<>();
     }
 
-    public void createUniform(String uniformName) throws Exception {
+    /**
+     * Looks up the location of a uniform. Must be called after the program has been linked.
+     * @param uniformName The name of the uniform.
+     * @return The location of the uniform.
+     * @throws Exception If the uniform doesn't exist (or was optimized out of the program).
+     */
+    public int getUniformLocation(String uniformName) throws Exception {
         int uniformLocation = glGetUniformLocation(programId, uniformName);
         if (uniformLocation < 0) {
             throw new Exception("Could not find uniform:" + uniformName);
         }
-        uniforms.put(uniformName, uniformLocation);
-    }
-
-    public void createPointLightListUniform(String uniformName, int size) throws Exception {
-        for (int i = 0; i < size; i++) {
-            createPointLightUniform(uniformName + "[" + i + "]");
-        }
+        return uniformLocation;
     }
 
-    public void createPointLightUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".color");
-        createUniform(uniformName + ".position");
-        createUniform(uniformName + ".intensity");
-        createUniform(uniformName + ".att.constant");
-        createUniform(uniformName + ".att.linear");
-        createUniform(uniformName + ".att.exponent");
-    }
-
-    public void createSpotLightListUniform(String uniformName, int size) throws Exception {
-        for (int i = 0; i < size; i++) {
-            createSpotLightUniform(uniformName + "[" + i + "]");
+    /**
+     * Binds a uniform block of the program to a uniform buffer binding point (see {@link UniformBuffer}).
+     * Must be called after the program has been linked.
+     * @param blockName The name of the uniform block.
+     * @param bindingPoint The binding point of the uniform buffer.
+     * @throws Exception If the uniform block doesn't exist (or was optimized out of the program).
+     */
+    public void bindUniformBlock(String blockName, int bindingPoint) throws Exception {
+        int blockIndex = glGetUniformBlockIndex(programId, blockName);
+        if (blockIndex == GL_INVALID_INDEX) {
+            throw new Exception("Could not find uniform block:" + blockName);
         }
+        glUniformBlockBinding(programId, blockIndex, bindingPoint);
     }
 
-    public void createSpotLightUniform(String uniformName) throws Exception {
-        createPointLightUniform(uniformName + ".pointLight");
-        createUniform(uniformName + ".coneDir");
-        createUniform(uniformName + ".cutOff");
+    public IntUniform createIntUniform(String uniformName) throws Exception {
+        return new IntUniform(getUniformLocation(uniformName));
     }
 
-    public void createDirectionalLightUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".color");
-        createUniform(uniformName + ".direction");
-        createUniform(uniformName + ".intensity");
+    public FloatUniform createFloatUniform(String uniformName) throws Exception {
+        return new FloatUniform(getUniformLocation(uniformName));
     }
 
-    public void createMaterialUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".ambient");
-        createUniform(uniformName + ".diffuse");
-        createUniform(uniformName + ".specular");
-        createUniform(uniformName + ".hasTexture");
-        createUniform(uniformName + ".hasNormalMap");
-        createUniform(uniformName + ".reflectance");
+    public Vector2fUniform createVector2fUniform(String uniformName) throws Exception {
+        return new Vector2fUniform(getUniformLocation(uniformName));
     }
 
-    public void createFogUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".enabled");
-        createUniform(uniformName + ".color");
-        createUniform(uniformName + ".density");
+    public Vector3fUniform createVector3fUniform(String uniformName) throws Exception {
+        return new Vector3fUniform(getUniformLocation(uniformName));
     }
 
-    public void setUniform(String uniformName, Matrix4f value) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            // Dump the matrix into a float buffer
-            FloatBuffer fb = stack.mallocFloat(16);
-            value.get(fb);
-            glUniformMatrix4fv(uniforms.get(uniformName), false, fb);
-        }
+    public Vector4fUniform createVector4fUniform(String uniformName) throws Exception {
+        return new Vector4fUniform(getUniformLocation(uniformName));
     }
 
-    public void setUniform(String uniformName, Matrix4f[] matrices) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            int length = matrices != null ? matrices.length : 0;
-            FloatBuffer fb = stack.mallocFloat(16 * length);
-            for (int i = 0; i < length; i++) {
-                matrices[i].get(16 * i, fb);
-            }
-            glUniformMatrix4fv(uniforms.get(uniformName), false, fb);
-        }
+    public Matrix4fUniform createMatrix4fUniform(String uniformName) throws Exception {
+        return new Matrix4fUniform(getUniformLocation(uniformName));
     }
 
-    public void setUniform(String uniformName, int value) {
-        glUniform1i(uniforms.get(uniformName), value);
+    public Matrix4fArrayUniform createMatrix4fArrayUniform(String uniformName, int size) throws Exception {
+        return new Matrix4fArrayUniform(getUniformLocation(uniformName), size);
     }
 
-    public void setUniform(String uniformName, float value) {
-        glUniform1f(uniforms.get(uniformName), value);
-    }
-
-    public void setUniform(String uniformName, Vector3f value) {
-        glUniform3f(uniforms.get(uniformName), value.x, value.y, value.z);
-    }
-
-    public void setUniform(String uniformName, Vector4f value) {
-        glUniform4f(uniforms.get(uniformName), value.x, value.y, value.z, value.w);
-    }
-
-    public void setUniform(String uniformName, PointLight[] pointLights) {
-        int numLights = pointLights != null ? pointLights.length : 0;
-        for (int i = 0; i < numLights; i++) {
-            setUniform(uniformName, pointLights[i], i);
+    public PointLightUniform[] createPointLightListUniform(String uniformName, int size) throws Exception {
+        PointLightUniform[] result = new PointLightUniform[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = createPointLightUniform(uniformName + "[" + i + "]");
         }
+        return result;
     }
 
-    public void setUniform(String uniformName, PointLight pointLight, int pos) {
-        setUniform(uniformName + "[" + pos + "]", pointLight);
+    public PointLightUniform createPointLightUniform(String uniformName) throws Exception {
+        return new PointLightUniform(this, uniformName);
     }
 
-    public void setUniform(String uniformName, PointLight pointLight) {
-        setUniform(uniformName + ".color", pointLight.getColor());
-        setUniform(uniformName + ".position", pointLight.getPosition());
-        setUniform(uniformName + ".intensity", pointLight.getIntensity());
-        PointLight.Attenuation att = pointLight.getAttenuation();
-        setUniform(uniformName + ".att.constant", att.getConstant());
-        setUniform(uniformName + ".att.linear", att.getLinear());
-        setUniform(uniformName + ".att.exponent", att.getExponent());
-    }
-
-    public void setUniform(String uniformName, SpotLight[] spotLights) {
-        int numLights = spotLights != null ? spotLights.length : 0;
-        for (int i = 0; i < numLights; i++) {
-            setUniform(uniformName, spotLights[i], i);
+    public SpotLightUniform[] createSpotLightListUniform(String uniformName, int size) throws Exception {
+        SpotLightUniform[] result = new SpotLightUniform[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = createSpotLightUniform(uniformName + "[" + i + "]");
         }
+        return result;
     }
 
-    public void setUniform(String uniformName, SpotLight spotLight, int pos) {
-        setUniform(uniformName + "[" + pos + "]", spotLight);
-    }
-
-    public void setUniform(String uniformName, SpotLight spotLight) {
-        setUniform(uniformName + ".pointLight", spotLight.getPointLight());
-        setUniform(uniformName + ".coneDir", spotLight.getConeDirection());
-        setUniform(uniformName + ".cutOff", spotLight.getCutOff());
+    public SpotLightUniform createSpotLightUniform(String uniformName) throws Exception {
+        return new SpotLightUniform(this, uniformName);
     }
 
-    public void setUniform(String uniformName, DirectionalLight dirLight) {
-        setUniform(uniformName + ".color", dirLight.getColor());
-        setUniform(uniformName + ".direction", dirLight.getDirection());
-        setUniform(uniformName + ".intensity", dirLight.getIntensity());
+    public DirectionalLightUniform createDirectionalLightUniform(String uniformName) throws Exception {
+        return new DirectionalLightUniform(this, uniformName);
     }
 
-    public void setUniform(String uniformName, Material material) {
-        setUniform(uniformName + ".ambient", material.getAmbientColor());
-        setUniform(uniformName + ".diffuse", material.getDiffuseColor());
-        setUniform(uniformName + ".specular", material.getSpecularColor());
-        setUniform(uniformName + ".hasTexture", material.isTextured() ? 1 : 0);
-        setUniform(uniformName + ".hasNormalMap", material.hasNormalMap() ? 1 : 0);
-        setUniform(uniformName + ".reflectance", material.getReflectance());
+    public MaterialUniform createMaterialUniform(String uniformName) throws Exception {
+        return new MaterialUniform(this, uniformName);
     }
 
-    public void setUniform(String uniformName, Fog fog) {
-        setUniform(uniformName + ".enabled", fog.isEnabled() ? 1 : 0);
-        setUniform(uniformName + ".color", fog.getColor());
-        setUniform(uniformName + ".density", fog.getDensity());
+    public FogUniform createFogUniform(String uniformName) throws Exception {
+        return new FogUniform(this, uniformName);
     }
 
     public void createVertexShader(String shaderCode) throws Exception {
@@ -0,0 +1,271 @@
+package com.zcking.furyengine.rendering;
+
+import com.zcking.furyengine.engine.graph.FrustumCullingFilter;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+/**
+ * One cascade of a {@link ShadowMap}: an orthographic projection from the light, fit around a
+ * slice of the camera's view frustum. The projection is fit to the bounding sphere of the slice,
+ * so its size doesn't change as the camera rotates, and its origin is snapped to whole texels,
+ * so the shadows don't shimmer as the camera moves.
+ * <p>
+ * When static casters are cached, the projection covers a padded region snapped to a coarse grid
+ * in light space instead, which is kept as long as the slice stays inside it. The cached static
+ * casters are then only rendered again when the camera leaves the region, the light turns, or the
+ * static casters change.
+ */
+public class ShadowCascade {
+
+    /**
+     * How much larger than the slice's bounding sphere a cached region is, as a fraction of its radius.
+     */
+    private static final float REGION_MARGIN = 0.25f;
+
+    private final int index;
+
+    private final int updateInterval;
+
+    private final FrustumCullingFilter cullingFilter;
+
+    private final Matrix4f orthoProjectionMatrix;
+
+    private final Matrix4f projViewMatrix;
+
+    private final Matrix4f sceneMatrix;
+
+    private final Matrix4f staticProjViewMatrix;
+
+    private final Matrix4f sliceMatrix;
+
+    private final Vector3f[] corners;
+
+    private final Vector3f center;
+
+    private final Vector3f regionCenter;
+
+    private final Matrix4f regionLightViewMatrix;
+
+    private float regionRadius;
+
+    private float splitNear;
+
+    private float splitFar;
+
+    private float minDepth;
+
+    private float depthRange;
+
+    private boolean dirty;
+
+    private long staticVersion;
+
+    private boolean staticDirty;
+
+    /**
+     * Constructs a new shadow cascade.
+     * @param index The index of the cascade, which is also its layer in the depth map array.
+     * @param updateInterval The number of frames between two renders of the cascade.
+     */
+    public ShadowCascade(int index, int updateInterval) {
+        this.index = index;
+        this.updateInterval = updateInterval;
+        cullingFilter = new FrustumCullingFilter();
+        orthoProjectionMatrix = new Matrix4f();
+        projViewMatrix = new Matrix4f();
+        sceneMatrix = new Matrix4f();
+        staticProjViewMatrix = new Matrix4f();
+        staticVersion = -1;
+        sliceMatrix = new Matrix4f();
+        corners = new Vector3f[8];
+        for (int i = 0; i < corners.length; i++) {
+            corners[i] = new Vector3f();
+        }
+        center = new Vector3f();
+        regionCenter = new Vector3f();
+        regionLightViewMatrix = new Matrix4f();
+    }
+
+    /**
+     * Checks if the cascade should be rendered on a given frame. Cascades sharing an update interval
+     * are staggered, so they aren't all rendered on the same frame.
+     * @param frame The number of the frame.
+     * @return Whether or not the cascade is rendered on that frame.
+     */
+    public boolean isDue(long frame) {
+        return (frame + index) % updateInterval == 0;
+    }
+
+    /**
+     * Fits the cascade's projection around its slice of the view frustum.
+     * @param viewMatrix The camera's view matrix.
+     * @param fov The camera's field of view, in radians.
+     * @param aspectRatio The camera's aspect ratio.
+     * @param lightViewMatrix The light's view matrix (a rotation only, shared by every cascade).
+     * @param casterDistance How far towards the light casters outside the slice are still rendered.
+     * @param mapSize The size of the cascade's depth map, in texels.
+     * @param keepRegion Whether to keep the projection within a padded region while the slice stays inside it,
+     *                   so the cached static casters stay valid as the camera moves.
+     */
+    public void fit(Matrix4f viewMatrix, float fov, float aspectRatio, Matrix4f lightViewMatrix,
+                    float casterDistance, int mapSize, boolean keepRegion) {
+        sliceMatrix.setPerspective(fov, aspectRatio, splitNear, splitFar).mul(viewMatrix);
+
+        center.zero();
+        for (int i = 0; i < corners.length; i++) {
+            sliceMatrix.frustumCorner(i, corners[i]);
+            center.add(corners[i]);
+        }
+        center.div(corners.length);
+
+        float radius = 0;
+        for (Vector3f corner : corners) {
+            radius = Math.max(radius, corner.distance(center));
+        }
+        // Round the radius up so floating point noise doesn't change the cascade's size
+        radius = (float) Math.ceil(radius * 16.0f) / 16.0f;
+
+        lightViewMatrix.transformPosition(center);
+        if (keepRegion) {
+            fitRegion(radius, lightViewMatrix, mapSize);
+            center.set(regionCenter);
+            radius = regionRadius;
+        } else {
+            // Snap the center to whole texels in light space, depth included
+            float texelSize = 2.0f * radius / mapSize;
+            center.x = (float) Math.floor(center.x / texelSize) * texelSize;
+            center.y = (float) Math.floor(center.y / texelSize) * texelSize;
+            center.z = (float) Math.floor(center.z / texelSize) * texelSize;
+        }
+
+        minDepth = -center.z - radius - casterDistance;
+        depthRange = 2.0f * radius + casterDistance;
+        orthoProjectionMatrix.setOrtho(center.x - radius, center.x + radius, center.y - radius, center.y + radius,
+                minDepth, minDepth + depthRange);
+        orthoProjectionMatrix.mul(lightViewMatrix, projViewMatrix);
+        cullingFilter.updateFrustum(orthoProjectionMatrix, lightViewMatrix);
+        dirty = true;
+    }
+
+    /**
+     * Keeps the current region if the slice's bounding sphere is still inside it, or else moves it
+     * to the cell of a light space grid holding the sphere. The cells are as large as the region's
+     * margin and a whole number of texels, so the region always holds the sphere and stays texel aligned.
+     * @param radius The radius of the slice's bounding sphere.
+     * @param lightViewMatrix The light's view matrix.
+     * @param mapSize The size of the cascade's depth map, in texels.
+     */
+    private void fitRegion(float radius, Matrix4f lightViewMatrix, int mapSize) {
+        float paddedRadius = (float) Math.ceil(radius * (1.0f + REGION_MARGIN) * 16.0f) / 16.0f;
+        float margin = paddedRadius - radius;
+        boolean inside = paddedRadius == regionRadius && lightViewMatrix.equals(regionLightViewMatrix)
+                && Math.abs(center.x - regionCenter.x) <= margin
+                && Math.abs(center.y - regionCenter.y) <= margin
+                && Math.abs(center.z - regionCenter.z) <= margin;
+        if (inside) {
+            return;
+        }
+
+        float texelSize = 2.0f * paddedRadius / mapSize;
+        float cellSize = Math.max(texelSize, (float) Math.floor(margin / texelSize) * texelSize);
+        regionCenter.x = (float) Math.floor(center.x / cellSize) * cellSize;
+        regionCenter.y = (float) Math.floor(center.y / cellSize) * cellSize;
+        regionCenter.z = (float) Math.floor(center.z / cellSize) * cellSize;
+        regionRadius = paddedRadius;
+        regionLightViewMatrix.set(lightViewMatrix);
+    }
+
+    /**
+     * Checks if the cached depth of the static casters is still valid for the projection the cascade
+     * was just fit to. The projection only changes when the cascade's region moves or the light turns.
+     * @param version The static version of the scene (see {@link com.zcking.furyengine.engine.Scene#getStaticVersion()}).
+     */
+    void updateStaticCache(long version) {
+        staticDirty = version != staticVersion || !projViewMatrix.equals(staticProjViewMatrix);
+        if (staticDirty) {
+            staticVersion = version;
+            staticProjViewMatrix.set(projViewMatrix);
+        }
+    }
+
+    void invalidateStaticCache() {
+        staticVersion = -1;
+    }
+
+    /**
+     * Updates the matrix used by the scene shader, which goes from the camera's view space
+     * to the cascade's clip space. Cascades that weren't rendered this frame keep the projection
+     * they were rendered with.
+     * @param inverseViewMatrix The inverse of the camera's view matrix.
+     */
+    public void updateSceneMatrix(Matrix4f inverseViewMatrix) {
+        projViewMatrix.mul(inverseViewMatrix, sceneMatrix);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public float getSplitNear() {
+        return splitNear;
+    }
+
+    public float getSplitFar() {
+        return splitFar;
+    }
+
+    void setSplits(float splitNear, float splitFar) {
+        this.splitNear = splitNear;
+        this.splitFar = splitFar;
+    }
+
+    /**
+     * @return The culling filter holding this cascade's shadow casters.
+     */
+    public FrustumCullingFilter getCullingFilter() {
+        return cullingFilter;
+    }
+
+    public Matrix4f getOrthoProjectionMatrix() {
+        return orthoProjectionMatrix;
+    }
+
+    /**
+     * @return The matrix from the camera's view space to this cascade's clip space.
+     */
+    public Matrix4f getSceneMatrix() {
+        return sceneMatrix;
+    }
+
+    /**
+     * @return The light space distance of the cascade's near plane.
+     */
+    public float getMinDepth() {
+        return minDepth;
+    }
+
+    /**
+     * @return The light space distance between the cascade's near and far planes.
+     */
+    public float getDepthRange() {
+        return depthRange;
+    }
+
+    /**
+     * @return Whether or not the cascade was fit this frame, and so needs to be rendered.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    /**
+     * @return Whether or not the static casters must be rendered again this frame.
+     */
+    public boolean isStaticDirty() {
+        return staticDirty;
+    }
+}
@@ -1,35 +1,107 @@
 package com.zcking.furyengine.rendering;
 
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL12.glTexImage3D;
 import static org.lwjgl.opengl.GL30.GL_DEPTH_ATTACHMENT;
 import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
 import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_COMPLETE;
+import static org.lwjgl.opengl.GL30.GL_READ_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
 import static org.lwjgl.opengl.GL30.glBindFramebuffer;
+import static org.lwjgl.opengl.GL30.glBlitFramebuffer;
 import static org.lwjgl.opengl.GL30.glCheckFramebufferStatus;
 import static org.lwjgl.opengl.GL30.glDeleteFramebuffers;
-import static org.lwjgl.opengl.GL30.glFramebufferTexture2D;
+import static org.lwjgl.opengl.GL30.glFramebufferTextureLayer;
 import static org.lwjgl.opengl.GL30.glGenFramebuffers;
 
+/**
+ * Cascaded shadow map of the directional light. The camera's view frustum is split into
+ * {@link ShadowCascade}s, each rendered into its own layer of a single depth texture array.
+ * When static caster caching is enabled, the static casters of each cascade are rendered into
+ * a second texture array, which is copied into the first one before the dynamic casters are
+ * rendered on top.
+ */
 public class ShadowMap {
 
-    public static final int SHADOW_MAP_WIDTH = 1024;
+    public static final int MAX_CASCADES = 4;
 
-    public static final int SHADOW_MAP_HEIGHT = 1024;
+    private final ShadowSettings settings;
 
     private final int depthMapFBO;
 
-    private final Texture depthMap;
+    private final int depthMapArrayId;
 
-    public ShadowMap() throws Exception {
-        // Create a FBO to render the depth map
-        depthMapFBO = glGenFramebuffers();
+    private final int staticDepthMapFBO;
 
-        // Create the depth map texture
-        depthMap = new Texture(SHADOW_MAP_WIDTH, SHADOW_MAP_HEIGHT, GL_DEPTH_COMPONENT);
+    private final int staticDepthMapArrayId;
 
-        // Attach the the depth map texture to the FBO
-        glBindFramebuffer(GL_FRAMEBUFFER, depthMapFBO);
-        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, depthMap.getId(), 0);
+    private final ShadowCascade[] cascades;
+
+    private final Matrix4f lightViewMatrix;
+
+    private final Matrix4f inverseViewMatrix;
+
+    private final Vector3f lightDirection;
+
+    private final Vector3f lastLightDirection;
+
+    private float lastFov;
+
+    private float lastAspectRatio;
+
+    private long frame;
+
+    public ShadowMap(ShadowSettings settings) throws Exception {
+        this.settings = settings;
+
+        // Create the depth map texture array, one layer per cascade, and a FBO to render it
+        depthMapArrayId = createDepthMapArray();
+        depthMapFBO = createFramebuffer(depthMapArrayId);
+
+        if (settings.isStaticCasterCachingEnabled()) {
+            staticDepthMapArrayId = createDepthMapArray();
+            staticDepthMapFBO = createFramebuffer(staticDepthMapArrayId);
+        } else {
+            staticDepthMapArrayId = 0;
+            staticDepthMapFBO = 0;
+        }
+
+        cascades = new ShadowCascade[settings.getCascadeCount()];
+        for (int i = 0; i < cascades.length; i++) {
+            cascades[i] = new ShadowCascade(i, i == 0 ? 1 : settings.getFarCascadeUpdateInterval());
+        }
+        lightViewMatrix = new Matrix4f();
+        inverseViewMatrix = new Matrix4f();
+        lightDirection = new Vector3f();
+        lastLightDirection = new Vector3f();
+    }
+
+    private int createDepthMapArray() {
+        int mapSize = settings.getMapSize();
+        int textureId = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D_ARRAY, textureId);
+        glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_DEPTH_COMPONENT, mapSize, mapSize, settings.getCascadeCount(),
+                0, GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+        return textureId;
+    }
+
+    private int createFramebuffer(int textureId) throws Exception {
+        int fbo = glGenFramebuffers();
+
+        // Attach the first layer to the FBO, the others are attached when rendering
+        glBindFramebuffer(GL_FRAMEBUFFER, fbo);
+        glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, textureId, 0, 0);
         // Set only depth
         glDrawBuffer(GL_NONE);
         glReadBuffer(GL_NONE);
@@ -40,10 +112,122 @@ public class ShadowMap {
 
         // Unbind
         glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        return fbo;
     }
 
-    public Texture getDepthMapTexture() {
-        return depthMap;
+    /**
+     * Splits the view frustum between the cascades and fits the cascades that are due this frame. Every
+     * cascade is fit on the first frame, and whenever the projection or the light changes, since the
+     * cascades' last projections don't match the view anymore.
+     * @param viewMatrix The camera's view matrix.
+     * @param fov The camera's field of view, in radians.
+     * @param aspectRatio The camera's aspect ratio.
+     * @param zNear The camera's near plane.
+     * @param direction The direction towards the directional light.
+     * @param staticVersion The static version of the scene, to know when the cached static casters are outdated.
+     */
+    public void update(Matrix4f viewMatrix, float fov, float aspectRatio, float zNear, Vector3f direction,
+                       long staticVersion) {
+        // The light only needs a rotation, the cascades place their projections around their slice
+        direction.normalize(lightDirection);
+        boolean fitAll = frame == 0 || fov != lastFov || aspectRatio != lastAspectRatio
+                || !lightDirection.equals(lastLightDirection);
+        lastFov = fov;
+        lastAspectRatio = aspectRatio;
+        lastLightDirection.set(lightDirection);
+        float upZ = Math.abs(lightDirection.y) > 0.99f ? 1.0f : 0.0f;
+        lightViewMatrix.setLookAt(0, 0, 0, -lightDirection.x, -lightDirection.y, -lightDirection.z,
+                0, 1.0f - upZ, upZ);
+
+        // Blend between uniform and logarithmic splits
+        float zFar = settings.getShadowDistance();
+        float lambda = settings.getSplitLambda();
+        float splitNear = zNear;
+        for (int i = 0; i < cascades.length; i++) {
+            float p = (i + 1) / (float) cascades.length;
+            float logSplit = zNear * (float) Math.pow(zFar / zNear, p);
+            float uniformSplit = zNear + (zFar - zNear) * p;
+            float splitFar = lambda * logSplit + (1.0f - lambda) * uniformSplit;
+
+            ShadowCascade cascade = cascades[i];
+            cascade.setSplits(splitNear, splitFar);
+            cascade.setDirty(false);
+            if (fitAll || cascade.isDue(frame)) {
+                cascade.fit(viewMatrix, fov, aspectRatio, lightViewMatrix, settings.getCasterDistance(),
+                        settings.getMapSize(), settings.isStaticCasterCachingEnabled());
+                cascade.updateStaticCache(staticVersion);
+            }
+            splitNear = splitFar;
+        }
+
+        viewMatrix.invertAffine(inverseViewMatrix);
+        for (ShadowCascade cascade : cascades) {
+            cascade.updateSceneMatrix(inverseViewMatrix);
+        }
+        frame++;
+    }
+
+    /**
+     * Binds the FBO to render the static casters of a cascade, and clears it.
+     * @param cascade The cascade to render.
+     */
+    public void bindStaticCascade(ShadowCascade cascade) {
+        glBindFramebuffer(GL_FRAMEBUFFER, staticDepthMapFBO);
+        glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticDepthMapArrayId, 0, cascade.getIndex());
+        glViewport(0, 0, settings.getMapSize(), settings.getMapSize());
+        glClear(GL_DEPTH_BUFFER_BIT);
+    }
+
+    /**
+     * Binds the FBO to render the depth map of a cascade. The depth map starts from the cached
+     * static casters when caching is enabled, and is cleared otherwise.
+     * @param cascade The cascade to render.
+     */
+    public void bindCascade(ShadowCascade cascade) {
+        int mapSize = settings.getMapSize();
+        glBindFramebuffer(GL_FRAMEBUFFER, depthMapFBO);
+        glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, depthMapArrayId, 0, cascade.getIndex());
+        glViewport(0, 0, mapSize, mapSize);
+
+        if (settings.isStaticCasterCachingEnabled()) {
+            glBindFramebuffer(GL_READ_FRAMEBUFFER, staticDepthMapFBO);
+            glFramebufferTextureLayer(GL_READ_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticDepthMapArrayId, 0, cascade.getIndex());
+            glBlitFramebuffer(0, 0, mapSize, mapSize, 0, 0, mapSize, mapSize, GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+            glBindFramebuffer(GL_READ_FRAMEBUFFER, depthMapFBO);
+        } else {
+            glClear(GL_DEPTH_BUFFER_BIT);
+        }
+    }
+
+    /**
+     * Forces the static casters of every cascade to be rendered again, e.g. when the scene is replaced.
+     */
+    public void invalidateStaticCache() {
+        for (ShadowCascade cascade : cascades) {
+            cascade.invalidateStaticCache();
+        }
+    }
+
+    public ShadowCascade[] getCascades() {
+        return cascades;
+    }
+
+    /**
+     * @return The light's view matrix of the current frame, shared by every cascade.
+     */
+    public Matrix4f getLightViewMatrix() {
+        return lightViewMatrix;
+    }
+
+    public ShadowSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return The id of the GL_TEXTURE_2D_ARRAY holding the depth maps of the cascades.
+     */
+    public int getDepthMapArrayId() {
+        return depthMapArrayId;
     }
 
     public int getDepthMapFBO() {
@@ -52,6 +236,10 @@ public class ShadowMap {
 
     public void cleanUp() {
         glDeleteFramebuffers(depthMapFBO);
-        depthMap.cleanUp();
+        glDeleteTextures(depthMapArrayId);
+        if (staticDepthMapFBO != 0) {
+            glDeleteFramebuffers(staticDepthMapFBO);
+            glDeleteTextures(staticDepthMapArrayId);
+        }
     }
 }
@@ -0,0 +1,139 @@
+package com.zcking.furyengine.rendering;
+
+/**
+ * Fluent API for configuring the cascaded shadow maps of the directional light.
+ */
+public class ShadowSettings {
+
+    private int cascadeCount = 3;
+
+    private int mapSize = 2048;
+
+    private float shadowDistance = 100.0f;
+
+    private float splitLambda = 0.75f;
+
+    private float casterDistance = 50.0f;
+
+    private int farCascadeUpdateInterval = 1;
+
+    private boolean staticCasterCaching = true;
+
+    private ShadowSettings() { }
+
+    /**
+     * Creates a new, default shadow settings instance, which you can then
+     * configure using the fluent interface.
+     * @return A blank instance of the {@link ShadowSettings}.
+     */
+    public static ShadowSettings create() {
+        return new ShadowSettings();
+    }
+
+    /**
+     * Change the number of cascades the view frustum is split into.
+     * @param cascadeCount The number of cascades, between 1 and {@link ShadowMap#MAX_CASCADES}.
+     * @return The modified settings.
+     */
+    public ShadowSettings withCascadeCount(int cascadeCount) {
+        this.cascadeCount = Math.max(1, Math.min(cascadeCount, ShadowMap.MAX_CASCADES));
+        return this;
+    }
+
+    /**
+     * Change the resolution of each cascade's depth map.
+     * @param mapSize The width and height of each cascade, in texels.
+     * @return The modified settings.
+     */
+    public ShadowSettings withMapSize(int mapSize) {
+        this.mapSize = mapSize;
+        return this;
+    }
+
+    /**
+     * Change how far from the camera shadows are rendered. The cascades cover the view
+     * frustum from the near plane up to this distance.
+     * @param shadowDistance The view space distance covered by the last cascade.
+     * @return The modified settings.
+     */
+    public ShadowSettings withShadowDistance(float shadowDistance) {
+        this.shadowDistance = shadowDistance;
+        return this;
+    }
+
+    /**
+     * Change how the cascade splits are distributed. 0 splits the distance uniformly,
+     * 1 splits it logarithmically (more resolution close to the camera).
+     * @param splitLambda The blend factor between uniform and logarithmic splits.
+     * @return The modified settings.
+     */
+    public ShadowSettings withSplitLambda(float splitLambda) {
+        this.splitLambda = Math.max(0.0f, Math.min(splitLambda, 1.0f));
+        return this;
+    }
+
+    /**
+     * Change how far behind a cascade (towards the light) shadow casters are still rendered,
+     * so that objects outside of the view can cast shadows into it.
+     * @param casterDistance The extra distance, in world units.
+     * @return The modified settings.
+     */
+    public ShadowSettings withCasterDistance(float casterDistance) {
+        this.casterDistance = casterDistance;
+        return this;
+    }
+
+    /**
+     * Change how often the cascades after the first one are rendered. Far cascades change little
+     * from one frame to the next, so rendering them every few frames amortizes the depth pass. Fragments
+     * the camera moved out of a cascade between its updates are shadowed by the next cascade covering
+     * them, or left lit.
+     * @param frames The number of frames between two updates of a far cascade (1 updates every frame).
+     * @return The modified settings.
+     */
+    public ShadowSettings withFarCascadeUpdateInterval(int frames) {
+        this.farCascadeUpdateInterval = Math.max(1, frames);
+        return this;
+    }
+
+    /**
+     * Should the shadows of static game objects be cached? When enabled, static casters are only
+     * rendered again when one of them or the light changes, or the camera leaves the cascade's cached
+     * region, and only the dynamic casters are rendered on top of the cached depth every frame. The
+     * cached regions are padded around the cascades, which costs some shadow resolution.
+     * @param enabled Whether or not static casters are cached.
+     * @return The modified settings.
+     */
+    public ShadowSettings withStaticCasterCaching(boolean enabled) {
+        this.staticCasterCaching = enabled;
+        return this;
+    }
+
+    public int getCascadeCount() {
+        return cascadeCount;
+    }
+
+    public int getMapSize() {
+        return mapSize;
+    }
+
+    public float getShadowDistance() {
+        return shadowDistance;
+    }
+
+    public float getSplitLambda() {
+        return splitLambda;
+    }
+
+    public float getCasterDistance() {
+        return casterDistance;
+    }
+
+    public int getFarCascadeUpdateInterval() {
+        return farCascadeUpdateInterval;
+    }
+
+    public boolean isStaticCasterCachingEnabled() {
+        return staticCasterCaching;
+    }
+}
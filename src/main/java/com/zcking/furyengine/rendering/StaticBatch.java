@@ -0,0 +1,67 @@
+package com.zcking.furyengine.rendering;
+
+import com.zcking.furyengine.engine.objects.BatchChunk;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.IntBuffer;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL14.glMultiDrawElements;
+
+/**
+ * A mesh merging the world space geometry of many static game objects sharing a material
+ * (see {@link com.zcking.furyengine.engine.graph.StaticBatcher}). The batch is split into
+ * {@link BatchChunk}s, and the visible chunks are drawn with a single multi-draw call.
+ */
+public class StaticBatch extends Mesh {
+
+    private final IntBuffer chunkCounts;
+
+    private final PointerBuffer chunkOffsets;
+
+    /**
+     * Constructs a new static batch.
+     * @param positions The world space positions of the merged vertices.
+     * @param textCoords The texture coordinates of the merged vertices.
+     * @param normals The world space normals of the merged vertices.
+     * @param indices The merged indices, grouped by chunk.
+     * @param numChunks The number of chunks the batch is split into.
+     */
+    public StaticBatch(float[] positions, float[] textCoords, float[] normals, int[] indices, int numChunks) {
+        super(positions, textCoords, normals, indices);
+        chunkCounts = MemoryUtil.memAllocInt(numChunks);
+        chunkOffsets = MemoryUtil.memAllocPointer(numChunks);
+    }
+
+    /**
+     * Draws the given chunks of the batch with one draw call. The batch must already be bound
+     * (see {@link Mesh#bind()}).
+     * @param chunks The chunks to draw, all belonging to this batch.
+     */
+    public void drawChunks(List<BatchChunk> chunks) {
+        int numChunks = Math.min(chunks.size(), chunkCounts.capacity());
+        int indexSize = VertexAttribute.getComponentSize(getIndexType());
+        long numIndices = 0;
+        chunkCounts.clear();
+        chunkOffsets.clear();
+        for (int i = 0; i < numChunks; i++) {
+            BatchChunk chunk = chunks.get(i);
+            chunkCounts.put(i, chunk.getIndexCount());
+            numIndices += chunk.getIndexCount();
+            chunkOffsets.put(i, (long) chunk.getIndexOffset() * indexSize);
+        }
+        chunkCounts.limit(numChunks);
+        chunkOffsets.limit(numChunks);
+        glMultiDrawElements(GL_TRIANGLES, chunkCounts, getIndexType(), chunkOffsets);
+        RenderStats.countDraw(numIndices / 3);
+    }
+
+    @Override
+    public void cleanUp() {
+        super.cleanUp();
+        MemoryUtil.memFree(chunkCounts);
+        MemoryUtil.memFree(chunkOffsets);
+    }
+}
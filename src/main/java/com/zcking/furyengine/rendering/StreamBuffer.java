@@ -0,0 +1,272 @@
+package com.zcking.furyengine.rendering;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL15.glBufferData;
+import static org.lwjgl.opengl.GL15.glDeleteBuffers;
+import static org.lwjgl.opengl.GL15.glGenBuffers;
+import static org.lwjgl.opengl.GL15.nglBufferSubData;
+import static org.lwjgl.opengl.GL15.glUnmapBuffer;
+import static org.lwjgl.opengl.GL30.GL_MAP_WRITE_BIT;
+import static org.lwjgl.opengl.GL30.glMapBufferRange;
+import static org.lwjgl.opengl.GL31.GL_COPY_WRITE_BUFFER;
+import static org.lwjgl.opengl.GL32.GL_ALREADY_SIGNALED;
+import static org.lwjgl.opengl.GL32.GL_CONDITION_SATISFIED;
+import static org.lwjgl.opengl.GL32.GL_SYNC_FLUSH_COMMANDS_BIT;
+import static org.lwjgl.opengl.GL32.GL_SYNC_GPU_COMMANDS_COMPLETE;
+import static org.lwjgl.opengl.GL32.GL_WAIT_FAILED;
+import static org.lwjgl.opengl.GL32.glClientWaitSync;
+import static org.lwjgl.opengl.GL32.glDeleteSync;
+import static org.lwjgl.opengl.GL32.glFenceSync;
+import static org.lwjgl.opengl.GL44.GL_MAP_COHERENT_BIT;
+import static org.lwjgl.opengl.GL44.GL_MAP_PERSISTENT_BIT;
+import static org.lwjgl.opengl.GL44.glBufferStorage;
+
+/**
+ * A large buffer object that per-frame dynamic data (e.g. instance data) is streamed through,
+ * without allocating buffers or stalling on the GPU. The buffer is split into one region per
+ * frame in flight, and each frame sub-allocates its data from its own region
+ * (see {@link StreamBuffer#allocate(int, int)}), so the CPU never writes to a region the GPU may
+ * still be reading. A fence is placed after each frame's draws, and waited on before its region
+ * is reused.
+ * <p>
+ * When buffer storage is supported (GL 4.4 or ARB_buffer_storage), the buffer is persistently
+ * mapped and data is written straight into it. Otherwise data is written into a CPU side copy,
+ * uploaded with glBufferSubData on {@link StreamBuffer#flush()}, and the buffer is orphaned each
+ * time the regions wrap around.
+ * <p>
+ * A frame that needs more than its region grows the buffer rather than dropping data: the buffer
+ * is replaced by one with regions large enough, and the driver keeps the old storage alive until
+ * the draws still reading it are done.
+ */
+public class StreamBuffer {
+
+    public static final int DEFAULT_FRAMES = 3;
+
+    private static final long FENCE_TIMEOUT = 1000000L;
+
+    private int bufferId;
+
+    private int frameSize;
+
+    private final int numFrames;
+
+    private final boolean persistent;
+
+    private ByteBuffer buffer;
+
+    private final long[] fences;
+
+    private int frame;
+
+    private int frameStart;
+
+    private int cursor;
+
+    private int flushed;
+
+    /**
+     * Creates a stream buffer with {@link StreamBuffer#DEFAULT_FRAMES} frames in flight.
+     * @param frameSize The size, in bytes, of the data that can be streamed each frame.
+     */
+    public StreamBuffer(int frameSize) {
+        this(frameSize, DEFAULT_FRAMES);
+    }
+
+    /**
+     * Creates a stream buffer.
+     * @param frameSize The size, in bytes, of the data that can be streamed each frame.
+     * @param numFrames The number of frames the GPU may be behind the CPU.
+     */
+    public StreamBuffer(int frameSize, int numFrames) {
+        this.numFrames = numFrames;
+        this.fences = new long[numFrames];
+
+        GLCapabilities caps = GL.getCapabilities();
+        persistent = caps.OpenGL44 || caps.GL_ARB_buffer_storage;
+
+        frame = numFrames - 1;
+        createStorage(frameSize);
+    }
+
+    /**
+     * Creates the buffer and its mapping (or CPU side copy), and restarts the current frame at the
+     * start of its region.
+     * @param frameSize The size, in bytes, of each frame's region.
+     */
+    private void createStorage(int frameSize) {
+        this.frameSize = frameSize;
+        long size = (long) frameSize * numFrames;
+
+        bufferId = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, bufferId);
+        if (persistent) {
+            int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            glBufferStorage(GL_COPY_WRITE_BUFFER, size, flags);
+            buffer = glMapBufferRange(GL_COPY_WRITE_BUFFER, 0, size, flags);
+        } else {
+            glBufferData(GL_COPY_WRITE_BUFFER, size, GL_STREAM_DRAW);
+            buffer = MemoryUtil.memAlloc((int) size);
+        }
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+
+        frameStart = frame * frameSize;
+        cursor = frameStart;
+        flushed = frameStart;
+    }
+
+    /**
+     * Replaces the buffer with one whose regions are at least twice as large and can hold a block.
+     * Blocks already allocated this frame stay in the old buffer, which the draws using them were
+     * already issued with, so the old buffer is deleted right away and freed by the driver once unused.
+     * @param size The size of the block that didn't fit, in bytes.
+     * @param alignment The alignment of the block.
+     */
+    private void grow(int size, int alignment) {
+        long newFrameSize = Math.max((long) frameSize * 2, (long) size + alignment);
+        if (newFrameSize * numFrames > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Stream buffer can't grow to " + newFrameSize + " bytes per frame");
+        }
+        flush();
+        releaseStorage();
+        // Fences guarded the old buffer's regions, the new one is unused
+        for (int i = 0; i < fences.length; i++) {
+            if (fences[i] != 0) {
+                glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+        }
+        createStorage((int) newFrameSize);
+    }
+
+    private void releaseStorage() {
+        if (persistent) {
+            glBindBuffer(GL_COPY_WRITE_BUFFER, bufferId);
+            glUnmapBuffer(GL_COPY_WRITE_BUFFER);
+            glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        } else {
+            MemoryUtil.memFree(buffer);
+        }
+        glDeleteBuffers(bufferId);
+    }
+
+    public int getId() {
+        return bufferId;
+    }
+
+    /**
+     * @return Whether or not the buffer is persistently mapped, rather than uploaded on flush.
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Moves on to the next frame's region, waiting for the GPU to be done with it if needed.
+     * Must be called once at the start of each frame, before any allocation.
+     */
+    public void beginFrame() {
+        frame = (frame + 1) % numFrames;
+        frameStart = frame * frameSize;
+        cursor = frameStart;
+        flushed = frameStart;
+
+        if (fences[frame] != 0) {
+            waitFence(fences[frame]);
+            glDeleteSync(fences[frame]);
+            fences[frame] = 0;
+        }
+
+        if (!persistent && frame == 0) {
+            // Orphan the buffer, so the driver hands out fresh storage instead of syncing
+            glBindBuffer(GL_COPY_WRITE_BUFFER, bufferId);
+            glBufferData(GL_COPY_WRITE_BUFFER, (long) frameSize * numFrames, GL_STREAM_DRAW);
+            glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        }
+    }
+
+    /**
+     * Places a fence after the frame's draws, protecting its region until the GPU is done with it.
+     * Must be called once at the end of each frame.
+     */
+    public void endFrame() {
+        fences[frame] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    private static void waitFence(long fence) {
+        int result;
+        do {
+            result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT);
+        } while (result != GL_ALREADY_SIGNALED && result != GL_CONDITION_SATISFIED && result != GL_WAIT_FAILED);
+    }
+
+    /**
+     * Sub-allocates a block of the current frame's region, growing the buffer if the region is full.
+     * The buffer's id may change, so it must be read after allocating (see {@link StreamBuffer#getId()}).
+     * @param size The size of the block, in bytes.
+     * @param alignment The alignment of the block's offset, in bytes (a power of two).
+     * @return The offset of the block in the buffer.
+     */
+    public int allocate(int size, int alignment) {
+        int offset = (cursor + alignment - 1) & ~(alignment - 1);
+        if ((long) offset + size > frameStart + frameSize) {
+            grow(size, alignment);
+            offset = (cursor + alignment - 1) & ~(alignment - 1);
+        }
+        cursor = offset + size;
+        return offset;
+    }
+
+    /**
+     * @param alignment The alignment that will be requested.
+     * @return The largest block that can still be allocated from the current frame's region, in bytes.
+     */
+    public int getRemaining(int alignment) {
+        int offset = (cursor + alignment - 1) & ~(alignment - 1);
+        return Math.max(frameStart + frameSize - offset, 0);
+    }
+
+    /**
+     * @return The size, in bytes, of each frame's region, which grows when a frame needs more.
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return The memory to write allocated blocks into, indexed by buffer offset
+     * (see {@link StreamBuffer#allocate(int, int)}). It changes when the buffer grows.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Makes the blocks written since the last flush visible to the GPU. Must be called after writing
+     * and before drawing from them. Persistently mapped buffers are coherent, so this is a no-op for them.
+     */
+    public void flush() {
+        if (!persistent && cursor > flushed) {
+            glBindBuffer(GL_COPY_WRITE_BUFFER, bufferId);
+            nglBufferSubData(GL_COPY_WRITE_BUFFER, flushed, cursor - flushed, MemoryUtil.memAddress(buffer) + flushed);
+            glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        }
+        flushed = cursor;
+    }
+
+    public void cleanUp() {
+        for (int i = 0; i < fences.length; i++) {
+            if (fences[i] != 0) {
+                glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+        }
+        releaseStorage();
+    }
+}
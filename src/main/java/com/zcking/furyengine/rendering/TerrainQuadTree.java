@@ -0,0 +1,322 @@
+package com.zcking.furyengine.rendering;
+
+import com.zcking.furyengine.engine.graph.FrustumCullingFilter;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+
+/**
+ * The quadtree of a continuous distance-dependent level of detail (CDLOD) terrain. Each node covers
+ * a square of the terrain, and knows the minimum and maximum heights inside it, so it can be culled
+ * against a frustum. Every node is drawn with the same grid patch, scaled to the node's size, so
+ * larger (coarser) nodes have more widely spaced vertices.
+ * <p>
+ * Each level has a distance range: level 0 (the leaves) is drawn up to the first range, and each
+ * coarser level up to a range twice the previous one. Towards the end of its range, a node's vertices
+ * morph into the grid of the next coarser level, so levels meet without cracks and switch without popping.
+ */
+public class TerrainQuadTree {
+
+    /**
+     * The default fraction of a level's range after which its vertices start morphing.
+     */
+    public static final float DEFAULT_MORPH_START_RATIO = 0.7f;
+
+    private final float[] heights;
+
+    private final int width;
+
+    private final int depth;
+
+    private final float originX;
+
+    private final float originZ;
+
+    private final float size;
+
+    private final int levelCount;
+
+    /**
+     * Per level (0 being the leaves), the minimum height of each node, row by row.
+     */
+    private final float[][] minHeights;
+
+    private final float[][] maxHeights;
+
+    private final float[] lodRanges;
+
+    private final float[] morphStarts;
+
+    private final float lodDistance;
+
+    private final float morphStartRatio;
+
+    /**
+     * Builds the quadtree of a heightfield.
+     * @param heights The heights, row by row (rows going along z). Kept by the tree, see {@link TerrainQuadTree#updateHeights}.
+     * @param width The number of heights per row.
+     * @param depth The number of rows.
+     * @param originX The world x of the terrain's first column.
+     * @param originZ The world z of the terrain's first row.
+     * @param size The world size of the terrain, along both x and z.
+     * @param levelCount The number of levels of the tree.
+     * @param lodDistance The distance range of the finest level.
+     * @param morphStartRatio The fraction of each level's range after which its vertices start morphing.
+     */
+    public TerrainQuadTree(float[] heights, int width, int depth, float originX, float originZ, float size,
+                           int levelCount, float lodDistance, float morphStartRatio) {
+        this.heights = heights;
+        this.width = width;
+        this.depth = depth;
+        this.originX = originX;
+        this.originZ = originZ;
+        this.size = size;
+        this.levelCount = levelCount;
+        this.lodDistance = lodDistance;
+        this.morphStartRatio = morphStartRatio;
+
+        minHeights = new float[levelCount][];
+        maxHeights = new float[levelCount][];
+        for (int level = 0; level < levelCount; level++) {
+            int nodesPerSide = getNodesPerSide(level);
+            minHeights[level] = new float[nodesPerSide * nodesPerSide];
+            maxHeights[level] = new float[nodesPerSide * nodesPerSide];
+        }
+        updateHeights(0, 0, width - 1, depth - 1);
+
+        lodRanges = new float[levelCount];
+        morphStarts = new float[levelCount];
+        float previousRange = 0;
+        for (int level = 0; level < levelCount; level++) {
+            lodRanges[level] = lodDistance * (1 << level);
+            morphStarts[level] = previousRange + (lodRanges[level] - previousRange) * morphStartRatio;
+            previousRange = lodRanges[level];
+        }
+    }
+
+    /**
+     * Updates the height bounds of the nodes covering a region of the heights, after they were edited.
+     * @param col0 The first column of the region.
+     * @param row0 The first row of the region.
+     * @param col1 The last column of the region, inclusive.
+     * @param row1 The last row of the region, inclusive.
+     */
+    public void updateHeights(int col0, int row0, int col1, int row1) {
+        // Leaves scan the heights they cover, including their edges, and each parent merges its children
+        int leavesPerSide = getNodesPerSide(0);
+        int nx0 = getLeafIndex(col0 - 1, width, leavesPerSide, -1);
+        int nz0 = getLeafIndex(row0 - 1, depth, leavesPerSide, -1);
+        int nx1 = getLeafIndex(col1, width, leavesPerSide, 1);
+        int nz1 = getLeafIndex(row1, depth, leavesPerSide, 1);
+        for (int nz = nz0; nz <= nz1; nz++) {
+            int firstRow = nz * (depth - 1) / leavesPerSide;
+            int lastRow = Math.min(((nz + 1) * (depth - 1) + leavesPerSide - 1) / leavesPerSide, depth - 1);
+            for (int nx = nx0; nx <= nx1; nx++) {
+                int firstCol = nx * (width - 1) / leavesPerSide;
+                int lastCol = Math.min(((nx + 1) * (width - 1) + leavesPerSide - 1) / leavesPerSide, width - 1);
+                float min = Float.MAX_VALUE;
+                float max = -Float.MAX_VALUE;
+                for (int row = firstRow; row <= lastRow; row++) {
+                    for (int col = firstCol; col <= lastCol; col++) {
+                        float height = heights[row * width + col];
+                        min = Math.min(min, height);
+                        max = Math.max(max, height);
+                    }
+                }
+                minHeights[0][nz * leavesPerSide + nx] = min;
+                maxHeights[0][nz * leavesPerSide + nx] = max;
+            }
+        }
+        for (int level = 1; level < levelCount; level++) {
+            nx0 /= 2;
+            nz0 /= 2;
+            nx1 /= 2;
+            nz1 /= 2;
+            int nodesPerSide = getNodesPerSide(level);
+            int childrenPerSide = nodesPerSide * 2;
+            for (int nz = nz0; nz <= nz1; nz++) {
+                for (int nx = nx0; nx <= nx1; nx++) {
+                    float min = Float.MAX_VALUE;
+                    float max = -Float.MAX_VALUE;
+                    for (int c = 0; c < 4; c++) {
+                        int child = (nz * 2 + (c >> 1)) * childrenPerSide + nx * 2 + (c & 1);
+                        min = Math.min(min, minHeights[level - 1][child]);
+                        max = Math.max(max, maxHeights[level - 1][child]);
+                    }
+                    minHeights[level][nz * nodesPerSide + nx] = min;
+                    maxHeights[level][nz * nodesPerSide + nx] = max;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The leaf covering a quad along one axis, widened by one leaf towards a side since leaves
+     * overlap when the quads don't divide evenly between them. Clamped to the tree.
+     */
+    private static int getLeafIndex(int quad, int samples, int leavesPerSide, int widen) {
+        int clamped = Math.max(0, Math.min(quad, samples - 2));
+        int leaf = clamped * leavesPerSide / (samples - 1) + widen;
+        return Math.max(0, Math.min(leaf, leavesPerSide - 1));
+    }
+
+    private int getNodesPerSide(int level) {
+        return 1 << (levelCount - 1 - level);
+    }
+
+    /**
+     * Selects the nodes to draw for a viewpoint: the coarsest nodes whose children are all out of
+     * their level's range, inside the frustum. Doesn't allocate once the selection has grown.
+     * @param viewPosition The world position the levels' ranges are measured from (the camera's,
+     *                     also for shadow passes, so shadows match the visible terrain).
+     * @param cullingFilter The frustum to cull nodes against, or null not to cull.
+     * @param selection Receives the selected nodes, replacing its previous content.
+     */
+    public void select(Vector3f viewPosition, FrustumCullingFilter cullingFilter, Selection selection) {
+        selection.clear();
+        selectNode(levelCount - 1, 0, 0, viewPosition, cullingFilter, selection);
+    }
+
+    /**
+     * @return Whether the node was handled (selected, culled or split), or false if it's out of its
+     * level's range and must be covered by its parent.
+     */
+    private boolean selectNode(int level, int nx, int nz, Vector3f viewPosition, FrustumCullingFilter cullingFilter,
+                               Selection selection) {
+        int nodesPerSide = getNodesPerSide(level);
+        float nodeSize = size / nodesPerSide;
+        float x = originX + nx * nodeSize;
+        float z = originZ + nz * nodeSize;
+        float minY = minHeights[level][nz * nodesPerSide + nx];
+        float maxY = maxHeights[level][nz * nodesPerSide + nx];
+
+        if (cullingFilter != null && !cullingFilter.isInsideFrustum(x, minY, z, x + nodeSize, maxY, z + nodeSize)) {
+            return true;
+        }
+        // The root covers everything past the last range
+        if (level < levelCount - 1 && !intersectsSphere(viewPosition, lodRanges[level], x, minY, z, nodeSize, maxY)) {
+            return false;
+        }
+        if (level == 0 || !intersectsSphere(viewPosition, lodRanges[level - 1], x, minY, z, nodeSize, maxY)) {
+            selection.add(x, z, nodeSize, level);
+            return true;
+        }
+
+        for (int c = 0; c < 4; c++) {
+            int childX = nx * 2 + (c & 1);
+            int childZ = nz * 2 + (c >> 1);
+            if (!selectNode(level - 1, childX, childZ, viewPosition, cullingFilter, selection)) {
+                // The child is past its own range, so its vertices are fully morphed into this level's grid
+                float childSize = nodeSize / 2;
+                selection.add(originX + childX * childSize, originZ + childZ * childSize, childSize, level - 1);
+            }
+        }
+        return true;
+    }
+
+    private static boolean intersectsSphere(Vector3f center, float radius, float x, float minY, float z,
+                                            float nodeSize, float maxY) {
+        float dx = Math.max(x - center.x, Math.max(0, center.x - (x + nodeSize)));
+        float dy = Math.max(minY - center.y, Math.max(0, center.y - maxY));
+        float dz = Math.max(z - center.z, Math.max(0, center.z - (z + nodeSize)));
+        return dx * dx + dy * dy + dz * dz <= radius * radius;
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    /**
+     * @return The distance range of the finest level. Each coarser level's range is twice the previous one.
+     */
+    public float getLodDistance() {
+        return lodDistance;
+    }
+
+    /**
+     * @return The fraction of each level's range after which its vertices start morphing.
+     */
+    public float getMorphStartRatio() {
+        return morphStartRatio;
+    }
+
+    /**
+     * @param level A level of the tree, 0 being the leaves.
+     * @return The distance at which the level's vertices start morphing into the next level's grid.
+     */
+    public float getMorphStart(int level) {
+        return morphStarts[level];
+    }
+
+    /**
+     * @param level A level of the tree, 0 being the leaves.
+     * @return The distance at which the level's vertices are fully morphed into the next level's grid.
+     */
+    public float getMorphEnd(int level) {
+        return lodRanges[level];
+    }
+
+    /**
+     * The nodes selected for a viewpoint, stored in a reusable primitive array.
+     */
+    public static class Selection {
+
+        private static final int NODE_FLOATS = 4;
+
+        private float[] nodes = new float[64 * NODE_FLOATS];
+
+        private int count;
+
+        private void clear() {
+            count = 0;
+        }
+
+        private void add(float x, float z, float nodeSize, int level) {
+            if ((count + 1) * NODE_FLOATS > nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            }
+            int offset = count * NODE_FLOATS;
+            nodes[offset] = x;
+            nodes[offset + 1] = z;
+            nodes[offset + 2] = nodeSize;
+            nodes[offset + 3] = level;
+            count++;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * @param i The index of a selected node.
+         * @return The world x of the node's corner.
+         */
+        public float getX(int i) {
+            return nodes[i * NODE_FLOATS];
+        }
+
+        /**
+         * @param i The index of a selected node.
+         * @return The world z of the node's corner.
+         */
+        public float getZ(int i) {
+            return nodes[i * NODE_FLOATS + 1];
+        }
+
+        /**
+         * @param i The index of a selected node.
+         * @return The world size of the node.
+         */
+        public float getSize(int i) {
+            return nodes[i * NODE_FLOATS + 2];
+        }
+
+        /**
+         * @param i The index of a selected node.
+         * @return The level of the node, 0 being the leaves.
+         */
+        public int getLevel(int i) {
+            return (int) nodes[i * NODE_FLOATS + 3];
+        }
+    }
+}
@@ -15,16 +15,22 @@ import static org.lwjgl.opengl.GL30.glGenerateMipmap;
  */
 public class Texture {
 
-    private final int id;
+    private int id;
 
-    private final int width;
+    private int width;
 
-    private final int height;
+    private int height;
 
     private int numRows = 1;
 
     private int numCols = 1;
 
+    private boolean loaded = true;
+
+    private boolean deleted;
+
+    private Exception loadError;
+
     /**
      * Creates an empty texture.
      *
@@ -45,8 +51,62 @@ public class Texture {
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
     }
 
+    /**
+     * Creates a texture from RGBA pixels, without mipmaps.
+     * @param pixels The RGBA pixels, one byte per component.
+     * @param width Width of the texture
+     * @param height Height of the texture
+     */
+    Texture(ByteBuffer pixels, int width, int height) {
+        this.id = glGenTextures();
+        this.width = width;
+        this.height = height;
+        glBindTexture(GL_TEXTURE_2D, this.id);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+        glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Creates a texture handle that shows the placeholder until its image is uploaded
+     * (see {@link TextureLoader}).
+     * @param placeholder The texture to bind until the image is loaded.
+     * @param numCols Number of columns of the texture atlas.
+     * @param numRows Number of rows of the texture atlas.
+     */
+    Texture(Texture placeholder, int numCols, int numRows) {
+        this.id = placeholder.getId();
+        this.width = placeholder.getWidth();
+        this.height = placeholder.getHeight();
+        this.numCols = numCols;
+        this.numRows = numRows;
+        this.loaded = false;
+    }
+
+    /**
+     * Loads a texture. If a pre-baked container of the texture exists next to it (see {@link TextureContainer}),
+     * and isn't older than the PNG, it's uploaded as is, and the PNG is only decoded otherwise.
+     * @param fileName The resource path of the PNG.
+     * @throws Exception If the texture can't be loaded.
+     */
     public Texture(String fileName) throws Exception {
-        this(Texture.class.getResourceAsStream(fileName));
+        String containerPath = TextureContainer.getContainerPath(fileName);
+        if (TextureContainer.isUpToDate(fileName)) {
+            TextureContainer container = TextureContainer.open(containerPath);
+            try {
+                if (TextureContainer.isFormatSupported(container.getFormat())) {
+                    this.id = container.upload();
+                    this.width = container.getWidth();
+                    this.height = container.getHeight();
+                    return;
+                }
+            } finally {
+                container.close();
+            }
+        }
+        loadPng(Texture.class.getResourceAsStream(fileName));
     }
 
     public Texture(String fileName, int numCols, int numRows) throws Exception  {
@@ -56,6 +116,10 @@ public class Texture {
     }
 
     public Texture(InputStream is) throws Exception {
+        loadPng(is);
+    }
+
+    private void loadPng(InputStream is) throws Exception {
         try {
             // Load Texture file
             PNGDecoder decoder = new PNGDecoder(is);
@@ -104,12 +168,62 @@ public class Texture {
         glBindTexture(GL_TEXTURE_2D, id);
     }
 
+    /**
+     * @return The id of the texture, or of its placeholder while it's still loading.
+     */
     public int getId() {
         return id;
     }
 
+    /**
+     * @return Whether or not the texture's image has been uploaded. Only false for textures
+     * loaded by a {@link TextureLoader}.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return Whether or not loading the texture failed, in which case it keeps its placeholder.
+     */
+    public boolean isFailed() {
+        return loadError != null;
+    }
+
+    /**
+     * @return The error loading the texture failed with, or null.
+     */
+    public Exception getLoadError() {
+        return loadError;
+    }
+
+    boolean isDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Keeps the placeholder for good, recording why the image couldn't be loaded.
+     */
+    void failLoading(Exception loadError) {
+        this.loadError = loadError;
+    }
+
+    /**
+     * Swaps the placeholder for the uploaded texture.
+     */
+    void finishLoading(int id, int width, int height) {
+        this.id = id;
+        this.width = width;
+        this.height = height;
+        this.loaded = true;
+    }
+
     public void cleanUp() {
-        glDeleteTextures(id);
+        // The placeholder of a texture still loading is shared, so only loaded textures are deleted
+        if (loaded && !deleted) {
+            glDeleteTextures(id);
+        }
+        deleted = true;
     }
 
     public int getNumRows() {
@@ -0,0 +1,300 @@
+package com.zcking.furyengine.rendering;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL30.glGenerateMipmap;
+
+/**
+ * Packs many small images (particles, HUD icons, sprite sheets) into a few large texture pages, so
+ * the objects using them can share a texture and be drawn without rebinding. Each page is packed
+ * with a skyline packer, and every image is surrounded by a border of its own edge pixels, so
+ * neither bilinear filtering nor the page's mip levels bleed neighbouring images into it.
+ * <p>
+ * Images are added with {@link TextureAtlas#add(String)} and friends, which return the region
+ * the image was packed into, and the pages are sent to the GPU by {@link TextureAtlas#upload()}.
+ * Materials created from a region ({@link Material#Material(AtlasRegion)}) carry its UV transform
+ * to the HUD and particle shaders.
+ */
+public class TextureAtlas {
+
+    public static final int DEFAULT_PAGE_SIZE = 2048;
+
+    public static final int DEFAULT_PADDING = 4;
+
+    private final int pageSize;
+
+    private final int padding;
+
+    /**
+     * Regions start on multiples of this, so they stay apart down to the last mip level sampled.
+     */
+    private final int alignment;
+
+    private final int maxLevel;
+
+    private final List<Page> pages;
+
+    public TextureAtlas() {
+        this(DEFAULT_PAGE_SIZE, DEFAULT_PADDING);
+    }
+
+    /**
+     * @param pageSize The width and height of each page, in pixels.
+     * @param padding The border of extruded edge pixels around each image. Mip levels are generated
+     *                down to the level where the border shrinks to one pixel: log2(padding).
+     */
+    public TextureAtlas(int pageSize, int padding) {
+        this.pageSize = pageSize;
+        this.padding = padding;
+        maxLevel = padding > 0 ? 31 - Integer.numberOfLeadingZeros(padding) : 0;
+        alignment = 1 << maxLevel;
+        pages = new ArrayList<>();
+    }
+
+    /**
+     * Adds a PNG image to the atlas.
+     * @param fileName The resource path of the PNG.
+     * @return The region the image was packed into.
+     * @throws Exception If the image can't be read or is larger than a page.
+     */
+    public AtlasRegion add(String fileName) throws Exception {
+        return add(fileName, 1, 1);
+    }
+
+    /**
+     * Adds a PNG sprite sheet to the atlas.
+     * @param fileName The resource path of the PNG.
+     * @param numCols Number of columns of the sprite sheet.
+     * @param numRows Number of rows of the sprite sheet.
+     * @return The region the image was packed into.
+     * @throws Exception If the image can't be read or is larger than a page.
+     */
+    public AtlasRegion add(String fileName, int numCols, int numRows) throws Exception {
+        ByteBuffer pixels = null;
+        try (InputStream is = TextureAtlas.class.getResourceAsStream(fileName)) {
+            if (is == null) {
+                throw new Exception("Texture resource not found: " + fileName);
+            }
+            PNGDecoder decoder = new PNGDecoder(is);
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            pixels = MemoryUtil.memAlloc(4 * width * height);
+            decoder.decode(pixels, width * 4, PNGDecoder.Format.RGBA);
+            pixels.flip();
+            return add(pixels, width, height, numCols, numRows);
+        } finally {
+            if (pixels != null) {
+                MemoryUtil.memFree(pixels);
+            }
+        }
+    }
+
+    /**
+     * Adds an RGBA image to the atlas. The pixels are copied, so the buffer can be released afterwards.
+     * @param pixels The image's pixels, 4 bytes per pixel, row by row.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param numCols Number of columns of the sprite sheet, 1 for a single image.
+     * @param numRows Number of rows of the sprite sheet, 1 for a single image.
+     * @return The region the image was packed into.
+     * @throws Exception If the image is larger than a page.
+     */
+    public AtlasRegion add(ByteBuffer pixels, int width, int height, int numCols, int numRows) throws Exception {
+        int paddedWidth = align(width + 2 * padding);
+        int paddedHeight = align(height + 2 * padding);
+        if (paddedWidth > pageSize || paddedHeight > pageSize) {
+            throw new Exception("Image of " + width + "x" + height + " doesn't fit in an atlas page of " + pageSize);
+        }
+
+        Page page = null;
+        int[] position = null;
+        for (Page candidate : pages) {
+            position = candidate.findPosition(paddedWidth, paddedHeight);
+            if (position != null) {
+                page = candidate;
+                break;
+            }
+        }
+        if (page == null) {
+            page = new Page();
+            pages.add(page);
+            position = page.findPosition(paddedWidth, paddedHeight);
+        }
+        page.insert(position[0], position[1], position[2], paddedWidth, paddedHeight);
+        page.copy(pixels, width, height, position[1], position[2], paddedWidth, paddedHeight);
+
+        int x = position[1] + padding;
+        int y = position[2] + padding;
+        Vector4f uvTransform = new Vector4f((float) x / pageSize, (float) y / pageSize,
+                (float) width / pageSize, (float) height / pageSize);
+        return new AtlasRegion(page.texture, uvTransform, width, height, numCols, numRows);
+    }
+
+    private int align(int size) {
+        return (size + alignment - 1) & ~(alignment - 1);
+    }
+
+    /**
+     * Uploads the pages images were added to since the last upload, and regenerates their mip levels.
+     * Must be called on the GL thread, after adding images and before drawing with their regions.
+     */
+    public void upload() {
+        for (Page page : pages) {
+            if (!page.dirty) {
+                continue;
+            }
+            glBindTexture(GL_TEXTURE_2D, page.texture.getId());
+            glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+            glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, pageSize, pageSize, GL_RGBA, GL_UNSIGNED_BYTE, page.pixels);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, maxLevel);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, maxLevel > 0 ? GL_LINEAR_MIPMAP_LINEAR : GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glGenerateMipmap(GL_TEXTURE_2D);
+            page.dirty = false;
+        }
+        glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * @return The number of pages the images were packed into.
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    public void cleanUp() {
+        for (Page page : pages) {
+            page.texture.cleanUp();
+            MemoryUtil.memFree(page.pixels);
+        }
+        pages.clear();
+    }
+
+    /**
+     * A page of the atlas, its CPU copy and its skyline: the top edge of the packed images, as
+     * horizontal segments from left to right.
+     */
+    private class Page {
+
+        private final ByteBuffer pixels;
+
+        private final Texture texture;
+
+        /**
+         * Skyline segments, each { x, y, width }.
+         */
+        private final List<int[]> skyline;
+
+        private boolean dirty;
+
+        private Page() {
+            pixels = MemoryUtil.memCalloc(4 * pageSize * pageSize);
+            texture = new Texture(pixels, pageSize, pageSize);
+            skyline = new ArrayList<>();
+            skyline.add(new int[] { 0, 0, pageSize });
+        }
+
+        /**
+         * Finds the position with the lowest top edge for a rectangle, preferring narrower segments on ties.
+         * @return { segment index, x, y }, or null if the rectangle doesn't fit.
+         */
+        private int[] findPosition(int width, int height) {
+            int[] best = null;
+            int bestTop = Integer.MAX_VALUE;
+            int bestWidth = Integer.MAX_VALUE;
+            for (int i = 0; i < skyline.size(); i++) {
+                int y = fit(i, width, height);
+                if (y < 0) {
+                    continue;
+                }
+                int segmentWidth = skyline.get(i)[2];
+                if (y + height < bestTop || (y + height == bestTop && segmentWidth < bestWidth)) {
+                    best = new int[] { i, skyline.get(i)[0], y };
+                    bestTop = y + height;
+                    bestWidth = segmentWidth;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @return The y a rectangle would rest at if its left edge was placed on a segment, or -1 if
+         * it doesn't fit there.
+         */
+        private int fit(int index, int width, int height) {
+            int x = skyline.get(index)[0];
+            if (x + width > pageSize) {
+                return -1;
+            }
+            int y = 0;
+            int remaining = width;
+            for (int i = index; remaining > 0; i++) {
+                int[] segment = skyline.get(i);
+                y = Math.max(y, segment[1]);
+                if (y + height > pageSize) {
+                    return -1;
+                }
+                remaining -= segment[2];
+            }
+            return y;
+        }
+
+        /**
+         * Raises the skyline over a placed rectangle, shrinking or removing the segments it covers.
+         */
+        private void insert(int index, int x, int y, int width, int height) {
+            skyline.add(index, new int[] { x, y + height, width });
+            int right = x + width;
+            while (index + 1 < skyline.size()) {
+                int[] next = skyline.get(index + 1);
+                if (next[0] >= right) {
+                    break;
+                }
+                int overlap = right - next[0];
+                if (overlap < next[2]) {
+                    next[0] += overlap;
+                    next[2] -= overlap;
+                    break;
+                }
+                skyline.remove(index + 1);
+            }
+
+            // Merge neighbouring segments at the same height
+            for (int i = 0; i + 1 < skyline.size(); ) {
+                int[] segment = skyline.get(i);
+                int[] next = skyline.get(i + 1);
+                if (segment[1] == next[1]) {
+                    segment[2] += next[2];
+                    skyline.remove(i + 1);
+                } else {
+                    i++;
+                }
+            }
+            dirty = true;
+        }
+
+        /**
+         * Copies an image into its padded rectangle, extruding its edge pixels over the border.
+         */
+        private void copy(ByteBuffer image, int width, int height, int x, int y, int paddedWidth, int paddedHeight) {
+            int base = image.position();
+            for (int row = 0; row < paddedHeight; row++) {
+                int srcRow = Math.min(Math.max(row - padding, 0), height - 1);
+                int dst = ((y + row) * pageSize + x) * 4;
+                for (int col = 0; col < paddedWidth; col++) {
+                    int srcCol = Math.min(Math.max(col - padding, 0), width - 1);
+                    pixels.putInt(dst + col * 4, image.getInt(base + (srcRow * width + srcCol) * 4));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.zcking.furyengine.rendering;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL13.nglCompressedTexImage2D;
+import static org.lwjgl.opengl.GL30.GL_COMPRESSED_RG_RGTC2;
+
+/**
+ * A GPU-ready texture file (".ftex"), holding every mip level of a texture pre-baked, either as
+ * RGBA8 or block compressed (BC1, BC3 or BC5). Files on the file system are memory mapped, and
+ * each level is uploaded straight from the mapping, with no decoding. Containers are produced from
+ * PNGs by {@link com.zcking.furyengine.utils.TextureCompiler}.
+ * <p>
+ * Layout, little endian:
+ * <pre>
+ * char[4] magic = "FTEX"
+ * int version
+ * int format      (see the FORMAT_ constants)
+ * int width
+ * int height
+ * int mipCount
+ * { int offset, int size } levels[mipCount]
+ * level data, each level starting on a 4 byte boundary
+ * </pre>
+ */
+public class TextureContainer {
+
+    public static final String EXTENSION = ".ftex";
+
+    public static final int FORMAT_RGBA8 = 0;
+
+    public static final int FORMAT_BC1 = 1;
+
+    public static final int FORMAT_BC3 = 2;
+
+    public static final int FORMAT_BC5 = 3;
+
+    private static final int MAGIC = 'F' | 'T' << 8 | 'E' << 16 | 'X' << 24;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * The largest width or height accepted, well above what any driver can sample.
+     */
+    private static final int MAX_SIZE = 1 << 15;
+
+    private final ByteBuffer data;
+
+    private final boolean mapped;
+
+    private final int format;
+
+    private final int width;
+
+    private final int height;
+
+    private final int mipCount;
+
+    private TextureContainer(ByteBuffer data, boolean mapped) throws Exception {
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        this.mapped = mapped;
+        if (data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new Exception("Not a texture container");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new Exception("Unsupported texture container version: " + data.getInt(4));
+        }
+        format = data.getInt(8);
+        width = data.getInt(12);
+        height = data.getInt(16);
+        mipCount = data.getInt(20);
+        validate();
+    }
+
+    /**
+     * Checks the header and level table against the file, so a corrupt or truncated container is
+     * rejected before any of it is handed to GL.
+     */
+    private void validate() throws Exception {
+        if (format < FORMAT_RGBA8 || format > FORMAT_BC5) {
+            throw new Exception("Unknown texture container format: " + format);
+        }
+        if (width <= 0 || height <= 0 || width > MAX_SIZE || height > MAX_SIZE) {
+            throw new Exception("Invalid texture container size: " + width + "x" + height);
+        }
+        // A full mip chain has floor(log2(max(width, height))) + 1 levels
+        int maxMipCount = 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+        if (mipCount < 1 || mipCount > maxMipCount) {
+            throw new Exception("Invalid texture container mip count: " + mipCount);
+        }
+        if (data.limit() < HEADER_SIZE + mipCount * 8) {
+            throw new Exception("Truncated texture container level table");
+        }
+        for (int level = 0; level < mipCount; level++) {
+            int offset = data.getInt(HEADER_SIZE + level * 8);
+            int size = data.getInt(HEADER_SIZE + level * 8 + 4);
+            long expectedSize = getLevelSize(format, Math.max(width >> level, 1), Math.max(height >> level, 1));
+            if (size != expectedSize) {
+                throw new Exception("Texture container level " + level + " has " + size + " bytes, expected "
+                        + expectedSize);
+            }
+            if (offset < HEADER_SIZE + mipCount * 8 || (long) offset + size > data.limit()) {
+                throw new Exception("Texture container level " + level + " is out of the file");
+            }
+        }
+    }
+
+    /**
+     * @return The size, in bytes, of a level of the given format and dimensions.
+     */
+    private static long getLevelSize(int format, int width, int height) {
+        if (format == FORMAT_RGBA8) {
+            return 4L * width * height;
+        }
+        long blocks = (long) ((width + 3) / 4) * ((height + 3) / 4);
+        return blocks * (format == FORMAT_BC1 ? 8 : 16);
+    }
+
+    /**
+     * @param fileName The path of a texture (e.g. "/textures/rock.png").
+     * @return The path of its container (e.g. "/textures/rock.ftex").
+     */
+    public static String getContainerPath(String fileName) {
+        int pos = fileName.lastIndexOf('.');
+        return (pos > fileName.lastIndexOf('/') ? fileName.substring(0, pos) : fileName) + EXTENSION;
+    }
+
+    /**
+     * Checks if a texture has a container that was compiled from its current version.
+     * @param fileName The class path of a texture (e.g. "/textures/rock.png").
+     * @return Whether its container exists and isn't older than the texture itself.
+     * @throws IOException If the modification times can't be read.
+     */
+    public static boolean isUpToDate(String fileName) throws IOException {
+        URL containerUrl = TextureContainer.class.getResource(getContainerPath(fileName));
+        if (containerUrl == null) {
+            return false;
+        }
+        URL sourceUrl = TextureContainer.class.getResource(fileName);
+        return sourceUrl == null || getLastModified(containerUrl) >= getLastModified(sourceUrl);
+    }
+
+    private static long getLastModified(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        try {
+            return connection.getLastModified();
+        } finally {
+            // Reading the modification time connects, which opens the resource's stream
+            connection.getInputStream().close();
+        }
+    }
+
+    /**
+     * Opens a container from the class path. Containers on the file system are memory mapped,
+     * others (e.g. inside a jar) are read into memory.
+     * @param resourcePath The class path of the container.
+     * @return The opened container.
+     * @throws Exception If the container can't be read.
+     */
+    public static TextureContainer open(String resourcePath) throws Exception {
+        URL url = TextureContainer.class.getResource(resourcePath);
+        if (url == null) {
+            throw new Exception("Texture container not found: " + resourcePath);
+        }
+        if ("file".equals(url.getProtocol())) {
+            return open(Paths.get(url.toURI()));
+        }
+
+        try (InputStream is = url.openStream()) {
+            ByteBuffer data = MemoryUtil.memAlloc(8192);
+            int read;
+            byte[] chunk = new byte[8192];
+            while ((read = is.read(chunk)) > 0) {
+                if (data.remaining() < read) {
+                    data = MemoryUtil.memRealloc(data, data.capacity() * 2);
+                }
+                data.put(chunk, 0, read);
+            }
+            data.flip();
+            try {
+                return new TextureContainer(data, false);
+            } catch (Exception ex) {
+                MemoryUtil.memFree(data);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Opens a container from the file system, memory mapping it.
+     * @param path The path of the container.
+     * @return The opened container.
+     * @throws Exception If the container can't be read.
+     */
+    public static TextureContainer open(Path path) throws Exception {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new TextureContainer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), true);
+        }
+    }
+
+    /**
+     * Writes a container.
+     * @param path The path to write the container to.
+     * @param format The format of the levels (see the FORMAT_ constants).
+     * @param width The width of the first level.
+     * @param height The height of the first level.
+     * @param levels The data of each level, from the largest to the smallest.
+     * @throws IOException If the file can't be written.
+     */
+    public static void write(Path path, int format, int width, int height, List<ByteBuffer> levels) throws IOException {
+        int tableSize = HEADER_SIZE + levels.size() * 8;
+        int size = tableSize;
+        for (ByteBuffer level : levels) {
+            size = align(size) + level.remaining();
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putInt(format).putInt(width).putInt(height).putInt(levels.size());
+        int offset = tableSize;
+        for (ByteBuffer level : levels) {
+            offset = align(offset);
+            out.putInt(offset).putInt(level.remaining());
+            offset += level.remaining();
+        }
+        for (ByteBuffer level : levels) {
+            out.position(align(out.position()));
+            out.put(level.duplicate());
+        }
+        out.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    private static int align(int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    /**
+     * @param format A container format (see the FORMAT_ constants).
+     * @return Whether or not the current GL context can sample textures of that format, false for unknown formats.
+     */
+    public static boolean isFormatSupported(int format) {
+        switch (format) {
+            case FORMAT_RGBA8:
+            case FORMAT_BC5:
+                return true;
+            case FORMAT_BC1:
+            case FORMAT_BC3:
+                return GL.getCapabilities().GL_EXT_texture_compression_s3tc;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Creates a GL texture and uploads every level of the container to it.
+     * @return The id of the texture.
+     * @throws Exception If the container's format isn't supported by the driver.
+     */
+    public int upload() throws Exception {
+        if (!isFormatSupported(format)) {
+            throw new Exception("Texture compression format " + format + " is not supported by the driver");
+        }
+
+        int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        // The same filtering as textures decoded from PNGs (see Texture), so both look alike
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, mipCount - 1);
+
+        long address = MemoryUtil.memAddress(data, 0);
+        for (int level = 0; level < mipCount; level++) {
+            int offset = data.getInt(HEADER_SIZE + level * 8);
+            int size = data.getInt(HEADER_SIZE + level * 8 + 4);
+            int levelWidth = Math.max(width >> level, 1);
+            int levelHeight = Math.max(height >> level, 1);
+            if (format == FORMAT_RGBA8) {
+                nglTexImage2D(GL_TEXTURE_2D, level, GL_RGBA, levelWidth, levelHeight, 0, GL_RGBA, GL_UNSIGNED_BYTE,
+                        address + offset);
+            } else {
+                nglCompressedTexImage2D(GL_TEXTURE_2D, level, getInternalFormat(format), levelWidth, levelHeight, 0,
+                        size, address + offset);
+            }
+        }
+        glBindTexture(GL_TEXTURE_2D, 0);
+        return id;
+    }
+
+    private static int getInternalFormat(int format) throws Exception {
+        switch (format) {
+            case FORMAT_BC1:
+                return GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+            case FORMAT_BC3:
+                return GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+            case FORMAT_BC5:
+                return GL_COMPRESSED_RG_RGTC2;
+            default:
+                throw new Exception("Unknown texture container format: " + format);
+        }
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMipCount() {
+        return mipCount;
+    }
+
+    /**
+     * Releases the container's data. Mapped files are unmapped once garbage collected.
+     */
+    public void close() {
+        if (!mapped) {
+            MemoryUtil.memFree(data);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.zcking.furyengine.rendering;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL15.glBufferData;
+import static org.lwjgl.opengl.GL15.glDeleteBuffers;
+import static org.lwjgl.opengl.GL15.glGenBuffers;
+import static org.lwjgl.opengl.GL15.glUnmapBuffer;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_UNPACK_BUFFER;
+import static org.lwjgl.opengl.GL30.GL_MAP_INVALIDATE_BUFFER_BIT;
+import static org.lwjgl.opengl.GL30.GL_MAP_WRITE_BIT;
+import static org.lwjgl.opengl.GL30.glGenerateMipmap;
+import static org.lwjgl.opengl.GL30.glMapBufferRange;
+
+/**
+ * Loads PNG textures without blocking the GL thread. {@link TextureLoader#load(String)} returns a
+ * {@link Texture} handle right away, bound to a placeholder, and the PNG is decoded on a pool of
+ * worker threads. Decoded images are then uploaded on the GL thread by {@link TextureLoader#update(long)},
+ * through a pixel buffer object, within a time budget per call, and each handle switches to its
+ * texture once uploaded. Handles whose image can't be loaded keep their placeholder, and report
+ * the error (see {@link Texture#getLoadError()}).
+ */
+public class TextureLoader {
+
+    /**
+     * How long {@link TextureLoader#cleanUp()} waits for the images being decoded.
+     */
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    private final ExecutorService workers;
+
+    private final Queue<DecodedImage> decodedImages;
+
+    private final AtomicInteger pendingCount;
+
+    private final Texture placeholder;
+
+    private final Texture normalMapPlaceholder;
+
+    private int pboId;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a texture loader and its placeholders. Must be called on the GL thread.
+     * @param numThreads The number of worker threads decoding images.
+     */
+    public TextureLoader(int numThreads) {
+        workers = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "TEXTURE_LOADER_THREAD");
+            thread.setDaemon(true);
+            return thread;
+        });
+        decodedImages = new ConcurrentLinkedQueue<>();
+        pendingCount = new AtomicInteger();
+
+        // Mid grey for colour textures, and a flat normal for normal maps
+        placeholder = createSolidTexture(0x80, 0x80, 0x80);
+        normalMapPlaceholder = createSolidTexture(0x80, 0x80, 0xFF);
+    }
+
+    private static Texture createSolidTexture(int r, int g, int b) {
+        ByteBuffer pixel = MemoryUtil.memAlloc(4);
+        try {
+            pixel.put((byte) r).put((byte) g).put((byte) b).put((byte) 0xFF).flip();
+            return new Texture(pixel, 1, 1);
+        } finally {
+            MemoryUtil.memFree(pixel);
+        }
+    }
+
+    /**
+     * Starts loading a PNG texture.
+     * @param fileName The resource path of the PNG.
+     * @return The texture handle, bound to a placeholder until the image is uploaded.
+     */
+    public Texture load(String fileName) {
+        return load(fileName, 1, 1, placeholder);
+    }
+
+    /**
+     * Starts loading a PNG texture atlas.
+     * @param fileName The resource path of the PNG.
+     * @param numCols Number of columns of the texture atlas.
+     * @param numRows Number of rows of the texture atlas.
+     * @return The texture handle, bound to a placeholder until the image is uploaded.
+     */
+    public Texture load(String fileName, int numCols, int numRows) {
+        return load(fileName, numCols, numRows, placeholder);
+    }
+
+    /**
+     * Starts loading a PNG normal map. Its placeholder is a flat normal, rather than a colour.
+     * @param fileName The resource path of the PNG.
+     * @return The texture handle, bound to a placeholder until the image is uploaded.
+     */
+    public Texture loadNormalMap(String fileName) {
+        return load(fileName, 1, 1, normalMapPlaceholder);
+    }
+
+    private Texture load(String fileName, int numCols, int numRows, Texture placeholder) {
+        Texture texture = new Texture(placeholder, numCols, numRows);
+        pendingCount.incrementAndGet();
+        workers.execute(() -> {
+            decodedImages.add(decode(fileName, texture));
+            // An image decoded after the loader was cleaned up would never be freed otherwise
+            if (closed) {
+                freeDecodedImages();
+            }
+        });
+        return texture;
+    }
+
+    private static DecodedImage decode(String fileName, Texture texture) {
+        ByteBuffer pixels = null;
+        try (InputStream is = Texture.class.getResourceAsStream(fileName)) {
+            if (is == null) {
+                throw new Exception("Texture resource not found: " + fileName);
+            }
+            PNGDecoder decoder = new PNGDecoder(is);
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            pixels = MemoryUtil.memAlloc(4 * width * height);
+            decoder.decode(pixels, width * 4, PNGDecoder.Format.RGBA);
+            pixels.flip();
+            return new DecodedImage(texture, pixels, width, height, null);
+        } catch (Exception ex) {
+            if (pixels != null) {
+                MemoryUtil.memFree(pixels);
+            }
+            return new DecodedImage(texture, null, 0, 0, new Exception("Error loading texture " + fileName, ex));
+        }
+    }
+
+    /**
+     * Uploads decoded images, until the time budget is spent. At least one image is uploaded per call,
+     * if any is ready, so large images can't stall loading. Must be called on the GL thread, once per frame.
+     * @param budgetNanos The time budget, in nanoseconds.
+     */
+    public void update(long budgetNanos) {
+        long start = System.nanoTime();
+        DecodedImage image;
+        while ((image = decodedImages.poll()) != null) {
+            pendingCount.decrementAndGet();
+            if (image.pixels != null) {
+                if (!image.texture.isDeleted()) {
+                    upload(image);
+                }
+                MemoryUtil.memFree(image.pixels);
+            } else {
+                image.texture.failLoading(image.error);
+            }
+            if (System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+        }
+    }
+
+    private void upload(DecodedImage image) {
+        int size = image.pixels.remaining();
+        if (pboId == 0) {
+            pboId = glGenBuffers();
+        }
+
+        // Orphan the PBO and copy the pixels into it, so the texture upload itself returns right away
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pboId);
+        glBufferData(GL_PIXEL_UNPACK_BUFFER, size, GL_STREAM_DRAW);
+        ByteBuffer mapped = glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, size,
+                GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT);
+        MemoryUtil.memCopy(MemoryUtil.memAddress(image.pixels), MemoryUtil.memAddress(mapped), size);
+        glUnmapBuffer(GL_PIXEL_UNPACK_BUFFER);
+
+        int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, image.width, image.height, 0, GL_RGBA, GL_UNSIGNED_BYTE, 0L);
+        glGenerateMipmap(GL_TEXTURE_2D);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+
+        image.texture.finishLoading(id, image.width, image.height);
+    }
+
+    /**
+     * @return The number of textures still being decoded or waiting to be uploaded.
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public void cleanUp() {
+        closed = true;
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        freeDecodedImages();
+        if (pboId != 0) {
+            glDeleteBuffers(pboId);
+        }
+        placeholder.cleanUp();
+        normalMapPlaceholder.cleanUp();
+    }
+
+    private void freeDecodedImages() {
+        DecodedImage image;
+        while ((image = decodedImages.poll()) != null) {
+            if (image.pixels != null) {
+                MemoryUtil.memFree(image.pixels);
+            }
+        }
+    }
+
+    private static class DecodedImage {
+
+        private final Texture texture;
+
+        private final ByteBuffer pixels;
+
+        private final int width;
+
+        private final int height;
+
+        private final Exception error;
+
+        private DecodedImage(Texture texture, ByteBuffer pixels, int width, int height, Exception error) {
+            this.texture = texture;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.zcking.furyengine.rendering;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+
+/**
+ * A uniform buffer object, bound to a fixed binding point so that every shader program whose
+ * uniform block is bound to the same point (see {@link ShaderProgram#bindUniformBlock(String, int)})
+ * reads from it. Data is written into a reused off-heap buffer, following the std140 layout
+ * rules, and uploaded with {@link UniformBuffer#upload()}.
+ */
+public class UniformBuffer {
+
+    private final int uboId;
+
+    private final int bindingPoint;
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates the buffer object and binds it to its binding point.
+     * @param size The size of the uniform block, in bytes.
+     * @param bindingPoint The uniform buffer binding point.
+     */
+    public UniformBuffer(int size, int bindingPoint) {
+        this.bindingPoint = bindingPoint;
+        buffer = MemoryUtil.memCalloc(size);
+
+        uboId = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, uboId);
+        glBufferData(GL_UNIFORM_BUFFER, size, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        glBindBufferBase(GL_UNIFORM_BUFFER, bindingPoint, uboId);
+    }
+
+    public int getBindingPoint() {
+        return bindingPoint;
+    }
+
+    protected void putMatrix4f(int offset, Matrix4f value) {
+        value.get(offset, buffer);
+    }
+
+    protected void putVector3f(int offset, Vector3f value) {
+        buffer.putFloat(offset, value.x);
+        buffer.putFloat(offset + 4, value.y);
+        buffer.putFloat(offset + 8, value.z);
+    }
+
+    protected void putFloat(int offset, float value) {
+        buffer.putFloat(offset, value);
+    }
+
+    protected void putInt(int offset, int value) {
+        buffer.putInt(offset, value);
+    }
+
+    /**
+     * Uploads the whole block to the buffer object.
+     */
+    public void upload() {
+        glBindBuffer(GL_UNIFORM_BUFFER, uboId);
+        glBufferSubData(GL_UNIFORM_BUFFER, 0, buffer);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+    }
+
+    public void cleanUp() {
+        glDeleteBuffers(uboId);
+        MemoryUtil.memFree(buffer);
+    }
+}
@@ -0,0 +1,247 @@
+package com.zcking.furyengine.rendering;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_INT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL11.GL_SHORT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL11.GL_BYTE;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+
+/**
+ * One attribute of a {@link VertexFormat}: what it holds, and how it's stored in the vertex buffer.
+ */
+public class VertexAttribute {
+
+    /**
+     * What an attribute holds. Each usage is bound to a fixed location, shared by every shader.
+     */
+    public enum Usage {
+        POSITION(0, 3),
+        TEXT_COORD(1, 2),
+        NORMAL(2, 3),
+        WEIGHTS(3, 4),
+        JOINT_INDICES(4, 4);
+
+        private final int location;
+
+        private final int sourceComponents;
+
+        Usage(int location, int sourceComponents) {
+            this.location = location;
+            this.sourceComponents = sourceComponents;
+        }
+
+        public int getLocation() {
+            return location;
+        }
+
+        /**
+         * @return The number of components per vertex of the source data (e.g. 3 for positions),
+         * which can differ from the stored components when the attribute is encoded.
+         */
+        public int getSourceComponents() {
+            return sourceComponents;
+        }
+    }
+
+    private final Usage usage;
+
+    private final int components;
+
+    private final int type;
+
+    private final boolean normalized;
+
+    /**
+     * Constructs a new vertex attribute.
+     * @param usage What the attribute holds.
+     * @param components The number of components (1 to 4).
+     * @param type The GL type of each component (e.g. GL_FLOAT).
+     * @param normalized Whether or not integer components are normalized to [0, 1] (or [-1, 1] when signed).
+     */
+    public VertexAttribute(Usage usage, int components, int type, boolean normalized) {
+        this.usage = usage;
+        this.components = components;
+        this.type = type;
+        this.normalized = normalized;
+    }
+
+    public Usage getUsage() {
+        return usage;
+    }
+
+    public int getComponents() {
+        return components;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    /**
+     * @return Whether or not the attribute is read as integers by the shader (e.g. ivec4).
+     */
+    public boolean isInteger() {
+        return !normalized && type != GL_FLOAT && type != GL_HALF_FLOAT;
+    }
+
+    /**
+     * @return The size of the attribute, in bytes, padded to a multiple of 4 bytes.
+     */
+    public int getSize() {
+        int size = components * getComponentSize(type);
+        return (size + 3) & ~3;
+    }
+
+    /**
+     * Writes one component of the attribute, converting it to the attribute's type.
+     * Normalized components are expected in [0, 1] (or [-1, 1] when signed).
+     * @param buffer The vertex buffer.
+     * @param position The byte position of the component in the buffer.
+     * @param value The value of the component.
+     */
+    public void putComponent(ByteBuffer buffer, int position, float value) {
+        switch (type) {
+            case GL_FLOAT:
+                buffer.putFloat(position, value);
+                break;
+            case GL_HALF_FLOAT:
+                buffer.putShort(position, toHalfFloat(value));
+                break;
+            case GL_SHORT:
+                buffer.putShort(position, (short) (normalized ? Math.round(clamp(value, -1, 1) * 32767.0f) : (int) value));
+                break;
+            case GL_UNSIGNED_SHORT:
+                buffer.putShort(position, (short) (normalized ? Math.round(clamp(value, 0, 1) * 65535.0f) : (int) value));
+                break;
+            case GL_BYTE:
+                buffer.put(position, (byte) (normalized ? Math.round(clamp(value, -1, 1) * 127.0f) : (int) value));
+                break;
+            case GL_UNSIGNED_BYTE:
+                buffer.put(position, (byte) (normalized ? Math.round(clamp(value, 0, 1) * 255.0f) : (int) value));
+                break;
+            default:
+                buffer.putInt(position, (int) value);
+                break;
+        }
+    }
+
+    /**
+     * Reads one component of the attribute back as a float, undoing {@link VertexAttribute#putComponent(ByteBuffer, int, float)}.
+     * @param buffer The vertex buffer.
+     * @param position The byte position of the component in the buffer.
+     * @return The value of the component.
+     */
+    public float getComponent(ByteBuffer buffer, int position) {
+        switch (type) {
+            case GL_FLOAT:
+                return buffer.getFloat(position);
+            case GL_HALF_FLOAT:
+                return fromHalfFloat(buffer.getShort(position));
+            case GL_SHORT: {
+                short value = buffer.getShort(position);
+                return normalized ? Math.max(value / 32767.0f, -1.0f) : value;
+            }
+            case GL_UNSIGNED_SHORT: {
+                int value = buffer.getShort(position) & 0xFFFF;
+                return normalized ? value / 65535.0f : value;
+            }
+            case GL_BYTE: {
+                byte value = buffer.get(position);
+                return normalized ? Math.max(value / 127.0f, -1.0f) : value;
+            }
+            case GL_UNSIGNED_BYTE: {
+                int value = buffer.get(position) & 0xFF;
+                return normalized ? value / 255.0f : value;
+            }
+            default:
+                return buffer.getInt(position);
+        }
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(value, max));
+    }
+
+    /**
+     * Converts a float to a 16-bit IEEE half float, rounding to nearest.
+     * @param value The value to convert.
+     * @return The bits of the half float.
+     */
+    public static short toHalfFloat(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
+        if (((bits >>> 23) & 0xFF) == 0xFF) {
+            // Infinity or NaN
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        if (exponent >= 0x1F) {
+            // Too large, clamp to infinity
+            return (short) (sign | 0x7C00);
+        }
+        if (exponent <= 0) {
+            if (exponent < -10) {
+                // Too small, flush to zero
+                return (short) sign;
+            }
+            // Subnormal half float
+            mantissa = (mantissa | 0x800000) >> (1 - exponent);
+            return (short) (sign | ((mantissa + 0x1000) >> 13));
+        }
+        // The rounding carry may overflow into the exponent, which is still correct
+        return (short) (sign | ((exponent << 10) + ((mantissa + 0x1000) >> 13)));
+    }
+
+    /**
+     * Converts a 16-bit IEEE half float to a float.
+     * @param half The bits of the half float.
+     * @return The value of the half float.
+     */
+    public static float fromHalfFloat(short half) {
+        int bits = half & 0xFFFF;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1F;
+        int mantissa = bits & 0x3FF;
+        if (exponent == 0) {
+            // Zero or subnormal
+            float value = mantissa / 1024.0f / 16384.0f;
+            return sign != 0 ? -value : value;
+        }
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+    /**
+     * @param type A GL component type.
+     * @return The size of one component of that type, in bytes.
+     */
+    public static int getComponentSize(int type) {
+        switch (type) {
+            case GL_BYTE:
+            case GL_UNSIGNED_BYTE:
+                return 1;
+            case GL_SHORT:
+            case GL_UNSIGNED_SHORT:
+            case GL_HALF_FLOAT:
+                return 2;
+            case GL_INT:
+            case GL_UNSIGNED_INT:
+            case GL_FLOAT:
+                return 4;
+            default:
+                throw new IllegalArgumentException("Unsupported vertex attribute type: " + type);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.zcking.furyengine.rendering;
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_INT;
+import static org.lwjgl.opengl.GL11.GL_SHORT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+import static org.lwjgl.opengl.GL30.glVertexAttribIPointer;
+
+/**
+ * Describes the interleaved layout of a {@link Mesh}'s vertices: which attributes each vertex has,
+ * and where they are stored within the vertex. Every attribute of a vertex is stored next to the
+ * others, in a single vertex buffer.
+ */
+public class VertexFormat {
+
+    /**
+     * Position, texture coordinates and normal, as floats.
+     */
+    public static final VertexFormat STATIC = new VertexFormat(
+            new VertexAttribute(VertexAttribute.Usage.POSITION, 3, GL_FLOAT, false),
+            new VertexAttribute(VertexAttribute.Usage.TEXT_COORD, 2, GL_FLOAT, false),
+            new VertexAttribute(VertexAttribute.Usage.NORMAL, 3, GL_FLOAT, false));
+
+    /**
+     * The {@link VertexFormat#STATIC} attributes, followed by the skinning weights and joint indices.
+     */
+    public static final VertexFormat SKINNED = new VertexFormat(
+            new VertexAttribute(VertexAttribute.Usage.POSITION, 3, GL_FLOAT, false),
+            new VertexAttribute(VertexAttribute.Usage.TEXT_COORD, 2, GL_FLOAT, false),
+            new VertexAttribute(VertexAttribute.Usage.NORMAL, 3, GL_FLOAT, false),
+            new VertexAttribute(VertexAttribute.Usage.WEIGHTS, Mesh.MAX_WEIGHTS, GL_FLOAT, false),
+            new VertexAttribute(VertexAttribute.Usage.JOINT_INDICES, Mesh.MAX_WEIGHTS, GL_INT, false));
+
+    /**
+     * Compact version of {@link VertexFormat#STATIC} (16 bytes per vertex instead of 32): positions quantized
+     * to the mesh's bounding box as 16-bit integers, half float texture coordinates and octahedral normals
+     * as two 16-bit integers. Only the scene and depth shaders decode it.
+     */
+    public static final VertexFormat COMPACT = new VertexFormat(
+            new VertexAttribute(VertexAttribute.Usage.POSITION, 3, GL_UNSIGNED_SHORT, true),
+            new VertexAttribute(VertexAttribute.Usage.TEXT_COORD, 2, GL_HALF_FLOAT, false),
+            new VertexAttribute(VertexAttribute.Usage.NORMAL, 2, GL_SHORT, true));
+
+    /**
+     * Compact version of {@link VertexFormat#SKINNED} (24 bytes per vertex instead of 64): the
+     * {@link VertexFormat#COMPACT} attributes, followed by 8-bit weights and joint indices.
+     */
+    public static final VertexFormat COMPACT_SKINNED = new VertexFormat(
+            new VertexAttribute(VertexAttribute.Usage.POSITION, 3, GL_UNSIGNED_SHORT, true),
+            new VertexAttribute(VertexAttribute.Usage.TEXT_COORD, 2, GL_HALF_FLOAT, false),
+            new VertexAttribute(VertexAttribute.Usage.NORMAL, 2, GL_SHORT, true),
+            new VertexAttribute(VertexAttribute.Usage.WEIGHTS, Mesh.MAX_WEIGHTS, GL_UNSIGNED_BYTE, true),
+            new VertexAttribute(VertexAttribute.Usage.JOINT_INDICES, Mesh.MAX_WEIGHTS, GL_UNSIGNED_BYTE, false));
+
+    private final VertexAttribute[] attributes;
+
+    private final int[] offsets;
+
+    private final int stride;
+
+    /**
+     * Constructs a new vertex format. The attributes are stored in the given order.
+     * @param attributes The attributes of each vertex.
+     */
+    public VertexFormat(VertexAttribute... attributes) {
+        this.attributes = attributes;
+        this.offsets = new int[attributes.length];
+        int offset = 0;
+        for (int i = 0; i < attributes.length; i++) {
+            offsets[i] = offset;
+            offset += attributes[i].getSize();
+        }
+        this.stride = offset;
+    }
+
+    public VertexAttribute[] getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @param index The index of an attribute of the format.
+     * @return The offset of the attribute within a vertex, in bytes.
+     */
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @return The size of a vertex, in bytes.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * @param usage An attribute usage.
+     * @return The index of the format's attribute with that usage, or -1 if it has none.
+     */
+    public int indexOf(VertexAttribute.Usage usage) {
+        for (int i = 0; i < attributes.length; i++) {
+            if (attributes[i].getUsage() == usage) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Whether or not positions are quantized to the mesh's bounding box (see {@link Mesh#getPositionScale()}).
+     */
+    public boolean hasQuantizedPositions() {
+        int index = indexOf(VertexAttribute.Usage.POSITION);
+        return index >= 0 && attributes[index].getType() != GL_FLOAT;
+    }
+
+    /**
+     * @return Whether or not normals are stored as 2 octahedral coordinates.
+     */
+    public boolean hasOctahedralNormals() {
+        int index = indexOf(VertexAttribute.Usage.NORMAL);
+        return index >= 0 && attributes[index].getComponents() == 2;
+    }
+
+    /**
+     * @return Whether or not the format has the streams needed for skeletal animation.
+     */
+    public boolean isSkinned() {
+        return indexOf(VertexAttribute.Usage.WEIGHTS) >= 0 && indexOf(VertexAttribute.Usage.JOINT_INDICES) >= 0;
+    }
+
+    /**
+     * Describes and enables the attributes of the format. Both the VAO and the vertex buffer must be
+     * bound, and the enabled state is then kept by the VAO.
+     */
+    public void setupAttributes() {
+        for (int i = 0; i < attributes.length; i++) {
+            VertexAttribute attribute = attributes[i];
+            int location = attribute.getUsage().getLocation();
+            if (attribute.isInteger()) {
+                glVertexAttribIPointer(location, attribute.getComponents(), attribute.getType(), stride, offsets[i]);
+            } else {
+                glVertexAttribPointer(location, attribute.getComponents(), attribute.getType(),
+                        attribute.isNormalized(), stride, offsets[i]);
+            }
+            glEnableVertexAttribArray(location);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.lighting.DirectionalLight;
+import com.zcking.furyengine.rendering.ShaderProgram;
+import org.joml.Vector3f;
+
+/**
+ * Handles to the fields of a DirectionalLight struct uniform.
+ */
+public class DirectionalLightUniform {
+
+    private final Vector3fUniform color;
+
+    private final Vector3fUniform direction;
+
+    private final FloatUniform intensity;
+
+    public DirectionalLightUniform(ShaderProgram shaderProgram, String uniformName) throws Exception {
+        color = shaderProgram.createVector3fUniform(uniformName + ".color");
+        direction = shaderProgram.createVector3fUniform(uniformName + ".direction");
+        intensity = shaderProgram.createFloatUniform(uniformName + ".intensity");
+    }
+
+    public void set(DirectionalLight dirLight) {
+        set(dirLight, dirLight.getDirection());
+    }
+
+    /**
+     * Sets the light, overriding its direction (e.g. with the direction in view coordinates).
+     * @param dirLight The light to set.
+     * @param lightDirection The direction to use instead of the light's direction.
+     */
+    public void set(DirectionalLight dirLight, Vector3f lightDirection) {
+        color.set(dirLight.getColor());
+        direction.set(lightDirection);
+        intensity.set(dirLight.getIntensity());
+    }
+}
@@ -0,0 +1,27 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.rendering.RenderStats;
+
+import static org.lwjgl.opengl.GL20.glUniform1f;
+
+/**
+ * Handle to a float uniform.
+ */
+public class FloatUniform extends Uniform {
+
+    private float value;
+
+    public FloatUniform(int location) {
+        super(location);
+    }
+
+    public void set(float value) {
+        if (hasValue && Float.floatToIntBits(this.value) == Float.floatToIntBits(value)) {
+            return;
+        }
+        this.value = value;
+        hasValue = true;
+        glUniform1f(location, value);
+        RenderStats.countUniformUpload();
+    }
+}
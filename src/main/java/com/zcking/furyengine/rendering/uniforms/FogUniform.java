@@ -0,0 +1,28 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.rendering.ShaderProgram;
+import com.zcking.furyengine.rendering.weather.Fog;
+
+/**
+ * Handles to the fields of a Fog struct uniform.
+ */
+public class FogUniform {
+
+    private final IntUniform enabled;
+
+    private final Vector3fUniform color;
+
+    private final FloatUniform density;
+
+    public FogUniform(ShaderProgram shaderProgram, String uniformName) throws Exception {
+        enabled = shaderProgram.createIntUniform(uniformName + ".enabled");
+        color = shaderProgram.createVector3fUniform(uniformName + ".color");
+        density = shaderProgram.createFloatUniform(uniformName + ".density");
+    }
+
+    public void set(Fog fog) {
+        enabled.set(fog.isEnabled());
+        color.set(fog.getColor());
+        density.set(fog.getDensity());
+    }
+}
@@ -0,0 +1,31 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.rendering.RenderStats;
+
+import static org.lwjgl.opengl.GL20.glUniform1i;
+
+/**
+ * Handle to an int (or sampler/bool) uniform.
+ */
+public class IntUniform extends Uniform {
+
+    private int value;
+
+    public IntUniform(int location) {
+        super(location);
+    }
+
+    public void set(int value) {
+        if (hasValue && this.value == value) {
+            return;
+        }
+        this.value = value;
+        hasValue = true;
+        glUniform1i(location, value);
+        RenderStats.countUniformUpload();
+    }
+
+    public void set(boolean value) {
+        set(value ? 1 : 0);
+    }
+}
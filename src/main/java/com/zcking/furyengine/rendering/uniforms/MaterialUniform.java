@@ -0,0 +1,40 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.rendering.Material;
+import com.zcking.furyengine.rendering.ShaderProgram;
+
+/**
+ * Handles to the fields of a Material struct uniform.
+ */
+public class MaterialUniform {
+
+    private final Vector4fUniform ambient;
+
+    private final Vector4fUniform diffuse;
+
+    private final Vector4fUniform specular;
+
+    private final IntUniform hasTexture;
+
+    private final IntUniform hasNormalMap;
+
+    private final FloatUniform reflectance;
+
+    public MaterialUniform(ShaderProgram shaderProgram, String uniformName) throws Exception {
+        ambient = shaderProgram.createVector4fUniform(uniformName + ".ambient");
+        diffuse = shaderProgram.createVector4fUniform(uniformName + ".diffuse");
+        specular = shaderProgram.createVector4fUniform(uniformName + ".specular");
+        hasTexture = shaderProgram.createIntUniform(uniformName + ".hasTexture");
+        hasNormalMap = shaderProgram.createIntUniform(uniformName + ".hasNormalMap");
+        reflectance = shaderProgram.createFloatUniform(uniformName + ".reflectance");
+    }
+
+    public void set(Material material) {
+        ambient.set(material.getAmbientColor());
+        diffuse.set(material.getDiffuseColor());
+        specular.set(material.getSpecularColor());
+        hasTexture.set(material.isTextured());
+        hasNormalMap.set(material.hasNormalMap());
+        reflectance.set(material.getReflectance());
+    }
+}
@@ -0,0 +1,46 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.rendering.RenderStats;
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL20.glUniformMatrix4fv;
+
+/**
+ * Handle to a fixed size mat4 array uniform (e.g. joint matrices).
+ */
+public class Matrix4fArrayUniform extends Uniform {
+
+    private float[] value;
+
+    private float[] scratch;
+
+    public Matrix4fArrayUniform(int location, int size) {
+        super(location);
+        value = new float[16 * size];
+        scratch = new float[16 * size];
+    }
+
+    /**
+     * Sets the matrices of the array. Extra matrices are ignored, and elements past the given
+     * matrices keep their current value.
+     * @param matrices The matrices to upload.
+     */
+    public void set(Matrix4f[] matrices) {
+        int length = matrices != null ? Math.min(matrices.length, value.length / 16) : 0;
+        System.arraycopy(value, 16 * length, scratch, 16 * length, value.length - 16 * length);
+        for (int i = 0; i < length; i++) {
+            matrices[i].get(scratch, 16 * i);
+        }
+        if (hasValue && Arrays.equals(value, scratch)) {
+            return;
+        }
+        float[] swap = value;
+        value = scratch;
+        scratch = swap;
+        hasValue = true;
+        glUniformMatrix4fv(location, false, value);
+        RenderStats.countUniformUpload();
+    }
+}
@@ -0,0 +1,38 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.rendering.RenderStats;
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL20.glUniformMatrix4fv;
+
+/**
+ * Handle to a mat4 uniform.
+ */
+public class Matrix4fUniform extends Uniform {
+
+    private float[] value;
+
+    private float[] scratch;
+
+    public Matrix4fUniform(int location) {
+        super(location);
+        value = new float[16];
+        scratch = new float[16];
+    }
+
+    public void set(Matrix4f matrix) {
+        matrix.get(scratch);
+        if (hasValue && Arrays.equals(value, scratch)) {
+            return;
+        }
+        // Keep the new value, reusing the old array as the next scratch
+        float[] swap = value;
+        value = scratch;
+        scratch = swap;
+        hasValue = true;
+        glUniformMatrix4fv(location, false, value);
+        RenderStats.countUniformUpload();
+    }
+}
@@ -0,0 +1,51 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.lighting.PointLight;
+import com.zcking.furyengine.rendering.ShaderProgram;
+import org.joml.Vector3f;
+
+/**
+ * Handles to the fields of a PointLight struct uniform.
+ */
+public class PointLightUniform {
+
+    private final Vector3fUniform color;
+
+    private final Vector3fUniform position;
+
+    private final FloatUniform intensity;
+
+    private final FloatUniform attConstant;
+
+    private final FloatUniform attLinear;
+
+    private final FloatUniform attExponent;
+
+    public PointLightUniform(ShaderProgram shaderProgram, String uniformName) throws Exception {
+        color = shaderProgram.createVector3fUniform(uniformName + ".color");
+        position = shaderProgram.createVector3fUniform(uniformName + ".position");
+        intensity = shaderProgram.createFloatUniform(uniformName + ".intensity");
+        attConstant = shaderProgram.createFloatUniform(uniformName + ".att.constant");
+        attLinear = shaderProgram.createFloatUniform(uniformName + ".att.linear");
+        attExponent = shaderProgram.createFloatUniform(uniformName + ".att.exponent");
+    }
+
+    public void set(PointLight pointLight) {
+        set(pointLight, pointLight.getPosition());
+    }
+
+    /**
+     * Sets the light, overriding its position (e.g. with the position in view coordinates).
+     * @param pointLight The light to set.
+     * @param lightPosition The position to use instead of the light's position.
+     */
+    public void set(PointLight pointLight, Vector3f lightPosition) {
+        color.set(pointLight.getColor());
+        position.set(lightPosition);
+        intensity.set(pointLight.getIntensity());
+        PointLight.Attenuation att = pointLight.getAttenuation();
+        attConstant.set(att.getConstant());
+        attLinear.set(att.getLinear());
+        attExponent.set(att.getExponent());
+    }
+}
@@ -0,0 +1,39 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.lighting.SpotLight;
+import com.zcking.furyengine.rendering.ShaderProgram;
+import org.joml.Vector3f;
+
+/**
+ * Handles to the fields of a SpotLight struct uniform.
+ */
+public class SpotLightUniform {
+
+    private final PointLightUniform pointLight;
+
+    private final Vector3fUniform coneDir;
+
+    private final FloatUniform cutOff;
+
+    public SpotLightUniform(ShaderProgram shaderProgram, String uniformName) throws Exception {
+        pointLight = new PointLightUniform(shaderProgram, uniformName + ".pointLight");
+        coneDir = shaderProgram.createVector3fUniform(uniformName + ".coneDir");
+        cutOff = shaderProgram.createFloatUniform(uniformName + ".cutOff");
+    }
+
+    public void set(SpotLight spotLight) {
+        set(spotLight, spotLight.getPointLight().getPosition(), spotLight.getConeDirection());
+    }
+
+    /**
+     * Sets the light, overriding its position and cone direction (e.g. with values in view coordinates).
+     * @param spotLight The light to set.
+     * @param lightPosition The position to use instead of the light's position.
+     * @param coneDirection The cone direction to use instead of the light's cone direction.
+     */
+    public void set(SpotLight spotLight, Vector3f lightPosition, Vector3f coneDirection) {
+        pointLight.set(spotLight.getPointLight(), lightPosition);
+        coneDir.set(coneDirection);
+        cutOff.set(spotLight.getCutOff());
+    }
+}
@@ -0,0 +1,29 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+/**
+ * A handle to a uniform of a linked shader program. The location is resolved once, when the
+ * handle is created, and each typed handle remembers the last value it uploaded so setting
+ * an unchanged value doesn't reach OpenGL.
+ */
+public abstract class Uniform {
+
+    protected final int location;
+
+    protected boolean hasValue;
+
+    protected Uniform(int location) {
+        this.location = location;
+    }
+
+    public int getLocation() {
+        return location;
+    }
+
+    /**
+     * Forgets the last uploaded value, so the next set always reaches OpenGL
+     * (e.g. after the program has been re-linked).
+     */
+    public void invalidate() {
+        hasValue = false;
+    }
+}
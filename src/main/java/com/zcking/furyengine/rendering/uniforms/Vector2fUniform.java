@@ -0,0 +1,28 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.rendering.RenderStats;
+
+import static org.lwjgl.opengl.GL20.glUniform2f;
+
+/**
+ * Handle to a vec2 uniform.
+ */
+public class Vector2fUniform extends Uniform {
+
+    private float x, y;
+
+    public Vector2fUniform(int location) {
+        super(location);
+    }
+
+    public void set(float x, float y) {
+        if (hasValue && this.x == x && this.y == y) {
+            return;
+        }
+        this.x = x;
+        this.y = y;
+        hasValue = true;
+        glUniform2f(location, x, y);
+        RenderStats.countUniformUpload();
+    }
+}
@@ -0,0 +1,34 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.rendering.RenderStats;
+import org.joml.Vector3f;
+
+import static org.lwjgl.opengl.GL20.glUniform3f;
+
+/**
+ * Handle to a vec3 uniform.
+ */
+public class Vector3fUniform extends Uniform {
+
+    private float x, y, z;
+
+    public Vector3fUniform(int location) {
+        super(location);
+    }
+
+    public void set(Vector3f value) {
+        set(value.x, value.y, value.z);
+    }
+
+    public void set(float x, float y, float z) {
+        if (hasValue && this.x == x && this.y == y && this.z == z) {
+            return;
+        }
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        hasValue = true;
+        glUniform3f(location, x, y, z);
+        RenderStats.countUniformUpload();
+    }
+}
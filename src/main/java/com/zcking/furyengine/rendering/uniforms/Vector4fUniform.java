@@ -0,0 +1,35 @@
+package com.zcking.furyengine.rendering.uniforms;
+
+import com.zcking.furyengine.rendering.RenderStats;
+import org.joml.Vector4f;
+
+import static org.lwjgl.opengl.GL20.glUniform4f;
+
+/**
+ * Handle to a vec4 uniform.
+ */
+public class Vector4fUniform extends Uniform {
+
+    private float x, y, z, w;
+
+    public Vector4fUniform(int location) {
+        super(location);
+    }
+
+    public void set(Vector4f value) {
+        set(value.x, value.y, value.z, value.w);
+    }
+
+    public void set(float x, float y, float z, float w) {
+        if (hasValue && this.x == x && this.y == y && this.z == z && this.w == w) {
+            return;
+        }
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+        hasValue = true;
+        glUniform4f(location, x, y, z, w);
+        RenderStats.countUniformUpload();
+    }
+}
@@ -0,0 +1,279 @@
+package com.zcking.furyengine.utils;
+
+import com.zcking.furyengine.rendering.TextureContainer;
+import de.matthiasmann.twl.utils.PNGDecoder;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Build-time converter from PNGs to {@link TextureContainer}s. Every mip level is baked with a box
+ * filter, and optionally block compressed. Run with:
+ * <pre>
+ * TextureCompiler [inputDir] [outputDir] [format]
+ * </pre>
+ * where the input directory defaults to src/main/resources/textures, the output directory to the
+ * input directory, and the format to "auto" (BC1 for opaque images, BC3 for images with alpha).
+ * The other formats are "rgba" (uncompressed), "bc1", "bc3" and "bc5" (red and green channels only).
+ * The "compile-textures" Maven profile runs it on the project's textures.
+ */
+public class TextureCompiler {
+
+    public static void main(String[] args) throws Exception {
+        Path inputDir = Paths.get(args.length > 0 ? args[0] : "src/main/resources/textures");
+        Path outputDir = args.length > 1 ? Paths.get(args[1]) : inputDir;
+        String mode = args.length > 2 ? args[2] : "auto";
+
+        List<Path> pngs;
+        try (Stream<Path> files = Files.walk(inputDir)) {
+            pngs = files.filter(path -> path.toString().toLowerCase().endsWith(".png")).collect(Collectors.toList());
+        }
+        for (Path png : pngs) {
+            String containerName = TextureContainer.getContainerPath(inputDir.relativize(png).toString().replace('\\', '/'));
+            Path output = outputDir.resolve(containerName);
+            if (output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+            compile(png, output, mode);
+            System.out.println("Compiled " + png + " to " + output);
+        }
+    }
+
+    /**
+     * Converts a PNG to a texture container.
+     * @param png The path of the PNG.
+     * @param output The path of the container to write.
+     * @param mode The format of the container: "auto", "rgba", "bc1", "bc3" or "bc5".
+     * @throws Exception If the PNG can't be read or the container written.
+     */
+    public static void compile(Path png, Path output, String mode) throws Exception {
+        int width;
+        int height;
+        ByteBuffer pixels;
+        try (InputStream is = Files.newInputStream(png)) {
+            PNGDecoder decoder = new PNGDecoder(is);
+            width = decoder.getWidth();
+            height = decoder.getHeight();
+            pixels = ByteBuffer.allocate(4 * width * height);
+            decoder.decode(pixels, width * 4, PNGDecoder.Format.RGBA);
+            pixels.flip();
+        }
+
+        int format = getFormat(mode, pixels);
+        List<ByteBuffer> levels = new ArrayList<>();
+        int levelWidth = width;
+        int levelHeight = height;
+        ByteBuffer level = pixels;
+        while (true) {
+            levels.add(encode(level, levelWidth, levelHeight, format));
+            if (levelWidth == 1 && levelHeight == 1) {
+                break;
+            }
+            int nextWidth = Math.max(levelWidth / 2, 1);
+            int nextHeight = Math.max(levelHeight / 2, 1);
+            level = downsample(level, levelWidth, levelHeight, nextWidth, nextHeight);
+            levelWidth = nextWidth;
+            levelHeight = nextHeight;
+        }
+        TextureContainer.write(output, format, width, height, levels);
+    }
+
+    private static int getFormat(String mode, ByteBuffer pixels) throws Exception {
+        switch (mode) {
+            case "rgba":
+                return TextureContainer.FORMAT_RGBA8;
+            case "bc1":
+                return TextureContainer.FORMAT_BC1;
+            case "bc3":
+                return TextureContainer.FORMAT_BC3;
+            case "bc5":
+                return TextureContainer.FORMAT_BC5;
+            case "auto":
+                for (int i = 3; i < pixels.limit(); i += 4) {
+                    if ((pixels.get(i) & 0xFF) != 0xFF) {
+                        return TextureContainer.FORMAT_BC3;
+                    }
+                }
+                return TextureContainer.FORMAT_BC1;
+            default:
+                throw new Exception("Unknown texture format: " + mode);
+        }
+    }
+
+    /**
+     * Halves an RGBA image with a box filter, clamping at odd edges.
+     */
+    private static ByteBuffer downsample(ByteBuffer src, int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        ByteBuffer dst = ByteBuffer.allocate(4 * dstWidth * dstHeight);
+        for (int y = 0; y < dstHeight; y++) {
+            int y0 = Math.min(y * 2, srcHeight - 1);
+            int y1 = Math.min(y * 2 + 1, srcHeight - 1);
+            for (int x = 0; x < dstWidth; x++) {
+                int x0 = Math.min(x * 2, srcWidth - 1);
+                int x1 = Math.min(x * 2 + 1, srcWidth - 1);
+                for (int c = 0; c < 4; c++) {
+                    int sum = (src.get((y0 * srcWidth + x0) * 4 + c) & 0xFF)
+                            + (src.get((y0 * srcWidth + x1) * 4 + c) & 0xFF)
+                            + (src.get((y1 * srcWidth + x0) * 4 + c) & 0xFF)
+                            + (src.get((y1 * srcWidth + x1) * 4 + c) & 0xFF);
+                    dst.put((y * dstWidth + x) * 4 + c, (byte) ((sum + 2) / 4));
+                }
+            }
+        }
+        return dst;
+    }
+
+    private static ByteBuffer encode(ByteBuffer pixels, int width, int height, int format) {
+        if (format == TextureContainer.FORMAT_RGBA8) {
+            return pixels.duplicate();
+        }
+
+        int blocksX = (width + 3) / 4;
+        int blocksY = (height + 3) / 4;
+        int blockSize = format == TextureContainer.FORMAT_BC1 ? 8 : 16;
+        ByteBuffer out = ByteBuffer.allocate(blocksX * blocksY * blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        int[][] block = new int[4][16];
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                // Gather the block's pixels, clamping the ones past the image's edges
+                for (int i = 0; i < 16; i++) {
+                    int x = Math.min(bx * 4 + (i & 3), width - 1);
+                    int y = Math.min(by * 4 + (i >> 2), height - 1);
+                    for (int c = 0; c < 4; c++) {
+                        block[c][i] = pixels.get((y * width + x) * 4 + c) & 0xFF;
+                    }
+                }
+                switch (format) {
+                    case TextureContainer.FORMAT_BC1:
+                        encodeColorBlock(block, out);
+                        break;
+                    case TextureContainer.FORMAT_BC3:
+                        encodeChannelBlock(block[3], out);
+                        encodeColorBlock(block, out);
+                        break;
+                    default:
+                        encodeChannelBlock(block[0], out);
+                        encodeChannelBlock(block[1], out);
+                        break;
+                }
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Encodes a BC1 colour block, with the endpoints at the corners of the block's colour bounding box.
+     */
+    private static void encodeColorBlock(int[][] block, ByteBuffer out) {
+        int minR = 255, minG = 255, minB = 255;
+        int maxR = 0, maxG = 0, maxB = 0;
+        for (int i = 0; i < 16; i++) {
+            minR = Math.min(minR, block[0][i]);
+            minG = Math.min(minG, block[1][i]);
+            minB = Math.min(minB, block[2][i]);
+            maxR = Math.max(maxR, block[0][i]);
+            maxG = Math.max(maxG, block[1][i]);
+            maxB = Math.max(maxB, block[2][i]);
+        }
+        int c0 = toRgb565(maxR, maxG, maxB);
+        int c1 = toRgb565(minR, minG, minB);
+        if (c0 < c1) {
+            int swap = c0;
+            c0 = c1;
+            c1 = swap;
+        }
+
+        int indices = 0;
+        if (c0 != c1) {
+            // The four colour palette: c0, c1, 2/3 c0 + 1/3 c1 and 1/3 c0 + 2/3 c1
+            int[][] palette = new int[4][3];
+            fromRgb565(c0, palette[0]);
+            fromRgb565(c1, palette[1]);
+            for (int c = 0; c < 3; c++) {
+                palette[2][c] = (2 * palette[0][c] + palette[1][c]) / 3;
+                palette[3][c] = (palette[0][c] + 2 * palette[1][c]) / 3;
+            }
+            for (int i = 0; i < 16; i++) {
+                int best = 0;
+                int bestDistance = Integer.MAX_VALUE;
+                for (int p = 0; p < 4; p++) {
+                    int dr = block[0][i] - palette[p][0];
+                    int dg = block[1][i] - palette[p][1];
+                    int db = block[2][i] - palette[p][2];
+                    int distance = dr * dr + dg * dg + db * db;
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = p;
+                    }
+                }
+                indices |= best << (2 * i);
+            }
+        }
+        out.putShort((short) c0);
+        out.putShort((short) c1);
+        out.putInt(indices);
+    }
+
+    /**
+     * Encodes a BC4 single channel block (used for BC3 alpha and both BC5 channels), with the
+     * endpoints at the block's minimum and maximum.
+     */
+    private static void encodeChannelBlock(int[] values, ByteBuffer out) {
+        int min = 255;
+        int max = 0;
+        for (int value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        long indices = 0;
+        if (max != min) {
+            // The eight value palette: max, min, then six values interpolated from max to min
+            int[] palette = new int[8];
+            palette[0] = max;
+            palette[1] = min;
+            for (int p = 2; p < 8; p++) {
+                palette[p] = ((8 - p) * max + (p - 1) * min) / 7;
+            }
+            for (int i = 0; i < 16; i++) {
+                int best = 0;
+                int bestDistance = Integer.MAX_VALUE;
+                for (int p = 0; p < 8; p++) {
+                    int distance = Math.abs(values[i] - palette[p]);
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = p;
+                    }
+                }
+                indices |= (long) best << (3 * i);
+            }
+        }
+        out.put((byte) max);
+        out.put((byte) min);
+        for (int i = 0; i < 6; i++) {
+            out.put((byte) (indices >>> (8 * i)));
+        }
+    }
+
+    private static int toRgb565(int r, int g, int b) {
+        return ((r * 31 + 127) / 255) << 11 | ((g * 63 + 127) / 255) << 5 | ((b * 31 + 127) / 255);
+    }
+
+    private static void fromRgb565(int color, int[] rgb) {
+        int r = (color >> 11) & 0x1F;
+        int g = (color >> 5) & 0x3F;
+        int b = color & 0x1F;
+        rgb[0] = (r << 3) | (r >> 2);
+        rgb[1] = (g << 2) | (g >> 4);
+        rgb[2] = (b << 3) | (b >> 2);
+    }
+}
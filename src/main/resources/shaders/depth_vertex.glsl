@@ -1,5 +1,6 @@
 #version 330
 
+const int MAX_CASCADES = 4;
 const int MAX_WEIGHTS = 4;
 const int MAX_JOINTS = 150;
 
@@ -8,12 +9,35 @@ layout (location = 1) in vec2 texCoord;
 layout (location = 2) in vec3 vertexNormal;
 layout (location = 3) in vec4 jointWeights;
 layout (location = 4) in ivec4 jointIndices;
+layout (location = 5) in mat4 modelInstancedMatrix;
+
+layout (std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    mat4 lightViewMatrix;
+    mat4 cascadeMatrices[MAX_CASCADES];
+    vec4 cascadeSplits;
+    int cascadeCount;
+};
 
 uniform mat4 jointsMatrix[MAX_JOINTS];
 uniform mat4 modelLightViewMatrix;
+uniform int isInstanced;
 uniform mat4 orthoProjectionMatrix;
+// Decoding of quantized positions
+uniform vec3 positionScale;
+uniform vec3 positionOffset;
 
 void main() {
+    mat4 modelLightViewMatrixFinal;
+    if (isInstanced > 0) {
+        modelLightViewMatrixFinal = lightViewMatrix * modelInstancedMatrix;
+    } else {
+        modelLightViewMatrixFinal = modelLightViewMatrix;
+    }
+
+    vec3 decodedPos = positionOffset + position * positionScale;
+
     vec4 initPos = vec4(0, 0, 0, 0);
     int count = 0;
     for (int i = 0; i < MAX_WEIGHTS; i++) {
@@ -21,12 +45,12 @@ void main() {
         if (weight > 0) {
             count++;
             int jointIndex = jointIndices[i];
-            vec4 tmpPos = jointsMatrix[jointIndex] * vec4(position, 1.0);
+            vec4 tmpPos = jointsMatrix[jointIndex] * vec4(decodedPos, 1.0);
             initPos += weight * tmpPos;
         }
     }
     if (count == 0) {
-        initPos = vec4(position, 1.0);
+        initPos = vec4(decodedPos, 1.0);
     }
-    gl_Position = orthoProjectionMatrix * modelLightViewMatrix * initPos;
+    gl_Position = orthoProjectionMatrix * modelLightViewMatrixFinal * initPos;
 }
@@ -7,8 +7,10 @@ layout (location = 2) in vec3 vertexNormal;
 out vec2 outTexCoord;
 
 uniform mat4 projModelMatrix;
+// Maps the texture coordinates into an atlas region: offset (xy) and scale (zw)
+uniform vec4 uvTransform;
 
 void main() {
     gl_Position = projModelMatrix * vec4(position, 1.0);
-    outTexCoord = texCoord;
+    outTexCoord = uvTransform.xy + texCoord * uvTransform.zw;
 }
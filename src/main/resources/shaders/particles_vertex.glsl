@@ -1,25 +1,49 @@
 #version 330
 
+const int MAX_CASCADES = 4;
+
 layout (location = 0) in vec3 position;
 layout (location = 1) in vec2 texCoord;
 layout (location = 2) in vec3 vertexNormal;
+layout (location = 5) in mat4 modelInstancedMatrix;
+layout (location = 9) in vec2 texOffset;
 
 out vec2 outTexCoord;
 
+layout (std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    mat4 lightViewMatrix;
+    mat4 cascadeMatrices[MAX_CASCADES];
+    vec4 cascadeSplits;
+    int cascadeCount;
+};
+
 uniform mat4 modelViewMatrix;
-uniform mat4 projectionMatrix;
+uniform int isInstanced;
 
 uniform float texXOffset;
 uniform float texYOffset;
 uniform int numCols;
 uniform int numRows;
+// Maps the texture coordinates into an atlas region: offset (xy) and scale (zw)
+uniform vec4 uvTransform;
 
 void main() {
-    gl_Position = projectionMatrix * modelViewMatrix * vec4(position, 1.0);
+    mat4 modelViewMatrixFinal;
+    vec2 texOffsetFinal;
+    if (isInstanced > 0) {
+        modelViewMatrixFinal = viewMatrix * modelInstancedMatrix;
+        texOffsetFinal = texOffset;
+    } else {
+        modelViewMatrixFinal = modelViewMatrix;
+        texOffsetFinal = vec2(texXOffset, texYOffset);
+    }
+    gl_Position = projectionMatrix * modelViewMatrixFinal * vec4(position, 1.0);
 
     // Support for texture atlas, update texture coordinates
-    float x = (texCoord.x / numCols + texXOffset);
-    float y = (texCoord.y / numRows + texYOffset);
+    float x = (texCoord.x / numCols + texOffsetFinal.x);
+    float y = (texCoord.y / numRows + texOffsetFinal.y);
 
-    outTexCoord = vec2(x, y);
+    outTexCoord = uvTransform.xy + vec2(x, y) * uvTransform.zw;
 }
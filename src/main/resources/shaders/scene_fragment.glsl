@@ -1,12 +1,12 @@
 #version 330
 
+const int MAX_CASCADES = 4;
 const int MAX_POINT_LIGHTS = 5;
 const int MAX_SPOT_LIGHTS = 5;
 
 in vec2 outTexCoord;
 in vec3 mvVertexNormal;
 in vec3 mvVertexPos;
-in vec4 mLightViewVertexPos;
 in mat4 outModelViewMatrix;
 
 out vec4 fragColor;
@@ -52,16 +52,28 @@ struct Fog {
     float density;
 };
 
+layout (std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    mat4 lightViewMatrix;
+    mat4 cascadeMatrices[MAX_CASCADES];
+    vec4 cascadeSplits;
+    int cascadeCount;
+};
+
+layout (std140) uniform LightData {
+    vec3 ambientLight;
+    float specularPower;
+    DirectionalLight directionalLight;
+    PointLight pointLights[MAX_POINT_LIGHTS];
+    SpotLight spotLights[MAX_SPOT_LIGHTS];
+};
+
 uniform sampler2D textureSampler;
 uniform sampler2D normalMap;
-uniform vec3 ambientLight;
-uniform float specularPower;
 uniform Material material;
-uniform PointLight pointLights[MAX_POINT_LIGHTS];
-uniform SpotLight spotLights[MAX_SPOT_LIGHTS];
-uniform DirectionalLight directionalLight;
 uniform Fog fog;
-uniform sampler2D shadowMap;
+uniform sampler2DArray shadowMap;
 
 vec4 ambientC;
 vec4 diffuseC;
@@ -150,17 +162,41 @@ vec3 calcNormal(Material material, vec3 normal, vec2 text_coord, mat4 modelViewM
     return newNormal;
 }
 
-float calcShadow(vec4 position) {
-    vec3 projCoords = position.xyz;
-    // Transform from screen coordinates to texture coordinates
-    projCoords = projCoords * 0.5 + 0.5;
-    float bias = 0.05;
+float calcShadow(vec3 position) {
+    // Pick the first cascade covering the fragment's view distance
+    float distance = -position.z;
+    int cascade = -1;
+    for (int i = cascadeCount - 1; i >= 0; i--) {
+        if (distance < cascadeSplits[i]) {
+            cascade = i;
+        }
+    }
+    if (cascade < 0) {
+        // Beyond the shadow distance
+        return 1.0;
+    }
+
+    // Cascades that weren't fit this frame may not cover the fragment anymore: fall back on the next ones
+    vec2 inc = 1.0 / textureSize(shadowMap, 0).xy;
+    vec3 projCoords;
+    for (; cascade < cascadeCount; cascade++) {
+        vec4 lightPos = cascadeMatrices[cascade] * vec4(position, 1.0);
+        // Transform from screen coordinates to texture coordinates
+        projCoords = lightPos.xyz * 0.5 + 0.5;
+        if (all(greaterThanEqual(projCoords.xy, inc)) && all(lessThanEqual(projCoords.xy, 1.0 - inc))) {
+            break;
+        }
+    }
+    if (cascade == cascadeCount) {
+        // No cascade covers the fragment
+        return 1.0;
+    }
+    float bias = 0.002;
 
     float shadowFactor = 0.0;
-    vec2 inc = 1.0 / textureSize(shadowMap, 0);
     for(int row = -1; row <= 1; ++row) {
         for(int col = -1; col <= 1; ++col) {
-            float textDepth = texture(shadowMap, projCoords.xy + vec2(row, col) * inc).r;
+            float textDepth = texture(shadowMap, vec3(projCoords.xy + vec2(row, col) * inc, cascade)).r;
             shadowFactor += projCoords.z - bias > textDepth ? 1.0 : 0.0;
         }
     }
@@ -192,7 +228,7 @@ void main() {
         }
     }
 
-    float shadow = calcShadow(mLightViewVertexPos);
+    float shadow = calcShadow(mvVertexPos);
     fragColor = clamp(ambientC * vec4(ambientLight, 1) + diffuseSpecularComp * shadow, 0, 1);
 
     if (fog.enabled == 1) {
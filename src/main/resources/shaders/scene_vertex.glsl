@@ -1,5 +1,6 @@
 #version 330
 
+const int MAX_CASCADES = 4;
 const int MAX_WEIGHTS = 4;
 const int MAX_JOINTS = 150;
 
@@ -8,21 +9,55 @@ layout (location=1) in vec2 texCoord;
 layout (location=2) in vec3 vertexNormal;
 layout (location=3) in vec4 jointWeights;
 layout (location=4) in ivec4 jointIndices;
+layout (location=5) in mat4 modelInstancedMatrix;
 
 out vec2 outTexCoord;
 out vec3 mvVertexNormal;
 out vec3 mvVertexPos;
-out vec4 mLightViewVertexPos;
 out mat4 outModelViewMatrix;
 
+layout (std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    mat4 lightViewMatrix;
+    mat4 cascadeMatrices[MAX_CASCADES];
+    vec4 cascadeSplits;
+    int cascadeCount;
+};
+
 uniform mat4 jointsMatrix[MAX_JOINTS];
 uniform mat4 modelViewMatrix;
-uniform mat4 projectionMatrix;
-uniform mat4 modelLightViewMatrix;
-uniform mat4 orthoProjectionMatrix;
+uniform int isInstanced;
+// Decoding of compact vertex formats
+uniform vec3 positionScale;
+uniform vec3 positionOffset;
+uniform int octNormals;
+
+vec3 decodeOctNormal(vec2 oct)
+{
+    vec3 normal = vec3(oct, 1.0 - abs(oct.x) - abs(oct.y));
+    if (normal.z < 0)
+    {
+        normal.xy = (1.0 - abs(normal.yx)) * vec2(normal.x >= 0 ? 1.0 : -1.0, normal.y >= 0 ? 1.0 : -1.0);
+    }
+    return normalize(normal);
+}
 
 void main()
 {
+    mat4 modelViewMatrixFinal;
+    if (isInstanced > 0)
+    {
+        modelViewMatrixFinal = viewMatrix * modelInstancedMatrix;
+    }
+    else
+    {
+        modelViewMatrixFinal = modelViewMatrix;
+    }
+
+    vec3 decodedPos = positionOffset + position * positionScale;
+    vec3 decodedNormal = octNormals > 0 ? decodeOctNormal(vertexNormal.xy) : vertexNormal;
+
     vec4 initPos = vec4(0, 0, 0, 0);
     vec4 initNormal = vec4(0, 0, 0, 0);
     int count = 0;
@@ -32,26 +67,25 @@ void main()
         if(weight > 0) {
             count++;
             int jointIndex = jointIndices[i];
-            vec4 tmpPos = jointsMatrix[jointIndex] * vec4(position, 1.0);
+            vec4 tmpPos = jointsMatrix[jointIndex] * vec4(decodedPos, 1.0);
             initPos += weight * tmpPos;
 
-            vec4 tmpNormal = jointsMatrix[jointIndex] * vec4(vertexNormal, 0.0);
+            vec4 tmpNormal = jointsMatrix[jointIndex] * vec4(decodedNormal, 0.0);
             initNormal += weight * tmpNormal;
         }
     }
     if (count == 0)
     {
-        initPos = vec4(position, 1.0);
-        initNormal = vec4(vertexNormal, 0.0);
+        initPos = vec4(decodedPos, 1.0);
+        initNormal = vec4(decodedNormal, 0.0);
     }
-    vec4 mvPos = modelViewMatrix * initPos;
+    vec4 mvPos = modelViewMatrixFinal * initPos;
     gl_Position = projectionMatrix * mvPos;
     outTexCoord = texCoord;
 
     // Note here that the MV normal is transformed into MV space coordinates
     // The W component of the normal is set to zero beforehand because translation isn't needed
-    mvVertexNormal = normalize(modelViewMatrix * initNormal).xyz;
+    mvVertexNormal = normalize(modelViewMatrixFinal * initNormal).xyz;
     mvVertexPos = mvPos.xyz;
-    mLightViewVertexPos = orthoProjectionMatrix * modelLightViewMatrix * initPos;
-    outModelViewMatrix = modelViewMatrix;
+    outModelViewMatrix = modelViewMatrixFinal;
 }
\ No newline at end of file
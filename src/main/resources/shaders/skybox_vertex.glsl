@@ -1,15 +1,28 @@
 #version 330
 
+const int MAX_CASCADES = 4;
+
 layout (location = 0) in vec3 position;
 layout (location = 1) in vec2 texCoord;
 layout (location = 2) in vec3 vertexNormal;
 
 out vec2 outTexCoord;
 
-uniform mat4 modelViewMatrix;
-uniform mat4 projectionMatrix;
+layout (std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    mat4 lightViewMatrix;
+    mat4 cascadeMatrices[MAX_CASCADES];
+    vec4 cascadeSplits;
+    int cascadeCount;
+};
+
+uniform mat4 modelMatrix;
 
 void main() {
-    gl_Position = projectionMatrix * modelViewMatrix * vec4(position, 1.0);
+    // The sky box follows the camera, so drop the translation of the view
+    mat4 skyBoxViewMatrix = viewMatrix;
+    skyBoxViewMatrix[3] = vec4(0.0, 0.0, 0.0, 1.0);
+    gl_Position = projectionMatrix * skyBoxViewMatrix * modelMatrix * vec4(position, 1.0);
     outTexCoord = texCoord;
 }
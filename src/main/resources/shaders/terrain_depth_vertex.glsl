@@ -0,0 +1,53 @@
+#version 330
+
+const int MAX_CASCADES = 4;
+
+// Grid coordinates of the patch's vertices, from 0 to gridResolution along x and z
+layout (location = 0) in vec3 position;
+// Per instance, world x and z of the node's corner, its size and its level
+layout (location = 5) in vec4 nodeData;
+
+layout (std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    mat4 lightViewMatrix;
+    mat4 cascadeMatrices[MAX_CASCADES];
+    vec4 cascadeSplits;
+    int cascadeCount;
+};
+
+uniform sampler2D heightMap;
+// Distance range of the finest level, and the fraction of each level's range after which it morphs
+uniform vec2 lodData;
+// Height of a texture value of 0, and the height difference to a value of 1
+uniform vec2 heightRange;
+uniform vec3 cameraPosition;
+// World x and z of the terrain's corner, and its size
+uniform vec3 terrainData;
+uniform float gridResolution;
+uniform mat4 orthoProjectionMatrix;
+
+float sampleHeight(vec2 worldXZ) {
+    vec2 uv = (worldXZ - terrainData.xy) / terrainData.z;
+    vec2 texSize = vec2(textureSize(heightMap, 0));
+    return heightRange.x + heightRange.y * textureLod(heightMap, (uv * (texSize - 1.0) + 0.5) / texSize, 0).r;
+}
+
+// Each level's range doubles the previous one, and the level morphs towards the end of its range
+float getMorphK(float distance) {
+    float morphEnd = lodData.x * exp2(nodeData.w);
+    float previousEnd = nodeData.w > 0.0 ? morphEnd * 0.5 : 0.0;
+    float morphStart = previousEnd + (morphEnd - previousEnd) * lodData.y;
+    return clamp((distance - morphStart) / (morphEnd - morphStart), 0.0, 1.0);
+}
+
+void main() {
+    // Morph exactly like the scene pass, so shadows match the visible terrain
+    vec2 worldXZ = nodeData.xy + position.xz / gridResolution * nodeData.z;
+    float distance = length(cameraPosition - vec3(worldXZ.x, sampleHeight(worldXZ), worldXZ.y));
+    float morphK = getMorphK(distance);
+
+    vec2 gridPos = position.xz - mod(position.xz, 2.0) * morphK;
+    worldXZ = nodeData.xy + gridPos / gridResolution * nodeData.z;
+    gl_Position = orthoProjectionMatrix * lightViewMatrix * vec4(worldXZ.x, sampleHeight(worldXZ), worldXZ.y, 1.0);
+}
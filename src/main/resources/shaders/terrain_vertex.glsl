@@ -0,0 +1,89 @@
+#version 330
+
+const int MAX_CASCADES = 4;
+
+// Grid coordinates of the patch's vertices, from 0 to gridResolution along x and z
+layout (location=0) in vec3 position;
+// Per instance, world x and z of the node's corner, its size and its level
+layout (location=5) in vec4 nodeData;
+
+out vec2 outTexCoord;
+out vec3 mvVertexNormal;
+out vec3 mvVertexPos;
+out mat4 outModelViewMatrix;
+
+layout (std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    mat4 lightViewMatrix;
+    mat4 cascadeMatrices[MAX_CASCADES];
+    vec4 cascadeSplits;
+    int cascadeCount;
+};
+
+uniform sampler2D heightMap;
+// Distance range of the finest level, and the fraction of each level's range after which it morphs
+uniform vec2 lodData;
+// Height of a texture value of 0, and the height difference to a value of 1
+uniform vec2 heightRange;
+uniform vec3 cameraPosition;
+// World x and z of the terrain's corner, and its size
+uniform vec3 terrainData;
+uniform float gridResolution;
+uniform float textInc;
+
+vec2 toTerrainUv(vec2 worldXZ)
+{
+    return (worldXZ - terrainData.xy) / terrainData.z;
+}
+
+float sampleHeight(vec2 uv)
+{
+    // Map the terrain's edges to the centers of the edge texels, so heights land on the height map's grid
+    vec2 texSize = vec2(textureSize(heightMap, 0));
+    return heightRange.x + heightRange.y * textureLod(heightMap, (uv * (texSize - 1.0) + 0.5) / texSize, 0).r;
+}
+
+// Each level's range doubles the previous one, and the level morphs towards the end of its range
+float getMorphK(float distance)
+{
+    float morphEnd = lodData.x * exp2(nodeData.w);
+    float previousEnd = nodeData.w > 0.0 ? morphEnd * 0.5 : 0.0;
+    float morphStart = previousEnd + (morphEnd - previousEnd) * lodData.y;
+    return clamp((distance - morphStart) / (morphEnd - morphStart), 0.0, 1.0);
+}
+
+vec3 getWorldPosition()
+{
+    vec2 worldXZ = nodeData.xy + position.xz / gridResolution * nodeData.z;
+    float height = sampleHeight(toTerrainUv(worldXZ));
+    float distance = length(cameraPosition - vec3(worldXZ.x, height, worldXZ.y));
+    float morphK = getMorphK(distance);
+
+    // Odd vertices slide onto their even neighbour, which is where the coarser level's grid has them
+    vec2 gridPos = position.xz - mod(position.xz, 2.0) * morphK;
+    worldXZ = nodeData.xy + gridPos / gridResolution * nodeData.z;
+    return vec3(worldXZ.x, sampleHeight(toTerrainUv(worldXZ)), worldXZ.y);
+}
+
+void main()
+{
+    vec3 worldPos = getWorldPosition();
+    vec2 uv = toTerrainUv(worldPos.xz);
+
+    // Normal from the central differences of the neighbouring heights
+    vec2 texelUv = 1.0 / (vec2(textureSize(heightMap, 0)) - 1.0);
+    vec2 texelWorld = texelUv * terrainData.z;
+    float hL = sampleHeight(uv - vec2(texelUv.x, 0));
+    float hR = sampleHeight(uv + vec2(texelUv.x, 0));
+    float hB = sampleHeight(uv - vec2(0, texelUv.y));
+    float hF = sampleHeight(uv + vec2(0, texelUv.y));
+    vec3 normal = normalize(vec3((hL - hR) / (2.0 * texelWorld.x), 1.0, (hB - hF) / (2.0 * texelWorld.y)));
+
+    vec4 mvPos = viewMatrix * vec4(worldPos, 1.0);
+    gl_Position = projectionMatrix * mvPos;
+    outTexCoord = uv * textInc;
+    mvVertexNormal = normalize(viewMatrix * vec4(normal, 0.0)).xyz;
+    mvVertexPos = mvPos.xyz;
+    outModelViewMatrix = viewMatrix;
+}
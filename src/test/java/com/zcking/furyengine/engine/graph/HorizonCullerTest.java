@@ -0,0 +1,126 @@
+package com.zcking.furyengine.engine.graph;
+
+import com.zcking.furyengine.engine.objects.IHeightField;
+import junit.framework.TestCase;
+import org.joml.Vector3f;
+
+import java.util.HashMap;
+
+/**
+ * Checks the horizon culler against a wall with a narrow notch, narrower than an azimuth bin.
+ */
+public class HorizonCullerTest extends TestCase {
+
+    private static final float MIN_X = -5.0f;
+
+    private static final float MIN_Z = -15.0f;
+
+    private static final float SPACING = 0.05f;
+
+    private static final int WIDTH = 1401;
+
+    private static final int DEPTH = 601;
+
+    private HorizonCuller culler;
+
+    @Override
+    protected void setUp() {
+        // A wall from x = 18 to 26, 50 high, with a valley down to the ground from z = 0.1 to 0.35
+        float[] heights = new float[WIDTH * DEPTH];
+        for (int row = 0; row < DEPTH; row++) {
+            float z = MIN_Z + row * SPACING;
+            for (int col = 0; col < WIDTH; col++) {
+                float x = MIN_X + col * SPACING;
+                boolean wall = x >= 18.0f && x <= 26.0f && !(z >= 0.1f && z <= 0.35f);
+                heights[row * WIDTH + col] = wall ? 50.0f : 0.0f;
+            }
+        }
+        culler = new HorizonCuller();
+        culler.begin(new Vector3f(0, 1, 0), new GridHeightField(heights), new HashMap<>());
+        assertTrue(culler.end());
+    }
+
+    @Override
+    protected void tearDown() {
+        culler.cleanUp();
+    }
+
+    /**
+     * The object's bounds fit in one bin, whose edge rays both hit the wall, but it's seen through the valley.
+     */
+    public void testObjectSeenThroughValleyIsVisible() {
+        assertFalse(culler.isOccluded(new Vector3f(60, 0, 0.4f), new Vector3f(61, 5, 0.8f)));
+    }
+
+    public void testObjectBehindWallIsOccluded() {
+        assertTrue(culler.isOccluded(new Vector3f(60, 0, -6), new Vector3f(61, 5, -5)));
+    }
+
+    public void testObjectAboveWallIsVisible() {
+        assertFalse(culler.isOccluded(new Vector3f(60, 0, -6), new Vector3f(61, 200, -5)));
+    }
+
+    public void testObjectInFrontOfWallIsVisible() {
+        assertFalse(culler.isOccluded(new Vector3f(10, 0, -6), new Vector3f(11, 1, -5)));
+    }
+
+    /**
+     * A bilinear grid of heights.
+     */
+    private static class GridHeightField implements IHeightField {
+
+        private final float[] heights;
+
+        GridHeightField(float[] heights) {
+            this.heights = heights;
+        }
+
+        @Override
+        public float getHeight(float x, float z) {
+            float col = Math.max(0, Math.min((x - MIN_X) / SPACING, WIDTH - 1));
+            float row = Math.max(0, Math.min((z - MIN_Z) / SPACING, DEPTH - 1));
+            int col0 = Math.min((int) col, WIDTH - 2);
+            int row0 = Math.min((int) row, DEPTH - 2);
+            float fx = col - col0;
+            float fz = row - row0;
+            int i = row0 * WIDTH + col0;
+            return (heights[i] * (1 - fx) + heights[i + 1] * fx) * (1 - fz)
+                    + (heights[i + WIDTH] * (1 - fx) + heights[i + WIDTH + 1] * fx) * fz;
+        }
+
+        @Override
+        public float getMinHeight(float minX, float minZ, float maxX, float maxZ) {
+            int col0 = Math.max((int) Math.floor((minX - MIN_X) / SPACING), 0);
+            int col1 = Math.min((int) Math.floor((maxX - MIN_X) / SPACING) + 1, WIDTH - 1);
+            int row0 = Math.max((int) Math.floor((minZ - MIN_Z) / SPACING), 0);
+            int row1 = Math.min((int) Math.floor((maxZ - MIN_Z) / SPACING) + 1, DEPTH - 1);
+            float min = Float.POSITIVE_INFINITY;
+            for (int row = row0; row <= row1; row++) {
+                for (int col = col0; col <= col1; col++) {
+                    min = Math.min(min, heights[row * WIDTH + col]);
+                }
+            }
+            return min;
+        }
+
+        @Override
+        public float getMinX() {
+            return MIN_X;
+        }
+
+        @Override
+        public float getMinZ() {
+            return MIN_Z;
+        }
+
+        @Override
+        public float getMaxX() {
+            return MIN_X + (WIDTH - 1) * SPACING;
+        }
+
+        @Override
+        public float getMaxZ() {
+            return MIN_Z + (DEPTH - 1) * SPACING;
+        }
+    }
+}
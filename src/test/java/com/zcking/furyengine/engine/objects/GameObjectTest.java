@@ -0,0 +1,43 @@
+package com.zcking.furyengine.engine.objects;
+
+import junit.framework.TestCase;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+/**
+ * Checks the game object's rotation getters and its cached model matrix.
+ */
+public class GameObjectTest extends TestCase {
+
+    public void testEulerRotationRoundTrip() {
+        GameObject gameObject = new GameObject();
+        gameObject.setRotation(30, -45, 60);
+        Vector3f rotation = gameObject.getRotation();
+        assertEquals(30, rotation.x, 1e-3f);
+        assertEquals(-45, rotation.y, 1e-3f);
+        assertEquals(60, rotation.z, 1e-3f);
+    }
+
+    public void testQuaternionRotation() {
+        GameObject gameObject = new GameObject();
+        gameObject.setRotation(new Quaternionf().rotationY((float) Math.toRadians(-40)));
+        assertEquals(40, gameObject.getRotation().y, 1e-3f);
+        assertEquals(1, gameObject.getRotationQuaternion().lengthSquared(), 1e-5f);
+    }
+
+    public void testModelMatrixFollowsSetters() {
+        GameObject gameObject = new GameObject();
+        gameObject.setPosition(1, 2, 3);
+        gameObject.setRotation(0, 90, 0);
+        gameObject.setScale(2);
+        Vector3f point = gameObject.getModelMatrix().transformPosition(new Vector3f(1, 0, 0));
+        Vector3f expected = new Vector3f(1, 0, 0).rotate(gameObject.getRotationQuaternion()).mul(2).add(1, 2, 3);
+        assertEquals(expected.x, point.x, 1e-5f);
+        assertEquals(expected.y, point.y, 1e-5f);
+        assertEquals(expected.z, point.z, 1e-5f);
+
+        gameObject.setPosition(0, 0, 0);
+        point = gameObject.getModelMatrix().transformPosition(new Vector3f(1, 0, 0));
+        assertEquals(expected.x - 1, point.x, 1e-5f);
+    }
+}
@@ -0,0 +1,53 @@
+package com.zcking.furyengine.engine.objects;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that procedural tiles meet their neighbours without cracks, with erosion on.
+ */
+public class ProceduralTileSourceTest extends TestCase {
+
+    private static final int TILE_SIZE = 16;
+
+    private ProceduralTileSource source;
+
+    @Override
+    protected void setUp() {
+        source = new ProceduralTileSource(new NoiseHeightFunction(5, 4, 0.05f, 20.0f), TILE_SIZE, 1.0f, 4, 0.3f, null);
+    }
+
+    public void testHorizontalNeighboursShareEdges() {
+        for (int tileX = -1; tileX <= 1; tileX++) {
+            float[] left = source.generateTile(tileX, 0);
+            float[] right = source.generateTile(tileX + 1, 0);
+            for (int row = 0; row <= TILE_SIZE; row++) {
+                assertEquals(left[row * (TILE_SIZE + 1) + TILE_SIZE], right[row * (TILE_SIZE + 1)]);
+            }
+        }
+    }
+
+    public void testVerticalNeighboursShareEdges() {
+        for (int tileZ = -1; tileZ <= 1; tileZ++) {
+            float[] top = source.generateTile(0, tileZ);
+            float[] bottom = source.generateTile(0, tileZ + 1);
+            for (int col = 0; col <= TILE_SIZE; col++) {
+                assertEquals(top[TILE_SIZE * (TILE_SIZE + 1) + col], bottom[col]);
+            }
+        }
+    }
+
+    /**
+     * The erosion must actually change the tiles, or the seams test proves nothing.
+     */
+    public void testErosionChangesHeights() {
+        ProceduralTileSource uneroded = new ProceduralTileSource(new NoiseHeightFunction(5, 4, 0.05f, 20.0f),
+                TILE_SIZE, 1.0f);
+        float[] eroded = source.generateTile(0, 0);
+        float[] raw = uneroded.generateTile(0, 0);
+        boolean changed = false;
+        for (int i = 0; i < raw.length; i++) {
+            changed |= raw[i] != eroded[i];
+        }
+        assertTrue(changed);
+    }
+}
@@ -0,0 +1,99 @@
+package com.zcking.furyengine.engine.objects;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes heightfields and reads their tiles back.
+ */
+public class RawHeightfieldTest extends TestCase {
+
+    private static final int TILE_SIZE = 4;
+
+    private static final int TILES_X = 3;
+
+    private static final int TILES_Z = 2;
+
+    private static final int WIDTH = TILES_X * TILE_SIZE + 1;
+
+    private static final int DEPTH = TILES_Z * TILE_SIZE + 1;
+
+    private Path file;
+
+    private float[] heights;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Files.createTempFile("heightfield", RawHeightfield.EXTENSION);
+        heights = new float[WIDTH * DEPTH];
+        for (int row = 0; row < DEPTH; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                heights[row * WIDTH + col] = (float) Math.sin(col * 0.7) * 20.0f + row * 1.5f - 10.0f;
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    public void testFloatRoundTrip() throws Exception {
+        RawHeightfield.write(file, RawHeightfield.FORMAT_FLOAT32, heights, WIDTH, DEPTH, TILE_SIZE, 2.0f);
+        checkTiles(0.0f);
+    }
+
+    /**
+     * 16-bit heights are quantized over the range of the heights.
+     */
+    public void testUint16RoundTrip() throws Exception {
+        RawHeightfield.write(file, RawHeightfield.FORMAT_UINT16, heights, WIDTH, DEPTH, TILE_SIZE, 2.0f);
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (float height : heights) {
+            min = Math.min(min, height);
+            max = Math.max(max, height);
+        }
+        checkTiles((max - min) / 65535.0f);
+    }
+
+    public void testRejectsTruncatedFile() throws Exception {
+        RawHeightfield.write(file, RawHeightfield.FORMAT_FLOAT32, heights, WIDTH, DEPTH, TILE_SIZE, 2.0f);
+        byte[] data = Files.readAllBytes(file);
+        Files.write(file, java.util.Arrays.copyOf(data, data.length - 4));
+        try {
+            new RawHeightfield(file).close();
+            fail("A truncated heightfield was opened");
+        } catch (Exception ex) {
+            assertTrue(ex.getMessage().startsWith("Truncated heightfield"));
+        }
+    }
+
+    private void checkTiles(float tolerance) throws Exception {
+        RawHeightfield heightfield = new RawHeightfield(file);
+        try {
+            assertEquals(TILE_SIZE, heightfield.getTileSize());
+            assertEquals(TILES_X, heightfield.getTilesX());
+            assertEquals(TILES_Z, heightfield.getTilesZ());
+            assertEquals(2.0f, heightfield.getSampleSpacing());
+            assertFalse(heightfield.hasTile(TILES_X, 0));
+            assertFalse(heightfield.hasTile(0, -1));
+            for (int tileZ = 0; tileZ < TILES_Z; tileZ++) {
+                for (int tileX = 0; tileX < TILES_X; tileX++) {
+                    float[] tile = heightfield.loadTile(tileX, tileZ);
+                    assertEquals((TILE_SIZE + 1) * (TILE_SIZE + 1), tile.length);
+                    for (int row = 0; row <= TILE_SIZE; row++) {
+                        for (int col = 0; col <= TILE_SIZE; col++) {
+                            float expected = heights[(tileZ * TILE_SIZE + row) * WIDTH + tileX * TILE_SIZE + col];
+                            assertEquals(expected, tile[row * (TILE_SIZE + 1) + col], tolerance);
+                        }
+                    }
+                }
+            }
+        } finally {
+            heightfield.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.zcking.furyengine.engine.objects;
+
+import com.zcking.furyengine.rendering.HeightMapMesh;
+import com.zcking.furyengine.rendering.Mesh;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Checks the terrain's height queries against the triangles its mesh is drawn with.
+ */
+public class TerrainTest extends TestCase {
+
+    private static final int TERRAIN_SIZE = 2;
+
+    private static final float SCALE = 10.0f;
+
+    private static final int WIDTH = 5;
+
+    private static final int DEPTH = 4;
+
+    private float[] heights;
+
+    private Terrain terrain;
+
+    @Override
+    protected void setUp() {
+        Random random = new Random(42);
+        heights = new float[WIDTH * DEPTH];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = random.nextFloat() * 2.0f - 1.0f;
+        }
+        terrain = new Terrain(TERRAIN_SIZE, SCALE, heights, WIDTH, DEPTH, null);
+    }
+
+    /**
+     * Samples points inside both triangles of every cell of every block, and compares the terrain's
+     * height with the plane of the triangle, built from the mesh's vertices and triangle strips.
+     */
+    public void testGetHeightMatchesMeshTriangles() {
+        int[] strips = Mesh.createGridStripIndices(WIDTH, DEPTH);
+        float[][] weights = { { 1 / 3.0f, 1 / 3.0f, 1 / 3.0f }, { 0.6f, 0.2f, 0.2f }, { 0.1f, 0.1f, 0.8f } };
+        float[] a = new float[3];
+        float[] b = new float[3];
+        float[] c = new float[3];
+        int triangles = 0;
+        for (int blockZ = 0; blockZ < TERRAIN_SIZE; blockZ++) {
+            for (int blockX = 0; blockX < TERRAIN_SIZE; blockX++) {
+                int stripStart = 0;
+                for (int i = 0; i < strips.length; i++) {
+                    if (strips[i] == -1) {
+                        stripStart = i + 1;
+                        continue;
+                    }
+                    if (i - stripStart < 2) {
+                        continue;
+                    }
+                    getWorldVertex(strips[i - 2], blockX, blockZ, a);
+                    getWorldVertex(strips[i - 1], blockX, blockZ, b);
+                    getWorldVertex(strips[i], blockX, blockZ, c);
+                    for (float[] w : weights) {
+                        float x = a[0] * w[0] + b[0] * w[1] + c[0] * w[2];
+                        float y = a[1] * w[0] + b[1] * w[1] + c[1] * w[2];
+                        float z = a[2] * w[0] + b[2] * w[1] + c[2] * w[2];
+                        assertEquals("Height at " + x + ", " + z, y, terrain.getHeight(x, z), 1e-4f);
+                    }
+                    triangles++;
+                }
+            }
+        }
+        assertEquals(TERRAIN_SIZE * TERRAIN_SIZE * (WIDTH - 1) * (DEPTH - 1) * 2, triangles);
+    }
+
+    public void testGetHeightOutside() {
+        assertEquals(Float.MIN_VALUE, terrain.getHeight(terrain.getMinX() - 1, 0));
+        assertEquals(Float.MIN_VALUE, terrain.getHeight(0, terrain.getMaxZ() + 1));
+    }
+
+    /**
+     * Enough coordinates for the batch to be split across the fork-join pool.
+     */
+    public void testGetHeightsMatchesGetHeight() {
+        Random random = new Random(7);
+        int count = 10000;
+        float[] xs = new float[count];
+        float[] zs = new float[count];
+        float[] out = new float[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = terrain.getMinX() + random.nextFloat() * (terrain.getMaxX() - terrain.getMinX());
+            zs[i] = terrain.getMinZ() + random.nextFloat() * (terrain.getMaxZ() - terrain.getMinZ());
+        }
+        terrain.getHeights(xs, zs, out);
+        for (int i = 0; i < count; i++) {
+            assertEquals(terrain.getHeight(xs[i], zs[i]), out[i]);
+        }
+    }
+
+    /**
+     * Places a vertex of the height map mesh like the terrain's block game objects do.
+     */
+    /**
+     * The lower bound over random rectangles, across blocks, must be below every height inside them.
+     */
+    public void testGetMinHeightIsLowerBound() {
+        Random random = new Random(7);
+        float sizeX = terrain.getMaxX() - terrain.getMinX();
+        float sizeZ = terrain.getMaxZ() - terrain.getMinZ();
+        for (int i = 0; i < 1000; i++) {
+            float minX = terrain.getMinX() + random.nextFloat() * sizeX * 0.9f;
+            float minZ = terrain.getMinZ() + random.nextFloat() * sizeZ * 0.9f;
+            float maxX = minX + random.nextFloat() * sizeX * 0.1f;
+            float maxZ = minZ + random.nextFloat() * sizeZ * 0.1f;
+            float minHeight = terrain.getMinHeight(minX, minZ, maxX, maxZ);
+            for (int j = 0; j < 20; j++) {
+                float x = minX + random.nextFloat() * (maxX - minX);
+                float z = minZ + random.nextFloat() * (maxZ - minZ);
+                assertTrue(minHeight <= terrain.getHeight(x, z));
+            }
+        }
+    }
+
+    private void getWorldVertex(int vertex, int blockX, int blockZ, float[] out) {
+        int col = vertex % WIDTH;
+        int row = vertex / WIDTH;
+        float localX = HeightMapMesh.STARTX + col * HeightMapMesh.getXLength() / (WIDTH - 1);
+        float localZ = HeightMapMesh.STARTZ + row * HeightMapMesh.getZLength() / (DEPTH - 1);
+        out[0] = localX * SCALE + (blockX - (TERRAIN_SIZE - 1) / 2.0f) * SCALE * HeightMapMesh.getXLength();
+        out[1] = heights[vertex] * SCALE;
+        out[2] = localZ * SCALE + (blockZ - (TERRAIN_SIZE - 1) / 2.0f) * SCALE * HeightMapMesh.getZLength();
+    }
+}
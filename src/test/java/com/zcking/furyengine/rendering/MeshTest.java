@@ -0,0 +1,61 @@
+package com.zcking.furyengine.rendering;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Checks the octahedral normal encoding used by compact vertex formats, and the sizes of mesh buffers.
+ */
+public class MeshTest extends TestCase {
+
+    public void testOctahedralRoundTrip() {
+        Random random = new Random(11);
+        float[] values = new float[3];
+        for (int i = 0; i < 10000; i++) {
+            float x = (float) random.nextGaussian();
+            float y = (float) random.nextGaussian();
+            float z = (float) random.nextGaussian();
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+            x /= length;
+            y /= length;
+            z /= length;
+            values[0] = x;
+            values[1] = y;
+            values[2] = z;
+
+            Mesh.encodeOctahedral(values);
+            assertTrue(Math.abs(values[0]) <= 1 && Math.abs(values[1]) <= 1);
+            Mesh.decodeOctahedral(values);
+            assertEquals(x, values[0], 1e-5f);
+            assertEquals(y, values[1], 1e-5f);
+            assertEquals(z, values[2], 1e-5f);
+        }
+    }
+
+    /**
+     * 70 million vertices of 32 bytes overflow an int, and must be rejected rather than wrap around.
+     */
+    public void testBufferSizeOverflow() {
+        assertEquals(32L * 1000000, Mesh.getBufferSize(1000000, 32));
+        try {
+            Mesh.getBufferSize(70000000, 32);
+            fail("A buffer larger than an int can address was accepted");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+
+    public void testOctahedralAxes() {
+        float[][] axes = { { 1, 0, 0 }, { -1, 0, 0 }, { 0, 1, 0 }, { 0, -1, 0 }, { 0, 0, 1 }, { 0, 0, -1 } };
+        float[] values = new float[3];
+        for (float[] axis : axes) {
+            System.arraycopy(axis, 0, values, 0, 3);
+            Mesh.encodeOctahedral(values);
+            Mesh.decodeOctahedral(values);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(axis[i], values[i], 1e-6f);
+            }
+        }
+    }
+}
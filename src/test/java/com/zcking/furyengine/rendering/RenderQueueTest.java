@@ -0,0 +1,85 @@
+package com.zcking.furyengine.rendering;
+
+import com.zcking.furyengine.engine.objects.GameObject;
+import junit.framework.TestCase;
+
+/**
+ * Checks that the render queue's keys sort draws by pass, then shader, material, mesh and depth.
+ */
+public class RenderQueueTest extends TestCase {
+
+    private static final float MAX_DEPTH = 100.0f;
+
+    public void testKeyFieldPrecedence() {
+        long base = RenderQueue.buildKey(1, 1, 1, 1, 50, MAX_DEPTH);
+        // Each field outweighs every less significant field at its maximum
+        assertTrue(RenderQueue.buildKey(1, 1, 1, 1, 51, MAX_DEPTH) > base);
+        assertTrue(RenderQueue.buildKey(1, 1, 1, 2, 0, MAX_DEPTH) > RenderQueue.buildKey(1, 1, 1, 1, MAX_DEPTH, MAX_DEPTH));
+        assertTrue(RenderQueue.buildKey(1, 1, 2, 0, 0, MAX_DEPTH) > RenderQueue.buildKey(1, 1, 1, 0xFFFF, MAX_DEPTH, MAX_DEPTH));
+        assertTrue(RenderQueue.buildKey(1, 2, 0, 0, 0, MAX_DEPTH) > RenderQueue.buildKey(1, 1, 0xFFFFF, 0xFFFF, MAX_DEPTH, MAX_DEPTH));
+        assertTrue(RenderQueue.buildKey(2, 0, 0, 0, 0, MAX_DEPTH) > RenderQueue.buildKey(1, 0xF, 0xFFFFF, 0xFFFF, MAX_DEPTH, MAX_DEPTH));
+    }
+
+    public void testKeyFieldsRoundTrip() {
+        long key = RenderQueue.buildKey(RenderQueue.shadowPass(2), 3, 1234, 567, 10, MAX_DEPTH);
+        assertEquals(RenderQueue.shadowPass(2), RenderQueue.getPass(key));
+        assertEquals(3, RenderQueue.getShader(key));
+        assertTrue(RenderQueue.isShadowPass(RenderQueue.getPass(key)));
+        assertFalse(RenderQueue.isShadowPass(RenderQueue.PASS_OPAQUE));
+    }
+
+    public void testDepthIsClamped() {
+        assertEquals(RenderQueue.buildKey(0, 0, 0, 0, 0, MAX_DEPTH), RenderQueue.buildKey(0, 0, 0, 0, -5, MAX_DEPTH));
+        assertEquals(RenderQueue.buildKey(0, 0, 0, 0, MAX_DEPTH, MAX_DEPTH),
+                RenderQueue.buildKey(0, 0, 0, 0, MAX_DEPTH * 2, MAX_DEPTH));
+    }
+
+    /**
+     * Enough packets to grow the queue, with keys differing in every byte, sorted and split by pass.
+     */
+    public void testSortOrdersByKeyAndFindsPasses() {
+        RenderQueue queue = new RenderQueue();
+        int count = 1000;
+        long seed = 12345;
+        for (int i = 0; i < count; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            int pass = (int) ((seed >>> 60) % 3);
+            int material = (int) (seed >>> 20) & 0xFFFFF;
+            int mesh = (int) (seed >>> 4) & 0xFFFF;
+            float depth = (seed >>> 40 & 0xFFFF) / (float) 0xFFFF * MAX_DEPTH;
+            queue.add(RenderQueue.buildKey(pass, 0, material, mesh, depth, MAX_DEPTH), null, null);
+        }
+        queue.sort();
+        assertEquals(count, queue.size());
+        for (int i = 1; i < count; i++) {
+            assertTrue("Key " + i + " out of order", queue.getKey(i - 1) <= queue.getKey(i));
+        }
+        for (int pass = 0; pass < 3; pass++) {
+            int start = queue.findPassStart(pass);
+            int end = queue.findPassEnd(pass);
+            for (int i = start; i < end; i++) {
+                assertEquals(pass, RenderQueue.getPass(queue.getKey(i)));
+            }
+            if (pass > 0) {
+                assertEquals(queue.findPassEnd(pass - 1), start);
+            }
+        }
+        assertEquals(count, queue.findPassEnd(2));
+    }
+
+    public void testSortIsStable() {
+        RenderQueue queue = new RenderQueue();
+        long key = RenderQueue.buildKey(0, 1, 2, 3, 4, MAX_DEPTH);
+        GameObject[] gameObjects = new GameObject[10];
+        for (int i = 0; i < gameObjects.length; i++) {
+            gameObjects[i] = new GameObject();
+            queue.add(i % 2 == 0 ? key : key - 1, null, gameObjects[i]);
+        }
+        queue.sort();
+        // The odd packets first, then the even ones, each in the order they were added
+        for (int i = 0; i < 5; i++) {
+            assertSame(gameObjects[i * 2 + 1], queue.getGameObject(i));
+            assertSame(gameObjects[i * 2], queue.getGameObject(i + 5));
+        }
+    }
+}
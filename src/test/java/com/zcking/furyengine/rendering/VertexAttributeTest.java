@@ -0,0 +1,43 @@
+package com.zcking.furyengine.rendering;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Checks the half float conversions used by compact vertex formats.
+ */
+public class VertexAttributeTest extends TestCase {
+
+    public void testExactValuesRoundTrip() {
+        float[] values = { 0.0f, -0.0f, 1.0f, -2.0f, 0.5f, 0.099975586f, 1024.0f, 65504.0f, -65504.0f,
+                6.1035156e-5f, 5.9604645e-8f };
+        for (float value : values) {
+            assertEquals(Float.floatToIntBits(value),
+                    Float.floatToIntBits(VertexAttribute.fromHalfFloat(VertexAttribute.toHalfFloat(value))));
+        }
+    }
+
+    /**
+     * Normal values keep 11 significant bits, rounded to nearest.
+     */
+    public void testRoundingError() {
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            float value = (random.nextFloat() * 2.0f - 1.0f) * 1000.0f;
+            if (Math.abs(value) < 6.1035156e-5f) {
+                continue;
+            }
+            float roundTrip = VertexAttribute.fromHalfFloat(VertexAttribute.toHalfFloat(value));
+            assertEquals(value, roundTrip, Math.abs(value) / 2048.0f);
+        }
+    }
+
+    public void testSpecialValues() {
+        assertEquals(Float.POSITIVE_INFINITY, VertexAttribute.fromHalfFloat(VertexAttribute.toHalfFloat(1e6f)));
+        assertEquals(Float.NEGATIVE_INFINITY,
+                VertexAttribute.fromHalfFloat(VertexAttribute.toHalfFloat(Float.NEGATIVE_INFINITY)));
+        assertTrue(Float.isNaN(VertexAttribute.fromHalfFloat(VertexAttribute.toHalfFloat(Float.NaN))));
+        assertEquals(0.0f, VertexAttribute.fromHalfFloat(VertexAttribute.toHalfFloat(1e-10f)));
+    }
+}